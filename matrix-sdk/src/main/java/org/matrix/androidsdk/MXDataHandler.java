@@ -47,11 +47,18 @@ import org.matrix.androidsdk.rest.client.ProfileRestClient;
 import org.matrix.androidsdk.rest.client.RoomsRestClient;
 import org.matrix.androidsdk.rest.client.ThirdPidRestClient;
 import org.matrix.androidsdk.rest.json.ConditionDeserializer;
+import org.matrix.androidsdk.rest.json.SyncResponseParser;
 import org.matrix.androidsdk.rest.model.Event;
 import org.matrix.androidsdk.rest.model.MatrixError;
 import org.matrix.androidsdk.rest.model.ReceiptData;
 import org.matrix.androidsdk.rest.model.RoomAliasDescription;
 import org.matrix.androidsdk.rest.model.RoomMember;
+import org.matrix.androidsdk.rest.model.RoomResponse;
+import org.matrix.androidsdk.rest.model.Sync.InvitedRoomSync;
+import org.matrix.androidsdk.rest.model.Sync.RoomSync;
+import org.matrix.androidsdk.rest.model.Sync.RoomSyncAccountData;
+import org.matrix.androidsdk.rest.model.Sync.RoomSyncState;
+import org.matrix.androidsdk.rest.model.Sync.RoomSyncTimeline;
 import org.matrix.androidsdk.rest.model.Sync.SyncResponse;
 import org.matrix.androidsdk.rest.model.User;
 import org.matrix.androidsdk.rest.model.bingrules.BingRule;
@@ -70,6 +77,7 @@ import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Executor;
 
 /**
  * The data handler provides a layer to help manage matrix input and output.
@@ -84,6 +92,12 @@ public class MXDataHandler implements IMXEventListener {
 
     private static final String LEFT_ROOMS_FILTER = "{\"room\":{\"timeline\":{\"limit\":1},\"include_leave\":true}}";
 
+    // the max number of workers which process the joined rooms of the sync responses
+    private static final int MAX_SYNC_WORKERS_COUNT = 4;
+
+    // the default max number of sync responses waiting to be processed
+    private static final int DEFAULT_MAX_PENDING_SYNC_RESPONSES = 1;
+
     public interface InvalidTokenListener {
         /**
          * Call when the access token is corrupted
@@ -116,6 +130,14 @@ public class MXDataHandler implements IMXEventListener {
     private final MXOsHandler mSyncHandler;
     private final MXOsHandler mUiHandler;
 
+    // the workers which process the joined rooms of the sync responses
+    // null when the rooms are processed in the sync thread
+    private volatile MXRoomSyncWorkers mSyncWorkers = null;
+    private volatile boolean mIsParallelRoomsSyncEnabled = false;
+
+    // the sync responses posted to the sync thread and not yet processed
+    private final MXPendingSyncResponses mPendingSyncResponses = new MXPendingSyncResponses(DEFAULT_MAX_PENDING_SYNC_RESPONSES);
+
     // list of ignored users
     // null -> not initialized
     // should be retrieved from the store
@@ -472,6 +494,9 @@ public class MXDataHandler implements IMXEventListener {
             mEventListeners.clear();
         }
 
+        // release the events thread if it waits for the pending sync responses
+        mPendingSyncResponses.release();
+
         // clear the store
         mStore.close();
         mStore.clear();
@@ -480,6 +505,11 @@ public class MXDataHandler implements IMXEventListener {
             mSyncHandlerThread.quit();
             mSyncHandlerThread = null;
         }
+
+        if (null != mSyncWorkers) {
+            mSyncWorkers.shutdownNow();
+            mSyncWorkers = null;
+        }
     }
 
     /**
@@ -801,16 +831,21 @@ public class MXDataHandler implements IMXEventListener {
                     summary.setLatestReceivedEvent(lastEvent, beforeLiveRoomState);
                 }
 
+                String lastEventId = (null != lastEvent) ? lastEvent.eventId : null;
+
                 if (TextUtils.equals(summary.getReadReceiptEventId(), event.eventId)) {
-                    summary.setReadReceiptEventId(lastEvent.eventId);
+                    summary.setReadReceiptEventId(lastEventId);
                 }
 
                 if (TextUtils.equals(summary.getReadMarkerEventId(), event.eventId)) {
-                    summary.setReadMarkerEventId(lastEvent.eventId);
+                    summary.setReadMarkerEventId(lastEventId);
                 }
 
                 mStore.storeSummary(summary);
-             }
+
+                // the unread events are counted from the summary read receipt
+                room.refreshUnreadCounter();
+            }
         } else {
             Log.e(LOG_TAG, "deleteRoomEvent : the session is not anymore active");
         }
@@ -1037,14 +1072,138 @@ public class MXDataHandler implements IMXEventListener {
      * @param isCatchingUp true when there is a pending catch-up
      */
     public void onSyncResponse(final SyncResponse syncResponse, final String fromToken, final boolean isCatchingUp) {
+        mPendingSyncResponses.onResponsePosted();
+
         // perform the sync in background
         // to avoid UI thread lags.
         mSyncHandler.post(new Runnable() {
             @Override
             public void run() {
-               manageResponse(syncResponse, fromToken, isCatchingUp);
+                try {
+                    manageResponse(syncResponse, fromToken, isCatchingUp);
+                } finally {
+                    mPendingSyncResponses.onResponseProcessed();
+                }
             }
         });
+
+        waitForPendingSyncResponses();
+    }
+
+    /**
+     * Update the max number of sync responses waiting to be processed.
+     * The events thread sends the next sync request while the previous responses are processed,
+     * {@link #onSyncResponse(SyncResponse, String, boolean)} blocks it when there are more pending responses.
+     * The wait is skipped when {@link #onSyncResponse(SyncResponse, String, boolean)} is called from the main looper
+     * or from the sync thread : these callers are never blocked so the limit is not enforced for them.
+     * The stored events stream token is only updated when a response has been processed.
+     * @param maxPendingResponses the max number of pending responses, 0 to wait that each response is processed before sending the next request.
+     */
+    public void setMaxPendingSyncResponses(int maxPendingResponses) {
+        mPendingSyncResponses.setMaxCount(maxPendingResponses);
+    }
+
+    /**
+     * @return the max number of sync responses waiting to be processed.
+     */
+    public int getMaxPendingSyncResponses() {
+        return mPendingSyncResponses.getMaxCount();
+    }
+
+    /**
+     * Block the caller thread while there are too many sync responses waiting to be processed.
+     * The UI thread and the sync thread are never blocked.
+     */
+    private void waitForPendingSyncResponses() {
+        Looper looper = Looper.myLooper();
+
+        if ((null != looper) && ((looper == Looper.getMainLooper()) || ((null != mSyncHandlerThread) && (looper == mSyncHandlerThread.getLooper())))) {
+            return;
+        }
+
+        mPendingSyncResponses.waitWhileFull();
+    }
+
+    /**
+     * Fetch again the rooms which have been removed from the store because their files were damaged.
+     * Each room is rebuilt from a room initial sync, as if it was received in a limited sync response.
+     * @param roomIds the room ids
+     */
+    public void recoverQuarantinedRooms(List<String> roomIds) {
+        for (final String roomId : roomIds) {
+            Log.d(LOG_TAG, "## recoverQuarantinedRooms() : fetch " + roomId);
+
+            mRoomsRestClient.initialSync(roomId, new ApiCallback<RoomResponse>() {
+                @Override
+                public void onSuccess(final RoomResponse roomResponse) {
+                    // the rooms are updated in the sync thread
+                    mSyncHandler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            recoverQuarantinedRoom(roomId, roomResponse);
+                        }
+                    });
+                }
+
+                @Override
+                public void onNetworkError(Exception e) {
+                    Log.e(LOG_TAG, "## recoverQuarantinedRooms() : " + roomId + " failed " + e.getMessage());
+                }
+
+                @Override
+                public void onMatrixError(MatrixError e) {
+                    Log.e(LOG_TAG, "## recoverQuarantinedRooms() : " + roomId + " failed " + e.getMessage());
+                }
+
+                @Override
+                public void onUnexpectedError(Exception e) {
+                    Log.e(LOG_TAG, "## recoverQuarantinedRooms() : " + roomId + " failed " + e.getMessage());
+                }
+            });
+        }
+    }
+
+    /**
+     * Rebuild a quarantined room from its initial sync response.
+     * @param roomId the room id
+     * @param roomResponse the room initial sync response
+     */
+    private void recoverQuarantinedRoom(String roomId, RoomResponse roomResponse) {
+        if (!isAlive()) {
+            Log.e(LOG_TAG, "## recoverQuarantinedRoom() : ignored because the session has been closed");
+            return;
+        }
+
+        if (!TextUtils.equals(roomResponse.membership, RoomMember.MEMBERSHIP_JOIN)) {
+            Log.e(LOG_TAG, "## recoverQuarantinedRoom() : the user is not anymore a member of " + roomId);
+            return;
+        }
+
+        waitForRoomSyncs();
+
+        RoomSync roomSync = new RoomSync();
+
+        roomSync.state = new RoomSyncState();
+        roomSync.state.events = roomResponse.state;
+
+        // the stored history is replaced by the latest messages
+        roomSync.timeline = new RoomSyncTimeline();
+        roomSync.timeline.limited = true;
+
+        if (null != roomResponse.messages) {
+            roomSync.timeline.events = roomResponse.messages.chunk;
+            roomSync.timeline.prevBatch = roomResponse.messages.start;
+        }
+
+        roomSync.accountData = new RoomSyncAccountData();
+        roomSync.accountData.events = roomResponse.accountData;
+
+        getRoom(roomId).handleJoinedRoomSync(roomSync, true);
+        getStore().commit();
+
+        Log.d(LOG_TAG, "## recoverQuarantinedRoom() : " + roomId + " is recovered");
+
+        onNewRoom(roomId);
     }
 
     /**
@@ -1093,6 +1252,297 @@ public class MXDataHandler implements IMXEventListener {
         }
     }
 
+    /**
+     * Enable or disable the parallel processing of the joined rooms of the sync responses.
+     * The joined rooms are independent so they can be processed by a bounded workers pool
+     * instead of the sync thread, to reduce the initial sync and the catchup durations on the multi-cores devices.
+     * The events of a room are still processed in order, the other parts of the sync response are managed
+     * when the joined rooms have been processed and the listeners are notified in the same order as a serial processing.
+     * @param isEnabled true to enable the parallel processing
+     */
+    public void setParallelRoomsSync(boolean isEnabled) {
+        mIsParallelRoomsSyncEnabled = isEnabled;
+
+        final int workersCount = isEnabled ? Math.min(MAX_SYNC_WORKERS_COUNT, Runtime.getRuntime().availableProcessors()) : 0;
+
+        // update the workers in the sync thread to avoid changing them while a sync response is processed
+        mSyncHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                waitForRoomSyncs();
+
+                if (null != mSyncWorkers) {
+                    mSyncWorkers.shutdown();
+                    mSyncWorkers = null;
+                }
+
+                if (isAlive() && (workersCount > 1)) {
+                    mSyncWorkers = new MXRoomSyncWorkers("MXDataHandler" + mCredentials.userId, workersCount);
+                }
+
+                Log.d(LOG_TAG, "## setParallelRoomsSync() : " + ((null != mSyncWorkers) ? workersCount : 0) + " workers");
+            }
+        });
+    }
+
+    /**
+     * @return true if the joined rooms of the sync responses are processed in parallel.
+     */
+    public boolean isParallelRoomsSyncEnabled() {
+        return mIsParallelRoomsSyncEnabled;
+    }
+
+    /**
+     * Post a listeners notification in the UI thread.
+     * The notifications triggered in a sync worker are posted when the joined rooms have been processed,
+     * in the sync response rooms order.
+     * @param runnable the notification
+     */
+    private void postToUiThread(Runnable runnable) {
+        if (!MXRoomSyncWorkers.deferUiNotification(runnable)) {
+            mUiHandler.post(runnable);
+        }
+    }
+
+    /**
+     * Process a joined room of a sync response, in a sync worker when the parallel processing is enabled.
+     * It must be called in the sync thread.
+     * @param roomId the room id
+     * @param roomSync the room sync
+     * @param isInitialSync true if the response is an initial sync one
+     */
+    private void submitJoinedRoomSync(final String roomId, final RoomSync roomSync, final boolean isInitialSync) {
+        MXRoomSyncWorkers syncWorkers = mSyncWorkers;
+
+        Runnable runnable = new Runnable() {
+            @Override
+            public void run() {
+                handleJoinedRoomSync(roomId, roomSync, isInitialSync);
+            }
+        };
+
+        if ((null == syncWorkers) || !syncWorkers.submit(roomId, runnable)) {
+            // keep the rooms order
+            waitForRoomSyncs();
+            runnable.run();
+        }
+    }
+
+    /**
+     * Wait until the joined rooms submitted to the sync workers have been processed,
+     * then post their listeners notifications in the sync response rooms order.
+     * A room which failed in a worker is processed again in the sync thread after posting the notifications
+     * of the events it has already stored (they are skipped by the new processing), and its failure is thrown
+     * as the serial processing would have done : the sync response is not fully managed so its token is not stored.
+     * It must be called in the sync thread before managing the other parts of a sync response.
+     */
+    private void waitForRoomSyncs() {
+        MXRoomSyncWorkers syncWorkers = mSyncWorkers;
+
+        if (null != syncWorkers) {
+            syncWorkers.waitForRoomSyncs(new Executor() {
+                @Override
+                public void execute(Runnable runnable) {
+                    mUiHandler.post(runnable);
+                }
+            });
+        }
+    }
+
+    /**
+     * Provides a listener to manage the sync response parts while the response is parsed.
+     * Each part is managed in the sync thread, in the same order as {@link #onSyncResponse(SyncResponse, String, boolean)}
+     * would have managed them. The remaining parts must be given to {@link #onSyncResponse(SyncResponse, String, boolean)}
+     * when the response has been parsed.
+     * @param fromToken the start sync token
+     * @return the listener
+     */
+    public SyncResponseParser.Listener getSyncResponseStreamListener(final String fromToken) {
+        final boolean isInitialSync = (null == fromToken);
+
+        return new SyncResponseParser.Listener() {
+            /**
+             * Manage a sync response part in the sync thread.
+             * The joined rooms being processed by the sync workers are managed before the other parts.
+             * @param runnable the part management
+             */
+            private void post(final Runnable runnable) {
+                mSyncHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (isAlive()) {
+                            runnable.run();
+                        } else {
+                            Log.e(LOG_TAG, "## getSyncResponseStreamListener() : ignored because the session has been closed");
+                        }
+                    }
+                });
+            }
+
+            @Override
+            public void onToDeviceEvents(final List<Event> events) {
+                post(new Runnable() {
+                    @Override
+                    public void run() {
+                        waitForRoomSyncs();
+                        handleToDeviceEvents(events);
+                    }
+                });
+            }
+
+            @Override
+            public void onJoinedRoom(final String roomId, final RoomSync roomSync) {
+                post(new Runnable() {
+                    @Override
+                    public void run() {
+                        submitJoinedRoomSync(roomId, roomSync, isInitialSync);
+                    }
+                });
+            }
+
+            @Override
+            public void onInvitedRoom(final String roomId, final InvitedRoomSync invitedRoomSync) {
+                post(new Runnable() {
+                    @Override
+                    public void run() {
+                        waitForRoomSyncs();
+                        handleInvitedRoomSync(roomId, invitedRoomSync);
+                    }
+                });
+            }
+
+            @Override
+            public void onLeftRoom(final String roomId, final RoomSync roomSync) {
+                post(new Runnable() {
+                    @Override
+                    public void run() {
+                        waitForRoomSyncs();
+                        handleLeftRoomSync(roomId, roomSync, isInitialSync);
+                    }
+                });
+            }
+
+            @Override
+            public void onPresenceEvents(final List<Event> events) {
+                post(new Runnable() {
+                    @Override
+                    public void run() {
+                        waitForRoomSyncs();
+                        handlePresenceEvents(events);
+                    }
+                });
+            }
+
+            @Override
+            public void onAccountData(final Map<String, Object> accountData) {
+                post(new Runnable() {
+                    @Override
+                    public void run() {
+                        waitForRoomSyncs();
+                        Log.d(LOG_TAG, "Received " + accountData.size() + " accountData events");
+                        manageAccountData(accountData, isInitialSync);
+                    }
+                });
+            }
+        };
+    }
+
+    /**
+     * Manage the to device events of a sync response.
+     * @param events the to device events
+     */
+    private void handleToDeviceEvents(List<Event> events) {
+        if (events.size() > 0) {
+            Log.d(LOG_TAG, "manageResponse : receives " + events.size() + " toDevice events");
+
+            for (Event toDeviceEvent : events) {
+                handleToDeviceEvent(toDeviceEvent);
+            }
+        }
+    }
+
+    /**
+     * Manage a joined room of a sync response.
+     * @param roomId the room id
+     * @param roomSync the room sync
+     * @param isInitialSync true if the response is an initial sync one
+     */
+    private void handleJoinedRoomSync(String roomId, RoomSync roomSync, boolean isInitialSync) {
+        if (null != mLeftRoomsStore.getRoom(roomId)) {
+            Log.d(LOG_TAG, "the room " + roomId + " moves from left to the joined ones");
+            mLeftRoomsStore.deleteRoom(roomId);
+        }
+
+        getRoom(roomId).handleJoinedRoomSync(roomSync, isInitialSync);
+    }
+
+    /**
+     * Manage an invited room of a sync response.
+     * @param roomId the room id
+     * @param invitedRoomSync the invited room sync
+     */
+    private void handleInvitedRoomSync(String roomId, InvitedRoomSync invitedRoomSync) {
+        Log.d(LOG_TAG, "## manageResponse() : the user has been invited to " + roomId);
+
+        if (null != mLeftRoomsStore.getRoom(roomId)) {
+            Log.d(LOG_TAG, "the room " + roomId + " moves from left to the invited ones");
+            mLeftRoomsStore.deleteRoom(roomId);
+        }
+
+        getRoom(roomId).handleInvitedRoomSync(invitedRoomSync);
+    }
+
+    /**
+     * Manage a left room of a sync response.
+     * @param roomId the room id
+     * @param roomSync the room sync
+     * @param isInitialSync true if the response is an initial sync one
+     */
+    private void handleLeftRoomSync(String roomId, RoomSync roomSync, boolean isInitialSync) {
+        // Presently we remove the existing room from the rooms list.
+        // FIXME SYNC V2 Archive/Display the left rooms!
+        // For that create 'handleArchivedRoomSync' method
+
+        String membership = RoomMember.MEMBERSHIP_LEAVE;
+        Room room = this.getStore().getRoom(roomId);
+        // Retrieve existing room
+        // check if the room still exists.
+        if (null != room) {
+            // use 'handleJoinedRoomSync' to pass the last events to the room before leaving it.
+            // The room will then able to notify its listeners.
+            room.handleJoinedRoomSync(roomSync, isInitialSync);
+
+            RoomMember member = room.getMember(getUserId());
+            if (null != member) {
+                membership = member.membership;
+            }
+
+            Log.d(LOG_TAG, "## manageResponse() : leave the room " + roomId);
+            this.getStore().deleteRoom(roomId);
+            onLeaveRoom(roomId);
+        } else {
+            Log.d(LOG_TAG, "## manageResponse() : Try to leave an unknown room " + roomId);
+        }
+
+        // don't add to the left rooms if the user has been kicked / banned
+        if ((mAreLeftRoomsSynced) && TextUtils.equals(membership, RoomMember.MEMBERSHIP_LEAVE)) {
+            Room leftRoom = getRoom(mLeftRoomsStore, roomId, true);
+            leftRoom.handleJoinedRoomSync(roomSync, isInitialSync);
+        }
+    }
+
+    /**
+     * Manage the presence events of a sync response.
+     * @param events the presence events
+     */
+    private void handlePresenceEvents(List<Event> events) {
+        Log.d(LOG_TAG, "Received " + events.size() + " presence events");
+
+        for (Event presenceEvent : events) {
+            handlePresenceEvent(presenceEvent);
+        }
+    }
+
     /**
      * Manage the sync response in the UI thread.
      * @param syncResponse the syncResponse to manage.
@@ -1105,6 +1555,9 @@ public class MXDataHandler implements IMXEventListener {
             return;
         }
 
+        // the rooms streamed while parsing the response must have been processed
+        waitForRoomSyncs();
+
         boolean isInitialSync = (null == fromToken);
         boolean isEmptyResponse = true;
 
@@ -1114,18 +1567,15 @@ public class MXDataHandler implements IMXEventListener {
 
             // Handle the to device events before the room ones
             // to ensure to decrypt them properly
-            if ((null != syncResponse.toDevice) &&
-                    (null != syncResponse.toDevice.events) &&
-                    (syncResponse.toDevice.events.size() > 0)) {
-                Log.d(LOG_TAG, "manageResponse : receives " + syncResponse.toDevice.events.size() + " toDevice events");
-
-                for (Event toDeviceEvent : syncResponse.toDevice.events) {
-                    handleToDeviceEvent(toDeviceEvent);
-                }
+            if ((null != syncResponse.toDevice) && (null != syncResponse.toDevice.events)) {
+                handleToDeviceEvents(syncResponse.toDevice.events);
             }
 
             // sanity check
             if (null != syncResponse.rooms) {
+                // the rooms streamed while parsing the response have null values
+                // they have already been managed.
+
                 // joined rooms events
                 if ((null != syncResponse.rooms.join) && (syncResponse.rooms.join.size() > 0)) {
                     Log.d(LOG_TAG, "Received " + syncResponse.rooms.join.size() + " joined rooms");
@@ -1134,14 +1584,15 @@ public class MXDataHandler implements IMXEventListener {
 
                     // Handle first joined rooms
                     for (String roomId : roomIds) {
+                        RoomSync roomSync = syncResponse.rooms.join.get(roomId);
 
-                        if (null != mLeftRoomsStore.getRoom(roomId)) {
-                            Log.d(LOG_TAG, "the room " + roomId + " moves from left to the joined ones");
-                            mLeftRoomsStore.deleteRoom(roomId);
+                        if (null != roomSync) {
+                            submitJoinedRoomSync(roomId, roomSync, isInitialSync);
                         }
+                    }
 
-                        getRoom(roomId).handleJoinedRoomSync(syncResponse.rooms.join.get(roomId), isInitialSync);
-                   }
+                    // the joined rooms are processed before the other rooms
+                    waitForRoomSyncs();
 
                     isEmptyResponse = false;
                 }
@@ -1153,14 +1604,11 @@ public class MXDataHandler implements IMXEventListener {
                     Set<String> roomIds = syncResponse.rooms.invite.keySet();
 
                     for (String roomId : roomIds) {
-                        Log.d(LOG_TAG, "## manageResponse() : the user has been invited to " + roomId);
+                        InvitedRoomSync invitedRoomSync = syncResponse.rooms.invite.get(roomId);
 
-                        if (null != mLeftRoomsStore.getRoom(roomId)) {
-                            Log.d(LOG_TAG, "the room " + roomId + " moves from left to the invited ones");
-                            mLeftRoomsStore.deleteRoom(roomId);
+                        if (null != invitedRoomSync) {
+                            handleInvitedRoomSync(roomId, invitedRoomSync);
                         }
-
-                        getRoom(roomId).handleInvitedRoomSync(syncResponse.rooms.invite.get(roomId));
                     }
 
                     isEmptyResponse = false;
@@ -1175,37 +1623,10 @@ public class MXDataHandler implements IMXEventListener {
                     Set<String> roomIds = syncResponse.rooms.leave.keySet();
 
                     for (String roomId : roomIds) {
-                        // RoomSync leftRoomSync = syncResponse.rooms.leave.get(roomId);
-
-                        // Presently we remove the existing room from the rooms list.
-                        // FIXME SYNC V2 Archive/Display the left rooms!
-                        // For that create 'handleArchivedRoomSync' method
-
-                        String membership = RoomMember.MEMBERSHIP_LEAVE;
-                        Room room = this.getStore().getRoom(roomId);
-                        // Retrieve existing room
-                        // check if the room still exists.
-                        if (null != room) {
-                            // use 'handleJoinedRoomSync' to pass the last events to the room before leaving it.
-                            // The room will then able to notify its listeners.
-                            room.handleJoinedRoomSync(syncResponse.rooms.leave.get(roomId), isInitialSync);
-
-                            RoomMember member = room.getMember(getUserId());
-                            if (null != member) {
-                                membership = member.membership;
-                            }
-
-                            Log.d(LOG_TAG, "## manageResponse() : leave the room " + roomId);
-                            this.getStore().deleteRoom(roomId);
-                            onLeaveRoom(roomId);
-                        } else {
-                            Log.d(LOG_TAG, "## manageResponse() : Try to leave an unknown room " + roomId);
-                        }
+                        RoomSync roomSync = syncResponse.rooms.leave.get(roomId);
 
-                        // don't add to the left rooms if the user has been kicked / banned
-                        if ((mAreLeftRoomsSynced) && TextUtils.equals(membership, RoomMember.MEMBERSHIP_LEAVE)) {
-                            Room leftRoom = getRoom(mLeftRoomsStore, roomId, true);
-                            leftRoom.handleJoinedRoomSync(syncResponse.rooms.leave.get(roomId), isInitialSync);
+                        if (null != roomSync) {
+                            handleLeftRoomSync(roomId, roomSync, isInitialSync);
                         }
                     }
 
@@ -1215,10 +1636,7 @@ public class MXDataHandler implements IMXEventListener {
 
             // Handle presence of other users
             if ((null != syncResponse.presence) && (null != syncResponse.presence.events)) {
-                Log.d(LOG_TAG, "Received " + syncResponse.presence.events.size() + " presence events");
-                for (Event presenceEvent : syncResponse.presence.events) {
-                    handlePresenceEvent(presenceEvent);
-                }
+                handlePresenceEvents(syncResponse.presence.events);
             }
 
             // account data
@@ -1499,7 +1917,7 @@ public class MXDataHandler implements IMXEventListener {
 
         final List<IMXEventListener> eventListeners = getListenersSnapshot();
 
-        mUiHandler.post(new Runnable() {
+        postToUiThread(new Runnable() {
             @Override
             public void run() {
                 for (IMXEventListener listener : eventListeners) {
@@ -1521,7 +1939,7 @@ public class MXDataHandler implements IMXEventListener {
 
         final List<IMXEventListener> eventListeners = getListenersSnapshot();
 
-        mUiHandler.post(new Runnable() {
+        postToUiThread(new Runnable() {
             @Override
             public void run() {
                 for (IMXEventListener listener : eventListeners) {
@@ -1543,7 +1961,7 @@ public class MXDataHandler implements IMXEventListener {
 
         final List<IMXEventListener> eventListeners = getListenersSnapshot();
 
-        mUiHandler.post(new Runnable() {
+        postToUiThread(new Runnable() {
             @Override
             public void run() {
                 for (IMXEventListener listener : eventListeners) {
@@ -1593,12 +2011,15 @@ public class MXDataHandler implements IMXEventListener {
         }
 
         if (null != mCryptoEventsListener) {
-            mCryptoEventsListener.onLiveEvent(event, roomState);
+            // the joined rooms might be processed by several sync workers
+            synchronized (mCryptoEventsListener) {
+                mCryptoEventsListener.onLiveEvent(event, roomState);
+            }
         }
 
         final List<IMXEventListener> eventListeners = getListenersSnapshot();
 
-        mUiHandler.post(new Runnable() {
+        postToUiThread(new Runnable() {
             @Override
             public void run() {
                 for (IMXEventListener listener : eventListeners) {
@@ -1622,7 +2043,7 @@ public class MXDataHandler implements IMXEventListener {
 
         final List<IMXEventListener> eventListeners = getListenersSnapshot();
 
-        mUiHandler.post(new Runnable() {
+        postToUiThread(new Runnable() {
             @Override
             public void run() {
                 for (IMXEventListener listener : eventListeners) {
@@ -1648,7 +2069,7 @@ public class MXDataHandler implements IMXEventListener {
 
         final List<IMXEventListener> eventListeners = getListenersSnapshot();
 
-        mUiHandler.post(new Runnable() {
+        postToUiThread(new Runnable() {
             @Override
             public void run() {
                 for (IMXEventListener listener : eventListeners) {
@@ -1670,7 +2091,7 @@ public class MXDataHandler implements IMXEventListener {
 
         final List<IMXEventListener> eventListeners = getListenersSnapshot();
 
-        mUiHandler.post(new Runnable() {
+        postToUiThread(new Runnable() {
             @Override
             public void run() {
                 for (IMXEventListener listener : eventListeners) {
@@ -1696,7 +2117,7 @@ public class MXDataHandler implements IMXEventListener {
 
         final List<IMXEventListener> eventListeners = getListenersSnapshot();
 
-        mUiHandler.post(new Runnable() {
+        postToUiThread(new Runnable() {
             @Override
             public void run() {
                 for (IMXEventListener listener : eventListeners) {
@@ -1722,7 +2143,7 @@ public class MXDataHandler implements IMXEventListener {
 
         final List<IMXEventListener> eventListeners = getListenersSnapshot();
 
-        mUiHandler.post(new Runnable() {
+        postToUiThread(new Runnable() {
             @Override
             public void run() {
                 for (IMXEventListener listener : eventListeners) {
@@ -1744,7 +2165,7 @@ public class MXDataHandler implements IMXEventListener {
 
         final List<IMXEventListener> eventListeners = getListenersSnapshot();
 
-        mUiHandler.post(new Runnable() {
+        postToUiThread(new Runnable() {
             @Override
             public void run() {
                 for (IMXEventListener listener : eventListeners) {
@@ -1772,7 +2193,7 @@ public class MXDataHandler implements IMXEventListener {
 
         final List<IMXEventListener> eventListeners = getListenersSnapshot();
 
-        mUiHandler.post(new Runnable() {
+        postToUiThread(new Runnable() {
             @Override
             public void run() {
                 for (IMXEventListener listener : eventListeners) {
@@ -1792,7 +2213,7 @@ public class MXDataHandler implements IMXEventListener {
     private void dispatchOnCryptoSyncComplete() {
         final List<IMXEventListener> eventListeners = getListenersSnapshot();
 
-        mUiHandler.post(new Runnable() {
+        postToUiThread(new Runnable() {
             @Override
             public void run() {
                 for (IMXEventListener listener : eventListeners) {
@@ -1862,7 +2283,7 @@ public class MXDataHandler implements IMXEventListener {
 
         final List<IMXEventListener> eventListeners = getListenersSnapshot();
 
-        mUiHandler.post(new Runnable() {
+        postToUiThread(new Runnable() {
             @Override
             public void run() {
                 for (IMXEventListener listener : eventListeners) {
@@ -1888,7 +2309,7 @@ public class MXDataHandler implements IMXEventListener {
 
         final List<IMXEventListener> eventListeners = getListenersSnapshot();
 
-        mUiHandler.post(new Runnable() {
+        postToUiThread(new Runnable() {
             @Override
             public void run() {
                 for (IMXEventListener listener : eventListeners) {
@@ -1914,7 +2335,7 @@ public class MXDataHandler implements IMXEventListener {
 
         final List<IMXEventListener> eventListeners = getListenersSnapshot();
 
-        mUiHandler.post(new Runnable() {
+        postToUiThread(new Runnable() {
             @Override
             public void run() {
                 for (IMXEventListener listener : eventListeners) {
@@ -1940,7 +2361,7 @@ public class MXDataHandler implements IMXEventListener {
 
         final List<IMXEventListener> eventListeners = getListenersSnapshot();
 
-        mUiHandler.post(new Runnable() {
+        postToUiThread(new Runnable() {
             @Override
             public void run() {
                 for (IMXEventListener listener : eventListeners) {
@@ -1966,7 +2387,7 @@ public class MXDataHandler implements IMXEventListener {
 
         final List<IMXEventListener> eventListeners = getListenersSnapshot();
 
-        mUiHandler.post(new Runnable() {
+        postToUiThread(new Runnable() {
             @Override
             public void run() {
                 for (IMXEventListener listener : eventListeners) {
@@ -1999,7 +2420,7 @@ public class MXDataHandler implements IMXEventListener {
 
         final List<IMXEventListener> eventListeners = getListenersSnapshot();
 
-        mUiHandler.post(new Runnable() {
+        postToUiThread(new Runnable() {
             @Override
             public void run() {
                 for (IMXEventListener listener : eventListeners) {
@@ -2025,7 +2446,7 @@ public class MXDataHandler implements IMXEventListener {
 
         final List<IMXEventListener> eventListeners = getListenersSnapshot();
 
-        mUiHandler.post(new Runnable() {
+        postToUiThread(new Runnable() {
             @Override
             public void run() {
                 for (IMXEventListener listener : eventListeners) {
@@ -2051,7 +2472,7 @@ public class MXDataHandler implements IMXEventListener {
 
         final List<IMXEventListener> eventListeners = getListenersSnapshot();
 
-        mUiHandler.post(new Runnable() {
+        postToUiThread(new Runnable() {
             @Override
             public void run() {
                 for (IMXEventListener listener : eventListeners) {
@@ -2077,7 +2498,7 @@ public class MXDataHandler implements IMXEventListener {
 
         final List<IMXEventListener> eventListeners = getListenersSnapshot();
 
-        mUiHandler.post(new Runnable() {
+        postToUiThread(new Runnable() {
             @Override
             public void run() {
                 for (IMXEventListener listener : eventListeners) {
@@ -2099,7 +2520,7 @@ public class MXDataHandler implements IMXEventListener {
 
         final List<IMXEventListener> eventListeners = getListenersSnapshot();
 
-        mUiHandler.post(new Runnable() {
+        postToUiThread(new Runnable() {
             @Override
             public void run() {
                 for (IMXEventListener listener : eventListeners) {
@@ -2125,7 +2546,7 @@ public class MXDataHandler implements IMXEventListener {
 
         final List<IMXEventListener> eventListeners = getListenersSnapshot();
 
-        mUiHandler.post(new Runnable() {
+        postToUiThread(new Runnable() {
             @Override
             public void run() {
                 for (IMXEventListener listener : eventListeners) {
@@ -2143,7 +2564,7 @@ public class MXDataHandler implements IMXEventListener {
     public void onDirectMessageChatRoomsListUpdate() {
         final List<IMXEventListener> eventListeners = getListenersSnapshot();
 
-        mUiHandler.post(new Runnable() {
+        postToUiThread(new Runnable() {
             @Override
             public void run() {
                 for (IMXEventListener listener : eventListeners) {
@@ -2161,7 +2582,7 @@ public class MXDataHandler implements IMXEventListener {
     public void onEventDecrypted(final Event event) {
         final List<IMXEventListener> eventListeners = getListenersSnapshot();
 
-        mUiHandler.post(new Runnable() {
+        postToUiThread(new Runnable() {
             @Override
             public void run() {
                 for (IMXEventListener listener : eventListeners) {
@@ -0,0 +1,111 @@
+/*
+ * Copyright 2017 Vector Creations Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.matrix.androidsdk;
+
+import org.matrix.androidsdk.util.Log;
+
+/**
+ * Counter of the sync responses posted to the sync thread and not yet processed.
+ * It blocks the thread which receives the sync responses while there are too many pending responses.
+ */
+class MXPendingSyncResponses {
+    private static final String LOG_TAG = "MXPendingSyncResponses";
+
+    // the pending responses count
+    private int mCount = 0;
+
+    // the max number of pending responses before blocking
+    private int mMaxCount;
+
+    // true when the waiting threads must not be blocked anymore (e.g. the session is closed)
+    private boolean mIsReleased = false;
+
+    /**
+     * Constructor
+     *
+     * @param maxCount the max number of pending responses
+     */
+    MXPendingSyncResponses(int maxCount) {
+        mMaxCount = Math.max(0, maxCount);
+    }
+
+    /**
+     * A sync response has been posted to the sync thread.
+     */
+    synchronized void onResponsePosted() {
+        mCount++;
+    }
+
+    /**
+     * A sync response has been processed.
+     */
+    synchronized void onResponseProcessed() {
+        mCount--;
+        notifyAll();
+    }
+
+    /**
+     * @return the pending responses count
+     */
+    synchronized int getCount() {
+        return mCount;
+    }
+
+    /**
+     * Update the max number of pending responses.
+     *
+     * @param maxCount the max number of pending responses
+     */
+    synchronized void setMaxCount(int maxCount) {
+        mMaxCount = Math.max(0, maxCount);
+        notifyAll();
+    }
+
+    /**
+     * @return the max number of pending responses
+     */
+    synchronized int getMaxCount() {
+        return mMaxCount;
+    }
+
+    /**
+     * Release the waiting threads, the next calls to waitWhileFull do not block anymore.
+     */
+    synchronized void release() {
+        mIsReleased = true;
+        notifyAll();
+    }
+
+    /**
+     * Block the calling thread while there are more pending responses than the max count.
+     */
+    synchronized void waitWhileFull() {
+        if (mCount > mMaxCount) {
+            Log.d(LOG_TAG, "## waitWhileFull() : " + mCount + " pending sync responses");
+        }
+
+        while (!mIsReleased && (mCount > mMaxCount)) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Log.e(LOG_TAG, "## waitWhileFull() : interrupted " + e.getMessage());
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+}
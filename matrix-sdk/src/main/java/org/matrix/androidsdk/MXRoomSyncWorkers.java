@@ -0,0 +1,256 @@
+/*
+ * Copyright 2017 Vector Creations Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.matrix.androidsdk;
+
+import org.matrix.androidsdk.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Bounded workers pool which processes the joined rooms of the sync responses.
+ * The listeners notifications triggered while a room is processed by a worker are deferred,
+ * they are posted in the rooms submission order when the rooms have been processed.
+ * A room whose processing failed in a worker is processed again in the waiting thread,
+ * as the serial processing would have done : its failure is then propagated to the caller.
+ * The notifications triggered by the failed processing are posted before processing it again
+ * because the events it has already stored are skipped by the new processing.
+ * The rooms are submitted and waited for by the same thread (the sync thread).
+ */
+class MXRoomSyncWorkers {
+    private static final String LOG_TAG = "MXRoomSyncWorkers";
+
+    // the UI notifications triggered by the room being processed in a worker
+    private static final ThreadLocal<List<Runnable>> mDeferredUiNotifications = new ThreadLocal<>();
+
+    /**
+     * A room submitted to the workers.
+     */
+    private static class PendingRoomSync {
+        // the room id
+        final String mRoomId;
+
+        // the room processing
+        final Runnable mRoomSync;
+
+        // the deferred UI notifications, they are filled by the worker
+        final List<Runnable> mNotifications = new ArrayList<>();
+
+        // the room processing in the worker
+        Future<?> mFuture;
+
+        PendingRoomSync(String roomId, Runnable roomSync) {
+            mRoomId = roomId;
+            mRoomSync = roomSync;
+        }
+    }
+
+    // the workers
+    private final ExecutorService mExecutorService;
+
+    // the submitted rooms, in the sync response order
+    private final List<PendingRoomSync> mPendingRoomSyncs = new ArrayList<>();
+
+    // true when the workers have been stopped
+    private volatile boolean mIsShutdown = false;
+
+    /**
+     * Constructor
+     *
+     * @param name         the workers threads name prefix
+     * @param workersCount the workers count
+     */
+    MXRoomSyncWorkers(final String name, int workersCount) {
+        mExecutorService = Executors.newFixedThreadPool(workersCount, new ThreadFactory() {
+            private final AtomicInteger mWorkersCount = new AtomicInteger(0);
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, name + "-worker" + mWorkersCount.getAndIncrement());
+                thread.setPriority(Thread.MIN_PRIORITY);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Defer a UI notification when the current thread is processing a room in a worker.
+     *
+     * @param runnable the notification
+     * @return true if the notification has been deferred, false if it must be posted now
+     */
+    static boolean deferUiNotification(Runnable runnable) {
+        List<Runnable> deferredNotifications = mDeferredUiNotifications.get();
+
+        if (null != deferredNotifications) {
+            deferredNotifications.add(runnable);
+            return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * Submit a room to the workers.
+     *
+     * @param roomId   the room id
+     * @param roomSync the room processing
+     * @return false if the workers have been stopped : the room must be processed by the caller.
+     */
+    boolean submit(String roomId, final Runnable roomSync) {
+        if (mIsShutdown) {
+            return false;
+        }
+
+        final PendingRoomSync pendingRoomSync = new PendingRoomSync(roomId, roomSync);
+
+        try {
+            pendingRoomSync.mFuture = mExecutorService.submit(new Runnable() {
+                @Override
+                public void run() {
+                    mDeferredUiNotifications.set(pendingRoomSync.mNotifications);
+
+                    try {
+                        roomSync.run();
+                    } finally {
+                        mDeferredUiNotifications.remove();
+                    }
+                }
+            });
+
+            mPendingRoomSyncs.add(pendingRoomSync);
+            return true;
+        } catch (RejectedExecutionException e) {
+            Log.e(LOG_TAG, "## submit() : " + roomId + " is rejected because the workers are stopped");
+            return false;
+        }
+    }
+
+    /**
+     * Wait until the submitted rooms have been processed, then post their UI notifications
+     * in the submission order. The rooms whose processing failed are processed again in the calling thread.
+     * When a room fails again, the other rooms are still waited for then the first failure is thrown.
+     *
+     * @param uiExecutor the executor which posts the UI notifications
+     */
+    void waitForRoomSyncs(Executor uiExecutor) {
+        if (mPendingRoomSyncs.isEmpty()) {
+            return;
+        }
+
+        List<PendingRoomSync> pendingRoomSyncs = new ArrayList<>(mPendingRoomSyncs);
+        mPendingRoomSyncs.clear();
+
+        RuntimeException failure = null;
+
+        for (PendingRoomSync pendingRoomSync : pendingRoomSyncs) {
+            boolean isFailed = false;
+
+            try {
+                waitUninterruptibly(pendingRoomSync.mFuture);
+            } catch (CancellationException e) {
+                Log.e(LOG_TAG, "## waitForRoomSyncs() : " + pendingRoomSync.mRoomId + " is ignored because the workers are stopped");
+                continue;
+            } catch (ExecutionException e) {
+                Log.e(LOG_TAG, "## waitForRoomSyncs() : " + pendingRoomSync.mRoomId + " failed " + e.getCause());
+                isFailed = true;
+            }
+
+            // the notifications of a failed processing are also posted
+            // because the events it has stored will not be notified by the new processing
+            for (Runnable notification : pendingRoomSync.mNotifications) {
+                uiExecutor.execute(notification);
+            }
+
+            if (isFailed) {
+                if (mIsShutdown) {
+                    Log.e(LOG_TAG, "## waitForRoomSyncs() : " + pendingRoomSync.mRoomId + " is not processed again because the workers are stopped");
+                } else {
+                    // process it again as the serial processing would have done
+                    try {
+                        pendingRoomSync.mRoomSync.run();
+                    } catch (RuntimeException e) {
+                        Log.e(LOG_TAG, "## waitForRoomSyncs() : " + pendingRoomSync.mRoomId + " failed again " + e.getMessage());
+
+                        if (null == failure) {
+                            failure = e;
+                        }
+                    }
+                }
+            }
+        }
+
+        if (null != failure) {
+            throw failure;
+        }
+    }
+
+    /**
+     * Wait for a room processing, even if the waiting thread is interrupted.
+     *
+     * @param future the room processing
+     * @throws ExecutionException if the room processing failed
+     */
+    private static void waitUninterruptibly(Future<?> future) throws ExecutionException {
+        boolean isInterrupted = false;
+
+        try {
+            while (true) {
+                try {
+                    future.get();
+                    return;
+                } catch (InterruptedException e) {
+                    isInterrupted = true;
+                }
+            }
+        } finally {
+            if (isInterrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Stop the workers once the submitted rooms have been processed.
+     */
+    void shutdown() {
+        mIsShutdown = true;
+        mExecutorService.shutdown();
+    }
+
+    /**
+     * Stop the workers now, the submitted rooms which are not yet processed are cancelled.
+     */
+    void shutdownNow() {
+        mIsShutdown = true;
+
+        for (Runnable runnable : mExecutorService.shutdownNow()) {
+            if (runnable instanceof Future) {
+                ((Future<?>) runnable).cancel(false);
+            }
+        }
+    }
+}
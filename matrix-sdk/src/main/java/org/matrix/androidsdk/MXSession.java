@@ -67,9 +67,12 @@ import org.matrix.androidsdk.rest.model.RoomResponse;
 import org.matrix.androidsdk.rest.model.Search.SearchResponse;
 import org.matrix.androidsdk.rest.model.User;
 import org.matrix.androidsdk.rest.model.bingrules.BingRule;
+import org.matrix.androidsdk.rest.model.filter.FilterBody;
+import org.matrix.androidsdk.rest.model.filter.FilterResponse;
 import org.matrix.androidsdk.rest.model.login.Credentials;
 import org.matrix.androidsdk.rest.model.login.RegistrationFlowResponse;
 import org.matrix.androidsdk.sync.DefaultEventsThreadListener;
+import org.matrix.androidsdk.sync.DefaultSyncPolicy;
 import org.matrix.androidsdk.sync.EventsThread;
 import org.matrix.androidsdk.sync.EventsThreadListener;
 import org.matrix.androidsdk.util.BingRulesManager;
@@ -141,6 +144,15 @@ public class MXSession {
     // so, mEventsThread.start might be not ready
     private boolean mIsBgCatchupPending = false;
 
+    // the sync filter
+    private FilterBody mSyncFilter = null;
+
+    // the filter given to the events thread : the filter id or the inline filter while it is uploaded
+    private String mSyncFilterOrFilterId = null;
+
+    // the sync filter which is being uploaded (JSON string)
+    private String mUploadingSyncFilter = null;
+
     // load the crypto libs.
     public static OlmManager mOlmManager = new OlmManager();
 
@@ -225,6 +237,12 @@ public class MXSession {
                 }
             }
 
+            @Override
+            public void onStoreRoomsQuarantined(String accountId, List<String> roomIds) {
+                // only the damaged rooms are fetched again
+                mDataHandler.recoverQuarantinedRooms(roomIds);
+            }
+
             @Override
             public void onReadReceiptsLoaded(final String roomId) {
                 final List<ReceiptData> receipts = mDataHandler.getStore().getEventReceipts(roomId, null, false, false);
@@ -676,6 +694,11 @@ public class MXSession {
 
         mEventsThread = new EventsThread(mEventsRestClient, fEventsListener, initialToken);
         mEventsThread.setNetworkConnectivityReceiver(networkConnectivityReceiver);
+        mEventsThread.setSyncPolicy(new DefaultSyncPolicy(mAppContent));
+
+        if (null != mSyncFilter) {
+            applySyncFilter();
+        }
 
         if (mFailureCallback != null) {
             mEventsThread.setFailureCallback(mFailureCallback);
@@ -748,6 +771,119 @@ public class MXSession {
         return mIsOnline;
     }
 
+    /**
+     * Set the filter applied to the sync requests.
+     * The filter is uploaded once, its id is saved in the store and given to the sync requests.
+     * It is uploaded again when it is updated. The filter is sent inline until its id is known.
+     *
+     * @param filter the filter, null to sync without filter.
+     */
+    public void setSyncFilter(FilterBody filter) {
+        checkIfAlive();
+
+        mSyncFilter = filter;
+        applySyncFilter();
+    }
+
+    /**
+     * @return the filter applied to the sync requests, null if there is none.
+     */
+    public FilterBody getSyncFilter() {
+        return mSyncFilter;
+    }
+
+    /**
+     * Update the filter used by the events thread.
+     *
+     * @param filterOrFilterId the filter id or the inline filter
+     */
+    private void setEventsThreadFilter(String filterOrFilterId) {
+        mSyncFilterOrFilterId = filterOrFilterId;
+
+        if (null != mEventsThread) {
+            mEventsThread.setFilterOrFilterId(filterOrFilterId);
+        }
+    }
+
+    /**
+     * Apply the sync filter : the stored filter id is used if the filter has not been updated, else the filter is uploaded.
+     */
+    private void applySyncFilter() {
+        final IMXStore store = mDataHandler.getStore();
+
+        if (null == mSyncFilter) {
+            if ((null != store) && (null != store.getSyncFilter())) {
+                store.setSyncFilter(null, null);
+            }
+
+            mUploadingSyncFilter = null;
+            setEventsThreadFilter(null);
+            return;
+        }
+
+        final String filter = mSyncFilter.toJSONString();
+
+        if ((null != store) && TextUtils.equals(filter, store.getSyncFilter()) && !TextUtils.isEmpty(store.getSyncFilterId())) {
+            Log.d(LOG_TAG, "## applySyncFilter() : use the stored filter id " + store.getSyncFilterId());
+            setEventsThreadFilter(store.getSyncFilterId());
+            return;
+        }
+
+        // the filter is sent inline until it is uploaded
+        setEventsThreadFilter(filter);
+
+        if (TextUtils.equals(filter, mUploadingSyncFilter)) {
+            return;
+        }
+
+        mUploadingSyncFilter = filter;
+
+        mEventsRestClient.uploadFilter(mSyncFilter, new ApiCallback<FilterResponse>() {
+            /**
+             * The upload is done.
+             */
+            private void onDone() {
+                if (TextUtils.equals(filter, mUploadingSyncFilter)) {
+                    mUploadingSyncFilter = null;
+                }
+            }
+
+            @Override
+            public void onSuccess(FilterResponse response) {
+                onDone();
+
+                // ignore the response if the filter has been updated in the meantime
+                if ((null != mSyncFilter) && TextUtils.equals(filter, mSyncFilter.toJSONString()) && (null != response) && !TextUtils.isEmpty(response.filter_id)) {
+                    Log.d(LOG_TAG, "## applySyncFilter() : the filter has been uploaded with the id " + response.filter_id);
+
+                    if (null != store) {
+                        store.setSyncFilter(filter, response.filter_id);
+                    }
+
+                    setEventsThreadFilter(response.filter_id);
+                }
+            }
+
+            @Override
+            public void onNetworkError(Exception e) {
+                Log.e(LOG_TAG, "## applySyncFilter() : onNetworkError " + e.getMessage());
+                onDone();
+            }
+
+            @Override
+            public void onMatrixError(MatrixError e) {
+                Log.e(LOG_TAG, "## applySyncFilter() : onMatrixError " + e.getMessage());
+                onDone();
+            }
+
+            @Override
+            public void onUnexpectedError(Exception e) {
+                Log.e(LOG_TAG, "## applySyncFilter() : onUnexpectedError " + e.getMessage());
+                onDone();
+            }
+        });
+    }
+
     /**
      * Update the heartbeat request timeout.
      * @param ms the delay in ms
@@ -835,6 +971,11 @@ public class MXSession {
         } else {
             Log.e(LOG_TAG, "pauseEventStream : mEventsThread is null");
         }
+
+        // the application might be killed while it is in background
+        if (null != mDataHandler.getStore()) {
+            mDataHandler.getStore().saveWarmStartImage();
+        }
     }
 
     /**
@@ -1399,50 +1540,16 @@ public class MXSession {
         }
 
         if (!TextUtils.equals(tag, RoomTag.ROOM_TAG_NO_TAG)) {
-            Collection<Room> rooms = mDataHandler.getStore().getRooms();
+            IMXStore store = mDataHandler.getStore();
 
-            for (Room room : rooms) {
-                if (null != room.getAccountData().roomTag(tag)) {
+            // the store keeps the tagged rooms sorted by tag order then by latest event
+            for (String roomId : store.getRoomIdsWithTag(tag)) {
+                Room room = store.getRoom(roomId);
+
+                if ((null != room) && (null != room.getAccountData().roomTag(tag))) {
                     taggedRooms.add(room);
                 }
             }
-
-            if (taggedRooms.size() > 0) {
-                Collections.sort(taggedRooms, new Comparator<Room>() {
-                    @Override
-                    public int compare(Room r1, Room r2) {
-                        int res = 0;
-
-                        RoomTag tag1 = r1.getAccountData().roomTag(tag);
-                        RoomTag tag2 = r2.getAccountData().roomTag(tag);
-
-                        if ((null != tag1.mOrder) && (null != tag2.mOrder)) {
-                            double diff = (tag1.mOrder - tag2.mOrder);
-                            res = (diff == 0) ? 0 : (diff > 0) ? +1 : -1;
-                        } else if (null != tag1.mOrder) {
-                            res = -1;
-                        } else if (null != tag2.mOrder) {
-                            res = +1;
-                        }
-
-                        // In case of same order, order rooms by their last event
-                        if (0 == res) {
-                            IMXStore store = mDataHandler.getStore();
-
-                            Event latestEvent1 = store.getLatestEvent(r1.getRoomId());
-                            Event latestEvent2 = store.getLatestEvent(r2.getRoomId());
-
-                            // sanity check
-                            if ((null != latestEvent2) && (null != latestEvent1)) {
-                                long diff = (latestEvent2.getOriginServerTs() - latestEvent1.getOriginServerTs());
-                                res = (diff == 0) ? 0 : (diff > 0) ? +1 : -1;
-                            }
-                        }
-
-                        return res;
-                    }
-                });
-            }
         } else {
             Collection<Room> rooms = mDataHandler.getStore().getRooms();
 
@@ -91,6 +91,18 @@ public class EventTimeline {
         void onEvent(Event event, Direction direction, RoomState roomState);
     }
 
+    public interface LiveStateLoader {
+
+        /**
+         * Provide the live state of a room at first use.
+         * It can be called from any thread : the state must be read by a background thread,
+         * this method only waits for the result.
+         * @param roomId the room id
+         * @return the room state, null if it does not exist.
+         */
+        RoomState loadLiveState(String roomId);
+    }
+
     /**
      * The initial event id used to initialise the timeline.
      * null in case of live timeline.
@@ -107,6 +119,11 @@ public class EventTimeline {
      */
     private RoomState mState = new RoomState();
 
+    /**
+     * The state loader when the state is lazily loaded (null when the state is loaded).
+     */
+    private volatile LiveStateLoader mLiveStateLoader = null;
+
     /**
      * The historical state of the room when paginating back.
      */
@@ -288,7 +305,7 @@ public class EventTimeline {
      * Must be called when opening a room if interested in history.
      */
     public void initHistory() {
-        mBackState = mState.deepCopy();
+        mBackState = getState().deepCopy();
         mCanBackPaginate = true;
 
         mIsBackPaginating = false;
@@ -307,7 +324,7 @@ public class EventTimeline {
      */
     private void initHistory(List<Event> stateEvents) {
         // clear the states
-        mState = new RoomState();
+        setState(new RoomState());
         mState.roomId = mRoomId;
         mState.setDataHandler(mDataHandler);
 
@@ -332,6 +349,28 @@ public class EventTimeline {
      * @return The state of the room at the top most recent event of the timeline.
      */
     public RoomState getState() {
+        LiveStateLoader loader = mLiveStateLoader;
+
+        // the state is loaded at first use
+        if (null != loader) {
+            // the loader waits for the store thread : the timeline is not locked meanwhile
+            RoomState state = loader.loadLiveState(mRoomId);
+
+            synchronized (this) {
+                // the state might have been set while waiting
+                if (mLiveStateLoader == loader) {
+                    if (null != state) {
+                        if (null != mDataHandler) {
+                            state.setDataHandler(mDataHandler);
+                        }
+                        mState = state;
+                    }
+
+                    mLiveStateLoader = null;
+                }
+            }
+        }
+
         return mState;
     }
 
@@ -340,7 +379,25 @@ public class EventTimeline {
      * @param state the new state.
      */
     public void setState(RoomState state) {
-        mState = state;
+        synchronized (this) {
+            mState = state;
+            mLiveStateLoader = null;
+        }
+    }
+
+    /**
+     * Defines a loader which provides the state when it is used for the first time.
+     * @param loader the loader
+     */
+    public void setLiveStateLoader(LiveStateLoader loader) {
+        mLiveStateLoader = loader;
+    }
+
+    /**
+     * @return true if the state has been loaded.
+     */
+    public boolean isStateLoaded() {
+        return null == mLiveStateLoader;
     }
 
     /**
@@ -356,7 +413,7 @@ public class EventTimeline {
      */
     private void deepCopyState(Direction direction) {
         if (direction == Direction.FORWARDS) {
-            mState = mState.deepCopy();
+            mState = getState().deepCopy();
         } else {
             mBackState = mBackState.deepCopy();
         }
@@ -369,11 +426,11 @@ public class EventTimeline {
      * @return true if the event has been processed.
      */
     private boolean processStateEvent(Event event, Direction direction) {
-        RoomState affectedState = (direction ==  Direction.FORWARDS) ? mState : mBackState;
+        RoomState affectedState = (direction ==  Direction.FORWARDS) ? getState() : mBackState;
         boolean isProcessed = affectedState.applyState(getStore(), event, direction);
 
         if ((isProcessed) && (direction == Direction.FORWARDS)) {
-            mStore.storeLiveStateForRoom(mRoomId);
+            mStore.storeLiveStateEvent(mRoomId, event);
         }
 
         return isProcessed;
@@ -410,7 +467,7 @@ public class EventTimeline {
         String myUserId = mDataHandler.getMyUser().user_id;
         RoomSummary currentSummary = null;
 
-        RoomMember selfMember = mState.getMember(mDataHandler.getMyUser().user_id);
+        RoomMember selfMember = getState().getMember(mDataHandler.getMyUser().user_id);
 
         if (null != selfMember) {
             membership = selfMember.membership;
@@ -429,7 +486,8 @@ public class EventTimeline {
             state.roomId = mRoomId;
             state.setDataHandler(mDataHandler);
 
-            this.mBackState = this.mState = state;
+            setState(state);
+            this.mBackState = state;
         }
 
         if ((null != roomSync.state) && (null != roomSync.state.events) && (roomSync.state.events.size() > 0)) {
@@ -456,8 +514,8 @@ public class EventTimeline {
             // if it is an initial sync, the live state is initialized here
             // so the back state must also be initialized
             if (isRoomInitialSync) {
-                Log.d(LOG_TAG, "## handleJoinedRoomSync() : retrieve " + this.mState.getMembers().size() + " members for room " + mRoomId);
-                this.mBackState = this.mState.deepCopy();
+                Log.d(LOG_TAG, "## handleJoinedRoomSync() : retrieve " + getState().getMembers().size() + " members for room " + mRoomId);
+                this.mBackState = getState().deepCopy();
             }
         }
 
@@ -477,10 +535,10 @@ public class EventTimeline {
                     if (oldestEvent != null) {
                         if (RoomSummary.isSupportedEvent(oldestEvent)) {
                             if (null != currentSummary) {
-                                currentSummary.setLatestReceivedEvent(oldestEvent, mState);
+                                currentSummary.setLatestReceivedEvent(oldestEvent, getState());
                                 mStore.storeSummary(currentSummary);
                             } else {
-                                mStore.storeSummary(new RoomSummary(null, oldestEvent, mState, myUserId));
+                                mStore.storeSummary(new RoomSummary(null, oldestEvent, getState(), myUserId));
                             }
                         }
                     }
@@ -554,7 +612,7 @@ public class EventTimeline {
                     // if there is an oldest event, use it to set a summary
                     if (oldestEvent != null) {
                         // always defined a room summary else the room won't be displayed in the recents
-                        mStore.storeSummary(new RoomSummary(null, oldestEvent, mState, myUserId));
+                        mStore.storeSummary(new RoomSummary(null, oldestEvent, getState(), myUserId));
                         mStore.commit();
 
                         // if the event is not displayable
@@ -565,7 +623,7 @@ public class EventTimeline {
                     }
                     // use the latest known event
                     else if (null != currentSummary) {
-                        currentSummary.setLatestReceivedEvent(currentSummary.getLatestReceivedEvent(), mState);
+                        currentSummary.setLatestReceivedEvent(currentSummary.getLatestReceivedEvent(), getState());
                         mStore.storeSummary(currentSummary);
                         mStore.commit();
                     }
@@ -579,9 +637,9 @@ public class EventTimeline {
                             event.roomId = mRoomId;
                             if (RoomSummary.isSupportedEvent(event)) {
                                 if (null == summary) {
-                                    summary = new RoomSummary(mStore.getSummary(mRoomId), event, mState, myUserId);
+                                    summary = new RoomSummary(mStore.getSummary(mRoomId), event, getState(), myUserId);
                                 } else {
-                                    summary.setLatestReceivedEvent(event, mState);
+                                    summary.setLatestReceivedEvent(event, getState());
                                 }
                                 mStore.storeSummary(summary);
 
@@ -618,12 +676,12 @@ public class EventTimeline {
                     notifCount = roomSync.unreadNotifications.notificationCount;
                 }
                 
-                if ((notifCount != mState.getNotificationCount()) || (mState.getHighlightCount() != highlightCount)) {
+                if ((notifCount != getState().getNotificationCount()) || (getState().getHighlightCount() != highlightCount)) {
                     Log.d(LOG_TAG, "## handleJoinedRoomSync() : update room state notifs count for room id " + getRoom().getRoomId() + ": highlightCount " + highlightCount + " - notifCount " + notifCount);
 
-                    mState.setNotificationCount(notifCount);
-                    mState.setHighlightCount(highlightCount);
-                    mStore.storeLiveStateForRoom(mRoomId);
+                    getState().setNotificationCount(notifCount);
+                    getState().setHighlightCount(highlightCount);
+                    mStore.storeLiveStateEvent(mRoomId, null);
                 }
 
                 // some users reported that the summary notification counts were sometimes invalid
@@ -670,9 +728,9 @@ public class EventTimeline {
             RoomSummary summary = mStore.getSummary(event.roomId);
 
             if (null == summary) {
-                summary = new RoomSummary(summary, event, mState, myUserId);
+                summary = new RoomSummary(summary, event, getState(), myUserId);
             } else {
-                summary.setLatestReceivedEvent(event, mState);
+                summary.setLatestReceivedEvent(event, getState());
             }
 
             mStore.storeSummary(summary);
@@ -731,7 +789,7 @@ public class EventTimeline {
                                 }
                             }
 
-                            EventDisplay eventDisplay = new EventDisplay(mStore.getContext(), anEvent, mState);
+                            EventDisplay eventDisplay = new EventDisplay(mStore.getContext(), anEvent, getState());
 
                             // ensure that message can be displayed
                             if (!TextUtils.isEmpty(eventDisplay.getTextualDisplay())) {
@@ -812,9 +870,14 @@ public class EventTimeline {
                 && (bingRulesManager != null)
                 && (null != (bingRule = bingRulesManager.fulfilledBingRule(event)))) {
 
+            // the store maintains the highlighted unread events count
+            if (bingRule.shouldHighlight()) {
+                mStore.setEventHighlighted(event.roomId, event.eventId);
+            }
+
             if (bingRule.shouldNotify()) {
                 Log.d(LOG_TAG, "handleLiveEvent : onBingEvent rule id " + bingRule.ruleId + " event id " + event.eventId + " in " + event.roomId);
-                mDataHandler.onBingEvent(event, mState, bingRule);
+                mDataHandler.onBingEvent(event, getState(), bingRule);
             } else {
                 Log.d(LOG_TAG, "handleLiveEvent :rule id " + bingRule.ruleId + " event id " + event.eventId + " in " + event.roomId + " has a mute notify rule");
             }
@@ -847,10 +910,10 @@ public class EventTimeline {
             if (!TextUtils.equals(event.getType(), Event.EVENT_TYPE_CALL_CANDIDATES)) {
                 // warn the listeners
                 // general listeners
-                mDataHandler.onLiveEvent(event, mState);
+                mDataHandler.onLiveEvent(event, getState());
 
                 // timeline listeners
-                onEvent(event, Direction.FORWARDS, mState);
+                onEvent(event, Direction.FORWARDS, getState());
             }
 
             // trigger pushes when it is required
@@ -918,7 +981,7 @@ public class EventTimeline {
                     }
                 }
 
-                RoomState previousState = mState;
+                RoomState previousState = getState();
 
                 if (event.stateKey != null) {
                     // copy the live state before applying any update
@@ -1009,7 +1072,7 @@ public class EventTimeline {
         RoomSummary summary = mStore.getSummary(mRoomId);
 
         if ((null != latestSupportedEvent) && ((null == summary) || !RoomSummary.isSupportedEvent(summary.getLatestReceivedEvent()))) {
-            mStore.storeSummary(new RoomSummary(null, latestSupportedEvent, mState, mDataHandler.getUserId()));
+            mStore.storeSummary(new RoomSummary(null, latestSupportedEvent, getState(), mDataHandler.getUserId()));
         }
 
         Log.d(LOG_TAG, "manageEvents : commit");
@@ -1101,7 +1164,7 @@ public class EventTimeline {
      */
     public boolean canBackPaginate() {
         return !mIsBackPaginating && // One at a time please
-                mState.canBackPaginated(mDataHandler.getUserId()) && // history_visibility flag management
+                getState().canBackPaginated(mDataHandler.getUserId()) && // history_visibility flag management
                 mCanBackPaginate && // If we have already reached the end of history
                 mRoom.isReady(); // If the room is not finished being set up
     }
@@ -1478,7 +1541,7 @@ public class EventTimeline {
 
             // check if the state events is locally known
             // to avoid triggering a room initial sync
-            mState.getStateEvents(getStore(), new SimpleApiCallback<List<Event>>() {
+            getState().getStateEvents(getStore(), new SimpleApiCallback<List<Event>>() {
                 @Override
                 public void onSuccess(List<Event> stateEvents) {
                     boolean isFound = false;
@@ -1563,14 +1626,14 @@ public class EventTimeline {
     private void forceRoomStateServerSync() {
         Log.d(LOG_TAG, "forceRoomStateServerSync starts");
 
-        final RoomState curRoomState = mState;
+        final RoomState curRoomState = getState();
 
         mDataHandler.getDataRetriever().getRoomsRestClient().initialSync(mRoomId, new ApiCallback<RoomResponse>() {
             @Override
             public void onSuccess(RoomResponse roomResponse) {
                 // test if the room state is still the same
                 // else assume the state has already been updated
-                if (curRoomState == mState) {
+                if (curRoomState == getState()) {
                     Log.d(LOG_TAG, "forceRoomStateServerSync updates the state");
                     initHistory(roomResponse.state);
                 } else {
@@ -1095,7 +1095,7 @@ public class Room {
         // reset the notification count
         getLiveState().setHighlightCount(0);
         getLiveState().setNotificationCount(0);
-        mStore.storeLiveStateForRoom(getRoomId());
+        mStore.storeLiveStateEvent(getRoomId(), null);
 
         // flush the summary
         if (null != summary) {
@@ -1175,7 +1175,7 @@ public class Room {
                 getLiveState().setNotificationCount(0);
                 getLiveState().setHighlightCount(0);
 
-                mDataHandler.getStore().storeLiveStateForRoom(getRoomId());
+                mDataHandler.getStore().storeLiveStateEvent(getRoomId(), null);
             }
         }
 
@@ -1380,7 +1380,7 @@ public class Room {
 
             if (null != summary) {
                 int prevValue = summary.getUnreadEventsCount();
-                int newValue = mStore.eventsCountAfter(getRoomId(), summary.getReadReceiptEventId());
+                int newValue = mStore.getUnreadEventsCount(getRoomId());
 
                 if (prevValue != newValue) {
                     summary.setUnreadEventsCount(newValue);
@@ -34,6 +34,8 @@ import org.matrix.androidsdk.rest.model.RoomThirdPartyInvite;
 import org.matrix.androidsdk.rest.model.User;
 import org.matrix.androidsdk.util.JsonUtils;
 
+import java.io.DataInput;
+import java.io.DataOutput;
 import java.io.Externalizable;
 import java.io.IOException;
 import java.io.ObjectInput;
@@ -961,6 +963,53 @@ public class RoomState implements Externalizable {
         return displayName;
     }
 
+    /**
+     * Write the fields which are not updated by the state events
+     * (unread counters, directory visibility...).
+     *
+     * @param output the output
+     * @throws IOException if the write fails
+     */
+    public void writeLocalFields(DataOutput output) throws IOException {
+        output.writeInt(mNotificationCount);
+        output.writeInt(mHighlightCount);
+
+        output.writeBoolean(null != token);
+        if (null != token) {
+            output.writeUTF(token);
+        }
+
+        output.writeBoolean(null != visibility);
+        if (null != visibility) {
+            output.writeUTF(visibility);
+        }
+
+        output.writeBoolean(null != roomAliasName);
+        if (null != roomAliasName) {
+            output.writeUTF(roomAliasName);
+        }
+
+        output.writeBoolean(null != avatar_url);
+        if (null != avatar_url) {
+            output.writeUTF(avatar_url);
+        }
+    }
+
+    /**
+     * Read the fields written by {@link #writeLocalFields(DataOutput)}.
+     *
+     * @param input the input
+     * @throws IOException if the read fails
+     */
+    public void readLocalFields(DataInput input) throws IOException {
+        mNotificationCount = input.readInt();
+        mHighlightCount = input.readInt();
+        token = input.readBoolean() ? input.readUTF() : null;
+        visibility = input.readBoolean() ? input.readUTF() : null;
+        roomAliasName = input.readBoolean() ? input.readUTF() : null;
+        avatar_url = input.readBoolean() ? input.readUTF() : null;
+    }
+
     @Override
     public void readExternal(ObjectInput input) throws IOException, ClassNotFoundException {
         if (input.readBoolean()) {
@@ -28,6 +28,10 @@ import org.matrix.androidsdk.rest.model.Message;
 import org.matrix.androidsdk.rest.model.RoomMember;
 import org.matrix.androidsdk.util.Log;
 
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+
 /**
  * Stores summarised information about the room.
  */
@@ -489,4 +493,49 @@ public class RoomSummary implements java.io.Serializable {
     public int getHighlightCount() {
         return mHighlightsCount;
     }
+
+    /**
+     * Write the summary fields (file store codec).
+     *
+     * @param output the output
+     * @throws IOException if the write fails
+     */
+    public void writeFields(ObjectOutput output) throws IOException {
+        output.writeObject(mRoomId);
+        output.writeObject(mName);
+        output.writeObject(mTopic);
+        output.writeObject(mLatestReceivedEvent);
+        output.writeObject(mReadReceiptEventId);
+        output.writeObject(mReadMarkerEventId);
+        output.writeInt(mUnreadEventsCount);
+        output.writeInt(mNotificationCount);
+        output.writeInt(mHighlightsCount);
+        output.writeObject(mInviterUserId);
+        output.writeBoolean(mIsInvited);
+        output.writeObject(mInviterName);
+        output.writeObject(mMatrixId);
+    }
+
+    /**
+     * Read the summary fields (file store codec).
+     *
+     * @param input the input
+     * @throws IOException            if the read fails
+     * @throws ClassNotFoundException if a field class is unknown
+     */
+    public void readFields(ObjectInput input) throws IOException, ClassNotFoundException {
+        mRoomId = (String) input.readObject();
+        mName = (String) input.readObject();
+        mTopic = (String) input.readObject();
+        mLatestReceivedEvent = (Event) input.readObject();
+        mReadReceiptEventId = (String) input.readObject();
+        mReadMarkerEventId = (String) input.readObject();
+        mUnreadEventsCount = input.readInt();
+        mNotificationCount = input.readInt();
+        mHighlightsCount = input.readInt();
+        mInviterUserId = (String) input.readObject();
+        mIsInvited = input.readBoolean();
+        mInviterName = (String) input.readObject();
+        mMatrixId = (String) input.readObject();
+    }
 }
@@ -47,6 +47,18 @@ public interface IMXStore {
      */
     void commit();
 
+    /**
+     * Write the committed changes as soon as possible.
+     * It is called when the application is going to background.
+     */
+    void flushCommits();
+
+    /**
+     * Write the committed changes and an image of the data required to open the store quickly.
+     * It is called when the application is going to background.
+     */
+    void saveWarmStartImage();
+
     /**
      * Open the store.
      */
@@ -170,6 +182,24 @@ public interface IMXStore {
 
     List<String> getIgnoredUserIdsList();
 
+    /**
+     * Store the sync filter and its id on the server.
+     *
+     * @param filter   the filter as a JSON string, null to remove it.
+     * @param filterId the filter id returned by the server.
+     */
+    void setSyncFilter(String filter, String filterId);
+
+    /**
+     * @return the stored sync filter as a JSON string, null if there is none.
+     */
+    String getSyncFilter();
+
+    /**
+     * @return the id of the stored sync filter, null if there is none.
+     */
+    String getSyncFilterId();
+
     Map<String, List<String>> getDirectChatRoomsDict();
 
     /**
@@ -323,6 +353,23 @@ public interface IMXStore {
      */
     RoomSummary getSummary(String roomId);
 
+    /**
+     * Provides the summaries of the rooms with the latest events, the most recent first.
+     * The summaries are read from a sorted index so the cost does not depend on the number of rooms.
+     *
+     * @param count the max number of summaries
+     * @return the summaries
+     */
+    List<RoomSummary> getLatestSummaries(int count);
+
+    /**
+     * Provides the ids of the rooms with a tag, sorted by tag order then by latest event.
+     *
+     * @param tag the tag
+     * @return the room ids
+     */
+    List<String> getRoomIdsWithTag(String tag);
+
     /**
      * Flush a room summary
      *
@@ -347,6 +394,16 @@ public interface IMXStore {
      */
     void storeLiveStateForRoom(String roomId);
 
+    /**
+     * Store a state event which has been applied to the live state of a room.
+     * The permanent stores can save the room state changes instead of the whole room state.
+     *
+     * @param roomId the room id
+     * @param event  the state event, null when only the room state fields which are not updated
+     *               by the state events (e.g. the unread counters) have been updated.
+     */
+    void storeLiveStateEvent(String roomId, Event event);
+
     /**
      * Store a room state event.
      * The room states are built with several events.
@@ -430,6 +487,33 @@ public interface IMXStore {
      */
     List<Event> unreadEvents(String roomId, List<String> types);
 
+    /**
+     * Provides the unread events count of a room i.e the events after the room summary read receipt
+     * which have not been sent by the user (the room member events are ignored).
+     * The counter is maintained while the events and the receipts are stored.
+     *
+     * @param roomId the room id.
+     * @return the unread events count.
+     */
+    int getUnreadEventsCount(String roomId);
+
+    /**
+     * Provides the highlighted unread events count of a room.
+     *
+     * @param roomId the room id.
+     * @return the highlighted events count.
+     */
+    int getHighlightedEventsCount(String roomId);
+
+    /**
+     * Flag a stored event as highlighted by the push rules.
+     * It is counted until the user read receipt moves after it.
+     *
+     * @param roomId  the room id.
+     * @param eventId the event id.
+     */
+    void setEventHighlighted(String roomId, String eventId);
+
     /**
      * Check if an event has been read by an user.
      *
@@ -16,6 +16,8 @@
 
 package org.matrix.androidsdk.data.store;
 
+import java.util.List;
+
 /**
  * An interface for listening the store events
  */
@@ -41,6 +43,14 @@ public interface IMXStoreListener {
      */
     void onStoreCorrupted(String accountId, String description);
 
+    /**
+     * Called when some damaged rooms have been removed from the store instead of clearing it.
+     * The other rooms are kept so these rooms must be fetched again.
+     * @param accountId the account identifier
+     * @param roomIds the removed room ids
+     */
+    void onStoreRoomsQuarantined(String accountId, List<String> roomIds);
+
     /**
      * Called when the store has no more memory
      * @param accountId the account identifier
@@ -0,0 +1,78 @@
+/*
+ * Copyright 2017 Vector Creations Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.matrix.androidsdk.data.store;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An interface to define which part of the rooms history is saved on the file system.
+ * The methods can be called from any thread.
+ */
+public interface IMXStoreRetentionPolicy {
+    /**
+     * The user has accessed to a room (read receipt, back pagination...).
+     *
+     * @param roomId the room id
+     */
+    void onRoomAccessed(String roomId);
+
+    /**
+     * The room history has been saved.
+     *
+     * @param roomId      the room id
+     * @param eventsCount the number of saved events
+     * @param bytes       the used storage in bytes
+     */
+    void onRoomStored(String roomId, int eventsCount, long bytes);
+
+    /**
+     * The room history has been deleted.
+     *
+     * @param roomId the room id
+     */
+    void onRoomDeleted(String roomId);
+
+    /**
+     * Provides the max number of events to save for a room.
+     *
+     * @param roomId the room id
+     * @return the max number of events
+     */
+    int getMaxStoredEventsCount(String roomId);
+
+    /**
+     * Provides the rooms whose saved history must be reduced to fit in the policy limits.
+     *
+     * @return the room ids list
+     */
+    List<String> getRoomsToTrim();
+
+    /**
+     * Provides the rooms access timestamps to save them.
+     *
+     * @return the access timestamps by room id
+     */
+    Map<String, Long> getRoomsAccessTs();
+
+    /**
+     * Restore the saved rooms access timestamps.
+     *
+     * @param accessTsByRoomId the access timestamps by room id
+     */
+    void setRoomsAccessTs(Map<String, Long> accessTsByRoomId);
+}
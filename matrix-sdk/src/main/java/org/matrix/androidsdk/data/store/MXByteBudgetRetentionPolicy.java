@@ -0,0 +1,278 @@
+/*
+ * Copyright 2017 Vector Creations Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.matrix.androidsdk.data.store;
+
+import org.matrix.androidsdk.util.Log;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Retention policy which shares a global bytes budget between the rooms.
+ * Each room gets a part of the budget proportional to its weight : the recently accessed rooms
+ * have a larger weight than the other ones so they keep a deeper offline history.
+ * When the budget is exceeded, the least recently accessed rooms are trimmed first.
+ */
+public class MXByteBudgetRetentionPolicy implements IMXStoreRetentionPolicy {
+    private static final String LOG_TAG = "MXByteBudgetRetentionPolicy";
+
+    /**
+     * The budget bounds
+     */
+    public static final long MIN_BUDGET_BYTES = 2 * 1024 * 1024;
+    public static final long MAX_BUDGET_BYTES = 32 * 1024 * 1024;
+
+    // the default budget uses at most this part of the available storage
+    private static final int USABLE_SPACE_RATIO = 50;
+
+    // the saved events count bounds of a room
+    // ensure that there is enough messages to fill a tablet screen
+    static final int MIN_STORED_EVENTS_COUNT = 10;
+    static final int MAX_STORED_EVENTS_COUNT = 2000;
+
+    // the events size estimation when a room has never been saved
+    private static final long DEFAULT_EVENT_BYTES = 300;
+
+    // the weight of a never accessed room
+    private static final double BASE_WEIGHT = 1.0;
+
+    // the extra weight of a room which has just been accessed
+    // it is halved every ACCESS_HALF_LIFE_MS
+    private static final double ACCESS_WEIGHT = 9.0;
+    private static final long ACCESS_HALF_LIFE_MS = 24 * 60 * 60 * 1000L;
+
+    // the rooms weights sum is computed at most once by period
+    private static final long TOTAL_WEIGHT_CACHE_MS = 1000;
+
+    // a room is only trimmed when it exceeds its budget part by this ratio
+    private static final double TRIM_TOLERANCE = 1.25;
+
+    /**
+     * The saved data of a room.
+     */
+    private static class RoomUsage {
+        long mAccessTs = 0;
+        int mEventsCount = 0;
+        long mBytes = 0;
+    }
+
+    // the global budget
+    private final long mBudgetBytes;
+
+    // the rooms usage by room id
+    private final Map<String, RoomUsage> mRoomUsages = new HashMap<>();
+
+    // the rooms weights sum cache
+    private double mTotalWeight = 0;
+    private long mTotalWeightTs = 0;
+
+    /**
+     * Provides a budget adapted to the available storage.
+     *
+     * @param usableSpace the usable space of the storage in bytes
+     * @return the budget in bytes
+     */
+    public static long computeBudget(long usableSpace) {
+        return Math.max(MIN_BUDGET_BYTES, Math.min(MAX_BUDGET_BYTES, usableSpace / USABLE_SPACE_RATIO));
+    }
+
+    /**
+     * Constructor
+     *
+     * @param budgetBytes the global budget in bytes
+     */
+    public MXByteBudgetRetentionPolicy(long budgetBytes) {
+        mBudgetBytes = budgetBytes;
+    }
+
+    /**
+     * @return the global budget in bytes
+     */
+    public long getBudget() {
+        return mBudgetBytes;
+    }
+
+    /**
+     * @return the used storage in bytes
+     */
+    public synchronized long getUsedBytes() {
+        long usedBytes = 0;
+
+        for (RoomUsage usage : mRoomUsages.values()) {
+            usedBytes += usage.mBytes;
+        }
+
+        return usedBytes;
+    }
+
+    /**
+     * Provides the usage of a room, it is created if it does not exist.
+     *
+     * @param roomId the room id
+     * @return the room usage
+     */
+    private RoomUsage getRoomUsage(String roomId) {
+        RoomUsage usage = mRoomUsages.get(roomId);
+
+        if (null == usage) {
+            usage = new RoomUsage();
+            mRoomUsages.put(roomId, usage);
+            mTotalWeightTs = 0;
+        }
+
+        return usage;
+    }
+
+    /**
+     * Compute the weight of a room.
+     *
+     * @param usage the room usage
+     * @param now   the current time
+     * @return the room weight
+     */
+    private static double getWeight(RoomUsage usage, long now) {
+        if (0 == usage.mAccessTs) {
+            return BASE_WEIGHT;
+        }
+
+        long age = Math.max(0, now - usage.mAccessTs);
+        return BASE_WEIGHT + ACCESS_WEIGHT * Math.pow(0.5, (double) age / ACCESS_HALF_LIFE_MS);
+    }
+
+    /**
+     * Provides the budget part of a room.
+     *
+     * @param usage the room usage
+     * @param now   the current time
+     * @return the room budget in bytes
+     */
+    private long getRoomBudget(RoomUsage usage, long now) {
+        if ((0 == mTotalWeightTs) || ((now - mTotalWeightTs) > TOTAL_WEIGHT_CACHE_MS)) {
+            mTotalWeight = 0;
+
+            for (RoomUsage roomUsage : mRoomUsages.values()) {
+                mTotalWeight += getWeight(roomUsage, now);
+            }
+
+            mTotalWeightTs = now;
+        }
+
+        if (mTotalWeight <= 0) {
+            return mBudgetBytes;
+        }
+
+        return (long) (mBudgetBytes * getWeight(usage, now) / mTotalWeight);
+    }
+
+    @Override
+    public synchronized void onRoomAccessed(String roomId) {
+        getRoomUsage(roomId).mAccessTs = System.currentTimeMillis();
+        mTotalWeightTs = 0;
+    }
+
+    @Override
+    public synchronized void onRoomStored(String roomId, int eventsCount, long bytes) {
+        RoomUsage usage = getRoomUsage(roomId);
+        usage.mEventsCount = eventsCount;
+        usage.mBytes = bytes;
+    }
+
+    @Override
+    public synchronized void onRoomDeleted(String roomId) {
+        if (null != mRoomUsages.remove(roomId)) {
+            mTotalWeightTs = 0;
+        }
+    }
+
+    @Override
+    public synchronized int getMaxStoredEventsCount(String roomId) {
+        RoomUsage usage = getRoomUsage(roomId);
+
+        long eventBytes = ((usage.mEventsCount > 0) && (usage.mBytes > 0)) ? Math.max(1, usage.mBytes / usage.mEventsCount) : DEFAULT_EVENT_BYTES;
+        long count = getRoomBudget(usage, System.currentTimeMillis()) / eventBytes;
+
+        return (int) Math.max(MIN_STORED_EVENTS_COUNT, Math.min(MAX_STORED_EVENTS_COUNT, count));
+    }
+
+    @Override
+    public synchronized List<String> getRoomsToTrim() {
+        long usedBytes = getUsedBytes();
+
+        if (usedBytes <= mBudgetBytes) {
+            return Collections.emptyList();
+        }
+
+        // the least recently accessed rooms first
+        List<Map.Entry<String, RoomUsage>> entries = new ArrayList<>(mRoomUsages.entrySet());
+
+        Collections.sort(entries, new Comparator<Map.Entry<String, RoomUsage>>() {
+            @Override
+            public int compare(Map.Entry<String, RoomUsage> lhs, Map.Entry<String, RoomUsage> rhs) {
+                return (lhs.getValue().mAccessTs < rhs.getValue().mAccessTs) ? -1 : ((lhs.getValue().mAccessTs == rhs.getValue().mAccessTs) ? 0 : 1);
+            }
+        });
+
+        long now = System.currentTimeMillis();
+        List<String> roomIds = new ArrayList<>();
+
+        for (Map.Entry<String, RoomUsage> entry : entries) {
+            RoomUsage usage = entry.getValue();
+            long roomBudget = getRoomBudget(usage, now);
+
+            if ((usage.mEventsCount > MIN_STORED_EVENTS_COUNT) && (usage.mBytes > roomBudget * TRIM_TOLERANCE)) {
+                roomIds.add(entry.getKey());
+                usedBytes -= (usage.mBytes - roomBudget);
+
+                if (usedBytes <= mBudgetBytes) {
+                    break;
+                }
+            }
+        }
+
+        Log.d(LOG_TAG, "## getRoomsToTrim() : " + roomIds.size() + " rooms to trim to fit in " + mBudgetBytes + " bytes");
+
+        return roomIds;
+    }
+
+    @Override
+    public synchronized Map<String, Long> getRoomsAccessTs() {
+        Map<String, Long> accessTsByRoomId = new HashMap<>();
+
+        for (Map.Entry<String, RoomUsage> entry : mRoomUsages.entrySet()) {
+            if (0 != entry.getValue().mAccessTs) {
+                accessTsByRoomId.put(entry.getKey(), entry.getValue().mAccessTs);
+            }
+        }
+
+        return accessTsByRoomId;
+    }
+
+    @Override
+    public synchronized void setRoomsAccessTs(Map<String, Long> accessTsByRoomId) {
+        for (Map.Entry<String, Long> entry : accessTsByRoomId.entrySet()) {
+            if (null != entry.getValue()) {
+                getRoomUsage(entry.getKey()).mAccessTs = entry.getValue();
+            }
+        }
+
+        mTotalWeightTs = 0;
+    }
+}
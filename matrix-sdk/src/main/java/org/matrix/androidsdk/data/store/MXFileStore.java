@@ -42,16 +42,25 @@ import org.matrix.androidsdk.util.MXOsHandler;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
 import java.util.zip.GZIPInputStream;
 import java.util.zip.GZIPOutputStream;
 
@@ -62,18 +71,54 @@ public class MXFileStore extends MXMemoryStore {
     private static final String LOG_TAG = "MXFileStore";
 
     // some constant values
-    private static final int MXFILE_VERSION = 12;
+    private static final int MXFILE_VERSION = 13;
 
-    // ensure that there is enough messages to fill a tablet screen
-    private static final int MAX_STORED_MESSAGES_COUNT = 50;
+    // the java serialization based store version
+    // its files can still be read by MXFileStoreCodec so it is migrated instead of being cleared
+    private static final int MXFILE_JAVA_SERIALIZATION_VERSION = 12;
+
+    // the min number of saved messages when a room has a very verbose history without tokens
+    private static final int MIN_STORED_MESSAGES_COUNT = 10;
+
+    // the room events journal is compacted when it reaches this size (in bytes)
+    private static final long MAX_ROOM_EVENTS_JOURNAL_SIZE = 64 * 1024;
+
+    // the room state snapshot is rewritten when its journal becomes larger than half of its size
+    // (and larger than this minimum size)
+    private static final long MIN_ROOM_STATE_JOURNAL_COMPACTION_SIZE = 16 * 1024;
+
+    // the maximum number of threads used to read the files while opening the store
+    private static final int MAX_LOADING_THREADS = 4;
+
+    // the max time to write the pending commits when the store is closed
+    private static final long CLOSE_FLUSH_TIMEOUT_MS = 10000;
+
+    // the number of the most recently active rooms whose states are loaded after opening the store in lazy mode
+    private static final int LAZY_ROOM_STATES_WARM_UP_COUNT = 20;
 
     private static final String MXFILE_STORE_FOLDER = "MXFileStore";
     private static final String MXFILE_STORE_METADATA_FILE_NAME = "MXFileStore";
+    private static final String MXFILE_STORE_ROOMS_ACCESS_FILE_NAME = "rooms_access";
+    private static final String MXFILE_STORE_WARM_START_IMAGE_FILE_NAME = "warm_start";
+    private static final String MXFILE_STORE_USERS_DIRECTORY_FILE_NAME = "users_directory";
+
+    // the warm start image keys
+    private static final String WARM_START_STREAM_TOKEN = "streamToken";
+    private static final String WARM_START_ROOMS = "rooms";
+    private static final String WARM_START_SUMMARIES = "summaries";
+    private static final String WARM_START_ROOM_ID = "roomId";
+    private static final String WARM_START_ROOM_TOKEN = "token";
+    private static final String WARM_START_ROOM_EVENTS = "events";
+    private static final String WARM_START_ROOM_BYTES = "bytes";
+    private static final String WARM_START_ROOM_HAS_STATE = "hasState";
+    private static final String WARM_START_ROOM_ACCOUNT_DATA = "accountData";
 
     private static final String MXFILE_STORE_GZ_ROOMS_MESSAGES_FOLDER = "messages_gz";
+    private static final String MXFILE_STORE_ROOMS_MESSAGES_JOURNAL_FOLDER = "messages_journal";
     private static final String MXFILE_STORE_ROOMS_TOKENS_FOLDER = "tokens";
     private static final String MXFILE_STORE_GZ_ROOMS_STATE_FOLDER = "state_gz";
     private static final String MXFILE_STORE_GZ_ROOMS_STATE_EVENTS_FOLDER = "state_rooms_events";
+    private static final String MXFILE_STORE_ROOMS_STATE_JOURNAL_FOLDER = "state_journal";
     private static final String MXFILE_STORE_ROOMS_SUMMARY_FOLDER = "summary";
     private static final String MXFILE_STORE_ROOMS_RECEIPT_FOLDER = "receipts";
     private static final String MXFILE_STORE_ROOMS_ACCOUNT_DATA_FOLDER = "accountData";
@@ -93,12 +138,39 @@ public class MXFileStore extends MXMemoryStore {
 
     // List of rooms to save on [MXStore commit]
     // filled with roomId
-    private HashSet<String> mRoomsToCommitForMessages;
-    private HashSet<String> mRoomsToCommitForStates;
-    private HashSet<String> mRoomsToCommitForSummaries;
-    private HashSet<String> mRoomsToCommitForAccountData;
-    private HashSet<String> mRoomsToCommitForReceipts;
-    private HashSet<String> mUserIdsToCommit;
+    // they are drained on the store thread when the commits are written
+    private final Set<String> mRoomsToCommitForMessages = Collections.synchronizedSet(new HashSet<String>());
+    private final Set<String> mRoomsToCommitForStates = Collections.synchronizedSet(new HashSet<String>());
+    private final Set<String> mRoomsToCommitForSummaries = Collections.synchronizedSet(new HashSet<String>());
+    private final Set<String> mRoomsToCommitForAccountData = Collections.synchronizedSet(new HashSet<String>());
+    private final Set<String> mRoomsToCommitForReceipts = Collections.synchronizedSet(new HashSet<String>());
+    private final Set<String> mUserIdsToCommit = Collections.synchronizedSet(new HashSet<String>());
+
+    // the events to append to the room journals on [MXStore commit]
+    // roomId -> journal records
+    private final HashMap<String, List<MXFileStoreEventsJournal.Record>> mRoomsToAppendForMessages = new HashMap<>();
+
+    // the live state events to append to the room state journals on [MXStore commit]
+    // roomId -> state events (an empty list when only the local fields have been updated)
+    private final HashMap<String, List<Event>> mRoomsToAppendForStates = new HashMap<>();
+
+    // the latest room tokens saved on the file system
+    private final Map<String, String> mSavedRoomTokens = new ConcurrentHashMap<>();
+
+    // the damaged rooms which have been removed from the store and which are not yet reported
+    private final Set<String> mQuarantinedRoomIds = new LinkedHashSet<>();
+
+    // the number of damaged rooms since the store has been opened
+    private long mQuarantinedRoomsCount = 0;
+
+    // the number of events saved on the file system (snapshot and journal) by room id
+    private final Map<String, Integer> mSavedRoomEventsCounts = new ConcurrentHashMap<>();
+
+    // define which part of the rooms history is saved
+    private IMXStoreRetentionPolicy mRetentionPolicy = null;
+
+    // the rooms access timestamps must be saved
+    private boolean mRoomsAccessHasChanged = false;
 
     // Flag to indicate metaData needs to be store
     private boolean mMetaDataHasChanged = false;
@@ -107,17 +179,35 @@ public class MXFileStore extends MXMemoryStore {
     private File mStoreFolderFile = null;
     private File mGzStoreRoomsMessagesFolderFile = null;
     private File mStoreRoomsTokensFolderFile = null;
+    private File mStoreRoomsMessagesJournalFolderFile = null;
     private File mGzStoreRoomsStateFolderFile = null;
     private File mGzStoreRoomsStateEventsFolderFile = null;
+    private File mStoreRoomsStateJournalFolderFile = null;
     private File mStoreRoomsSummaryFolderFile = null;
     private File mStoreRoomsMessagesReceiptsFolderFile = null;
     private File mStoreRoomsAccountDataFolderFile = null;
     private File mStoreUserFolderFile = null;
 
+    // the saved users
+    private MXFileStoreUsersDirectory mUsersDirectory = null;
+
+    // the room events journals
+    private MXFileStoreEventsJournal mEventsJournal = null;
+
+    // the room states journals
+    private MXFileStoreStateJournal mStateJournal = null;
+
+    // the image of the data required to open the store
+    private MXFileStoreWarmStartImage mWarmStartImage = null;
+
     // the background thread
     private HandlerThread mHandlerThread = null;
     private MXOsHandler mFileStoreHandler = null;
 
+    // coalesce the commits
+    private MXFileStoreCommitScheduler mCommitScheduler = null;
+    private long mMaxCommitLatency = MXFileStoreCommitScheduler.DEFAULT_MAX_COMMIT_LATENCY_MS;
+
     private boolean mIsKilled = false;
 
     private boolean mIsNewStorage = false;
@@ -133,6 +223,28 @@ public class MXFileStore extends MXMemoryStore {
     // store some stats
     private HashMap<String, Long> mStoreStats = new HashMap<>();
 
+    // the files are read and decoded by a threads pool while opening the store
+    // whereas the loaded objects are applied by the store thread in the dependencies order.
+    private ExecutorService mLoadingExecutor = null;
+    private final Map<File, Future<Object>> mPrefetchedObjects = new ConcurrentHashMap<>();
+
+    // the room states are loaded at first use
+    private boolean mIsLazyRoomStatesLoading = false;
+
+    // the lazy room states loads, they are run by the store thread
+    private final Map<String, FutureTask<RoomState>> mLazyRoomStatesTasks = new HashMap<>();
+
+    // the evicted room events reloads, they are run by the store thread
+    private final Map<String, FutureTask<LinkedHashMap<String, Event>>> mEvictedRoomEventsTasks = new HashMap<>();
+
+    // load the room states at first use
+    private final EventTimeline.LiveStateLoader mLiveStateLoader = new EventTimeline.LiveStateLoader() {
+        @Override
+        public RoomState loadLiveState(String roomId) {
+            return waitForLazyRoomState(roomId);
+        }
+    };
+
     /**
      * Create the file store dirtrees
      */
@@ -141,12 +253,14 @@ public class MXFileStore extends MXMemoryStore {
         // MXFileStore/userID/
         // MXFileStore/userID/MXFileStore
         // MXFileStore/userID/Messages/
+        // MXFileStore/userID/messages_journal/
         // MXFileStore/userID/Tokens/
         // MXFileStore/userID/States/
         // MXFileStore/userID/Summaries/
         // MXFileStore/userID/receipt/<room Id>/receipts
         // MXFileStore/userID/accountData/
-        // MXFileStore/userID/users/
+        // MXFileStore/userID/users/ (legacy, it is migrated to users_directory)
+        // MXFileStore/userID/users_directory
 
         // create the dirtree
         mStoreFolderFile = new File(new File(mContext.getApplicationContext().getFilesDir(), MXFILE_STORE_FOLDER), userId);
@@ -160,6 +274,9 @@ public class MXFileStore extends MXMemoryStore {
             mGzStoreRoomsMessagesFolderFile.mkdirs();
         }
 
+        mStoreRoomsMessagesJournalFolderFile = new File(mStoreFolderFile, MXFILE_STORE_ROOMS_MESSAGES_JOURNAL_FOLDER);
+        mEventsJournal = new MXFileStoreEventsJournal(mStoreRoomsMessagesJournalFolderFile);
+
         mStoreRoomsTokensFolderFile = new File(mStoreFolderFile, MXFILE_STORE_ROOMS_TOKENS_FOLDER);
         if (!mStoreRoomsTokensFolderFile.exists()) {
             mStoreRoomsTokensFolderFile.mkdirs();
@@ -175,6 +292,9 @@ public class MXFileStore extends MXMemoryStore {
             mGzStoreRoomsStateEventsFolderFile.mkdirs();
         }
 
+        mStoreRoomsStateJournalFolderFile = new File(mStoreFolderFile, MXFILE_STORE_ROOMS_STATE_JOURNAL_FOLDER);
+        mStateJournal = new MXFileStoreStateJournal(mStoreRoomsStateJournalFolderFile);
+
         mStoreRoomsSummaryFolderFile = new File(mStoreFolderFile, MXFILE_STORE_ROOMS_SUMMARY_FOLDER);
         if (!mStoreRoomsSummaryFolderFile.exists()) {
             mStoreRoomsSummaryFolderFile.mkdirs();
@@ -191,8 +311,12 @@ public class MXFileStore extends MXMemoryStore {
         }
 
         mStoreUserFolderFile = new File(mStoreFolderFile, MXFILE_STORE_USER_FOLDER);
-        if (!mStoreUserFolderFile.exists()) {
-            mStoreUserFolderFile.mkdirs();
+        mUsersDirectory = new MXFileStoreUsersDirectory(new File(mStoreFolderFile, MXFILE_STORE_USERS_DIRECTORY_FILE_NAME));
+
+        mWarmStartImage = new MXFileStoreWarmStartImage(new File(mStoreFolderFile, MXFILE_STORE_WARM_START_IMAGE_FILE_NAME), MXFILE_VERSION);
+
+        if (null == mRetentionPolicy) {
+            mRetentionPolicy = new MXByteBudgetRetentionPolicy(MXByteBudgetRetentionPolicy.computeBudget(mStoreFolderFile.getUsableSpace()));
         }
     }
 
@@ -213,14 +337,6 @@ public class MXFileStore extends MXMemoryStore {
 
         createDirTree(mCredentials.userId);
 
-        // updated data
-        mRoomsToCommitForMessages = new HashSet<>();
-        mRoomsToCommitForStates = new HashSet<>();
-        mRoomsToCommitForSummaries = new HashSet<>();
-        mRoomsToCommitForAccountData = new HashSet<>();
-        mRoomsToCommitForReceipts = new HashSet<>();
-        mUserIdsToCommit = new HashSet<>();
-
         // check if the metadata file exists and if it is valid
         loadMetaData();
 
@@ -236,13 +352,14 @@ public class MXFileStore extends MXMemoryStore {
             mIsOpening = true;
             mHandlerThread.start();
             mFileStoreHandler = new MXOsHandler(mHandlerThread.getLooper());
+            createCommitScheduler();
 
             mMetadata = new MXFileStoreMetaData();
             mMetadata.mUserId = mCredentials.userId;
             mMetadata.mAccessToken = mCredentials.accessToken;
             mMetadata.mVersion = MXFILE_VERSION;
             mMetaDataHasChanged = true;
-            saveMetaData();
+            mCommitScheduler.flush();
 
             mEventStreamToken = null;
 
@@ -253,6 +370,26 @@ public class MXFileStore extends MXMemoryStore {
         }
     }
 
+    /**
+     * Enable the lazy loading of the room states.
+     * When it is enabled, only the rooms list is built when the store is opened.
+     * Each room state (and its members) is loaded by the store thread, at first use or by a background warm-up
+     * which starts with the most recently active rooms. The first use only waits for the store thread.
+     * It must be called before opening the store.
+     *
+     * @param isEnabled true to enable it.
+     */
+    public void setLazyRoomStatesLoading(boolean isEnabled) {
+        mIsLazyRoomStatesLoading = isEnabled;
+    }
+
+    /**
+     * @return true if the room states are loaded at first use.
+     */
+    public boolean isLazyRoomStatesLoading() {
+        return mIsLazyRoomStatesLoading;
+    }
+
     /**
      * Killed the background thread.
      *
@@ -277,16 +414,123 @@ public class MXFileStore extends MXMemoryStore {
         return isKilled;
     }
 
+    /**
+     * Create the commits scheduler.
+     * It must be called once the store thread handler is created.
+     */
+    private void createCommitScheduler() {
+        mCommitScheduler = new MXFileStoreCommitScheduler(mFileStoreHandler, new Runnable() {
+            @Override
+            public void run() {
+                writePendingCommits();
+            }
+        });
+
+        mCommitScheduler.setMaxLatency(mMaxCommitLatency);
+    }
+
+    /**
+     * Update the max delay between a commit and the write of its updates.
+     * The commits received during this delay are written in a single batch.
+     *
+     * @param maxLatency the delay in milliseconds, 0 to write at each commit.
+     */
+    public void setMaxCommitLatency(long maxLatency) {
+        mMaxCommitLatency = maxLatency;
+
+        if (null != mCommitScheduler) {
+            mCommitScheduler.setMaxLatency(maxLatency);
+        }
+    }
+
     /**
      * Save changes in the store.
      * If the store uses permanent storage like database or file, it is the optimised time
      * to commit the last changes.
+     * The updates are written in background with the next commits received before the max commit latency.
      */
     @Override
     public void commit() {
+        // Save data only if metaData exists
+        if ((null != mMetadata) && !isKilled() && (null != mCommitScheduler)) {
+            mCommitScheduler.schedule();
+        }
+    }
+
+    /**
+     * Write the pending commits as soon as possible.
+     */
+    @Override
+    public void flushCommits() {
+        if ((null != mMetadata) && !isKilled() && (null != mCommitScheduler)) {
+            mCommitScheduler.flush();
+        }
+    }
+
+    /**
+     * Write the pending commits and the warm start image.
+     * It should be called when the application goes to background.
+     */
+    @Override
+    public void saveWarmStartImage() {
+        if ((null != mMetadata) && !isKilled() && (null != mCommitScheduler)) {
+            mCommitScheduler.flush();
+
+            // the flush is posted before this runnable
+            mFileStoreHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    writeWarmStartImage();
+                }
+            });
+        }
+    }
+
+    /**
+     * Tell if some not yet written updates modify the warm start image content.
+     * The receipts, the users and the room states are not in the image.
+     *
+     * @return true if there are pending updates
+     */
+    private boolean hasPendingWarmStartImageUpdates() {
+        boolean hasPendingAppends;
+
+        synchronized (mRoomsToAppendForMessages) {
+            hasPendingAppends = !mRoomsToAppendForMessages.isEmpty();
+        }
+
+        return hasPendingAppends || mMetaDataHasChanged || !mRoomsToCommitForMessages.isEmpty() ||
+                !mRoomsToCommitForSummaries.isEmpty() || !mRoomsToCommitForAccountData.isEmpty();
+    }
+
+    /**
+     * Empty a pending updates set.
+     *
+     * @param set the set
+     * @return the set content
+     */
+    private static HashSet<String> drain(Set<String> set) {
+        synchronized (set) {
+            HashSet<String> content = new HashSet<>(set);
+            set.clear();
+            return content;
+        }
+    }
+
+    /**
+     * Write the pending updates.
+     * It is called on the store thread.
+     */
+    private void writePendingCommits() {
         // Save data only if metaData exists
         if ((null != mMetadata) && !isKilled()) {
             Log.d(LOG_TAG, "++ Commit");
+
+            // the warm start image does not match anymore with the saved data
+            if (hasPendingWarmStartImageUpdates()) {
+                mWarmStartImage.delete();
+            }
+
             saveUsers();
             saveRoomsMessages();
             saveRoomStates();
@@ -294,6 +538,11 @@ public class MXFileStore extends MXMemoryStore {
             saveRoomsAccountData();
             saveReceipts();
             saveMetaData();
+
+            // the saved rooms can be evicted from the memory
+            if (mIsReady) {
+                evictColdRooms();
+            }
             Log.d(LOG_TAG, "-- Commit");
         }
     }
@@ -325,6 +574,7 @@ public class MXFileStore extends MXMemoryStore {
                         return;
                     }
                     mFileStoreHandler = new MXOsHandler(mHandlerThread.getLooper());
+                    createCommitScheduler();
                 }
 
                 Runnable r = new Runnable() {
@@ -335,16 +585,28 @@ public class MXFileStore extends MXMemoryStore {
                                 Log.e(LOG_TAG, "Open the store in the background thread.");
 
                                 String errorDescription = null;
-                                boolean succeed = (mMetadata.mVersion == MXFILE_VERSION) &&
+                                boolean isMigration = (mMetadata.mVersion == MXFILE_JAVA_SERIALIZATION_VERSION);
+                                boolean succeed = ((mMetadata.mVersion == MXFILE_VERSION) || isMigration) &&
                                         TextUtils.equals(mMetadata.mUserId, mCredentials.userId) &&
                                         TextUtils.equals(mMetadata.mAccessToken, mCredentials.accessToken);
 
+                                boolean isWarmStart = false;
+
                                 if (!succeed) {
                                     errorDescription = "Invalid store content";
                                     Log.e(LOG_TAG, errorDescription);
+                                } else {
+                                    loadRoomsAccess();
+
+                                    // the data required to open the store are read from a single file
+                                    isWarmStart = !isMigration && loadWarmStartImage();
+
+                                    if (!isWarmStart) {
+                                        startPrefetch();
+                                    }
                                 }
 
-                                if (succeed) {
+                                if (succeed && !isWarmStart) {
                                     succeed &= loadRoomsMessages();
                                     if (!succeed) {
                                         errorDescription = "loadRoomsMessages fails";
@@ -354,7 +616,7 @@ public class MXFileStore extends MXMemoryStore {
                                     }
                                 }
 
-                                if (succeed) {
+                                if (succeed && !isWarmStart) {
                                     succeed &= loadRoomsState();
 
                                     if (!succeed) {
@@ -368,9 +630,12 @@ public class MXFileStore extends MXMemoryStore {
                                         Collection<Room> rooms = getRooms();
 
                                         for (Room room : rooms) {
-                                            Collection<RoomMember> members = room.getLiveState().getMembers();
-                                            for (RoomMember member : members) {
-                                                updateUserWithRoomMemberEvent(member);
+                                            // the lazy loaded states update the users when they are loaded
+                                            if (room.getLiveTimeLine().isStateLoaded()) {
+                                                Collection<RoomMember> members = room.getLiveState().getMembers();
+                                                for (RoomMember member : members) {
+                                                    updateUserWithRoomMemberEvent(member);
+                                                }
                                             }
                                         }
 
@@ -380,7 +645,7 @@ public class MXFileStore extends MXMemoryStore {
                                     }
                                 }
 
-                                if (succeed) {
+                                if (succeed && !isWarmStart) {
                                     succeed &= loadSummaries();
 
                                     if (!succeed) {
@@ -397,21 +662,22 @@ public class MXFileStore extends MXMemoryStore {
                                         // check also if the user is a member of the room
                                         // https://github.com/vector-im/riot-android/issues/1302
 
-                                        for(String roomId : mRoomSummaries.keySet()) {
+                                        // the inconsistent rooms are fetched again
+                                        for (String roomId : new ArrayList<>(mRoomSummaries.keySet())) {
                                             Room room = getRoom(roomId);
 
                                             if (null == room) {
-                                                succeed = false;
                                                 Log.e(LOG_TAG, "loadSummaries : the room " + roomId + " does not exist");
-                                            } else if (null == room.getMember(mCredentials.userId)) {
-                                                succeed = false;
+                                                quarantineRoom(roomId, "loadSummaries");
+                                            } else if (room.getLiveTimeLine().isStateLoaded() && (null == room.getMember(mCredentials.userId))) {
                                                 Log.e(LOG_TAG, "loadSummaries) : a summary exists for the roomId " + roomId + " but the user is not anymore a member");
+                                                quarantineRoom(roomId, "loadSummaries");
                                             }
                                         }
                                     }
                                 }
 
-                                if (succeed) {
+                                if (succeed && !isWarmStart) {
                                     succeed &= loadRoomsAccountData();
 
                                     if (!succeed) {
@@ -427,6 +693,9 @@ public class MXFileStore extends MXMemoryStore {
                                 if (!succeed) {
                                     Log.e(LOG_TAG, "Fail to open the store in background");
 
+                                    // the files are going to be deleted
+                                    stopPrefetch();
+
                                     // delete all data set mMetadata to null
                                     // backup it to restore it
                                     // the behaviour should be the same as first login
@@ -434,10 +703,10 @@ public class MXFileStore extends MXMemoryStore {
 
                                     deleteAllData(true);
 
-                                    mRoomsToCommitForMessages = new HashSet<>();
-                                    mRoomsToCommitForStates = new HashSet<>();
-                                    mRoomsToCommitForSummaries = new HashSet<>();
-                                    mRoomsToCommitForReceipts = new HashSet<>();
+                                    mRoomsToCommitForMessages.clear();
+                                    mRoomsToCommitForStates.clear();
+                                    mRoomsToCommitForSummaries.clear();
+                                    mRoomsToCommitForReceipts.clear();
 
                                     mMetadata = tmpMetadata;
 
@@ -458,13 +727,17 @@ public class MXFileStore extends MXMemoryStore {
                                     mEventStreamToken = null;
                                     mAreReceiptsReady = true;
                                 } else {
+                                    if (isMigration) {
+                                        migrateFromJavaSerialization();
+                                    }
+
                                     Log.d(LOG_TAG, "++ store stats");
                                     Set<String> roomIds = mRoomEvents.keySet();
 
-                                    for(String roomId : roomIds) {
+                                    for (String roomId : roomIds) {
                                         Room room = getRoom(roomId);
 
-                                        if ((null != room) && (null != room.getLiveState())) {
+                                        if ((null != room) && room.getLiveTimeLine().isStateLoaded() && (null != room.getLiveState())) {
                                             int membersCount = room.getLiveState().getMembers().size();
                                             int eventsCount = mRoomEvents.get(roomId).size();
 
@@ -496,6 +769,9 @@ public class MXFileStore extends MXMemoryStore {
                                     Log.e(LOG_TAG, "The store is opened.");
                                     dispatchOnStoreReady(mCredentials.userId);
 
+                                    // the damaged rooms must be fetched again
+                                    dispatchQuarantinedRooms();
+
                                     // load the following items with delay
                                     // theses items are not required to be ready
 
@@ -504,7 +780,14 @@ public class MXFileStore extends MXMemoryStore {
 
                                     // load the users
                                     loadUsers();
+
+                                    // the room states are not in the warm start image
+                                    if (mIsLazyRoomStatesLoading || isWarmStart) {
+                                        warmUpRoomStates();
+                                    }
                                 }
+
+                                stopPrefetch();
                             }
                         });
                     }
@@ -536,6 +819,113 @@ public class MXFileStore extends MXMemoryStore {
         }
     }
 
+    /**
+     * Start reading the store files in parallel.
+     * The folders are listed in the loading order so the first needed files are read first.
+     */
+    private void startPrefetch() {
+        int threadsCount = Math.max(1, Math.min(MAX_LOADING_THREADS, Runtime.getRuntime().availableProcessors()));
+
+        Log.d(LOG_TAG, "## startPrefetch() : use " + threadsCount + " threads");
+
+        mLoadingExecutor = Executors.newFixedThreadPool(threadsCount);
+
+        prefetchFolder(mGzStoreRoomsMessagesFolderFile);
+        prefetchFolder(mStoreRoomsTokensFolderFile);
+        if (!mIsLazyRoomStatesLoading) {
+            prefetchFolder(mGzStoreRoomsStateFolderFile);
+        }
+        prefetchFolder(mStoreRoomsSummaryFolderFile);
+        prefetchFolder(mStoreRoomsAccountDataFolderFile);
+        prefetchFolder(mStoreRoomsMessagesReceiptsFolderFile);
+        prefetchFolder(mStoreUserFolderFile);
+    }
+
+    /**
+     * Read the files of a folder in the loading threads pool.
+     *
+     * @param folder the folder
+     */
+    private void prefetchFolder(File folder) {
+        List<String> filenames = listFiles(folder.list());
+
+        for (final String filename : filenames) {
+            final File file = new File(folder, filename);
+
+            try {
+                mPrefetchedObjects.put(file, mLoadingExecutor.submit(new Callable<Object>() {
+                    @Override
+                    public Object call() throws Exception {
+                        return readObject("prefetch " + filename, file);
+                    }
+                }));
+            } catch (Exception e) {
+                Log.e(LOG_TAG, "## prefetchFolder() : failed " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Stop the loading threads pool and release the unused prefetched objects.
+     */
+    private void stopPrefetch() {
+        if (null != mLoadingExecutor) {
+            mLoadingExecutor.shutdownNow();
+
+            try {
+                // wait that the pending readings are done before updating the files
+                mLoadingExecutor.awaitTermination(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Log.e(LOG_TAG, "## stopPrefetch() : awaitTermination failed " + e.getMessage());
+            }
+
+            mLoadingExecutor = null;
+        }
+
+        mPrefetchedObjects.clear();
+    }
+
+    /**
+     * Provide the object stored in a file.
+     * The prefetched one is used when it exists.
+     *
+     * @param description the object description
+     * @param file        the file
+     * @return the object, null if it fails.
+     */
+    private Object readPrefetchedObject(String description, File file) {
+        Future<Object> future = mPrefetchedObjects.remove(file);
+
+        if (null != future) {
+            try {
+                return future.get();
+            } catch (Exception e) {
+                // the file is read again below
+                Log.e(LOG_TAG, "## readPrefetchedObject() " + description + " : failed " + e.getMessage());
+            }
+        }
+
+        return readObject(description, file);
+    }
+
+    /**
+     * Migrate a MXFILE_JAVA_SERIALIZATION_VERSION store.
+     * The files are rewritten with MXFileStoreCodec at the next commit.
+     */
+    private void migrateFromJavaSerialization() {
+        Log.d(LOG_TAG, "## migrateFromJavaSerialization() : migrate from version " + mMetadata.mVersion + " to " + MXFILE_VERSION);
+
+        mRoomsToCommitForMessages.addAll(mRoomEvents.keySet());
+        mRoomsToCommitForStates.addAll(mRooms.keySet());
+        mRoomsToCommitForSummaries.addAll(mRoomSummaries.keySet());
+        mRoomsToCommitForAccountData.addAll(mRoomAccountData.keySet());
+
+        mRoomsToCommitForReceipts.addAll(listFiles(mStoreRoomsMessagesReceiptsFolderFile.list()));
+
+        mMetadata.mVersion = MXFILE_VERSION;
+        mMetaDataHasChanged = true;
+    }
+
     /**
      * Check if the read receipts are ready to be used.
      *
@@ -568,6 +958,22 @@ public class MXFileStore extends MXMemoryStore {
      * @return the store stats
      */
     public Map<String, Long> getStats() {
+        if (null != mCommitScheduler) {
+            mStoreStats.put("commitsCount", mCommitScheduler.getCommitsCount());
+            mStoreStats.put("commitQueueDepth", (long) mCommitScheduler.getPendingCommitsCount());
+            mStoreStats.put("commitFlushesCount", mCommitScheduler.getFlushesCount());
+            mStoreStats.put("commitLastFlushLatency", mCommitScheduler.getLastFlushLatency());
+            mStoreStats.put("commitMaxFlushLatency", mCommitScheduler.getMaxFlushLatency());
+            mStoreStats.put("commitLastFlushDuration", mCommitScheduler.getLastFlushDuration());
+        }
+
+        mStoreStats.put("quarantinedRoomsCount", mQuarantinedRoomsCount);
+
+        if (mRetentionPolicy instanceof MXByteBudgetRetentionPolicy) {
+            mStoreStats.put("retentionBudget", ((MXByteBudgetRetentionPolicy) mRetentionPolicy).getBudget());
+            mStoreStats.put("retentionUsedBytes", ((MXByteBudgetRetentionPolicy) mRetentionPolicy).getUsedBytes());
+        }
+
         return mStoreStats;
     }
 
@@ -580,11 +986,30 @@ public class MXFileStore extends MXMemoryStore {
         Log.d(LOG_TAG, "Close the store");
 
         super.close();
+
+        // write the pending commits and the warm start image before killing the store thread
+        if ((null != mCommitScheduler) && !isKilled() && (null != mMetadata)) {
+            Runnable writeWarmStartImage = new Runnable() {
+                @Override
+                public void run() {
+                    writeWarmStartImage();
+                }
+            };
+
+            if (!mCommitScheduler.flushAndWait(CLOSE_FLUSH_TIMEOUT_MS, writeWarmStartImage)) {
+                Log.e(LOG_TAG, "## close() : the pending commits are not written after " + CLOSE_FLUSH_TIMEOUT_MS + " ms");
+            }
+        }
+
         setIsKilled(true);
         if (null != mHandlerThread) {
             mHandlerThread.quit();
         }
         mHandlerThread = null;
+
+        // the store thread will not load them
+        cancelLazyRoomStatesTasks();
+        cancelEvictedRoomEventsTasks();
     }
 
     /**
@@ -595,6 +1020,19 @@ public class MXFileStore extends MXMemoryStore {
     public void clear() {
         Log.d(LOG_TAG, "Clear the store");
         super.clear();
+
+        // the pending commits are useless
+        mRoomsToCommitForMessages.clear();
+        mRoomsToCommitForStates.clear();
+        mRoomsToCommitForSummaries.clear();
+        mRoomsToCommitForAccountData.clear();
+        mRoomsToCommitForReceipts.clear();
+        mUserIdsToCommit.clear();
+
+        // the room states and messages files are deleted
+        cancelLazyRoomStatesTasks();
+        cancelEvictedRoomEventsTasks();
+
         deleteAllData(false);
     }
 
@@ -604,6 +1042,10 @@ public class MXFileStore extends MXMemoryStore {
      * @param init true to init the filesystem dirtree
      */
     private void deleteAllData(boolean init) {
+        if (null != mUsersDirectory) {
+            mUsersDirectory.delete();
+        }
+
         // delete the dedicated directories
         try {
             ContentUtils.deleteDirectory(mStoreFolderFile);
@@ -620,6 +1062,16 @@ public class MXFileStore extends MXMemoryStore {
         mMetadata = null;
         mEventStreamToken = null;
         mAreUsersLoaded = true;
+
+        synchronized (mRoomsToAppendForMessages) {
+            mRoomsToAppendForMessages.clear();
+        }
+
+        synchronized (mRoomsToAppendForStates) {
+            mRoomsToAppendForStates.clear();
+        }
+        mSavedRoomTokens.clear();
+        mSavedRoomEventsCounts.clear();
     }
 
     /**
@@ -735,6 +1187,13 @@ public class MXFileStore extends MXMemoryStore {
         super.setIgnoredUserIdsList(users);
     }
 
+    @Override
+    public void setSyncFilter(String filter, String filterId) {
+        Log.d(LOG_TAG, "## setSyncFilter() : " + filterId);
+        mMetaDataHasChanged = true;
+        super.setSyncFilter(filter, filterId);
+    }
+
     @Override
     public void setDirectChatRoomsDict(Map<String, List<String>> directChatRoomsDict) {
         Log.d(LOG_TAG, "## setDirectChatRoomsDict() : " + directChatRoomsDict);
@@ -755,31 +1214,40 @@ public class MXFileStore extends MXMemoryStore {
         super.flushRoomEvents(roomId);
 
         mRoomsToCommitForMessages.add(roomId);
-        saveRoomsMessages();
+        flushCommits();
     }
 
     @Override
     public void storeRoomEvents(String roomId, TokensChunkResponse<Event> eventsResponse, EventTimeline.Direction direction) {
         boolean canStore = true;
 
+        reloadEvictedRoomEvents(roomId);
+
         // do not flush the room messages file
         // when the user reads the room history and the events list size reaches its max size.
         if (direction == EventTimeline.Direction.BACKWARDS) {
-            LinkedHashMap<String, Event> events = mRoomEvents.get(roomId);
+            // the user reads the room history
+            onRoomAccessed(roomId);
 
-            if (null != events) {
-                canStore = (events.size() < MAX_STORED_MESSAGES_COUNT);
+            canStore = (roomEventsCount(roomId) < mRetentionPolicy.getMaxStoredEventsCount(roomId));
 
-                if (!canStore) {
-                    Log.d(LOG_TAG, "storeRoomEvents : do not flush because reaching the max size");
-                }
+            if (!canStore) {
+                Log.d(LOG_TAG, "storeRoomEvents : do not flush because reaching the max size");
             }
         }
 
-        super.storeRoomEvents(roomId, eventsResponse, direction);
+        if (null == roomId) {
+            super.storeRoomEvents(roomId, eventsResponse, direction);
+            return;
+        }
+
+        // the pending updates are flagged with the room events lock so the room events cannot be evicted before being saved
+        synchronized (getRoomEventsLock(roomId)) {
+            super.storeRoomEvents(roomId, eventsResponse, direction);
 
-        if (canStore) {
-            mRoomsToCommitForMessages.add(roomId);
+            if (canStore) {
+                mRoomsToCommitForMessages.add(roomId);
+            }
         }
     }
 
@@ -790,14 +1258,107 @@ public class MXFileStore extends MXMemoryStore {
      */
     @Override
     public void storeLiveRoomEvent(Event event) {
-        super.storeLiveRoomEvent(event);
-        mRoomsToCommitForMessages.add(event.roomId);
+        if ((null == event) || (null == event.roomId) || (null == event.eventId)) {
+            super.storeLiveRoomEvent(event);
+
+            if ((null != event) && (null != event.roomId)) {
+                mRoomsToCommitForMessages.add(event.roomId);
+            }
+            return;
+        }
+
+        reloadEvictedRoomEvents(event.roomId);
+
+        synchronized (getRoomEventsLock(event.roomId)) {
+            boolean isKnownEvent = doesEventExist(event.eventId, event.roomId);
+
+            if (isKnownEvent) {
+                // a known event is never replaced : only an in place update of the stored instance
+                // (e.g. a pruned redacted event) has to be saved. The duplicated events are ignored.
+                if (getEvent(event.eventId, event.roomId) == event) {
+                    addJournalRecord(event.roomId, new MXFileStoreEventsJournal.Record(event));
+                }
+                return;
+            }
+
+            boolean replacesLocalEcho = (null != getLocalEchoEventId(event.roomId, getTransactionId(event)));
+            int countBefore = roomEventsCount(event.roomId);
+
+            super.storeLiveRoomEvent(event);
+
+            // the event has been appended at the end of the room events,
+            // the replaced local echo deletion has been journaled by onLocalEchoReplaced.
+            // else some other events have been removed : the whole room events must be saved.
+            int expectedCount = replacesLocalEcho ? countBefore : (countBefore + 1);
+
+            if (roomEventsCount(event.roomId) == expectedCount) {
+                addJournalRecord(event.roomId, new MXFileStoreEventsJournal.Record(event));
+            } else {
+                mRoomsToCommitForMessages.add(event.roomId);
+            }
+        }
+    }
+
+    @Override
+    protected void onLocalEchoReplaced(String roomId, String echoEventId) {
+        addJournalRecord(roomId, new MXFileStoreEventsJournal.Record(echoEventId));
     }
 
     @Override
     public void deleteEvent(Event event) {
-        super.deleteEvent(event);
-        mRoomsToCommitForMessages.add(event.roomId);
+        if ((null == event) || (null == event.roomId)) {
+            super.deleteEvent(event);
+            return;
+        }
+
+        reloadEvictedRoomEvents(event.roomId);
+
+        synchronized (getRoomEventsLock(event.roomId)) {
+            super.deleteEvent(event);
+
+            if (null != event.eventId) {
+                addJournalRecord(event.roomId, new MXFileStoreEventsJournal.Record(event.eventId));
+            } else {
+                mRoomsToCommitForMessages.add(event.roomId);
+            }
+        }
+    }
+
+    /**
+     * Provides the number of stored events in a room.
+     *
+     * @param roomId the room id
+     * @return the events count
+     */
+    private int roomEventsCount(String roomId) {
+        if (null == roomId) {
+            return 0;
+        }
+
+        synchronized (getRoomEventsLock(roomId)) {
+            LinkedHashMap<String, Event> events = getLoadedRoomEvents(roomId);
+            return (null != events) ? events.size() : 0;
+        }
+    }
+
+    /**
+     * Add a record to the room events journal.
+     * It will be appended at the next commit.
+     *
+     * @param roomId the room id
+     * @param record the record
+     */
+    private void addJournalRecord(String roomId, MXFileStoreEventsJournal.Record record) {
+        synchronized (mRoomsToAppendForMessages) {
+            List<MXFileStoreEventsJournal.Record> records = mRoomsToAppendForMessages.get(roomId);
+
+            if (null == records) {
+                records = new ArrayList<>();
+                mRoomsToAppendForMessages.put(roomId, records);
+            }
+
+            records.add(record);
+        }
     }
 
     /**
@@ -806,6 +1367,15 @@ public class MXFileStore extends MXMemoryStore {
      * @param roomId the room id.
      */
     private void deleteRoomMessagesFiles(String roomId) {
+        // the warm start image contains the room messages
+        mWarmStartImage.delete();
+
+        // messages journal
+        mEventsJournal.delete(roomId);
+        mSavedRoomTokens.remove(roomId);
+        mSavedRoomEventsCounts.remove(roomId);
+        mRetentionPolicy.onRoomDeleted(roomId);
+
         // messages list
         File messagesListFile = new File(mGzStoreRoomsMessagesFolderFile, roomId);
 
@@ -844,14 +1414,22 @@ public class MXFileStore extends MXMemoryStore {
     public void deleteAllRoomMessages(String roomId, boolean keepUnsent) {
         Log.d(LOG_TAG, "deleteAllRoomMessages " + roomId);
 
-        super.deleteAllRoomMessages(roomId, keepUnsent);
-        if (!keepUnsent) {
-            deleteRoomMessagesFiles(roomId);
+        if (null == roomId) {
+            return;
         }
 
-        deleteRoomSummaryFile(roomId);
+        reloadEvictedRoomEvents(roomId);
 
-        mRoomsToCommitForMessages.add(roomId);
+        synchronized (getRoomEventsLock(roomId)) {
+            super.deleteAllRoomMessages(roomId, keepUnsent);
+            if (!keepUnsent) {
+                deleteRoomMessagesFiles(roomId);
+            }
+
+            mRoomsToCommitForMessages.add(roomId);
+        }
+
+        deleteRoomSummaryFile(roomId);
         mRoomsToCommitForSummaries.add(roomId);
     }
 
@@ -861,15 +1439,44 @@ public class MXFileStore extends MXMemoryStore {
         mRoomsToCommitForStates.add(roomId);
     }
 
-    //================================================================================
-    // Summary management
-    //================================================================================
-
+    @Override
+    public void storeLiveStateEvent(String roomId, Event event) {
+        // do not call super : the whole room state must not be saved
+        if (null != roomId) {
+            synchronized (mRoomsToAppendForStates) {
+                List<Event> events = mRoomsToAppendForStates.get(roomId);
+
+                if (null == events) {
+                    events = new ArrayList<>();
+                    mRoomsToAppendForStates.put(roomId, events);
+                }
+
+                if (null != event) {
+                    events.add(event);
+                }
+            }
+        }
+    }
+
+    @Override
+    public void deleteRoomData(String roomId) {
+        super.deleteRoomData(roomId);
+
+        // the live state is rebuilt from scratch : the next save must be a snapshot
+        if (null != roomId) {
+            mRoomsToCommitForStates.add(roomId);
+        }
+    }
+
+    //================================================================================
+    // Summary management
+    //================================================================================
+
     @Override
     public void flushSummary(RoomSummary summary) {
         super.flushSummary(summary);
         mRoomsToCommitForSummaries.add(summary.getRoomId());
-        saveSummaries();
+        flushCommits();
     }
 
     @Override
@@ -879,7 +1486,7 @@ public class MXFileStore extends MXMemoryStore {
         // add any existing roomid to the list to save all
         mRoomsToCommitForSummaries.addAll(mRoomSummaries.keySet());
 
-        saveSummaries();
+        flushCommits();
     }
 
     @Override
@@ -896,7 +1503,8 @@ public class MXFileStore extends MXMemoryStore {
     //================================================================================
 
     /**
-     * Flush users list
+     * Flush users list.
+     * Only the updated users are appended to the users directory.
      */
     private void saveUsers() {
         if (!mAreUsersLoaded) {
@@ -904,186 +1512,257 @@ public class MXFileStore extends MXMemoryStore {
             return;
         }
 
-        // some updated rooms ?
-        if ((mUserIdsToCommit.size() > 0) && (null != mFileStoreHandler)) {
+        // some updated users ?
+        if ((mUserIdsToCommit.size() > 0) && !isKilled()) {
             // get the list
-            final HashSet<String> fUserIds = mUserIdsToCommit;
-            mUserIdsToCommit = new HashSet<>();
+            final HashSet<String> fUserIds = drain(mUserIdsToCommit);
 
-            try {
-                final HashSet<User> fUsers;
+            long start = System.currentTimeMillis();
+            List<User> users = new ArrayList<>(fUserIds.size());
+
+            for (String userId : fUserIds) {
+                User user;
 
                 synchronized (mUsers) {
-                    fUsers = new HashSet<>(mUsers.values());
+                    user = mUsers.get(userId);
                 }
 
-                Runnable r = new Runnable() {
-                    @Override
-                    public void run() {
-                        mFileStoreHandler.post(new Runnable() {
-                            public void run() {
-                                if (!isKilled()) {
-                                    Log.d(LOG_TAG, "saveUsers " + fUserIds.size() + " users (" + fUsers.size() + " known ones)");
+                if (null != user) {
+                    users.add(user);
+                }
+            }
 
-                                    long start = System.currentTimeMillis();
+            if (mUsersDirectory.append(users)) {
+                Log.d(LOG_TAG, "saveUsers " + users.size() + " users done in " + (System.currentTimeMillis() - start) + " ms");
+            } else {
+                Log.e(LOG_TAG, "saveUsers failed");
 
-                                    // the users are split into groups to save time
-                                    HashMap<Integer, ArrayList<User>> usersGroups = new HashMap<>();
+                // retry with the next commit
+                mUserIdsToCommit.addAll(fUserIds);
+            }
+        }
+    }
 
-                                    // finds the group for each updated user
-                                    for (String userId : fUserIds) {
-                                        User user;
+    /**
+     * Index the saved users.
+     * The users are read from the filesystem when they are requested.
+     */
+    private void loadUsers() {
+        long start = System.currentTimeMillis();
 
-                                        synchronized (mUsers) {
-                                            user = mUsers.get(userId);
-                                        }
+        mUsersDirectory.open();
 
-                                        if (null != user) {
-                                            int hashCode = user.getStorageHashKey();
+        // the users retrieved from the room members are replaced by the saved ones
+        List<String> userIds;
 
-                                            if (!usersGroups.containsKey(hashCode)) {
-                                                usersGroups.put(hashCode, new ArrayList<User>());
-                                            }
-                                        }
-                                    }
+        synchronized (mUsers) {
+            userIds = new ArrayList<>(mUsers.keySet());
+        }
 
-                                    // gather the user to the dedicated group if they need to be updated
-                                    for (User user : fUsers) {
-                                        if (usersGroups.containsKey(user.getStorageHashKey())) {
-                                            usersGroups.get(user.getStorageHashKey()).add(user);
-                                        }
-                                    }
+        for (String userId : userIds) {
+            if (mUsersDirectory.contains(userId)) {
+                mergeSavedUser(mUsersDirectory.get(userId));
+            }
+        }
 
-                                    // save the groups
-                                    for (int hashKey : usersGroups.keySet()) {
-                                        writeObject("saveUser " + hashKey, new File(mStoreUserFolderFile, hashKey + ""), usersGroups.get(hashKey));
-                                    }
+        migrateLegacyUsers();
 
-                                    Log.d(LOG_TAG, "saveUsers done in " + (System.currentTimeMillis() - start) + " ms");
-                                }
-                            }
-                        });
-                    }
-                };
+        long delta = (System.currentTimeMillis() - start);
+        Log.e(LOG_TAG, "loadUsers : index " + mUsersDirectory.size() + " users in " + delta + "ms");
+        mStoreStats.put("loadUsers", delta);
 
-                Thread t = new Thread(r);
-                t.start();
-            } catch (OutOfMemoryError oom) {
-                Log.e(LOG_TAG, "saveUser : cannot clone the users list" + oom.getMessage());
-            }
-        }
+        mAreUsersLoaded = true;
+
+        // save any pending save
+        saveUsers();
     }
 
     /**
-     * Load the user information from the filesystem..
+     * Move the users saved by hash key groups (previous format) to the users directory.
      */
-    private void loadUsers() {
+    private void migrateLegacyUsers() {
         List<String> filenames = listFiles(mStoreUserFolderFile.list());
-        long start = System.currentTimeMillis();
+
+        if (filenames.isEmpty()) {
+            return;
+        }
 
         ArrayList<User> users = new ArrayList<>();
 
-        // list the files
         for (String filename : filenames) {
-            File messagesListFile = new File(mStoreUserFolderFile, filename);
-            Object usersAsVoid = readObject("loadUsers " + filename, messagesListFile);
+            File usersFile = new File(mStoreUserFolderFile, filename);
+            Object usersAsVoid = readPrefetchedObject("loadUsers " + filename, usersFile);
 
             if (null != usersAsVoid) {
                 try {
                     users.addAll((List<User>) usersAsVoid);
                 } catch (Exception e) {
-                    Log.e(LOG_TAG, "loadUsers failed : " + e.toString());
+                    Log.e(LOG_TAG, "migrateLegacyUsers failed : " + e.toString());
                 }
             }
         }
 
-        // update the hash map
         for (User user : users) {
-            synchronized (mUsers) {
-                User currentUser = mUsers.get(user.user_id);
+            mergeSavedUser(user);
+            mUserIdsToCommit.add(user.user_id);
+        }
+
+        Log.e(LOG_TAG, "migrateLegacyUsers : " + users.size() + " users from " + filenames.size() + " files");
+
+        try {
+            ContentUtils.deleteDirectory(mStoreUserFolderFile);
+        } catch (Exception e) {
+            Log.e(LOG_TAG, "migrateLegacyUsers : cannot delete the legacy files " + e.getMessage());
+        }
+    }
 
-                if ((null == currentUser) || // not defined
-                        currentUser.isRetrievedFromRoomMember() || // tmp user until retrieved it
-                        (currentUser.getLatestPresenceTs() < user.getLatestPresenceTs())) // newer presence
-                {
-                    mUsers.put(user.user_id, user);
+    /**
+     * Update the known users with a saved one.
+     *
+     * @param user the saved user
+     */
+    private void mergeSavedUser(User user) {
+        if ((null == user) || (null == user.user_id)) {
+            return;
+        }
+
+        synchronized (mUsers) {
+            User currentUser = mUsers.get(user.user_id);
+
+            if ((null == currentUser) || // not defined
+                    currentUser.isRetrievedFromRoomMember() || // tmp user until retrieved it
+                    (currentUser.getLatestPresenceTs() < user.getLatestPresenceTs())) // newer presence
+            {
+                mUsers.put(user.user_id, user);
+            }
+        }
+    }
+
+    @Override
+    public User getUser(String userId) {
+        User user = super.getUser(userId);
+
+        // the saved users are read at first use
+        if ((null == user) && (null != userId) && mAreUsersLoaded && (null != mUsersDirectory) && mUsersDirectory.contains(userId)) {
+            User savedUser = mUsersDirectory.get(userId);
+
+            if (null != savedUser) {
+                synchronized (mUsers) {
+                    user = mUsers.get(userId);
+
+                    // it might have been stored in the meantime
+                    if (null == user) {
+                        mUsers.put(userId, savedUser);
+                        user = savedUser;
+                    }
                 }
             }
         }
 
-        long delta = (System.currentTimeMillis() - start);
-        Log.e(LOG_TAG, "loadUsers (" + filenames.size() + " files) : retrieve " + mUsers.size() + " users in " + delta + "ms");
-        mStoreStats.put("loadUsers", delta);
+        return user;
+    }
 
-        mAreUsersLoaded = true;
+    @Override
+    public Collection<User> getUsers() {
+        if (mAreUsersLoaded && (null != mUsersDirectory)) {
+            Set<String> knownUserIds;
 
-        // save any pending save
-        saveUsers();
+            synchronized (mUsers) {
+                knownUserIds = new HashSet<>(mUsers.keySet());
+            }
+
+            for (User user : mUsersDirectory.getAll(knownUserIds)) {
+                synchronized (mUsers) {
+                    if (!mUsers.containsKey(user.user_id)) {
+                        mUsers.put(user.user_id, user);
+                    }
+                }
+            }
+        }
+
+        return super.getUsers();
     }
 
     //================================================================================
     // Room messages management
     //================================================================================
 
-    private void saveRoomMessages(String roomId) {
-        LinkedHashMap<String, Event> eventsHash;
-        synchronized (mRoomEventsLock) {
-            eventsHash = mRoomEvents.get(roomId);
+    /**
+     * Provides the events of a room to save on the file system.
+     * The oldest events are removed according to the retention policy.
+     *
+     * @param roomId     the room id
+     * @param eventsHash the room events
+     * @return the events to save
+     */
+    private LinkedHashMap<String, Event> getEventsToSave(String roomId, LinkedHashMap<String, Event> eventsHash) {
+        LinkedHashMap<String, Event> hashCopy = new LinkedHashMap<>();
+        ArrayList<Event> eventsList;
+
+        synchronized (getRoomEventsLock(roomId)) {
+            eventsList = new ArrayList<>(eventsHash.values());
         }
 
-        String token = mRoomTokens.get(roomId);
+        int startIndex = 0;
+        int maxStoredEventsCount = mRetentionPolicy.getMaxStoredEventsCount(roomId);
 
-        // the list exists ?
-        if ((null != eventsHash) && (null != token)) {
-            LinkedHashMap<String, Event> hashCopy = new LinkedHashMap<>();
-            ArrayList<Event> eventsList;
+        // try to reduce the number of stored messages
+        // it does not make sense to keep the full history.
+        // the retention policy defines the max number of saved messages.
 
-            synchronized (mRoomEventsLock) {
-                eventsList = new ArrayList<>(eventsHash.values());
-            }
+        // the method consists in saving messages until finding the oldest known token.
+        // At initial sync, it is not saved so keep the whole history.
+        // if the user back paginates, the token is stored in the event.
+        // if some messages are received, the token is stored in the event.
+        if (eventsList.size() > maxStoredEventsCount) {
+            startIndex = eventsList.size() - maxStoredEventsCount;
 
-            int startIndex = 0;
+            // search backward the first known token
+            for (; !eventsList.get(startIndex).hasToken() && (startIndex > 0); startIndex--)
+                ;
 
-            // try to reduce the number of stored messages
-            // it does not make sense to keep the full history.
+            // avoid saving huge messages count
+            // with a very verbosed room, the messages token
+            if ((eventsList.size() - startIndex) > (2 * maxStoredEventsCount)) {
+                Log.d(LOG_TAG, "getEventsToSave (" + roomId + ") : too many messages, try reducing more");
 
-            // the method consists in saving messages until finding the oldest known token.
-            // At initial sync, it is not saved so keep the whole history.
-            // if the user back paginates, the token is stored in the event.
-            // if some messages are received, the token is stored in the event.
-            if (eventsList.size() > MAX_STORED_MESSAGES_COUNT) {
-                startIndex = eventsList.size() - MAX_STORED_MESSAGES_COUNT;
+                // start from 10 messages
+                startIndex = eventsList.size() - Math.min(MIN_STORED_MESSAGES_COUNT, maxStoredEventsCount);
 
                 // search backward the first known token
                 for (; !eventsList.get(startIndex).hasToken() && (startIndex > 0); startIndex--)
                     ;
+            }
 
-                // avoid saving huge messages count
-                // with a very verbosed room, the messages token
-                if ((eventsList.size() - startIndex) > (2 * MAX_STORED_MESSAGES_COUNT)) {
-                    Log.d(LOG_TAG, "saveRoomsMessage (" + roomId + ") : too many messages, try reducing more");
+            if (startIndex > 0) {
+                Log.d(LOG_TAG, "getEventsToSave (" + roomId + ") : reduce the number of messages " + eventsList.size() + " -> " + (eventsList.size() - startIndex));
+            }
+        }
 
-                    // start from 10 messages
-                    startIndex = eventsList.size() - 10;
+        for (int index = startIndex; index < eventsList.size(); index++) {
+            Event event = eventsList.get(index);
+            hashCopy.put(event.eventId, event);
+        }
 
-                    // search backward the first known token
-                    for (; !eventsList.get(startIndex).hasToken() && (startIndex > 0); startIndex--)
-                        ;
-                }
+        return hashCopy;
+    }
 
-                if (startIndex > 0) {
-                    Log.d(LOG_TAG, "saveRoomsMessage (" + roomId + ") :  reduce the number of messages " + eventsList.size() + " -> " + (eventsList.size() - startIndex));
-                }
-            }
+    private void saveRoomMessages(String roomId) {
+        LinkedHashMap<String, Event> eventsHash;
+        synchronized (getRoomEventsLock(roomId)) {
+            eventsHash = getLoadedRoomEvents(roomId);
+        }
+
+        String token = mRoomTokens.get(roomId);
 
+        // the list exists ?
+        if ((null != eventsHash) && (null != token)) {
             long t0 = System.currentTimeMillis();
+            LinkedHashMap<String, Event> hashCopy = getEventsToSave(roomId, eventsHash);
 
-            for (int index = startIndex; index < eventsList.size(); index++) {
-                Event event = eventsList.get(index);
-                hashCopy.put(event.eventId, event);
-            }
+            File messagesListFile = new File(mGzStoreRoomsMessagesFolderFile, roomId);
 
-            if (!writeObject("saveRoomsMessage " + roomId, new File(mGzStoreRoomsMessagesFolderFile, roomId), hashCopy)) {
+            if (!writeObject("saveRoomsMessage " + roomId, messagesListFile, hashCopy)) {
                 return;
             }
 
@@ -1091,43 +1770,442 @@ public class MXFileStore extends MXMemoryStore {
                 return;
             }
 
-            Log.d(LOG_TAG, "saveRoomsMessage (" + roomId + ") : " + eventsList.size() + " messages saved in " + (System.currentTimeMillis() - t0) + " ms");
+            mSavedRoomTokens.put(roomId, token);
+
+            // the snapshot contains the journalled events
+            mEventsJournal.delete(roomId);
+
+            mSavedRoomEventsCounts.put(roomId, hashCopy.size());
+            mRetentionPolicy.onRoomStored(roomId, hashCopy.size(), messagesListFile.length());
+
+            Log.d(LOG_TAG, "saveRoomsMessage (" + roomId + ") : " + hashCopy.size() + " / " + eventsHash.size() + " messages saved in " + (System.currentTimeMillis() - t0) + " ms");
         } else {
             deleteRoomMessagesFiles(roomId);
         }
     }
 
+    /**
+     * Append the journal records of a room.
+     * The room messages snapshot is rewritten in background when the journal becomes too large.
+     *
+     * @param roomId  the room id
+     * @param records the records to append
+     */
+    private void appendRoomMessages(final String roomId, List<MXFileStoreEventsJournal.Record> records) {
+        String token = mRoomTokens.get(roomId);
+
+        // the room has been deleted
+        if ((null == token) || !hasRoomEvents(roomId)) {
+            deleteRoomMessagesFiles(roomId);
+            return;
+        }
+
+        long t0 = System.currentTimeMillis();
+        long journalSize = mEventsJournal.append(roomId, records);
+
+        if (journalSize < 0) {
+            Log.e(LOG_TAG, "appendRoomMessages (" + roomId + ") : cannot append to the journal, save the whole messages list");
+            saveRoomMessages(roomId);
+            return;
+        }
+
+        if (!TextUtils.equals(token, mSavedRoomTokens.get(roomId))) {
+            if (writeObject("appendRoomMessages " + roomId, new File(mStoreRoomsTokensFolderFile, roomId), token)) {
+                mSavedRoomTokens.put(roomId, token);
+            }
+        }
+
+        int savedEventsCount = mSavedRoomEventsCounts.containsKey(roomId) ? mSavedRoomEventsCounts.get(roomId) : 0;
+
+        for (MXFileStoreEventsJournal.Record record : records) {
+            savedEventsCount += (null != record.mEvent) ? 1 : -1;
+        }
+
+        savedEventsCount = Math.max(0, savedEventsCount);
+        mSavedRoomEventsCounts.put(roomId, savedEventsCount);
+        mRetentionPolicy.onRoomStored(roomId, savedEventsCount, new File(mGzStoreRoomsMessagesFolderFile, roomId).length() + journalSize);
+
+        Log.d(LOG_TAG, "appendRoomMessages (" + roomId + ") : " + records.size() + " records appended in " + (System.currentTimeMillis() - t0) + " ms");
+
+        if (journalSize > MAX_ROOM_EVENTS_JOURNAL_SIZE) {
+            Log.d(LOG_TAG, "appendRoomMessages (" + roomId + ") : the journal size is " + journalSize + " bytes, compact it");
+
+            mFileStoreHandler.post(new Runnable() {
+                public void run() {
+                    if (!isKilled() && (mEventsJournal.size(roomId) > MAX_ROOM_EVENTS_JOURNAL_SIZE)) {
+                        saveRoomMessages(roomId);
+                    }
+                }
+            });
+        }
+    }
+
     /**
      * Flush updates rooms messages list files.
      */
     private void saveRoomsMessages() {
+        final HashMap<String, List<MXFileStoreEventsJournal.Record>> fRoomsToAppendForMessages;
+
+        synchronized (mRoomsToAppendForMessages) {
+            fRoomsToAppendForMessages = new HashMap<>(mRoomsToAppendForMessages);
+            mRoomsToAppendForMessages.clear();
+        }
+
         // some updated rooms ?
-        if ((mRoomsToCommitForMessages.size() > 0) && (null != mFileStoreHandler)) {
+        if (((mRoomsToCommitForMessages.size() > 0) || (fRoomsToAppendForMessages.size() > 0)) && !isKilled()) {
             // get the list
-            final HashSet<String> fRoomsToCommitForMessages = mRoomsToCommitForMessages;
-            mRoomsToCommitForMessages = new HashSet<>();
+            final HashSet<String> fRoomsToCommitForMessages = drain(mRoomsToCommitForMessages);
 
-            Runnable r = new Runnable() {
-                @Override
-                public void run() {
-                    mFileStoreHandler.post(new Runnable() {
-                        public void run() {
-                            if (!isKilled()) {
-                                long start = System.currentTimeMillis();
+            // the whole messages list will be saved
+            for (String roomId : fRoomsToCommitForMessages) {
+                fRoomsToAppendForMessages.remove(roomId);
+            }
 
-                                for (String roomId : fRoomsToCommitForMessages) {
-                                    saveRoomMessages(roomId);
-                                }
+            long start = System.currentTimeMillis();
 
-                                Log.d(LOG_TAG, "saveRoomsMessages : " + fRoomsToCommitForMessages.size() + " rooms in " + (System.currentTimeMillis() - start) + " ms");
-                            }
-                        }
-                    });
+            for (String roomId : fRoomsToCommitForMessages) {
+                saveRoomMessages(roomId);
+            }
+
+            for (String roomId : fRoomsToAppendForMessages.keySet()) {
+                appendRoomMessages(roomId, fRoomsToAppendForMessages.get(roomId));
+            }
+
+            // the least recently accessed rooms are trimmed when the retention budget is exceeded
+            List<String> roomIdsToTrim = mRetentionPolicy.getRoomsToTrim();
+
+            for (String roomId : roomIdsToTrim) {
+                if (!fRoomsToCommitForMessages.contains(roomId)) {
+                    saveRoomMessages(roomId);
                 }
-            };
+            }
+
+            Log.d(LOG_TAG, "saveRoomsMessages : " + fRoomsToCommitForMessages.size() + " saved rooms, " + fRoomsToAppendForMessages.size() + " appended rooms and "
+                    + roomIdsToTrim.size() + " trimmed rooms in " + (System.currentTimeMillis() - start) + " ms");
+        }
+
+        saveRoomsAccess();
+    }
+
+    //================================================================================
+    // Damaged rooms management
+    //================================================================================
+
+    /**
+     * Remove a damaged room from the store.
+     * The other rooms are kept : only this room has to be fetched again.
+     *
+     * @param roomId the room id
+     * @param reason the failed operation
+     */
+    private void quarantineRoom(String roomId, String reason) {
+        Log.e(LOG_TAG, "## quarantineRoom() : " + roomId + " is damaged (" + reason + "), it is removed from the store");
+
+        deleteRoom(roomId);
+
+        // cancel the pending updates
+        mRoomsToCommitForMessages.remove(roomId);
+        mRoomsToCommitForStates.remove(roomId);
+        mRoomsToCommitForSummaries.remove(roomId);
+        mRoomsToCommitForAccountData.remove(roomId);
+        mRoomsToCommitForReceipts.remove(roomId);
 
-            Thread t = new Thread(r);
-            t.start();
+        synchronized (mRoomsToAppendForMessages) {
+            mRoomsToAppendForMessages.remove(roomId);
+        }
+
+        synchronized (mRoomsToAppendForStates) {
+            mRoomsToAppendForStates.remove(roomId);
+        }
+
+        synchronized (mQuarantinedRoomIds) {
+            if (mQuarantinedRoomIds.add(roomId)) {
+                mQuarantinedRoomsCount++;
+            }
+        }
+    }
+
+    /**
+     * Report the quarantined rooms to the listeners.
+     */
+    private void dispatchQuarantinedRooms() {
+        List<String> roomIds;
+
+        synchronized (mQuarantinedRoomIds) {
+            roomIds = new ArrayList<>(mQuarantinedRoomIds);
+            mQuarantinedRoomIds.clear();
+        }
+
+        if (!roomIds.isEmpty()) {
+            Log.e(LOG_TAG, "## dispatchQuarantinedRooms() : " + roomIds.size() + " damaged rooms have been removed");
+            dispatchOnStoreRoomsQuarantined(mCredentials.userId, roomIds);
+        }
+    }
+
+    //================================================================================
+    // Warm start image management
+    //================================================================================
+
+    /**
+     * Write the warm start image.
+     * It must be called on the store thread after writing the pending commits.
+     */
+    private void writeWarmStartImage() {
+        if (!mIsReady || isKilled() || (null == mMetadata) || (null == mMetadata.mEventStreamToken)) {
+            return;
+        }
+
+        long start = System.currentTimeMillis();
+
+        Map<String, Object> content = new HashMap<>();
+        List<Object> rooms = new ArrayList<>();
+        Set<String> roomIdsWithState = new HashSet<>(listFiles(mGzStoreRoomsStateFolderFile.list()));
+
+        Set<String> roomIds = new HashSet<>(mRoomEvents.keySet());
+        roomIds.addAll(mRooms.keySet());
+
+        for (String roomId : roomIds) {
+            String token = mSavedRoomTokens.get(roomId);
+            LinkedHashMap<String, Event> eventsHash;
+            boolean isEvicted;
+
+            synchronized (getRoomEventsLock(roomId)) {
+                eventsHash = mRoomEvents.get(roomId);
+                isEvicted = (null == eventsHash) && isRoomEventsEvicted(roomId);
+            }
+
+            // the evicted events are read from their files without being loaded in memory
+            if (isEvicted) {
+                try {
+                    eventsHash = readRoomMessages(roomId);
+                } catch (IOException e) {
+                    // the rooms would be loaded without this room
+                    Log.e(LOG_TAG, "## writeWarmStartImage() : cannot read the evicted events of " + roomId + " : " + e.getMessage());
+                    return;
+                }
+            }
+
+            // the room is not saved
+            if ((null == token) || (null == eventsHash)) {
+                continue;
+            }
+
+            Map<String, Object> roomContent = new HashMap<>();
+            roomContent.put(WARM_START_ROOM_ID, roomId);
+            roomContent.put(WARM_START_ROOM_TOKEN, token);
+            roomContent.put(WARM_START_ROOM_EVENTS, getEventsToSave(roomId, eventsHash));
+            roomContent.put(WARM_START_ROOM_BYTES, new File(mGzStoreRoomsMessagesFolderFile, roomId).length() + mEventsJournal.size(roomId));
+            roomContent.put(WARM_START_ROOM_HAS_STATE, roomIdsWithState.contains(roomId));
+
+            RoomAccountData accountData = mRoomAccountData.get(roomId);
+
+            if (null != accountData) {
+                roomContent.put(WARM_START_ROOM_ACCOUNT_DATA, accountData);
+            }
+
+            rooms.add(roomContent);
+        }
+
+        content.put(WARM_START_STREAM_TOKEN, mMetadata.mEventStreamToken);
+        content.put(WARM_START_ROOMS, rooms);
+        content.put(WARM_START_SUMMARIES, new ArrayList<Object>(mRoomSummaries.values()));
+
+        if (mWarmStartImage.write(content)) {
+            Log.d(LOG_TAG, "## writeWarmStartImage() : " + rooms.size() + " rooms written in " + (System.currentTimeMillis() - start) + " ms");
+        }
+    }
+
+    /**
+     * Load the data required to open the store from the warm start image.
+     * The room states are lazily loaded, the receipts and the users are loaded after opening the store.
+     *
+     * @return true if the image has been loaded
+     */
+    private boolean loadWarmStartImage() {
+        long start = System.currentTimeMillis();
+        Map<String, Object> content = mWarmStartImage.read();
+
+        if (null == content) {
+            return false;
+        }
+
+        // the image has been written with the saved stream token
+        if (!TextUtils.equals((String) content.get(WARM_START_STREAM_TOKEN), mMetadata.mEventStreamToken)) {
+            Log.e(LOG_TAG, "## loadWarmStartImage() : the image does not match with the metadata");
+            mWarmStartImage.delete();
+            return false;
+        }
+
+        List<String> loadedRoomIds = new ArrayList<>();
+
+        try {
+            List<?> rooms = (List<?>) content.get(WARM_START_ROOMS);
+
+            for (Object roomAsVoid : rooms) {
+                Map<?, ?> roomContent = (Map<?, ?>) roomAsVoid;
+
+                String roomId = (String) roomContent.get(WARM_START_ROOM_ID);
+                String token = (String) roomContent.get(WARM_START_ROOM_TOKEN);
+                LinkedHashMap<String, Event> events = toRoomEvents(roomContent.get(WARM_START_ROOM_EVENTS));
+
+                loadedRoomIds.add(roomId);
+
+                if (addLoadedRoom(roomId, events)) {
+                    mRoomsToCommitForMessages.add(roomId);
+                }
+
+                // the room history could have been reduced
+                // so, if the oldest messages has a token, use it instead of the stored token.
+                if (!events.isEmpty() && (null != events.values().iterator().next().mToken)) {
+                    token = events.values().iterator().next().mToken;
+                }
+
+                mRoomTokens.put(roomId, token);
+                mSavedRoomTokens.put(roomId, token);
+                mSavedRoomEventsCounts.put(roomId, events.size());
+                mRetentionPolicy.onRoomStored(roomId, events.size(), (Long) roomContent.get(WARM_START_ROOM_BYTES));
+
+                Room room = getRoom(roomId);
+
+                // the room state file is read at first use
+                if (Boolean.TRUE.equals(roomContent.get(WARM_START_ROOM_HAS_STATE))) {
+                    room.getLiveTimeLine().setLiveStateLoader(mLiveStateLoader);
+                }
+
+                RoomAccountData accountData = (RoomAccountData) roomContent.get(WARM_START_ROOM_ACCOUNT_DATA);
+
+                if (null != accountData) {
+                    room.setAccountData(accountData);
+                }
+            }
+
+            List<?> summaries = (List<?>) content.get(WARM_START_SUMMARIES);
+
+            for (Object summaryAsVoid : summaries) {
+                RoomSummary summary = (RoomSummary) summaryAsVoid;
+                mRoomSummaries.put(summary.getRoomId(), summary);
+            }
+
+            invalidateSummariesIndex();
+        } catch (Exception e) {
+            Log.e(LOG_TAG, "## loadWarmStartImage() : failed " + e.getMessage());
+
+            // the store is loaded from the rooms files
+            for (String roomId : loadedRoomIds) {
+                mRooms.remove(roomId);
+                mRoomEvents.remove(roomId);
+                mRoomEventIds.remove(roomId);
+                mRoomEventsOrdinals.remove(roomId);
+                mRoomTokens.remove(roomId);
+                mRoomAccountData.remove(roomId);
+                mSavedRoomTokens.remove(roomId);
+                mSavedRoomEventsCounts.remove(roomId);
+            }
+
+            mRoomSummaries.clear();
+            invalidateSummariesIndex();
+            mRoomsToCommitForMessages.clear();
+            mWarmStartImage.delete();
+
+            return false;
+        }
+
+        long delta = System.currentTimeMillis() - start;
+        Log.d(LOG_TAG, "## loadWarmStartImage() : " + loadedRoomIds.size() + " rooms loaded in " + delta + " ms");
+        mStoreStats.put("loadWarmStartImage", delta);
+
+        return true;
+    }
+
+    //================================================================================
+    // Retention policy management
+    //================================================================================
+
+    /**
+     * Update the retention policy which defines which part of the rooms history is saved.
+     * It must be called before opening the store.
+     *
+     * @param retentionPolicy the retention policy
+     */
+    public void setRetentionPolicy(IMXStoreRetentionPolicy retentionPolicy) {
+        if (null != retentionPolicy) {
+            mRetentionPolicy = retentionPolicy;
+        }
+    }
+
+    /**
+     * @return the retention policy
+     */
+    public IMXStoreRetentionPolicy getRetentionPolicy() {
+        return mRetentionPolicy;
+    }
+
+    /**
+     * The user has accessed to a room.
+     * The recently accessed rooms keep a deeper history.
+     *
+     * @param roomId the room id
+     */
+    private void onRoomAccessed(String roomId) {
+        mRetentionPolicy.onRoomAccessed(roomId);
+        mRoomsAccessHasChanged = true;
+    }
+
+    /**
+     * Save the rooms access timestamps.
+     */
+    private void saveRoomsAccess() {
+        if (mRoomsAccessHasChanged && !isKilled()) {
+            mRoomsAccessHasChanged = false;
+            writeObject("saveRoomsAccess", new File(mStoreFolderFile, MXFILE_STORE_ROOMS_ACCESS_FILE_NAME), mRetentionPolicy.getRoomsAccessTs());
+        }
+    }
+
+    /**
+     * Check the type of a decoded room events map.
+     *
+     * @param object the decoded object
+     * @return the room events
+     * @throws IOException if the object is not a room events map
+     */
+    @SuppressWarnings("unchecked")
+    private static LinkedHashMap<String, Event> toRoomEvents(Object object) throws IOException {
+        if (!(object instanceof LinkedHashMap)) {
+            throw new IOException("invalid room events");
+        }
+
+        for (Map.Entry<?, ?> entry : ((Map<?, ?>) object).entrySet()) {
+            if (!(entry.getKey() instanceof String) || !(entry.getValue() instanceof Event)) {
+                throw new IOException("invalid room event");
+            }
+        }
+
+        // the entries types have been checked : the map is not copied
+        return (LinkedHashMap<String, Event>) object;
+    }
+
+    /**
+     * Load the rooms access timestamps.
+     */
+    private void loadRoomsAccess() {
+        File file = new File(mStoreFolderFile, MXFILE_STORE_ROOMS_ACCESS_FILE_NAME);
+
+        if (file.exists()) {
+            Object accessTsAsVoid = readObject("loadRoomsAccess", file);
+
+            if (accessTsAsVoid instanceof Map) {
+                try {
+                    Map<String, Long> accessTs = new HashMap<>();
+
+                    for (Map.Entry<?, ?> entry : ((Map<?, ?>) accessTsAsVoid).entrySet()) {
+                        accessTs.put((String) entry.getKey(), (Long) entry.getValue());
+                    }
+
+                    mRetentionPolicy.setRoomsAccessTs(accessTs);
+                } catch (Exception e) {
+                    Log.e(LOG_TAG, "## loadRoomsAccess() failed : " + e.getMessage());
+                }
+            }
         }
     }
 
@@ -1140,71 +2218,222 @@ public class MXFileStore extends MXMemoryStore {
     private boolean loadRoomMessages(final String roomId) {
         boolean succeeded = true;
         boolean shouldSave = false;
+        LinkedHashMap<String, Event> events;
+
+        File messagesListFile = new File(mGzStoreRoomsMessagesFolderFile, roomId);
+
+        try {
+            events = readRoomMessages(roomId);
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "loadRoomMessages " + roomId + " failed : " + e.getMessage());
+            return false;
+        }
+
+        if (null != events) {
+            mSavedRoomEventsCounts.put(roomId, events.size());
+            mRetentionPolicy.onRoomStored(roomId, events.size(), messagesListFile.length() + mEventsJournal.size(roomId));
+
+            if (events.size() > (2 * mRetentionPolicy.getMaxStoredEventsCount(roomId))) {
+                Log.d(LOG_TAG, "## loadRoomMessages() : the room " + roomId + " has " + events.size() + " stored events : it will be reduced at next commit.");
+                mRoomsToCommitForMessages.add(roomId);
+            }
+
+            shouldSave = addLoadedRoom(roomId, events);
+        }
+
+        if (shouldSave) {
+            saveRoomMessages(roomId);
+        }
+
+        return succeeded;
+    }
+
+    /**
+     * Read the saved events of a room i.e the messages snapshot and the journal records appended after it.
+     *
+     * @param roomId the room id.
+     * @return the events, null if the room has no saved events.
+     * @throws IOException if the files cannot be read.
+     */
+    private LinkedHashMap<String, Event> readRoomMessages(String roomId) throws IOException {
         LinkedHashMap<String, Event> events = null;
 
         File messagesListFile = new File(mGzStoreRoomsMessagesFolderFile, roomId);
 
         if (messagesListFile.exists()) {
-            Object eventsAsVoid = readObject("events " + roomId, messagesListFile);
+            Object eventsAsVoid = readPrefetchedObject("events " + roomId, messagesListFile);
 
-            if (null != eventsAsVoid) {
-                try {
-                    events = (LinkedHashMap<String, Event>) eventsAsVoid;
-                } catch (Exception e) {
-                    Log.e(LOG_TAG, "loadRoomMessages " + roomId + "failed : " + e.getMessage());
-                    return false;
-                }
+            if (null == eventsAsVoid) {
+                throw new IOException("cannot read the messages file");
+            }
 
-                if (events.size() > (2 * MAX_STORED_MESSAGES_COUNT)) {
-                    Log.d(LOG_TAG, "## loadRoomMessages() : the room " + roomId + " has " + events.size() + " stored events : we need to find a way to reduce it.");
-                }
+            events = toRoomEvents(eventsAsVoid);
+        }
 
-                ArrayList<String> eventIds = mRoomEventIds.get(roomId);
+        // apply the events received since the latest snapshot
+        try {
+            return mEventsJournal.replay(roomId, events);
+        } catch (IOException e) {
+            throw new IOException("the journal is corrupted");
+        }
+    }
 
-                if (null == eventIds) {
-                    eventIds = new ArrayList<>();
-                    mRoomEventIds.put(roomId, eventIds);
-                }
+    @Override
+    protected boolean canEvictRoomEvents(String roomId) {
+        boolean hasPendingAppends;
+
+        synchronized (mRoomsToAppendForMessages) {
+            hasPendingAppends = mRoomsToAppendForMessages.containsKey(roomId);
+        }
+
+        String savedToken = mSavedRoomTokens.get(roomId);
+        Integer savedEventsCount = mSavedRoomEventsCounts.get(roomId);
+        LinkedHashMap<String, Event> events = mRoomEvents.get(roomId);
+
+        // the saved files must match the loaded events :
+        // the retention policy might have saved only the latest events and the back paginated events might not be saved.
+        return !isKilled() && !hasPendingAppends && !mRoomsToCommitForMessages.contains(roomId)
+                && (null != savedToken) && TextUtils.equals(savedToken, mRoomTokens.get(roomId))
+                && (null != events) && (null != savedEventsCount) && (savedEventsCount == events.size());
+    }
+
+    @Override
+    protected LinkedHashMap<String, Event> loadEvictedRoomEvents(String roomId) {
+        LinkedHashMap<String, Event> events;
+
+        try {
+            events = readRoomMessages(roomId);
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "## loadEvictedRoomEvents() : " + roomId + " failed : " + e.getMessage());
+            return null;
+        }
+
+        if (null == events) {
+            events = new LinkedHashMap<>();
+        } else if (events.size() > 0) {
+            Event oldestEvent = events.values().iterator().next();
+
+            // the saved history could have been reduced by the retention policy
+            // so, if the oldest saved event has a token, use it to back paginate.
+            if (null != oldestEvent.mToken) {
+                mRoomTokens.put(roomId, oldestEvent.mToken);
+            }
+        }
+
+        return events;
+    }
+
+    /**
+     * Wait until the evicted events of a room are reloaded by the store thread.
+     * The load is put at the front of the store thread queue : the calling thread never reads the files.
+     *
+     * @param roomId the room id
+     * @return the room events, null if they cannot be loaded.
+     */
+    @Override
+    protected LinkedHashMap<String, Event> waitForEvictedRoomEvents(final String roomId) {
+        FutureTask<LinkedHashMap<String, Event>> task;
+
+        synchronized (mEvictedRoomEventsTasks) {
+            task = mEvictedRoomEventsTasks.get(roomId);
 
-                long undeliverableTs = 1L << 50;
-
-                // finalizes the deserialization
-                for (Event event : events.values()) {
-                    // if a message was not sent, mark at as UNDELIVERABLE
-                    if ((event.mSentState == Event.SentState.UNDELIVERABLE) ||
-                            (event.mSentState == Event.SentState.UNSENT) ||
-                            (event.mSentState == Event.SentState.SENDING) ||
-                            (event.mSentState == Event.SentState.WAITING_RETRY) ||
-                            (event.mSentState == Event.SentState.ENCRYPTING)) {
-                        event.mSentState = Event.SentState.UNDELIVERABLE;
-                        event.originServerTs = undeliverableTs++;
-                        shouldSave = true;
+            if (null == task) {
+                task = new FutureTask<>(new Callable<LinkedHashMap<String, Event>>() {
+                    @Override
+                    public LinkedHashMap<String, Event> call() throws Exception {
+                        return loadEvictedRoomEvents(roomId);
                     }
+                });
+                mEvictedRoomEventsTasks.put(roomId, task);
+            }
+        }
 
-                    eventIds.add(event.eventId);
-                }
-            } else {
-                return false;
+        if (Thread.currentThread() == mHandlerThread) {
+            // the store thread cannot wait for itself
+            task.run();
+        } else if (!task.isDone()) {
+            MXOsHandler handler = mFileStoreHandler;
+
+            if (isKilled() || (null == handler) || !handler.postAtFrontOfQueue(task)) {
+                Log.e(LOG_TAG, "## waitForEvictedRoomEvents() : the store is closed");
+                task.cancel(false);
             }
         }
 
-        // succeeds to extract the message list
-        if (null != events) {
-            // create the room object
-            Room room = new Room();
-            room.init(this, roomId, null);
-            // do not wait that the live state update
-            room.setReadyState(true);
-            storeRoom(room);
+        LinkedHashMap<String, Event> events = null;
+
+        try {
+            events = task.get();
+        } catch (Exception e) {
+            Log.e(LOG_TAG, "## waitForEvictedRoomEvents() : " + roomId + " failed " + e.getMessage());
+        }
+
+        synchronized (mEvictedRoomEventsTasks) {
+            if (mEvictedRoomEventsTasks.get(roomId) == task) {
+                mEvictedRoomEventsTasks.remove(roomId);
+            }
+        }
+
+        return events;
+    }
+
+    /**
+     * Cancel the pending evicted events reloads to release the waiting threads.
+     */
+    private void cancelEvictedRoomEventsTasks() {
+        synchronized (mEvictedRoomEventsTasks) {
+            for (FutureTask<LinkedHashMap<String, Event>> task : mEvictedRoomEventsTasks.values()) {
+                task.cancel(false);
+            }
+            mEvictedRoomEventsTasks.clear();
+        }
+    }
+
+    /**
+     * Create a room from its loaded events.
+     *
+     * @param roomId the room id
+     * @param events the loaded events
+     * @return true if some events have been updated and must be saved.
+     */
+    private boolean addLoadedRoom(String roomId, LinkedHashMap<String, Event> events) {
+        boolean shouldSave = false;
+        LinkedHashSet<String> eventIds = mRoomEventIds.get(roomId);
+
+        if (null == eventIds) {
+            eventIds = new LinkedHashSet<>();
+            mRoomEventIds.put(roomId, eventIds);
+        }
+
+        long undeliverableTs = 1L << 50;
+
+        // finalizes the deserialization
+        for (Event event : events.values()) {
+            // if a message was not sent, mark at as UNDELIVERABLE
+            if ((event.mSentState == Event.SentState.UNDELIVERABLE) ||
+                    (event.mSentState == Event.SentState.UNSENT) ||
+                    (event.mSentState == Event.SentState.SENDING) ||
+                    (event.mSentState == Event.SentState.WAITING_RETRY) ||
+                    (event.mSentState == Event.SentState.ENCRYPTING)) {
+                event.mSentState = Event.SentState.UNDELIVERABLE;
+                event.originServerTs = undeliverableTs++;
+                shouldSave = true;
+            }
 
-            mRoomEvents.put(roomId, events);
+            eventIds.add(event.eventId);
         }
 
-        if (shouldSave) {
-            saveRoomMessages(roomId);
-        }
+        // create the room object
+        Room room = new Room();
+        room.init(this, roomId, null);
+        // do not wait that the live state update
+        room.setReadyState(true);
+        storeRoom(room);
 
-        return succeeded;
+        mRoomEvents.put(roomId, events);
+        onRoomEventsUsed(roomId, events.size());
+
+        return shouldSave;
     }
 
     /**
@@ -1224,7 +2453,7 @@ public class MXFileStore extends MXMemoryStore {
 
             try {
                 File messagesListFile = new File(mStoreRoomsTokensFolderFile, roomId);
-                Object tokenAsVoid = readObject("loadRoomToken " + roomId, messagesListFile);
+                Object tokenAsVoid = readPrefetchedObject("loadRoomToken " + roomId, messagesListFile);
 
                 if (null == tokenAsVoid) {
                     succeed = false;
@@ -1250,6 +2479,7 @@ public class MXFileStore extends MXMemoryStore {
 
             if (null != token) {
                 mRoomTokens.put(roomId, token);
+                mSavedRoomTokens.put(roomId, token);
             } else {
                 deleteRoom(roomId);
             }
@@ -1277,11 +2507,18 @@ public class MXFileStore extends MXMemoryStore {
             // extract the messages list
             List<String> filenames = listFiles(mGzStoreRoomsMessagesFolderFile.list());
 
+            // some rooms might have only a journal
+            for (String roomId : mEventsJournal.getRoomIds()) {
+                if (!filenames.contains(roomId)) {
+                    filenames.add(roomId);
+                }
+            }
+
             long start = System.currentTimeMillis();
 
             for (String filename : filenames) {
-                if (succeed) {
-                    succeed &= loadRoomMessages(filename);
+                if (!loadRoomMessages(filename)) {
+                    quarantineRoom(filename, "loadRoomMessages");
                 }
             }
 
@@ -1297,8 +2534,8 @@ public class MXFileStore extends MXMemoryStore {
             start = System.currentTimeMillis();
 
             for (String filename : filenames) {
-                if (succeed) {
-                    succeed &= loadRoomToken(filename);
+                if (!loadRoomToken(filename)) {
+                    quarantineRoom(filename, "loadRoomToken");
                 }
             }
 
@@ -1369,6 +2606,9 @@ public class MXFileStore extends MXMemoryStore {
      * @param roomId the room id.
      */
     private void deleteRoomStateFile(String roomId) {
+        // states journal
+        mStateJournal.delete(roomId);
+
         // states list
         File statesFile = new File(mGzStoreRoomsStateFolderFile, roomId);
 
@@ -1404,93 +2644,149 @@ public class MXFileStore extends MXMemoryStore {
 
         if (null != room) {
             long start1 = System.currentTimeMillis();
-            writeObject("saveRoomsState " + roomId, roomStateFile, room.getState());
+
+            if (writeObject("saveRoomsState " + roomId, roomStateFile, room.getState())) {
+                // the snapshot contains the journalled state events
+                mStateJournal.delete(roomId);
+            }
+
             Log.d(LOG_TAG, "saveRoomsState " + room.getState().getMembers().size() + " members : " + (System.currentTimeMillis() - start1) + " ms");
 
-            // the state events are with low priority
-            // because they are only used in redact cases
-            Runnable r = new Runnable() {
-                @Override
-                public void run() {
-                    mFileStoreHandler.post(new Runnable() {
-                        public void run() {
-                            if (!isKilled()) {
-                                List<Event> stateEvents;
-
-                                synchronized (mRoomStateEventsByRoomId) {
-                                    if (mRoomStateEventsByRoomId.containsKey(roomId)) {
-                                        stateEvents = mRoomStateEventsByRoomId.get(roomId);
-                                        mRoomStateEventsByRoomId.remove(roomId);
-                                    } else {
-                                        stateEvents = null;
-                                    }
-                                }
+            saveRoomStateEvents(roomId);
+        } else {
+            Log.d(LOG_TAG, "saveRoomsState : delete the room state");
+            deleteRoomStateFile(roomId);
+        }
 
-                                if (null != stateEvents) {
-                                    File roomStateEventsFile = new File(mGzStoreRoomsStateEventsFolderFile, roomId);
+        Log.d(LOG_TAG, "-- saveRoomsState " + roomId);
+    }
 
-                                    if (!roomStateEventsFile.exists()) {
-                                        roomStateEventsFile.mkdirs();
-                                    }
+    /**
+     * Append the live state events of a room to its state journal.
+     * The room state snapshot is rewritten in background when the journal becomes too large.
+     *
+     * @param roomId      the room id
+     * @param stateEvents the state events applied to the live state since the latest save
+     */
+    private void appendRoomState(final String roomId, List<Event> stateEvents) {
+        Room room = mRooms.get(roomId);
+        final File roomStateFile = new File(mGzStoreRoomsStateFolderFile, roomId);
 
-                                    long start2 = System.currentTimeMillis();
+        // the room has been deleted
+        if (null == room) {
+            deleteRoomStateFile(roomId);
+            return;
+        }
 
-                                    for (Event event : stateEvents) {
-                                        File roomStateEventFile = new File(roomStateEventsFile, event.eventId);
-                                        writeObject("saveRoomsState : save state events " + roomId + " " + event.eventId, roomStateEventFile, event);
-                                    }
+        // no snapshot to apply the journal on
+        if (!roomStateFile.exists()) {
+            saveRoomState(roomId);
+            return;
+        }
 
-                                    Log.d(LOG_TAG, "saveRoomsState : save " + stateEvents.size() + " stateEvents in " + (System.currentTimeMillis() - start2) + " ms in " + roomId);
-                                } else {
-                                    Log.d(LOG_TAG, "saveRoomsState : no state events to save");
-                                }
-                            }
-                        }
-                    });
-                }
-            };
+        long t0 = System.currentTimeMillis();
+        long journalSize = mStateJournal.append(roomId, stateEvents, room.getState());
 
-            Thread t = new Thread(r);
-            t.setPriority(Thread.MIN_PRIORITY);
-            t.start();
-        } else {
-            Log.d(LOG_TAG, "saveRoomsState : delete the room state");
-            deleteRoomStateFile(roomId);
+        if (journalSize < 0) {
+            Log.e(LOG_TAG, "appendRoomState (" + roomId + ") : cannot append to the journal, save the whole room state");
+            saveRoomState(roomId);
+            return;
         }
 
-        Log.d(LOG_TAG, "-- saveRoomsState " + roomId);
+        Log.d(LOG_TAG, "appendRoomState (" + roomId + ") : " + stateEvents.size() + " state events appended in " + (System.currentTimeMillis() - t0) + " ms");
+
+        saveRoomStateEvents(roomId);
+
+        if (journalSize > Math.max(MIN_ROOM_STATE_JOURNAL_COMPACTION_SIZE, roomStateFile.length() / 2)) {
+            Log.d(LOG_TAG, "appendRoomState (" + roomId + ") : the journal size is " + journalSize + " bytes, compact it");
+
+            mFileStoreHandler.post(new Runnable() {
+                public void run() {
+                    if (!isKilled() && (mStateJournal.size(roomId) > Math.max(MIN_ROOM_STATE_JOURNAL_COMPACTION_SIZE, roomStateFile.length() / 2))) {
+                        saveRoomState(roomId);
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Save the pending state events of a room.
+     * They are used to retrieve the state events content in redact cases.
+     *
+     * @param roomId the room id.
+     */
+    private void saveRoomStateEvents(final String roomId) {
+        // the state events are with low priority
+        // because they are only used in redact cases
+        mFileStoreHandler.post(new Runnable() {
+            public void run() {
+                if (!isKilled()) {
+                    List<Event> stateEvents;
+
+                    synchronized (mRoomStateEventsByRoomId) {
+                        if (mRoomStateEventsByRoomId.containsKey(roomId)) {
+                            stateEvents = mRoomStateEventsByRoomId.get(roomId);
+                            mRoomStateEventsByRoomId.remove(roomId);
+                        } else {
+                            stateEvents = null;
+                        }
+                    }
+
+                    if (null != stateEvents) {
+                        File roomStateEventsFile = new File(mGzStoreRoomsStateEventsFolderFile, roomId);
+
+                        if (!roomStateEventsFile.exists()) {
+                            roomStateEventsFile.mkdirs();
+                        }
+
+                        long start2 = System.currentTimeMillis();
+
+                        for (Event event : stateEvents) {
+                            File roomStateEventFile = new File(roomStateEventsFile, event.eventId);
+                            writeObject("saveRoomsState : save state events " + roomId + " " + event.eventId, roomStateEventFile, event);
+                        }
+
+                        Log.d(LOG_TAG, "saveRoomsState : save " + stateEvents.size() + " stateEvents in " + (System.currentTimeMillis() - start2) + " ms in " + roomId);
+                    } else {
+                        Log.d(LOG_TAG, "saveRoomsState : no state events to save");
+                    }
+                }
+            }
+        });
     }
 
     /**
      * Flush the room state files.
      */
     private void saveRoomStates() {
-        if ((mRoomsToCommitForStates.size() > 0) && (null != mFileStoreHandler)) {
+        final HashMap<String, List<Event>> fRoomsToAppendForStates;
+
+        synchronized (mRoomsToAppendForStates) {
+            fRoomsToAppendForStates = new HashMap<>(mRoomsToAppendForStates);
+            mRoomsToAppendForStates.clear();
+        }
+
+        if (((mRoomsToCommitForStates.size() > 0) || (fRoomsToAppendForStates.size() > 0)) && !isKilled()) {
             // get the list
-            final HashSet<String> fRoomsToCommitForStates = mRoomsToCommitForStates;
-            mRoomsToCommitForStates = new HashSet<>();
+            final HashSet<String> fRoomsToCommitForStates = drain(mRoomsToCommitForStates);
 
-            Runnable r = new Runnable() {
-                @Override
-                public void run() {
-                    mFileStoreHandler.post(new Runnable() {
-                        public void run() {
-                            if (!isKilled()) {
-                                long start = System.currentTimeMillis();
+            // the whole room state will be saved
+            for (String roomId : fRoomsToCommitForStates) {
+                fRoomsToAppendForStates.remove(roomId);
+            }
 
-                                for (String roomId : fRoomsToCommitForStates) {
-                                    saveRoomState(roomId);
-                                }
+            long start = System.currentTimeMillis();
 
-                                Log.d(LOG_TAG, "saveRoomsState : " + fRoomsToCommitForStates.size() + " rooms in " + (System.currentTimeMillis() - start) + " ms");
-                            }
-                        }
-                    });
-                }
-            };
+            for (String roomId : fRoomsToCommitForStates) {
+                saveRoomState(roomId);
+            }
+
+            for (String roomId : fRoomsToAppendForStates.keySet()) {
+                appendRoomState(roomId, fRoomsToAppendForStates.get(roomId));
+            }
 
-            Thread t = new Thread(r);
-            t.start();
+            Log.d(LOG_TAG, "saveRoomsState : " + fRoomsToCommitForStates.size() + " saved rooms and " + fRoomsToAppendForStates.size() + " appended rooms in " + (System.currentTimeMillis() - start) + " ms");
         }
     }
 
@@ -1506,7 +2802,10 @@ public class MXFileStore extends MXMemoryStore {
         Room room = getRoom(roomId);
 
         // should always be true
-        if (null != room) {
+        if ((null != room) && mIsLazyRoomStatesLoading) {
+            // the room state file is read at first use
+            room.getLiveTimeLine().setLiveStateLoader(mLiveStateLoader);
+        } else if (null != room) {
             RoomState liveState = null;
 
             try {
@@ -1515,7 +2814,7 @@ public class MXFileStore extends MXMemoryStore {
 
                 // new format
                 if (roomStateFile.exists()) {
-                    Object roomStateAsObject = readObject("loadRoomState " + roomId, roomStateFile);
+                    Object roomStateAsObject = readPrefetchedObject("loadRoomState " + roomId, roomStateFile);
 
                     if (null == roomStateAsObject) {
                         succeed = false;
@@ -1529,7 +2828,13 @@ public class MXFileStore extends MXMemoryStore {
             }
 
             if (null != liveState) {
-                room.getLiveTimeLine().setState(liveState);
+                try {
+                    mStateJournal.replay(roomId, liveState);
+                    room.getLiveTimeLine().setState(liveState);
+                } catch (IOException e) {
+                    succeed = false;
+                    Log.e(LOG_TAG, "loadRoomState " + roomId + " : the journal is corrupted");
+                }
             } else {
                 deleteRoom(roomId);
             }
@@ -1546,6 +2851,183 @@ public class MXFileStore extends MXMemoryStore {
         return succeed;
     }
 
+    /**
+     * Provides the task which loads a lazy room state.
+     *
+     * @param roomId the room id
+     * @return the task
+     */
+    private FutureTask<RoomState> getLazyRoomStateTask(final String roomId) {
+        synchronized (mLazyRoomStatesTasks) {
+            FutureTask<RoomState> task = mLazyRoomStatesTasks.get(roomId);
+
+            if (null == task) {
+                task = new FutureTask<>(new Callable<RoomState>() {
+                    @Override
+                    public RoomState call() throws Exception {
+                        return loadLazyRoomState(roomId);
+                    }
+                });
+                mLazyRoomStatesTasks.put(roomId, task);
+            }
+
+            return task;
+        }
+    }
+
+    /**
+     * Wait until a lazy room state is loaded by the store thread.
+     * The load is put at the front of the store thread queue : the calling thread never reads the files.
+     *
+     * @param roomId the room id
+     * @return the room state, null if it cannot be loaded.
+     */
+    private RoomState waitForLazyRoomState(String roomId) {
+        FutureTask<RoomState> task = getLazyRoomStateTask(roomId);
+
+        if (Thread.currentThread() == mHandlerThread) {
+            // the store thread cannot wait for itself
+            task.run();
+        } else if (!task.isDone()) {
+            MXOsHandler handler = mFileStoreHandler;
+
+            if (isKilled() || (null == handler) || !handler.postAtFrontOfQueue(task)) {
+                Log.e(LOG_TAG, "## waitForLazyRoomState() : the store is closed");
+                task.cancel(false);
+            }
+        }
+
+        RoomState roomState = null;
+
+        try {
+            roomState = task.get();
+        } catch (Exception e) {
+            Log.e(LOG_TAG, "## waitForLazyRoomState() : " + roomId + " failed " + e.getMessage());
+        }
+
+        synchronized (mLazyRoomStatesTasks) {
+            if (mLazyRoomStatesTasks.get(roomId) == task) {
+                mLazyRoomStatesTasks.remove(roomId);
+            }
+        }
+
+        return roomState;
+    }
+
+    /**
+     * Cancel the pending lazy room states loads to release the waiting threads.
+     */
+    private void cancelLazyRoomStatesTasks() {
+        synchronized (mLazyRoomStatesTasks) {
+            for (FutureTask<RoomState> task : mLazyRoomStatesTasks.values()) {
+                task.cancel(false);
+            }
+            mLazyRoomStatesTasks.clear();
+        }
+    }
+
+    /**
+     * Load a room state at first use.
+     * It is called from the store thread.
+     *
+     * @param roomId the room id.
+     * @return the room state, null if it cannot be loaded.
+     */
+    private RoomState loadLazyRoomState(final String roomId) {
+        long start = System.currentTimeMillis();
+        RoomState liveState = null;
+        File roomStateFile = new File(mGzStoreRoomsStateFolderFile, roomId);
+
+        try {
+            Object roomStateAsObject = readObject("loadLazyRoomState " + roomId, roomStateFile);
+
+            if (null != roomStateAsObject) {
+                liveState = (RoomState) roomStateAsObject;
+                mStateJournal.replay(roomId, liveState);
+            }
+        } catch (Exception e) {
+            Log.e(LOG_TAG, "## loadLazyRoomState() : failed " + e.getMessage());
+            liveState = null;
+        }
+
+        // the room state file exists but it is damaged
+        if ((null == liveState) && roomStateFile.exists()) {
+            mFileStoreHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    if (!isKilled() && (null != getRoom(roomId))) {
+                        quarantineRoom(roomId, "loadLazyRoomState");
+                        dispatchQuarantinedRooms();
+                    }
+                }
+            });
+        }
+
+        if (null != liveState) {
+
+            Collection<RoomMember> members = liveState.getMembers();
+
+            for (RoomMember member : members) {
+                updateUserWithRoomMemberEvent(member);
+            }
+
+            RoomSummary summary = getSummary(roomId);
+
+            if ((null != summary) && (null == summary.getLatestRoomState())) {
+                summary.setLatestRoomState(liveState);
+            }
+
+            Log.d(LOG_TAG, "## loadLazyRoomState() : " + roomId + " loaded in " + (System.currentTimeMillis() - start) + " ms");
+        } else {
+            Log.e(LOG_TAG, "## loadLazyRoomState() : cannot load the room state of " + roomId);
+        }
+
+        return liveState;
+    }
+
+    /**
+     * Load the states of the most recently active rooms.
+     */
+    private void warmUpRoomStates() {
+        long start = System.currentTimeMillis();
+        List<RoomSummary> summaries = new ArrayList<>(getSummaries());
+
+        Collections.sort(summaries, new Comparator<RoomSummary>() {
+            @Override
+            public int compare(RoomSummary summary1, RoomSummary summary2) {
+                long ts1 = (null != summary1.getLatestReceivedEvent()) ? summary1.getLatestReceivedEvent().getOriginServerTs() : 0;
+                long ts2 = (null != summary2.getLatestReceivedEvent()) ? summary2.getLatestReceivedEvent().getOriginServerTs() : 0;
+                return (ts1 > ts2) ? -1 : ((ts1 < ts2) ? 1 : 0);
+            }
+        });
+
+        int count = 0;
+
+        for (RoomSummary summary : summaries) {
+            if (count >= LAZY_ROOM_STATES_WARM_UP_COUNT) {
+                break;
+            }
+
+            final Room room = getRoom(summary.getRoomId());
+
+            if ((null != room) && !room.getLiveTimeLine().isStateLoaded()) {
+                // one load per post : the states requested by the other threads are loaded first
+                mFileStoreHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (!isKilled()) {
+                            // the state is loaded by this thread
+                            room.getLiveState();
+                        }
+                    }
+                });
+                count++;
+            }
+        }
+
+        Log.d(LOG_TAG, "## warmUpRoomStates() : " + count + " room states loads scheduled in " + (System.currentTimeMillis() - start) + " ms");
+    }
+
     /**
      * Load room state from the file system.
      *
@@ -1560,8 +3042,8 @@ public class MXFileStore extends MXMemoryStore {
             List<String> filenames = listFiles(mGzStoreRoomsStateFolderFile.list());
 
             for (String filename : filenames) {
-                if (succeed) {
-                    succeed &= loadRoomState(filename);
+                if (!loadRoomState(filename)) {
+                    quarantineRoom(filename, "loadRoomState");
                 }
             }
 
@@ -1603,38 +3085,23 @@ public class MXFileStore extends MXMemoryStore {
      * Flush the pending account data.
      */
     private void saveRoomsAccountData() {
-        if ((mRoomsToCommitForAccountData.size() > 0) && (null != mFileStoreHandler)) {
+        if ((mRoomsToCommitForAccountData.size() > 0) && !isKilled()) {
             // get the list
-            final HashSet<String> fRoomsToCommitForAccountData = mRoomsToCommitForAccountData;
-            mRoomsToCommitForAccountData = new HashSet<>();
+            final HashSet<String> fRoomsToCommitForAccountData = drain(mRoomsToCommitForAccountData);
 
-            Runnable r = new Runnable() {
-                @Override
-                public void run() {
-                    mFileStoreHandler.post(new Runnable() {
-                        public void run() {
-                            if (!isKilled()) {
-                                long start = System.currentTimeMillis();
-
-                                for (String roomId : fRoomsToCommitForAccountData) {
-                                    RoomAccountData accountData = mRoomAccountData.get(roomId);
+            long start = System.currentTimeMillis();
 
-                                    if (null != accountData) {
-                                        writeObject("saveRoomsAccountData " + roomId, new File(mStoreRoomsAccountDataFolderFile, roomId), accountData);
-                                    } else {
-                                        deleteRoomAccountDataFile(roomId);
-                                    }
-                                }
+            for (String roomId : fRoomsToCommitForAccountData) {
+                RoomAccountData accountData = mRoomAccountData.get(roomId);
 
-                                Log.d(LOG_TAG, "saveSummaries : " + fRoomsToCommitForAccountData.size() + " account data in " + (System.currentTimeMillis() - start) + " ms");
-                            }
-                        }
-                    });
+                if (null != accountData) {
+                    writeObject("saveRoomsAccountData " + roomId, new File(mStoreRoomsAccountDataFolderFile, roomId), accountData);
+                } else {
+                    deleteRoomAccountDataFile(roomId);
                 }
-            };
+            }
 
-            Thread t = new Thread(r);
-            t.start();
+            Log.d(LOG_TAG, "saveSummaries : " + fRoomsToCommitForAccountData.size() + " account data in " + (System.currentTimeMillis() - start) + " ms");
         }
     }
 
@@ -1651,7 +3118,7 @@ public class MXFileStore extends MXMemoryStore {
             File accountDataFile = new File(mStoreRoomsAccountDataFolderFile, roomId);
 
             if (accountDataFile.exists()) {
-                Object accountAsVoid = readObject("loadRoomAccountData " + roomId, accountDataFile);
+                Object accountAsVoid = readPrefetchedObject("loadRoomAccountData " + roomId, accountDataFile);
 
                 if (null == accountAsVoid) {
                     Log.e(LOG_TAG, "loadRoomAccountData failed");
@@ -1671,6 +3138,7 @@ public class MXFileStore extends MXMemoryStore {
 
             if (null != room) {
                 room.setAccountData(roomAccountData);
+                invalidateSummariesIndex();
             }
         }
 
@@ -1692,7 +3160,9 @@ public class MXFileStore extends MXMemoryStore {
             long start = System.currentTimeMillis();
 
             for (String filename : filenames) {
-                succeed &= loadRoomAccountData(filename);
+                if (!loadRoomAccountData(filename)) {
+                    quarantineRoom(filename, "loadRoomAccountData");
+                }
             }
 
             if (succeed) {
@@ -1747,46 +3217,31 @@ public class MXFileStore extends MXMemoryStore {
      * Flush the pending summaries.
      */
     private void saveSummaries() {
-        if ((mRoomsToCommitForSummaries.size() > 0) && (null != mFileStoreHandler)) {
+        if ((mRoomsToCommitForSummaries.size() > 0) && !isKilled()) {
             // get the list
-            final HashSet<String> fRoomsToCommitForSummaries = mRoomsToCommitForSummaries;
-            mRoomsToCommitForSummaries = new HashSet<>();
-
-            Runnable r = new Runnable() {
-                @Override
-                public void run() {
-                    mFileStoreHandler.post(new Runnable() {
-                        public void run() {
-                            if (!isKilled()) {
-                                long start = System.currentTimeMillis();
+            final HashSet<String> fRoomsToCommitForSummaries = drain(mRoomsToCommitForSummaries);
 
-                                for (String roomId : fRoomsToCommitForSummaries) {
-                                    try {
-                                        File roomSummaryFile = new File(mStoreRoomsSummaryFolderFile, roomId);
-                                        RoomSummary roomSummary = mRoomSummaries.get(roomId);
+            long start = System.currentTimeMillis();
 
-                                        if (null != roomSummary) {
-                                            writeObject("saveSummaries " + roomId, roomSummaryFile, roomSummary);
-                                        } else {
-                                            deleteRoomSummaryFile(roomId);
-                                        }
-                                    } catch (OutOfMemoryError oom) {
-                                        dispatchOOM(oom);
-                                    } catch (Exception e) {
-                                        Log.e(LOG_TAG, "saveSummaries failed : " + e.getLocalizedMessage());
-                                        // Toast.makeText(mContext, "saveSummaries failed " + e.getLocalizedMessage(), Toast.LENGTH_LONG).show();
-                                    }
-                                }
+            for (String roomId : fRoomsToCommitForSummaries) {
+                try {
+                    File roomSummaryFile = new File(mStoreRoomsSummaryFolderFile, roomId);
+                    RoomSummary roomSummary = mRoomSummaries.get(roomId);
 
-                                Log.d(LOG_TAG, "saveSummaries : " + fRoomsToCommitForSummaries.size() + " summaries in " + (System.currentTimeMillis() - start) + " ms");
-                            }
-                        }
-                    });
+                    if (null != roomSummary) {
+                        writeObject("saveSummaries " + roomId, roomSummaryFile, roomSummary);
+                    } else {
+                        deleteRoomSummaryFile(roomId);
+                    }
+                } catch (OutOfMemoryError oom) {
+                    dispatchOOM(oom);
+                } catch (Exception e) {
+                    Log.e(LOG_TAG, "saveSummaries failed : " + e.getLocalizedMessage());
+                    // Toast.makeText(mContext, "saveSummaries failed " + e.getLocalizedMessage(), Toast.LENGTH_LONG).show();
                 }
-            };
+            }
 
-            Thread t = new Thread(r);
-            t.start();
+            Log.d(LOG_TAG, "saveSummaries : " + fRoomsToCommitForSummaries.size() + " summaries in " + (System.currentTimeMillis() - start) + " ms");
         }
     }
 
@@ -1805,7 +3260,7 @@ public class MXFileStore extends MXMemoryStore {
 
         try {
             File messagesListFile = new File(mStoreRoomsSummaryFolderFile, roomId);
-            Object summaryAsVoid = readObject("loadSummary " + roomId, messagesListFile);
+            Object summaryAsVoid = readPrefetchedObject("loadSummary " + roomId, messagesListFile);
 
             if (null == summaryAsVoid) {
                 Log.e(LOG_TAG, "loadSummary failed");
@@ -1824,12 +3279,13 @@ public class MXFileStore extends MXMemoryStore {
             Room room = getRoom(summary.getRoomId());
 
             // the room state is not saved in the summary.
-            // it is restored from the room
-            if (null != room) {
+            // it is restored from the room (or when the room state is lazily loaded)
+            if ((null != room) && room.getLiveTimeLine().isStateLoaded()) {
                 summary.setLatestRoomState(room.getState());
             }
 
             mRoomSummaries.put(roomId, summary);
+            invalidateSummariesIndex();
         }
 
         return succeed;
@@ -1849,7 +3305,9 @@ public class MXFileStore extends MXMemoryStore {
             long start = System.currentTimeMillis();
 
             for (String filename : filenames) {
-                succeed &= loadSummary(filename);
+                if (!loadSummary(filename)) {
+                    quarantineRoom(filename, "loadSummary");
+                }
             }
 
             long delta = (System.currentTimeMillis() - start);
@@ -1907,34 +3365,20 @@ public class MXFileStore extends MXMemoryStore {
      * flush the metadata info from the file system.
      */
     private void saveMetaData() {
-        if ((mMetaDataHasChanged) && (null != mFileStoreHandler) && (null != mMetadata)) {
-            mMetaDataHasChanged = false;
-
-            final MXFileStoreMetaData fMetadata = mMetadata.deepCopy();
+        final MXFileStoreMetaData fMetadata = mMetadata;
 
-            Runnable r = new Runnable() {
-                @Override
-                public void run() {
-                    mFileStoreHandler.post(new Runnable() {
-                        public void run() {
-                            if (!mIsKilled) {
-                                // save the metadata only when there is a current valid stream token
-                                // avoid saving the metadata if the store has been cleared
-                                if (null != mMetadata.mEventStreamToken) {
-                                    long start = System.currentTimeMillis();
-                                    writeObject("saveMetaData", new File(mStoreFolderFile, MXFILE_STORE_METADATA_FILE_NAME), fMetadata);
-                                    Log.d(LOG_TAG, "saveMetaData : " + (System.currentTimeMillis() - start) + " ms");
-                                } else {
-                                    Log.e(LOG_TAG, "## saveMetaData() : cancelled because mEventStreamToken is null");
-                                }
-                            }
-                        }
-                    });
-                }
-            };
+        if (mMetaDataHasChanged && (null != fMetadata) && !isKilled()) {
+            mMetaDataHasChanged = false;
 
-            Thread t = new Thread(r);
-            t.start();
+            // save the metadata only when there is a current valid stream token
+            // avoid saving the metadata if the store has been cleared
+            if (null != fMetadata.mEventStreamToken) {
+                long start = System.currentTimeMillis();
+                writeObject("saveMetaData", new File(mStoreFolderFile, MXFILE_STORE_METADATA_FILE_NAME), fMetadata.deepCopy());
+                Log.d(LOG_TAG, "saveMetaData : " + (System.currentTimeMillis() - start) + " ms");
+            } else {
+                Log.e(LOG_TAG, "## saveMetaData() : cancelled because mEventStreamToken is null");
+            }
         }
     }
 
@@ -1970,8 +3414,11 @@ public class MXFileStore extends MXMemoryStore {
         boolean res = super.storeReceipt(receipt, roomId);
 
         if (res) {
-            synchronized (this) {
-                mRoomsToCommitForReceipts.add(roomId);
+            mRoomsToCommitForReceipts.add(roomId);
+
+            // the user has read the room
+            if (TextUtils.equals(receipt.userId, mCredentials.userId)) {
+                onRoomAccessed(roomId);
             }
         }
 
@@ -1988,7 +3435,7 @@ public class MXFileStore extends MXMemoryStore {
         File file = new File(mStoreRoomsMessagesReceiptsFolderFile, roomId);
 
         if (file.exists()) {
-            Object receiptsAsVoid = readObject("loadReceipts " + roomId, file);
+            Object receiptsAsVoid = readPrefetchedObject("loadReceipts " + roomId, file);
 
             if (null != receiptsAsVoid) {
                 try {
@@ -2101,37 +3548,21 @@ public class MXFileStore extends MXMemoryStore {
             return;
         }
 
-        Runnable r = new Runnable() {
-            @Override
-            public void run() {
-                mFileStoreHandler.post(new Runnable() {
-                    public void run() {
-                        if (!mIsKilled) {
-                            long start = System.currentTimeMillis();
-                            writeObject("saveReceipts " + roomId, new File(mStoreRoomsMessagesReceiptsFolderFile, roomId), receipts);
-                            Log.d(LOG_TAG, "saveReceipts : roomId " + roomId + " eventId : " + (System.currentTimeMillis() - start) + " ms");
-                        }
-                    }
-                });
-            }
-        };
-
-        Thread t = new Thread(r);
-        t.start();
+        if (!isKilled()) {
+            long start = System.currentTimeMillis();
+            writeObject("saveReceipts " + roomId, new File(mStoreRoomsMessagesReceiptsFolderFile, roomId), receipts);
+            Log.d(LOG_TAG, "saveReceipts : roomId " + roomId + " eventId : " + (System.currentTimeMillis() - start) + " ms");
+        }
     }
 
     /**
      * Save the events receipts.
      */
     private void saveReceipts() {
-        synchronized (this) {
-            HashSet<String> roomsToCommit = mRoomsToCommitForReceipts;
-
-            for (String roomId : roomsToCommit) {
-                saveReceipts(roomId);
-            }
+        HashSet<String> roomsToCommit = drain(mRoomsToCommitForReceipts);
 
-            mRoomsToCommitForReceipts.clear();
+        for (String roomId : roomsToCommit) {
+            saveReceipts(roomId);
         }
     }
 
@@ -2183,10 +3614,9 @@ public class MXFileStore extends MXMemoryStore {
         try {
             FileOutputStream fos = new FileOutputStream(file);
             GZIPOutputStream gz = new GZIPOutputStream(fos);
-            ObjectOutputStream out = new ObjectOutputStream(gz);
 
-            out.writeObject(object);
-            out.close();
+            MXFileStoreCodec.write(gz, object);
+            gz.close();
 
             succeed = true;
         } catch (OutOfMemoryError oom) {
@@ -2226,9 +3656,16 @@ public class MXFileStore extends MXMemoryStore {
         try {
             FileInputStream fis = new FileInputStream(file);
             GZIPInputStream gz = new GZIPInputStream(fis);
-            ObjectInputStream ois = new ObjectInputStream(gz);
-            object = ois.readObject();
-            ois.close();
+
+            // the files written by the previous store versions use the java serialization
+            object = MXFileStoreCodec.read(gz);
+
+            // read the file until its end to check the gzip trailer (CRC32 and size)
+            byte[] buffer = new byte[1024];
+            while (gz.read(buffer) >= 0)
+                ;
+
+            gz.close();
         } catch (OutOfMemoryError oom) {
             dispatchOOM(oom);
         } catch (Exception e) {
@@ -0,0 +1,879 @@
+/*
+ * Copyright 2017 Vector Creations Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.matrix.androidsdk.data.store;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonNull;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+import com.google.gson.internal.LazilyParsedNumber;
+
+import org.matrix.androidsdk.data.RoomSummary;
+import org.matrix.androidsdk.rest.model.Event;
+import org.matrix.androidsdk.rest.model.MatrixError;
+import org.matrix.androidsdk.rest.model.ReceiptData;
+import org.matrix.androidsdk.rest.model.RedactedBecause;
+import org.matrix.androidsdk.rest.model.UnsignedData;
+import org.matrix.androidsdk.rest.model.User;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInput;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutput;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Versioned binary codec used by the MXFileStore.
+ * It replaces the java serialization for the most common objects (events, room states, summaries, users, receipts).
+ * The event contents are written as JSON trees i.e. there is no JSON string conversion.
+ * The files written by the java serialization (MXFILE_VERSION 12) can still be read.
+ */
+public class MXFileStoreCodec {
+    // "MXFC"
+    private static final int MAGIC = 0x4D584643;
+
+    // the current codec version
+    public static final int CODEC_VERSION = 1;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    // the strings longer than this length are not added to the strings table
+    private static final int MAX_SHARED_STRING_LENGTH = 128;
+
+    // values tags
+    private static final int VALUE_NULL = 0;
+    private static final int VALUE_STRING = 1;
+    private static final int VALUE_INTEGER = 2;
+    private static final int VALUE_LONG = 3;
+    private static final int VALUE_BOOLEAN = 4;
+    private static final int VALUE_LIST = 5;
+    private static final int VALUE_MAP = 6;
+    private static final int VALUE_EVENT = 7;
+    private static final int VALUE_JSON = 8;
+    private static final int VALUE_EXTERNALIZABLE = 9;
+    private static final int VALUE_RECEIPT = 10;
+    private static final int VALUE_USER = 11;
+    private static final int VALUE_SUMMARY = 12;
+    private static final int VALUE_SERIALIZABLE = 13;
+
+    // JSON tags
+    private static final int JSON_NULL = 0;
+    private static final int JSON_TRUE = 1;
+    private static final int JSON_FALSE = 2;
+    private static final int JSON_NUMBER = 3;
+    private static final int JSON_STRING = 4;
+    private static final int JSON_ARRAY = 5;
+    private static final int JSON_OBJECT = 6;
+
+    /**
+     * Write an object with the codec format.
+     * The stream is not closed.
+     *
+     * @param outputStream the output stream
+     * @param object       the object to write
+     * @throws IOException if the write fails
+     */
+    public static void write(OutputStream outputStream, Object object) throws IOException {
+        writeObject(new BufferedOutputStream(outputStream, 8 * 1024), object);
+    }
+
+    /**
+     * Write an object with the codec format to a stream which does not need to be buffered.
+     *
+     * @param outputStream the output stream
+     * @param object       the object to write
+     * @throws IOException if the write fails
+     */
+    private static void writeObject(OutputStream outputStream, Object object) throws IOException {
+        Writer writer = new Writer(outputStream);
+        writer.writeInt(MAGIC);
+        writer.writeVarInt(CODEC_VERSION);
+        writer.writeObject(object);
+        writer.flush();
+    }
+
+    /**
+     * Read an object.
+     * The java serialization is used when the stream has not been written by the codec.
+     * The stream is not closed.
+     *
+     * @param inputStream the input stream
+     * @return the read object
+     * @throws IOException            if the read fails
+     * @throws ClassNotFoundException if the read object class is unknown
+     */
+    public static Object read(InputStream inputStream) throws IOException, ClassNotFoundException {
+        return readObject(new BufferedInputStream(inputStream, 8 * 1024));
+    }
+
+    /**
+     * Read an object from a stream which supports mark and reset and which does not need to be buffered.
+     *
+     * @param markableInputStream the input stream
+     * @return the read object
+     * @throws IOException            if the read fails
+     * @throws ClassNotFoundException if the read object class is unknown
+     */
+    private static Object readObject(InputStream markableInputStream) throws IOException, ClassNotFoundException {
+        DataInputStream dataInputStream = new DataInputStream(markableInputStream);
+
+        markableInputStream.mark(4);
+
+        int magic;
+
+        try {
+            magic = dataInputStream.readInt();
+        } catch (IOException e) {
+            magic = 0;
+        }
+
+        if (MAGIC != magic) {
+            // legacy format
+            markableInputStream.reset();
+            return new ObjectInputStream(markableInputStream).readObject();
+        }
+
+        Reader reader = new Reader(dataInputStream);
+        int version = reader.readVarInt();
+
+        if (version > CODEC_VERSION) {
+            throw new IOException("Unsupported codec version " + version);
+        }
+
+        reader.mVersion = version;
+        return reader.readObject();
+    }
+
+    /**
+     * Encode an object to a bytes array.
+     *
+     * @param object the object to encode
+     * @return the bytes array
+     * @throws IOException if the encoding fails
+     */
+    public static byte[] encode(Object object) throws IOException {
+        // the bytes arrays are not buffered : a buffer would be allocated for each encoded object
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        writeObject(bos, object);
+        return bos.toByteArray();
+    }
+
+    /**
+     * Decode an object from a bytes array.
+     *
+     * @param bytes the bytes array
+     * @return the decoded object
+     * @throws IOException            if the decoding fails
+     * @throws ClassNotFoundException if the decoded object class is unknown
+     */
+    public static Object decode(byte[] bytes) throws IOException, ClassNotFoundException {
+        return readObject(new ByteArrayInputStream(bytes));
+    }
+
+    //================================================================================
+    // Writer
+    //================================================================================
+
+    /**
+     * Codec writer.
+     * It implements ObjectOutput to let the Externalizable objects (RoomState, RoomMember...) write their fields.
+     */
+    private static class Writer implements ObjectOutput {
+        private final DataOutputStream mOut;
+
+        // the strings already written -> index
+        private final Map<String, Integer> mStringsTable = new HashMap<>();
+
+        Writer(OutputStream outputStream) {
+            mOut = new DataOutputStream(outputStream);
+        }
+
+        void writeVarInt(int value) throws IOException {
+            while ((value & ~0x7F) != 0) {
+                mOut.writeByte((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            mOut.writeByte(value);
+        }
+
+        void writeVarLong(long value) throws IOException {
+            while ((value & ~0x7FL) != 0) {
+                mOut.writeByte(((int) value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            mOut.writeByte((int) value);
+        }
+
+        /**
+         * Write a nullable string.
+         * A string which has already been written is replaced by its index in the strings table.
+         *
+         * @param value the string
+         * @throws IOException if the write fails
+         */
+        void writeString(String value) throws IOException {
+            if (null == value) {
+                writeVarInt(0);
+                return;
+            }
+
+            Integer index = mStringsTable.get(value);
+
+            if (null != index) {
+                writeVarInt((index << 1) | 1);
+                return;
+            }
+
+            byte[] bytes = value.getBytes(UTF8);
+            writeVarInt((bytes.length + 1) << 1);
+            mOut.write(bytes);
+
+            if (value.length() <= MAX_SHARED_STRING_LENGTH) {
+                mStringsTable.put(value, mStringsTable.size());
+            }
+        }
+
+        void writeJson(JsonElement element) throws IOException {
+            if ((null == element) || element.isJsonNull()) {
+                writeVarInt(JSON_NULL);
+            } else if (element.isJsonObject()) {
+                JsonObject object = element.getAsJsonObject();
+                writeVarInt(JSON_OBJECT);
+                writeVarInt(object.entrySet().size());
+
+                for (Map.Entry<String, JsonElement> entry : object.entrySet()) {
+                    writeString(entry.getKey());
+                    writeJson(entry.getValue());
+                }
+            } else if (element.isJsonArray()) {
+                JsonArray array = element.getAsJsonArray();
+                writeVarInt(JSON_ARRAY);
+                writeVarInt(array.size());
+
+                for (JsonElement item : array) {
+                    writeJson(item);
+                }
+            } else {
+                JsonPrimitive primitive = element.getAsJsonPrimitive();
+
+                if (primitive.isBoolean()) {
+                    writeVarInt(primitive.getAsBoolean() ? JSON_TRUE : JSON_FALSE);
+                } else if (primitive.isNumber()) {
+                    writeVarInt(JSON_NUMBER);
+                    writeString(primitive.getAsString());
+                } else {
+                    writeVarInt(JSON_STRING);
+                    writeString(primitive.getAsString());
+                }
+            }
+        }
+
+        void writeEvent(Event event) throws IOException {
+            writeString(event.type);
+            writeString(event.eventId);
+            writeString(event.roomId);
+            writeString(event.userId);
+            writeString(event.sender);
+            writeVarLong(event.originServerTs);
+
+            writeBoolean(null != event.age);
+            if (null != event.age) {
+                writeLong(event.age);
+            }
+
+            writeString(event.stateKey);
+            writeString(event.redacts);
+
+            writeJson(event.getWireContent());
+            writeJson(event.getPrevContentAsJsonObject());
+
+            UnsignedData unsigned = event.unsigned;
+            writeBoolean(null != unsigned);
+            if (null != unsigned) {
+                writeBoolean(null != unsigned.age);
+                if (null != unsigned.age) {
+                    writeLong(unsigned.age);
+                }
+                writeString(unsigned.transaction_id);
+                writeObject(unsigned.redacted_because);
+            }
+
+            writeObject(event.invite_room_state);
+            writeObject(event.unsentException);
+            writeObject(event.unsentMatrixError);
+
+            writeString((null != event.mSentState) ? event.mSentState.name() : null);
+            writeString(event.mToken);
+            writeBoolean(event.mIsInternalPaginationToken);
+            writeString(event.getMatrixId());
+        }
+
+        @Override
+        public void writeObject(Object object) throws IOException {
+            if (null == object) {
+                writeVarInt(VALUE_NULL);
+            } else if (object instanceof String) {
+                writeVarInt(VALUE_STRING);
+                writeString((String) object);
+            } else if (object instanceof Integer) {
+                writeVarInt(VALUE_INTEGER);
+                writeInt((Integer) object);
+            } else if (object instanceof Long) {
+                writeVarInt(VALUE_LONG);
+                writeLong((Long) object);
+            } else if (object instanceof Boolean) {
+                writeVarInt(VALUE_BOOLEAN);
+                writeBoolean((Boolean) object);
+            } else if (object instanceof Event) {
+                writeVarInt(VALUE_EVENT);
+                writeEvent((Event) object);
+            } else if (object instanceof JsonElement) {
+                writeVarInt(VALUE_JSON);
+                writeJson((JsonElement) object);
+            } else if (object instanceof List) {
+                List<?> list = (List<?>) object;
+                writeVarInt(VALUE_LIST);
+                writeVarInt(list.size());
+
+                for (Object item : list) {
+                    writeObject(item);
+                }
+            } else if (object instanceof Map) {
+                Map<?, ?> map = (Map<?, ?>) object;
+                writeVarInt(VALUE_MAP);
+                writeVarInt(map.size());
+
+                for (Map.Entry<?, ?> entry : map.entrySet()) {
+                    writeObject(entry.getKey());
+                    writeObject(entry.getValue());
+                }
+            } else if (object instanceof ReceiptData) {
+                ReceiptData receipt = (ReceiptData) object;
+                writeVarInt(VALUE_RECEIPT);
+                writeString(receipt.userId);
+                writeString(receipt.eventId);
+                writeVarLong(receipt.originServerTs);
+            } else if (object instanceof User) {
+                writeVarInt(VALUE_USER);
+                ((User) object).writeFields(this);
+            } else if (object instanceof RoomSummary) {
+                writeVarInt(VALUE_SUMMARY);
+                ((RoomSummary) object).writeFields(this);
+            } else if (object instanceof Externalizable) {
+                writeVarInt(VALUE_EXTERNALIZABLE);
+                writeString(object.getClass().getName());
+                ((Externalizable) object).writeExternal(this);
+            } else if (object instanceof Serializable) {
+                // fallback for the rarely used objects (power levels, errors...)
+                ByteArrayOutputStream bos = new ByteArrayOutputStream();
+                ObjectOutputStream oos = new ObjectOutputStream(bos);
+                oos.writeObject(object);
+                oos.close();
+
+                byte[] bytes = bos.toByteArray();
+                writeVarInt(VALUE_SERIALIZABLE);
+                writeVarInt(bytes.length);
+                mOut.write(bytes);
+            } else {
+                throw new IOException("Cannot write " + object.getClass().getName());
+            }
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            mOut.write(b);
+        }
+
+        @Override
+        public void write(byte[] b) throws IOException {
+            mOut.write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            mOut.write(b, off, len);
+        }
+
+        @Override
+        public void writeBoolean(boolean v) throws IOException {
+            mOut.writeBoolean(v);
+        }
+
+        @Override
+        public void writeByte(int v) throws IOException {
+            mOut.writeByte(v);
+        }
+
+        @Override
+        public void writeShort(int v) throws IOException {
+            mOut.writeShort(v);
+        }
+
+        @Override
+        public void writeChar(int v) throws IOException {
+            mOut.writeChar(v);
+        }
+
+        @Override
+        public void writeInt(int v) throws IOException {
+            mOut.writeInt(v);
+        }
+
+        @Override
+        public void writeLong(long v) throws IOException {
+            mOut.writeLong(v);
+        }
+
+        @Override
+        public void writeFloat(float v) throws IOException {
+            mOut.writeFloat(v);
+        }
+
+        @Override
+        public void writeDouble(double v) throws IOException {
+            mOut.writeDouble(v);
+        }
+
+        @Override
+        public void writeBytes(String s) throws IOException {
+            mOut.writeBytes(s);
+        }
+
+        @Override
+        public void writeChars(String s) throws IOException {
+            mOut.writeChars(s);
+        }
+
+        @Override
+        public void writeUTF(String s) throws IOException {
+            // no 64KB limit
+            writeString(s);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            mOut.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            mOut.close();
+        }
+    }
+
+    //================================================================================
+    // Reader
+    //================================================================================
+
+    /**
+     * Codec reader.
+     */
+    private static class Reader implements ObjectInput {
+        private final DataInputStream mIn;
+
+        // the read strings
+        private final List<String> mStringsTable = new ArrayList<>();
+
+        // the codec version of the read stream
+        int mVersion = CODEC_VERSION;
+
+        Reader(DataInputStream inputStream) {
+            mIn = inputStream;
+        }
+
+        int readVarInt() throws IOException {
+            int value = 0;
+            int shift = 0;
+            int b;
+
+            do {
+                b = mIn.readUnsignedByte();
+                value |= (b & 0x7F) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0);
+
+            return value;
+        }
+
+        long readVarLong() throws IOException {
+            long value = 0;
+            int shift = 0;
+            int b;
+
+            do {
+                b = mIn.readUnsignedByte();
+                value |= (long) (b & 0x7F) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0);
+
+            return value;
+        }
+
+        String readString() throws IOException {
+            int header = readVarInt();
+
+            if (0 == header) {
+                return null;
+            }
+
+            if ((header & 1) != 0) {
+                return mStringsTable.get(header >>> 1);
+            }
+
+            byte[] bytes = new byte[(header >>> 1) - 1];
+            mIn.readFully(bytes);
+
+            String value = new String(bytes, UTF8);
+
+            if (value.length() <= MAX_SHARED_STRING_LENGTH) {
+                mStringsTable.add(value);
+            }
+
+            return value;
+        }
+
+        JsonElement readJson() throws IOException {
+            int tag = readVarInt();
+
+            switch (tag) {
+                case JSON_NULL:
+                    return null;
+                case JSON_TRUE:
+                    return new JsonPrimitive(true);
+                case JSON_FALSE:
+                    return new JsonPrimitive(false);
+                case JSON_NUMBER:
+                    return new JsonPrimitive(new LazilyParsedNumber(readString()));
+                case JSON_STRING:
+                    return new JsonPrimitive(readString());
+                case JSON_ARRAY: {
+                    int count = readVarInt();
+                    JsonArray array = new JsonArray();
+
+                    for (int i = 0; i < count; i++) {
+                        JsonElement item = readJson();
+                        array.add((null != item) ? item : JsonNull.INSTANCE);
+                    }
+                    return array;
+                }
+                case JSON_OBJECT: {
+                    int count = readVarInt();
+                    JsonObject object = new JsonObject();
+
+                    for (int i = 0; i < count; i++) {
+                        String key = readString();
+                        JsonElement value = readJson();
+                        object.add(key, (null != value) ? value : JsonNull.INSTANCE);
+                    }
+                    return object;
+                }
+                default:
+                    throw new IOException("Unknown JSON tag " + tag);
+            }
+        }
+
+        Event readEvent() throws IOException, ClassNotFoundException {
+            Event event = new Event();
+
+            event.type = readString();
+            event.eventId = readString();
+            event.roomId = readString();
+            event.userId = readString();
+            event.sender = readString();
+            event.originServerTs = readVarLong();
+
+            if (readBoolean()) {
+                event.age = readLong();
+            }
+
+            event.stateKey = readString();
+            event.redacts = readString();
+
+            event.content = readJson();
+            event.prev_content = readJson();
+
+            if (readBoolean()) {
+                UnsignedData unsigned = new UnsignedData();
+
+                if (readBoolean()) {
+                    unsigned.age = readLong();
+                }
+                unsigned.transaction_id = readString();
+                unsigned.redacted_because = (RedactedBecause) readObject();
+
+                event.unsigned = unsigned;
+            }
+
+            event.invite_room_state = readEventsList();
+            event.unsentException = (Exception) readObject();
+            event.unsentMatrixError = (MatrixError) readObject();
+
+            String sentState = readString();
+
+            if (null != sentState) {
+                try {
+                    event.mSentState = Event.SentState.valueOf(sentState);
+                } catch (IllegalArgumentException e) {
+                    event.mSentState = Event.SentState.UNDELIVERABLE;
+                }
+            }
+
+            event.mToken = readString();
+            event.mIsInternalPaginationToken = readBoolean();
+            event.setMatrixId(readString());
+            event.internStrings();
+
+            return event;
+        }
+
+        /**
+         * Read a list of events written by writeObject.
+         * The items are checked while copying them into a typed list.
+         *
+         * @return the events list
+         * @throws ClassNotFoundException if the list contains an unknown class
+         * @throws IOException            if the list is malformed
+         */
+        private List<Event> readEventsList() throws ClassNotFoundException, IOException {
+            Object object = readObject();
+
+            if (null == object) {
+                return null;
+            }
+
+            if (!(object instanceof List)) {
+                throw new IOException("an events list is expected");
+            }
+
+            List<?> list = (List<?>) object;
+            List<Event> events = new ArrayList<>(list.size());
+
+            for (Object item : list) {
+                if ((null != item) && !(item instanceof Event)) {
+                    throw new IOException("an event is expected");
+                }
+
+                events.add((Event) item);
+            }
+
+            return events;
+        }
+
+        @Override
+        public Object readObject() throws ClassNotFoundException, IOException {
+            int tag = readVarInt();
+
+            switch (tag) {
+                case VALUE_NULL:
+                    return null;
+                case VALUE_STRING:
+                    return readString();
+                case VALUE_INTEGER:
+                    return readInt();
+                case VALUE_LONG:
+                    return readLong();
+                case VALUE_BOOLEAN:
+                    return readBoolean();
+                case VALUE_EVENT:
+                    return readEvent();
+                case VALUE_JSON:
+                    return readJson();
+                case VALUE_LIST: {
+                    int count = readVarInt();
+                    ArrayList<Object> list = new ArrayList<>(count);
+
+                    for (int i = 0; i < count; i++) {
+                        list.add(readObject());
+                    }
+                    return list;
+                }
+                case VALUE_MAP: {
+                    int count = readVarInt();
+                    LinkedHashMap<Object, Object> map = new LinkedHashMap<>();
+
+                    for (int i = 0; i < count; i++) {
+                        Object key = readObject();
+                        map.put(key, readObject());
+                    }
+                    return map;
+                }
+                case VALUE_RECEIPT: {
+                    String userId = readString();
+                    String eventId = readString();
+                    return new ReceiptData(userId, eventId, readVarLong());
+                }
+                case VALUE_USER: {
+                    User user = new User();
+                    user.readFields(this);
+                    return user;
+                }
+                case VALUE_SUMMARY: {
+                    RoomSummary summary = new RoomSummary();
+                    summary.readFields(this);
+                    return summary;
+                }
+                case VALUE_EXTERNALIZABLE: {
+                    String className = readString();
+                    Externalizable externalizable;
+
+                    try {
+                        externalizable = (Externalizable) Class.forName(className).getDeclaredConstructor().newInstance();
+                    } catch (Exception e) {
+                        throw new IOException("Cannot instantiate " + className + " : " + e.getMessage());
+                    }
+
+                    externalizable.readExternal(this);
+                    return externalizable;
+                }
+                case VALUE_SERIALIZABLE: {
+                    byte[] bytes = new byte[readVarInt()];
+                    mIn.readFully(bytes);
+
+                    ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(bytes));
+                    Object object = ois.readObject();
+                    ois.close();
+                    return object;
+                }
+                default:
+                    throw new IOException("Unknown value tag " + tag);
+            }
+        }
+
+        @Override
+        public int read() throws IOException {
+            return mIn.read();
+        }
+
+        @Override
+        public int read(byte[] b) throws IOException {
+            return mIn.read(b);
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            return mIn.read(b, off, len);
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            return mIn.skip(n);
+        }
+
+        @Override
+        public int available() throws IOException {
+            return mIn.available();
+        }
+
+        @Override
+        public void readFully(byte[] b) throws IOException {
+            mIn.readFully(b);
+        }
+
+        @Override
+        public void readFully(byte[] b, int off, int len) throws IOException {
+            mIn.readFully(b, off, len);
+        }
+
+        @Override
+        public int skipBytes(int n) throws IOException {
+            return mIn.skipBytes(n);
+        }
+
+        @Override
+        public boolean readBoolean() throws IOException {
+            return mIn.readBoolean();
+        }
+
+        @Override
+        public byte readByte() throws IOException {
+            return mIn.readByte();
+        }
+
+        @Override
+        public int readUnsignedByte() throws IOException {
+            return mIn.readUnsignedByte();
+        }
+
+        @Override
+        public short readShort() throws IOException {
+            return mIn.readShort();
+        }
+
+        @Override
+        public int readUnsignedShort() throws IOException {
+            return mIn.readUnsignedShort();
+        }
+
+        @Override
+        public char readChar() throws IOException {
+            return mIn.readChar();
+        }
+
+        @Override
+        public int readInt() throws IOException {
+            return mIn.readInt();
+        }
+
+        @Override
+        public long readLong() throws IOException {
+            return mIn.readLong();
+        }
+
+        @Override
+        public float readFloat() throws IOException {
+            return mIn.readFloat();
+        }
+
+        @Override
+        public double readDouble() throws IOException {
+            return mIn.readDouble();
+        }
+
+        @Override
+        @Deprecated
+        public String readLine() throws IOException {
+            throw new IOException("readLine is not supported");
+        }
+
+        @Override
+        public String readUTF() throws IOException {
+            return readString();
+        }
+
+        @Override
+        public void close() throws IOException {
+            mIn.close();
+        }
+    }
+}
@@ -0,0 +1,267 @@
+/*
+ * Copyright 2017 Vector Creations Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.matrix.androidsdk.data.store;
+
+import android.os.Looper;
+
+import org.matrix.androidsdk.util.Log;
+import org.matrix.androidsdk.util.MXOsHandler;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Write-behind scheduler of the MXFileStore commits.
+ * The commit requests are coalesced : the pending updates are written in a single batch
+ * on the store thread, at most maxLatency milliseconds after the first not written commit request.
+ */
+public class MXFileStoreCommitScheduler {
+    private static final String LOG_TAG = "MXFileStoreCommitScheduler";
+
+    /**
+     * The default max delay between a commit request and its write.
+     */
+    public static final long DEFAULT_MAX_COMMIT_LATENCY_MS = 1000;
+
+    // the store thread handler
+    private final MXOsHandler mHandler;
+
+    // write the pending updates
+    private final Runnable mWriter;
+
+    // the max delay between a commit request and its write
+    private long mMaxLatency = DEFAULT_MAX_COMMIT_LATENCY_MS;
+
+    // true when a flush is posted
+    private boolean mIsFlushScheduled = false;
+
+    // the time of the first not written commit request
+    private long mFirstPendingCommitTs = 0;
+
+    // the number of not written commit requests
+    private int mPendingCommitsCount = 0;
+
+    // stats
+    private long mCommitsCount = 0;
+    private long mFlushesCount = 0;
+    private long mLastFlushLatency = 0;
+    private long mMaxFlushLatency = 0;
+    private long mLastFlushDuration = 0;
+
+    private final Runnable mFlushRunnable = new Runnable() {
+        @Override
+        public void run() {
+            flushPendingCommits();
+        }
+    };
+
+    /**
+     * Constructor
+     *
+     * @param handler the store thread handler
+     * @param writer  the runnable which writes the pending updates, it is run on the store thread.
+     */
+    public MXFileStoreCommitScheduler(MXOsHandler handler, Runnable writer) {
+        mHandler = handler;
+        mWriter = writer;
+    }
+
+    /**
+     * Update the max delay between a commit request and its write.
+     *
+     * @param maxLatency the delay in milliseconds, 0 to write at each commit request.
+     */
+    public void setMaxLatency(long maxLatency) {
+        synchronized (this) {
+            mMaxLatency = Math.max(0, maxLatency);
+        }
+    }
+
+    /**
+     * @return the max delay between a commit request and its write.
+     */
+    public long getMaxLatency() {
+        synchronized (this) {
+            return mMaxLatency;
+        }
+    }
+
+    /**
+     * Request a commit.
+     * The pending updates are written with the other requests received before the max latency.
+     */
+    public void schedule() {
+        synchronized (this) {
+            mCommitsCount++;
+            mPendingCommitsCount++;
+
+            if (!mIsFlushScheduled) {
+                mIsFlushScheduled = true;
+                mFirstPendingCommitTs = System.currentTimeMillis();
+                mHandler.postDelayed(mFlushRunnable, mMaxLatency);
+            }
+        }
+    }
+
+    /**
+     * Write the pending updates as soon as possible.
+     */
+    public void flush() {
+        synchronized (this) {
+            mHandler.removeCallbacks(mFlushRunnable);
+            mIsFlushScheduled = true;
+
+            if (0 == mPendingCommitsCount) {
+                mFirstPendingCommitTs = System.currentTimeMillis();
+            }
+
+            mHandler.post(mFlushRunnable);
+        }
+    }
+
+    /**
+     * Write the pending updates and wait until they are written.
+     * The pending updates are written in the caller thread when it is the store one.
+     *
+     * @param timeoutMs the max waiting time in milliseconds
+     * @param onFlushed a runnable to run on the store thread after the write, can be null.
+     * @return true if the updates are written before the timeout.
+     */
+    public boolean flushAndWait(long timeoutMs, final Runnable onFlushed) {
+        synchronized (this) {
+            mHandler.removeCallbacks(mFlushRunnable);
+            mIsFlushScheduled = true;
+        }
+
+        if (Looper.myLooper() == mHandler.getLooper()) {
+            flushPendingCommits();
+
+            if (null != onFlushed) {
+                onFlushed.run();
+            }
+            return true;
+        }
+
+        final CountDownLatch latch = new CountDownLatch(1);
+
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                flushPendingCommits();
+
+                if (null != onFlushed) {
+                    onFlushed.run();
+                }
+
+                latch.countDown();
+            }
+        });
+
+        try {
+            return latch.await(timeoutMs, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Log.e(LOG_TAG, "## flushAndWait() : interrupted " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Write the pending updates.
+     * It must be called on the store thread.
+     */
+    private void flushPendingCommits() {
+        int commitsCount;
+        long firstPendingCommitTs;
+
+        synchronized (this) {
+            commitsCount = mPendingCommitsCount;
+            firstPendingCommitTs = mFirstPendingCommitTs;
+            mPendingCommitsCount = 0;
+            mIsFlushScheduled = false;
+        }
+
+        long start = System.currentTimeMillis();
+        mWriter.run();
+        long end = System.currentTimeMillis();
+
+        synchronized (this) {
+            mFlushesCount++;
+            mLastFlushDuration = end - start;
+
+            if (0 != firstPendingCommitTs) {
+                mLastFlushLatency = end - firstPendingCommitTs;
+                mMaxFlushLatency = Math.max(mMaxFlushLatency, mLastFlushLatency);
+            }
+        }
+
+        Log.d(LOG_TAG, "## flushPendingCommits() : " + commitsCount + " commits written in " + (end - start) + " ms");
+    }
+
+    /**
+     * @return the number of commit requests which are not yet written.
+     */
+    public int getPendingCommitsCount() {
+        synchronized (this) {
+            return mPendingCommitsCount;
+        }
+    }
+
+    /**
+     * @return the number of commit requests.
+     */
+    public long getCommitsCount() {
+        synchronized (this) {
+            return mCommitsCount;
+        }
+    }
+
+    /**
+     * @return the number of batch writes.
+     */
+    public long getFlushesCount() {
+        synchronized (this) {
+            return mFlushesCount;
+        }
+    }
+
+    /**
+     * @return the delay between the first commit request of the latest batch and its write end, in milliseconds.
+     */
+    public long getLastFlushLatency() {
+        synchronized (this) {
+            return mLastFlushLatency;
+        }
+    }
+
+    /**
+     * @return the max delay between the first commit request of a batch and its write end, in milliseconds.
+     */
+    public long getMaxFlushLatency() {
+        synchronized (this) {
+            return mMaxFlushLatency;
+        }
+    }
+
+    /**
+     * @return the latest batch write duration in milliseconds.
+     */
+    public long getLastFlushDuration() {
+        synchronized (this) {
+            return mLastFlushDuration;
+        }
+    }
+}
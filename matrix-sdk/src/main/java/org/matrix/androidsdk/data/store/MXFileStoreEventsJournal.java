@@ -0,0 +1,456 @@
+/*
+ * Copyright 2017 Vector Creations Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.matrix.androidsdk.data.store;
+
+import org.matrix.androidsdk.rest.model.Event;
+import org.matrix.androidsdk.util.CountingInputStream;
+import org.matrix.androidsdk.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only journal of the room events.
+ * Each room has its own journal file which is replayed over the room messages snapshot at load time.
+ * The journal is deleted each time the room messages snapshot is rewritten (compaction).
+ */
+public class MXFileStoreEventsJournal {
+    private static final String LOG_TAG = "MXFileStoreJournal";
+
+    // the records types
+    private static final byte RECORD_PUT_EVENT = 1;
+    private static final byte RECORD_DELETE_EVENT = 2;
+
+    // the record body is followed by its CRC32 checksum
+    // the records written by the previous versions have no checksum
+    static final byte RECORD_CHECKSUM_FLAG = 0x40;
+
+    /**
+     * A journal record.
+     */
+    public static class Record {
+        // the event id
+        public final String mEventId;
+
+        // the event to insert / update (null to delete mEventId)
+        public final Event mEvent;
+
+        /**
+         * Create a record which inserts or updates an event.
+         *
+         * @param event the event
+         */
+        public Record(Event event) {
+            mEventId = event.eventId;
+            mEvent = event;
+        }
+
+        /**
+         * Create a record which deletes an event.
+         *
+         * @param eventId the event id
+         */
+        public Record(String eventId) {
+            mEventId = eventId;
+            mEvent = null;
+        }
+    }
+
+    // the journals folder
+    private final File mJournalsFolder;
+
+    /**
+     * Constructor
+     *
+     * @param journalsFolder the folder in which the room journals are stored.
+     */
+    public MXFileStoreEventsJournal(File journalsFolder) {
+        mJournalsFolder = journalsFolder;
+
+        if (!mJournalsFolder.exists()) {
+            mJournalsFolder.mkdirs();
+        }
+    }
+
+    /**
+     * @return the room ids which have a journal
+     */
+    public List<String> getRoomIds() {
+        ArrayList<String> roomIds = new ArrayList<>();
+        String[] names = mJournalsFolder.list();
+
+        if (null != names) {
+            for (String name : names) {
+                roomIds.add(name);
+            }
+        }
+
+        return roomIds;
+    }
+
+    /**
+     * Provides the journal size of a room.
+     *
+     * @param roomId the room id
+     * @return the journal size in bytes
+     */
+    public long size(String roomId) {
+        File file = new File(mJournalsFolder, roomId);
+        return file.exists() ? file.length() : 0;
+    }
+
+    /**
+     * Append some records to the room journal.
+     *
+     * @param roomId  the room id
+     * @param records the records to append
+     * @return the journal size after the append operation, -1 if the operation fails.
+     */
+    public long append(String roomId, List<Record> records) {
+        File file = new File(mJournalsFolder, roomId);
+        long initialSize = file.exists() ? file.length() : 0;
+        DataOutputStream out = null;
+        boolean succeed = false;
+
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true)));
+
+            for (Record record : records) {
+                if (null == record.mEventId) {
+                    continue;
+                }
+
+                ByteArrayOutputStream bos = new ByteArrayOutputStream();
+                DataOutputStream body = new DataOutputStream(bos);
+                byte recordType;
+
+                body.writeUTF(record.mEventId);
+
+                if (null != record.mEvent) {
+                    byte[] payload = encodeEvent(record.mEvent);
+
+                    recordType = RECORD_PUT_EVENT;
+                    body.writeInt(payload.length);
+                    body.write(payload);
+                } else {
+                    recordType = RECORD_DELETE_EVENT;
+                }
+
+                body.flush();
+                writeCheckedRecord(out, recordType, bos.toByteArray());
+            }
+
+            out.flush();
+            succeed = true;
+        } catch (Exception e) {
+            Log.e(LOG_TAG, "## append() " + roomId + " failed " + e.getMessage());
+        } finally {
+            if (null != out) {
+                try {
+                    out.close();
+                } catch (Exception e) {
+                    Log.e(LOG_TAG, "## append() " + roomId + " close failed " + e.getMessage());
+                }
+            }
+        }
+
+        if (!succeed) {
+            // do not keep a partially written record
+            truncate(file, initialSize);
+            return -1;
+        }
+
+        return file.length();
+    }
+
+    /**
+     * Replay the room journal over an events map.
+     * The replay stops at the first incomplete record (e.g. the application was killed during an append),
+     * and the journal is truncated after the latest complete record so the next appends can be replayed.
+     *
+     * @param roomId the room id
+     * @param events the events map loaded from the room snapshot (can be null)
+     * @return the updated events map, null if there is neither a snapshot nor a journal.
+     * @throws IOException if a record is corrupted
+     */
+    public LinkedHashMap<String, Event> replay(String roomId, LinkedHashMap<String, Event> events) throws IOException {
+        File file = new File(mJournalsFolder, roomId);
+
+        if (!file.exists()) {
+            return events;
+        }
+
+        if (null == events) {
+            events = new LinkedHashMap<>();
+        }
+
+        DataInputStream in = null;
+        CountingInputStream counter = null;
+        int count = 0;
+        long start = System.currentTimeMillis();
+        long fileLength = file.length();
+
+        // the offset of the end of the latest complete record
+        long lastGoodOffset = 0;
+        boolean isTruncated = false;
+
+        try {
+            counter = new CountingInputStream(new BufferedInputStream(new FileInputStream(file)));
+            in = new DataInputStream(counter);
+
+            while (true) {
+                byte recordType;
+
+                try {
+                    recordType = in.readByte();
+                } catch (EOFException eof) {
+                    // end of the journal
+                    break;
+                }
+
+                DataInputStream body = in;
+                boolean isChecked = (0 != (recordType & RECORD_CHECKSUM_FLAG));
+
+                if (isChecked) {
+                    body = new DataInputStream(new ByteArrayInputStream(readCheckedRecordBody(in, fileLength - counter.getCount())));
+                    recordType &= ~RECORD_CHECKSUM_FLAG;
+                }
+
+                try {
+                    String eventId = body.readUTF();
+
+                    if (RECORD_PUT_EVENT == recordType) {
+                        // the checked bodies are read from memory
+                        long remainingBytes = isChecked ? body.available() : (fileLength - counter.getCount());
+                        events.put(eventId, decodeEvent(readByteArray(body, remainingBytes)));
+                    } else if (RECORD_DELETE_EVENT == recordType) {
+                        events.remove(eventId);
+                    } else {
+                        throw new CorruptedRecordException("unknown record type " + recordType);
+                    }
+                } catch (EOFException eof) {
+                    // a checked record has been fully read : it is not torn
+                    if (isChecked) {
+                        throw new CorruptedRecordException("the record " + count + " body is too short");
+                    }
+
+                    throw eof;
+                }
+
+                count++;
+                lastGoodOffset = counter.getCount();
+            }
+        } catch (EOFException eof) {
+            Log.e(LOG_TAG, "## replay() " + roomId + " : the latest record is truncated");
+            isTruncated = true;
+        } catch (CorruptedRecordException e) {
+            Log.e(LOG_TAG, "## replay() " + roomId + " : " + e.getMessage());
+            throw e;
+        } catch (Exception e) {
+            // do not replay the next records over a missing one
+            Log.e(LOG_TAG, "## replay() " + roomId + " failed " + e.getMessage());
+            throw new CorruptedRecordException("cannot decode the record " + count + " : " + e.getMessage());
+        } finally {
+            if (null != in) {
+                try {
+                    in.close();
+                } catch (Exception e) {
+                    Log.e(LOG_TAG, "## replay() " + roomId + " close failed " + e.getMessage());
+                }
+            }
+        }
+
+        if (isTruncated) {
+            // else the next records would be appended after the torn one
+            truncate(file, lastGoodOffset);
+        }
+
+        Log.d(LOG_TAG, "## replay() " + roomId + " : " + count + " records in " + (System.currentTimeMillis() - start) + " ms");
+
+        return events;
+    }
+
+    /**
+     * Delete the room journal.
+     *
+     * @param roomId the room id
+     */
+    public void delete(String roomId) {
+        File file = new File(mJournalsFolder, roomId);
+
+        if (file.exists()) {
+            try {
+                file.delete();
+            } catch (Exception e) {
+                Log.e(LOG_TAG, "## delete() " + roomId + " failed " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Exception thrown when a journal record is corrupted.
+     * The truncated records are not corrupted : they are ignored.
+     */
+    public static class CorruptedRecordException extends IOException {
+        private static final long serialVersionUID = -4183906524716345120L;
+
+        /**
+         * Constructor
+         *
+         * @param message the error message
+         */
+        public CorruptedRecordException(String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * Write a record with its checksum.
+     * Format : type with the checksum flag (byte), body length (int), body, CRC32 of the body (long).
+     *
+     * @param out        the output stream
+     * @param recordType the record type
+     * @param body       the record body
+     * @throws IOException if the write fails
+     */
+    static void writeCheckedRecord(DataOutputStream out, byte recordType, byte[] body) throws IOException {
+        CRC32 crc = new CRC32();
+        crc.update(body);
+
+        out.writeByte(recordType | RECORD_CHECKSUM_FLAG);
+        out.writeInt(body.length);
+        out.write(body);
+        out.writeLong(crc.getValue());
+    }
+
+    /**
+     * Read a byte array written as its length (int) followed by its content.
+     * The length is checked before allocating the array, so a corrupted length
+     * cannot trigger an OutOfMemoryError or a NegativeArraySizeException.
+     *
+     * @param in             the input stream
+     * @param remainingBytes the number of bytes left in the stream, including the length
+     * @return the byte array
+     * @throws IOException if the length is negative (CorruptedRecordException), or if the array would end after the stream end (EOFException)
+     */
+    static byte[] readByteArray(DataInputStream in, long remainingBytes) throws IOException {
+        int length = in.readInt();
+
+        if (length < 0) {
+            throw new CorruptedRecordException("invalid record length " + length);
+        }
+
+        // a record which would end after the stream end is a torn one : there is no next record to keep
+        if (length > remainingBytes - 4) {
+            throw new EOFException("the record length " + length + " exceeds the " + remainingBytes + " remaining bytes");
+        }
+
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return bytes;
+    }
+
+    /**
+     * Read the body of a record written by writeCheckedRecord, the record type is already read.
+     *
+     * @param in             the input stream
+     * @param remainingBytes the number of bytes left in the stream after the record type
+     * @return the record body
+     * @throws IOException if the record is truncated or corrupted
+     */
+    static byte[] readCheckedRecordBody(DataInputStream in, long remainingBytes) throws IOException {
+        // the checksum follows the body
+        byte[] body = readByteArray(in, remainingBytes - 8);
+        long checksum = in.readLong();
+
+        CRC32 crc = new CRC32();
+        crc.update(body);
+
+        if (crc.getValue() != checksum) {
+            throw new CorruptedRecordException("invalid record checksum");
+        }
+
+        return body;
+    }
+
+    /**
+     * Truncate a journal file to a dedicated size.
+     *
+     * @param file the journal file
+     * @param size the expected size
+     */
+    static void truncate(File file, long size) {
+        if (file.exists() && (file.length() > size)) {
+            FileOutputStream fos = null;
+
+            try {
+                fos = new FileOutputStream(file, true);
+                fos.getChannel().truncate(size);
+            } catch (Exception e) {
+                Log.e(LOG_TAG, "## truncate() failed " + e.getMessage());
+            } finally {
+                if (null != fos) {
+                    try {
+                        fos.close();
+                    } catch (Exception e) {
+                        Log.e(LOG_TAG, "## truncate() close failed " + e.getMessage());
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Serialize an event.
+     *
+     * @param event the event
+     * @return the serialized event
+     * @throws Exception if the serialization fails
+     */
+    private static byte[] encodeEvent(Event event) throws Exception {
+        return MXFileStoreCodec.encode(event);
+    }
+
+    /**
+     * Deserialize an event.
+     *
+     * @param payload the serialized event
+     * @return the event
+     * @throws CorruptedRecordException if the deserialization fails
+     */
+    private static Event decodeEvent(byte[] payload) throws CorruptedRecordException {
+        try {
+            return (Event) MXFileStoreCodec.decode(payload);
+        } catch (Exception e) {
+            // the payload has been fully read : an EOF does not mean that the record is torn
+            throw new CorruptedRecordException("cannot decode the event : " + e.getMessage());
+        }
+    }
+}
@@ -24,6 +24,9 @@ import java.util.List;
 import java.util.Map;
 
 public class MXFileStoreMetaData implements java.io.Serializable {
+    // the fields are added without breaking the stored metadata read
+    private static final long serialVersionUID = 8254002601897883017L;
+
     // The obtained user id.
     public String mUserId = null;
 
@@ -48,6 +51,10 @@ public class MXFileStoreMetaData implements java.io.Serializable {
     // crypto
     public boolean mEndToEndDeviceAnnounced = false;
 
+    // the sync filter (JSON string) and its id on the server
+    public String mSyncFilter = null;
+    public String mSyncFilterId = null;
+
     public MXFileStoreMetaData deepCopy() {
         MXFileStoreMetaData copy = new MXFileStoreMetaData();
 
@@ -66,6 +73,8 @@ public class MXFileStoreMetaData implements java.io.Serializable {
         copy.mIgnoredUsers = mIgnoredUsers;
         copy.mDirectChatRoomsMap = mDirectChatRoomsMap;
         copy.mEndToEndDeviceAnnounced = mEndToEndDeviceAnnounced;
+        copy.mSyncFilter = mSyncFilter;
+        copy.mSyncFilterId = mSyncFilterId;
 
         return copy;
     }
@@ -0,0 +1,223 @@
+/*
+ * Copyright 2017 Vector Creations Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.matrix.androidsdk.data.store;
+
+import org.matrix.androidsdk.data.EventTimeline;
+import org.matrix.androidsdk.data.RoomState;
+import org.matrix.androidsdk.rest.model.Event;
+import org.matrix.androidsdk.util.CountingInputStream;
+import org.matrix.androidsdk.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Append-only delta log of the room states.
+ * Each room has its own journal file which contains the state events applied to the live state
+ * since the latest room state snapshot. It is replayed over the snapshot at load time.
+ * The journal is deleted each time the room state snapshot is rewritten (compaction).
+ */
+public class MXFileStoreStateJournal {
+    private static final String LOG_TAG = "MXFileStoreStateJournal";
+
+    // the records types
+    private static final byte RECORD_STATE_EVENT = 1;
+    private static final byte RECORD_LOCAL_FIELDS = 2;
+
+    // the journals folder
+    private final File mJournalsFolder;
+
+    /**
+     * Constructor
+     *
+     * @param journalsFolder the folder in which the room journals are stored.
+     */
+    public MXFileStoreStateJournal(File journalsFolder) {
+        mJournalsFolder = journalsFolder;
+
+        if (!mJournalsFolder.exists()) {
+            mJournalsFolder.mkdirs();
+        }
+    }
+
+    /**
+     * Provides the journal size of a room.
+     *
+     * @param roomId the room id
+     * @return the journal size in bytes
+     */
+    public synchronized long size(String roomId) {
+        File file = new File(mJournalsFolder, roomId);
+        return file.exists() ? file.length() : 0;
+    }
+
+    /**
+     * Append some state events to the room journal.
+     * The fields which are not updated by the state events are appended after them.
+     *
+     * @param roomId      the room id
+     * @param stateEvents the state events applied to the live state
+     * @param liveState   the live state
+     * @return the journal size after the append operation, -1 if the operation fails.
+     */
+    public synchronized long append(String roomId, List<Event> stateEvents, RoomState liveState) {
+        File file = new File(mJournalsFolder, roomId);
+        long initialSize = file.exists() ? file.length() : 0;
+        DataOutputStream out = null;
+        boolean succeed = false;
+
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true)));
+
+            for (Event event : stateEvents) {
+                MXFileStoreEventsJournal.writeCheckedRecord(out, RECORD_STATE_EVENT, MXFileStoreCodec.encode(event));
+            }
+
+            ByteArrayOutputStream bos = new ByteArrayOutputStream();
+            DataOutputStream fieldsOut = new DataOutputStream(bos);
+            liveState.writeLocalFields(fieldsOut);
+            fieldsOut.flush();
+
+            MXFileStoreEventsJournal.writeCheckedRecord(out, RECORD_LOCAL_FIELDS, bos.toByteArray());
+
+            out.flush();
+            succeed = true;
+        } catch (Exception e) {
+            Log.e(LOG_TAG, "## append() " + roomId + " failed " + e.getMessage());
+        } finally {
+            if (null != out) {
+                try {
+                    out.close();
+                } catch (Exception e) {
+                    Log.e(LOG_TAG, "## append() " + roomId + " close failed " + e.getMessage());
+                }
+            }
+        }
+
+        if (!succeed) {
+            // do not keep a partially written record
+            MXFileStoreEventsJournal.truncate(file, initialSize);
+            return -1;
+        }
+
+        return file.length();
+    }
+
+    /**
+     * Replay the room journal over a room state snapshot.
+     * The replay stops at the first incomplete record (e.g. the application was killed during an append).
+     *
+     * @param roomId the room id
+     * @param state  the room state loaded from the snapshot
+     * @return the number of replayed records
+     * @throws IOException if a record is corrupted
+     */
+    public synchronized int replay(String roomId, RoomState state) throws IOException {
+        File file = new File(mJournalsFolder, roomId);
+
+        if (!file.exists()) {
+            return 0;
+        }
+
+        DataInputStream in = null;
+        int count = 0;
+        long start = System.currentTimeMillis();
+        long fileLength = file.length();
+
+        try {
+            CountingInputStream counter = new CountingInputStream(new BufferedInputStream(new FileInputStream(file)));
+            in = new DataInputStream(counter);
+
+            while (true) {
+                byte recordType;
+
+                try {
+                    recordType = in.readByte();
+                } catch (EOFException eof) {
+                    // end of the journal
+                    break;
+                }
+
+                byte[] payload;
+
+                if (0 != (recordType & MXFileStoreEventsJournal.RECORD_CHECKSUM_FLAG)) {
+                    payload = MXFileStoreEventsJournal.readCheckedRecordBody(in, fileLength - counter.getCount());
+                    recordType &= ~MXFileStoreEventsJournal.RECORD_CHECKSUM_FLAG;
+                } else {
+                    payload = MXFileStoreEventsJournal.readByteArray(in, fileLength - counter.getCount());
+                }
+
+                if (RECORD_STATE_EVENT == recordType) {
+                    // the store is not provided : the users and the state events are already saved
+                    state.applyState(null, (Event) MXFileStoreCodec.decode(payload), EventTimeline.Direction.FORWARDS);
+                } else if (RECORD_LOCAL_FIELDS == recordType) {
+                    state.readLocalFields(new DataInputStream(new ByteArrayInputStream(payload)));
+                } else {
+                    throw new MXFileStoreEventsJournal.CorruptedRecordException("unknown record type " + recordType);
+                }
+
+                count++;
+            }
+        } catch (EOFException eof) {
+            Log.e(LOG_TAG, "## replay() " + roomId + " : the latest record is truncated");
+        } catch (MXFileStoreEventsJournal.CorruptedRecordException e) {
+            Log.e(LOG_TAG, "## replay() " + roomId + " : " + e.getMessage());
+            throw e;
+        } catch (Exception e) {
+            Log.e(LOG_TAG, "## replay() " + roomId + " failed " + e.getMessage());
+        } finally {
+            if (null != in) {
+                try {
+                    in.close();
+                } catch (Exception e) {
+                    Log.e(LOG_TAG, "## replay() " + roomId + " close failed " + e.getMessage());
+                }
+            }
+        }
+
+        Log.d(LOG_TAG, "## replay() " + roomId + " : " + count + " records in " + (System.currentTimeMillis() - start) + " ms");
+
+        return count;
+    }
+
+    /**
+     * Delete the room journal.
+     *
+     * @param roomId the room id
+     */
+    public synchronized void delete(String roomId) {
+        File file = new File(mJournalsFolder, roomId);
+
+        if (file.exists()) {
+            try {
+                file.delete();
+            } catch (Exception e) {
+                Log.e(LOG_TAG, "## delete() " + roomId + " failed " + e.getMessage());
+            }
+        }
+    }
+}
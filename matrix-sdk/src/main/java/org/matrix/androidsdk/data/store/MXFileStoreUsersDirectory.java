@@ -0,0 +1,458 @@
+/*
+ * Copyright 2017 Vector Creations Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.matrix.androidsdk.data.store;
+
+import org.matrix.androidsdk.rest.model.User;
+import org.matrix.androidsdk.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Packed users directory.
+ * The users are saved as checked records in a single append-only file : an updated user is appended,
+ * its previous record becomes obsolete. The file is compacted when the obsolete records use most of it.
+ * Only the records offsets are kept in memory, the users are decoded when they are requested.
+ */
+public class MXFileStoreUsersDirectory {
+    private static final String LOG_TAG = "MXFileStoreUsersDirectory";
+
+    private static final byte RECORD_PUT_USER = 1;
+
+    // the record size without its body : type (byte), body length (int), checksum (long)
+    private static final int RECORD_HEADER_SIZE = 1 + 4 + 8;
+
+    // the file is compacted when it is larger than COMPACTION_RATIO times the live records size
+    private static final int COMPACTION_RATIO = 2;
+
+    // the small files are never compacted
+    static final long MIN_COMPACTION_SIZE = 256 * 1024;
+
+    /**
+     * The location of the latest record of an user.
+     */
+    private static class Entry {
+        final long mOffset;
+        final int mLength;
+
+        Entry(long offset, int length) {
+            mOffset = offset;
+            mLength = length;
+        }
+    }
+
+    // the directory file
+    private final File mFile;
+
+    // the latest record location by user id
+    private final Map<String, Entry> mEntries = new HashMap<>();
+
+    // the live records size
+    private long mLiveBytes = 0;
+
+    // the file size
+    private long mFileLength = 0;
+
+    /**
+     * Constructor
+     *
+     * @param file the directory file
+     */
+    public MXFileStoreUsersDirectory(File file) {
+        mFile = file;
+    }
+
+    /**
+     * Build the records index.
+     * The records are checked but the users are not decoded.
+     * The file is truncated after the latest valid record (e.g. the application was killed during an append).
+     */
+    public synchronized void open() {
+        mEntries.clear();
+        mLiveBytes = 0;
+        mFileLength = 0;
+
+        if (!mFile.exists()) {
+            return;
+        }
+
+        long start = System.currentTimeMillis();
+        long offset = 0;
+        long fileLength = mFile.length();
+        DataInputStream in = null;
+
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(mFile)));
+
+            while (true) {
+                byte recordType;
+
+                try {
+                    recordType = in.readByte();
+                } catch (EOFException eof) {
+                    // end of the directory
+                    break;
+                }
+
+                if ((RECORD_PUT_USER | MXFileStoreEventsJournal.RECORD_CHECKSUM_FLAG) != recordType) {
+                    throw new MXFileStoreEventsJournal.CorruptedRecordException("unknown record type " + recordType);
+                }
+
+                // the record type has been read
+                byte[] body = MXFileStoreEventsJournal.readCheckedRecordBody(in, fileLength - offset - 1);
+                String userId = new DataInputStream(new ByteArrayInputStream(body)).readUTF();
+                int length = RECORD_HEADER_SIZE + body.length;
+
+                putEntry(userId, new Entry(offset, length));
+                offset += length;
+            }
+        } catch (EOFException eof) {
+            Log.e(LOG_TAG, "## open() : the latest record is truncated");
+        } catch (Exception e) {
+            Log.e(LOG_TAG, "## open() : stop at offset " + offset + " " + e.getMessage());
+        } finally {
+            if (null != in) {
+                try {
+                    in.close();
+                } catch (Exception e) {
+                    Log.e(LOG_TAG, "## open() close failed " + e.getMessage());
+                }
+            }
+        }
+
+        // the next records must be appended after a valid one
+        MXFileStoreEventsJournal.truncate(mFile, offset);
+        mFileLength = offset;
+
+        Log.d(LOG_TAG, "## open() : " + mEntries.size() + " users (" + mFileLength + " bytes) indexed in " + (System.currentTimeMillis() - start) + " ms");
+    }
+
+    /**
+     * Update the location of an user record.
+     *
+     * @param userId the user id
+     * @param entry  the new location
+     */
+    private void putEntry(String userId, Entry entry) {
+        Entry previousEntry = mEntries.put(userId, entry);
+
+        if (null != previousEntry) {
+            mLiveBytes -= previousEntry.mLength;
+        }
+
+        mLiveBytes += entry.mLength;
+    }
+
+    /**
+     * @return the saved user ids
+     */
+    public synchronized Set<String> getUserIds() {
+        return new HashSet<>(mEntries.keySet());
+    }
+
+    /**
+     * Tells if an user is saved.
+     *
+     * @param userId the user id
+     * @return true if the user is saved
+     */
+    public synchronized boolean contains(String userId) {
+        return mEntries.containsKey(userId);
+    }
+
+    /**
+     * @return the number of saved users
+     */
+    public synchronized int size() {
+        return mEntries.size();
+    }
+
+    /**
+     * @return the file size in bytes
+     */
+    public synchronized long length() {
+        return mFileLength;
+    }
+
+    /**
+     * Read an user.
+     *
+     * @param userId the user id
+     * @return the user, null if it is not saved or if it cannot be read.
+     */
+    public synchronized User get(String userId) {
+        Entry entry = mEntries.get(userId);
+
+        if (null == entry) {
+            return null;
+        }
+
+        RandomAccessFile file = null;
+        User user = null;
+
+        try {
+            byte[] record = new byte[entry.mLength];
+
+            file = new RandomAccessFile(mFile, "r");
+            file.seek(entry.mOffset);
+            file.readFully(record);
+
+            user = decodeRecord(record);
+        } catch (Exception e) {
+            Log.e(LOG_TAG, "## get() " + userId + " failed " + e.getMessage());
+        } finally {
+            if (null != file) {
+                try {
+                    file.close();
+                } catch (Exception e) {
+                    Log.e(LOG_TAG, "## get() close failed " + e.getMessage());
+                }
+            }
+        }
+
+        return user;
+    }
+
+    /**
+     * Read the users which are not in a dedicated set.
+     *
+     * @param excludedUserIds the user ids to ignore
+     * @return the read users
+     */
+    public synchronized List<User> getAll(Set<String> excludedUserIds) {
+        List<User> users = new ArrayList<>();
+
+        for (String userId : mEntries.keySet()) {
+            if (!excludedUserIds.contains(userId)) {
+                User user = get(userId);
+
+                if (null != user) {
+                    users.add(user);
+                }
+            }
+        }
+
+        return users;
+    }
+
+    /**
+     * Save some users.
+     * Their records are appended, the file is compacted if it is required.
+     *
+     * @param users the updated users
+     * @return true if the operation succeeds
+     */
+    public synchronized boolean append(Collection<User> users) {
+        DataOutputStream out = null;
+        Map<String, Entry> entries = new HashMap<>();
+        boolean succeed = false;
+
+        try {
+            ByteArrayOutputStream records = new ByteArrayOutputStream();
+            DataOutputStream recordsOut = new DataOutputStream(records);
+
+            for (User user : users) {
+                if (null != user.user_id) {
+                    int offset = records.size();
+                    MXFileStoreEventsJournal.writeCheckedRecord(recordsOut, RECORD_PUT_USER, encodeBody(user));
+                    entries.put(user.user_id, new Entry(mFileLength + offset, records.size() - offset));
+                }
+            }
+
+            // a single write by commit
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(mFile, true)));
+            records.writeTo(out);
+            out.flush();
+
+            succeed = true;
+        } catch (OutOfMemoryError oom) {
+            Log.e(LOG_TAG, "## append() : out of memory");
+        } catch (Exception e) {
+            Log.e(LOG_TAG, "## append() failed " + e.getMessage());
+        } finally {
+            if (null != out) {
+                try {
+                    out.close();
+                } catch (Exception e) {
+                    Log.e(LOG_TAG, "## append() close failed " + e.getMessage());
+                }
+            }
+        }
+
+        if (!succeed) {
+            // do not keep a partially written record
+            MXFileStoreEventsJournal.truncate(mFile, mFileLength);
+            return false;
+        }
+
+        for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+            putEntry(entry.getKey(), entry.getValue());
+            mFileLength = Math.max(mFileLength, entry.getValue().mOffset + entry.getValue().mLength);
+        }
+
+        if ((mFileLength > MIN_COMPACTION_SIZE) && (mFileLength > COMPACTION_RATIO * mLiveBytes)) {
+            compact();
+        }
+
+        return true;
+    }
+
+    /**
+     * Rewrite the file with only the latest record of each user.
+     * The raw records are copied, they are not decoded.
+     */
+    private void compact() {
+        long start = System.currentTimeMillis();
+        File tmpFile = new File(mFile.getParent(), mFile.getName() + ".tmp");
+        Map<String, Entry> entries = new HashMap<>();
+        RandomAccessFile in = null;
+        DataOutputStream out = null;
+        boolean succeed = false;
+
+        try {
+            in = new RandomAccessFile(mFile, "r");
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)));
+
+            long offset = 0;
+
+            for (Map.Entry<String, Entry> entry : mEntries.entrySet()) {
+                byte[] record = new byte[entry.getValue().mLength];
+
+                in.seek(entry.getValue().mOffset);
+                in.readFully(record);
+                out.write(record);
+
+                entries.put(entry.getKey(), new Entry(offset, record.length));
+                offset += record.length;
+            }
+
+            out.close();
+            out = null;
+
+            succeed = tmpFile.renameTo(mFile);
+        } catch (OutOfMemoryError oom) {
+            Log.e(LOG_TAG, "## compact() : out of memory");
+        } catch (Exception e) {
+            Log.e(LOG_TAG, "## compact() failed " + e.getMessage());
+        } finally {
+            if (null != in) {
+                try {
+                    in.close();
+                } catch (Exception e) {
+                    Log.e(LOG_TAG, "## compact() close failed " + e.getMessage());
+                }
+            }
+
+            if (null != out) {
+                try {
+                    out.close();
+                } catch (Exception e) {
+                    Log.e(LOG_TAG, "## compact() close failed " + e.getMessage());
+                }
+            }
+        }
+
+        if (succeed) {
+            Log.d(LOG_TAG, "## compact() : " + mFileLength + " -> " + mLiveBytes + " bytes in " + (System.currentTimeMillis() - start) + " ms");
+
+            mEntries.clear();
+            mEntries.putAll(entries);
+            mFileLength = mLiveBytes;
+        } else {
+            tmpFile.delete();
+        }
+    }
+
+    /**
+     * Delete the directory.
+     */
+    public synchronized void delete() {
+        mEntries.clear();
+        mLiveBytes = 0;
+        mFileLength = 0;
+
+        if (mFile.exists()) {
+            try {
+                mFile.delete();
+            } catch (Exception e) {
+                Log.e(LOG_TAG, "## delete() failed " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Serialize the record body of an user.
+     * Format : user id (UTF), encoded user.
+     *
+     * @param user the user
+     * @return the record body
+     * @throws Exception if the serialization fails
+     */
+    private static byte[] encodeBody(User user) throws Exception {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        DataOutputStream body = new DataOutputStream(bos);
+
+        body.writeUTF(user.user_id);
+        body.write(MXFileStoreCodec.encode(user));
+        body.flush();
+
+        return bos.toByteArray();
+    }
+
+    /**
+     * Deserialize an user from a full record.
+     *
+     * @param record the record
+     * @return the user
+     * @throws Exception if the record is invalid
+     */
+    private static User decodeRecord(byte[] record) throws Exception {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(record));
+        in.readByte();
+
+        byte[] body = MXFileStoreEventsJournal.readCheckedRecordBody(in, record.length - 1);
+        DataInputStream bodyIn = new DataInputStream(new ByteArrayInputStream(body));
+        String userId = bodyIn.readUTF();
+
+        byte[] payload = new byte[bodyIn.available()];
+        bodyIn.readFully(payload);
+
+        User user = (User) MXFileStoreCodec.decode(payload);
+
+        if (null == user.user_id) {
+            user.user_id = userId;
+        }
+
+        return user;
+    }
+}
@@ -0,0 +1,229 @@
+/*
+ * Copyright 2017 Vector Creations Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.matrix.androidsdk.data.store;
+
+import org.matrix.androidsdk.util.Log;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Single file image of the data required to open a MXFileStore.
+ * The file is read with one sequential read instead of opening one file by room and by data type.
+ * Its content is checked with a CRC32 checksum.
+ * <p>
+ * Format : magic (int), store version (int), content length (int), content checksum (long), gzipped content.
+ */
+public class MXFileStoreWarmStartImage {
+    private static final String LOG_TAG = "MXFileStoreWarmStartImage";
+
+    private static final int MAGIC = 0x4D585753; // MXWS
+
+    // the header size in bytes
+    private static final int HEADER_SIZE = 4 + 4 + 4 + 8;
+
+    // the image file
+    private final File mFile;
+
+    // the store version
+    private final int mVersion;
+
+    /**
+     * Constructor
+     *
+     * @param file    the image file
+     * @param version the store version, the image is ignored when it has been written by another version.
+     */
+    public MXFileStoreWarmStartImage(File file, int version) {
+        mFile = file;
+        mVersion = version;
+    }
+
+    /**
+     * @return true if the image file exists.
+     */
+    public boolean exists() {
+        return mFile.exists();
+    }
+
+    /**
+     * Write the image.
+     * The previous image is replaced only when the new one is fully written.
+     *
+     * @param content the image content
+     * @return true if the operation succeeds
+     */
+    public boolean write(Map<String, Object> content) {
+        File tmpFile = new File(mFile.getParent(), mFile.getName() + ".tmp");
+        DataOutputStream out = null;
+        boolean succeed = false;
+
+        try {
+            ByteArrayOutputStream bos = new ByteArrayOutputStream();
+            GZIPOutputStream gz = new GZIPOutputStream(bos);
+            MXFileStoreCodec.write(gz, content);
+            gz.close();
+
+            byte[] payload = bos.toByteArray();
+            CRC32 crc = new CRC32();
+            crc.update(payload);
+
+            out = new DataOutputStream(new FileOutputStream(tmpFile));
+            out.writeInt(MAGIC);
+            out.writeInt(mVersion);
+            out.writeInt(payload.length);
+            out.writeLong(crc.getValue());
+            out.write(payload);
+            out.close();
+            out = null;
+
+            succeed = tmpFile.renameTo(mFile);
+        } catch (OutOfMemoryError oom) {
+            Log.e(LOG_TAG, "## write() : out of memory");
+        } catch (Exception e) {
+            Log.e(LOG_TAG, "## write() failed " + e.getMessage());
+        } finally {
+            if (null != out) {
+                try {
+                    out.close();
+                } catch (Exception e) {
+                    Log.e(LOG_TAG, "## write() close failed " + e.getMessage());
+                }
+            }
+        }
+
+        if (!succeed) {
+            tmpFile.delete();
+        }
+
+        return succeed;
+    }
+
+    /**
+     * Read the image.
+     * The image is deleted when it cannot be used.
+     *
+     * @return the image content, null if there is no valid image.
+     */
+    public Map<String, Object> read() {
+        if (!mFile.exists()) {
+            return null;
+        }
+
+        Map<String, Object> content = null;
+        DataInputStream in = null;
+
+        try {
+            long fileLength = mFile.length();
+
+            in = new DataInputStream(new FileInputStream(mFile));
+
+            int magic = in.readInt();
+            int version = in.readInt();
+            int length = in.readInt();
+            long checksum = in.readLong();
+
+            if ((MAGIC != magic) || (mVersion != version) || (length != (fileLength - HEADER_SIZE))) {
+                Log.e(LOG_TAG, "## read() : invalid header");
+            } else {
+                // one sequential read
+                byte[] payload = new byte[length];
+                in.readFully(payload);
+
+                CRC32 crc = new CRC32();
+                crc.update(payload);
+
+                if (crc.getValue() != checksum) {
+                    Log.e(LOG_TAG, "## read() : invalid checksum");
+                } else {
+                    GZIPInputStream gz = new GZIPInputStream(new ByteArrayInputStream(payload));
+                    content = toStringKeyedMap(MXFileStoreCodec.read(gz));
+                    gz.close();
+
+                    if (null == content) {
+                        Log.e(LOG_TAG, "## read() : invalid content");
+                    }
+                }
+            }
+        } catch (OutOfMemoryError oom) {
+            Log.e(LOG_TAG, "## read() : out of memory");
+        } catch (Exception e) {
+            Log.e(LOG_TAG, "## read() failed " + e.getMessage());
+        } finally {
+            if (null != in) {
+                try {
+                    in.close();
+                } catch (Exception e) {
+                    Log.e(LOG_TAG, "## read() close failed " + e.getMessage());
+                }
+            }
+        }
+
+        if (null == content) {
+            delete();
+        }
+
+        return content;
+    }
+
+    /**
+     * Copy a decoded map into a map with string keys.
+     *
+     * @param object the decoded object
+     * @return the typed map, null if the object is not a map with string keys.
+     */
+    static Map<String, Object> toStringKeyedMap(Object object) {
+        if (!(object instanceof Map)) {
+            return null;
+        }
+
+        Map<String, Object> map = new HashMap<>();
+
+        for (Map.Entry<?, ?> entry : ((Map<?, ?>) object).entrySet()) {
+            if (!(entry.getKey() instanceof String)) {
+                return null;
+            }
+
+            map.put((String) entry.getKey(), entry.getValue());
+        }
+
+        return map;
+    }
+
+    /**
+     * Delete the image.
+     */
+    public void delete() {
+        if (mFile.exists()) {
+            try {
+                mFile.delete();
+            } catch (Exception e) {
+                Log.e(LOG_TAG, "## delete() failed " + e.getMessage());
+            }
+        }
+    }
+}
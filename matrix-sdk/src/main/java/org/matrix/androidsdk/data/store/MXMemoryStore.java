@@ -44,8 +44,10 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 
 /**
@@ -58,12 +60,31 @@ public class MXMemoryStore implements IMXStore {
     protected Map<String, Room> mRooms;
     protected Map<String, User> mUsers;
 
-    protected static final Object mRoomEventsLock = new Object();
+    // the room events are protected by striped locks : a room is always protected by the same lock,
+    // so reading a room does not wait for the writings in the other rooms or in the other stores.
+    private static final int ROOM_EVENTS_LOCKS_COUNT = 32;
+    private final Object[] mRoomEventsLocks = createRoomEventsLocks();
 
     // room id -> map of (event_id -> event) events for this room (linked so insertion order is preserved)
     protected Map<String, LinkedHashMap<String, Event>> mRoomEvents;
-    // room id -> list of event Ids
-    protected Map<String, ArrayList<String>> mRoomEventIds;
+    // room id -> set of event Ids (hashed to check the events existence in constant time)
+    protected Map<String, LinkedHashSet<String>> mRoomEventIds;
+    // room id -> events ordinals (to compare the events positions in constant time)
+    protected Map<String, MXRoomEventsOrdinals> mRoomEventsOrdinals;
+    // room id -> unread events counters (to provide the unread counts without scanning the room events)
+    protected Map<String, MXRoomUnreadCounters> mRoomUnreadCounters;
+
+    // the loaded events budget (0 means no limit)
+    // when it is exceeded, the events of the least recently used rooms are evicted from the memory :
+    // only their ids, ordinals and unread counters are kept, the events are reloaded from the file system when they are used.
+    private int mMaxLoadedEventsCount = 0;
+    // room id -> loaded events count, from the least recently used room to the most recently used one
+    private final LinkedHashMap<String, Integer> mLoadedRoomsLru = new LinkedHashMap<>(16, 0.75f, true);
+    private int mLoadedEventsCount = 0;
+    // the rooms whose events have been evicted from the memory
+    private Set<String> mEvictedRoomIds;
+    // incremented at each eviction, a reload started before an eviction is ignored
+    private volatile int mEvictionsCount = 0;
 
     protected Map<String, String> mRoomTokens;
 
@@ -83,8 +104,15 @@ public class MXMemoryStore implements IMXStore {
     // the context
     protected Context mContext;
 
-    //
-    private final HashMap<String, Event> mTemporaryEventsList = new HashMap<>();
+    // the local echoes event ids by transaction id, by room id
+    // the transaction id of an echo is the origin server ts used to build its dummy event id (see getLocalEchoTransactionId)
+    // the room maps are protected by the room events lock.
+    private Map<String, Map<String, String>> mLocalEchoesByRoomId;
+
+    // the rooms sorted by latest event and by tag
+    // it is rebuilt at first use when the summaries or the account data are loaded without being stored.
+    private final MXRoomSummariesIndex mSummariesIndex = new MXRoomSummariesIndex();
+    private volatile boolean mIsSummariesIndexValid = true;
 
     protected Credentials mCredentials;
 
@@ -96,6 +124,350 @@ public class MXMemoryStore implements IMXStore {
     // When nil, nothing is stored on the file system.
     protected MXFileStoreMetaData mMetadata = null;
 
+    /**
+     * @return the room events striped locks
+     */
+    private static Object[] createRoomEventsLocks() {
+        Object[] locks = new Object[ROOM_EVENTS_LOCKS_COUNT];
+
+        for (int i = 0; i < locks.length; i++) {
+            locks[i] = new Object();
+        }
+
+        return locks;
+    }
+
+    /**
+     * Provides the lock which protects the events of a room.
+     *
+     * @param roomId the room id
+     * @return the room events lock
+     */
+    protected Object getRoomEventsLock(String roomId) {
+        int hash = (null != roomId) ? roomId.hashCode() : 0;
+        return mRoomEventsLocks[(hash & 0x7FFFFFFF) % ROOM_EVENTS_LOCKS_COUNT];
+    }
+
+    /**
+     * Provides the events ordinals of a room.
+     * They are built again if the room events have been updated without them (e.g. loaded from the file system).
+     * It must be called with the room events lock.
+     *
+     * @param roomId the room id
+     * @return the events ordinals, null if the room has no events.
+     */
+    protected MXRoomEventsOrdinals getRoomEventsOrdinals(String roomId) {
+        LinkedHashMap<String, Event> events = mRoomEvents.get(roomId);
+
+        if ((null == events) && mEvictedRoomIds.contains(roomId)) {
+            // the ordinals of the evicted events are kept
+            if (mRoomEventsOrdinals.containsKey(roomId)) {
+                return mRoomEventsOrdinals.get(roomId);
+            }
+
+            events = getLoadedRoomEvents(roomId);
+        }
+
+        if (null == events) {
+            mRoomEventsOrdinals.remove(roomId);
+            return null;
+        }
+
+        MXRoomEventsOrdinals ordinals = mRoomEventsOrdinals.get(roomId);
+
+        if (null == ordinals) {
+            ordinals = new MXRoomEventsOrdinals(events);
+            mRoomEventsOrdinals.put(roomId, ordinals);
+        } else if (!ordinals.isValid(events)) {
+            ordinals.rebuild(events);
+        }
+
+        return ordinals;
+    }
+
+    /**
+     * Set the loaded events budget.
+     * The events of the least recently used rooms are evicted from the memory when it is exceeded.
+     * Only the stores which can reload the evicted events use it, it should be set before opening the store.
+     *
+     * @param maxLoadedEventsCount the max number of loaded events, 0 to keep all the events in memory.
+     */
+    public void setMaxLoadedEventsCount(int maxLoadedEventsCount) {
+        mMaxLoadedEventsCount = Math.max(0, maxLoadedEventsCount);
+    }
+
+    /**
+     * @return the loaded events budget, 0 if there is no limit.
+     */
+    public int getMaxLoadedEventsCount() {
+        return mMaxLoadedEventsCount;
+    }
+
+    /**
+     * @return the number of loaded events tracked by the events budget.
+     */
+    public int getLoadedEventsCount() {
+        synchronized (mLoadedRoomsLru) {
+            return mLoadedEventsCount;
+        }
+    }
+
+    /**
+     * Tells if a room has some stored events, they can be evicted from the memory.
+     *
+     * @param roomId the room id
+     * @return true if the room has some stored events
+     */
+    protected boolean hasRoomEvents(String roomId) {
+        return mRoomEvents.containsKey(roomId) || mEvictedRoomIds.contains(roomId);
+    }
+
+    /**
+     * Tells if the events of a room have been evicted from the memory.
+     *
+     * @param roomId the room id
+     * @return true if the events are evicted
+     */
+    protected boolean isRoomEventsEvicted(String roomId) {
+        return mEvictedRoomIds.contains(roomId);
+    }
+
+    /**
+     * Provides the events of a room, they are reloaded if they have been evicted from the memory.
+     * It must be called with the room events lock.
+     *
+     * @param roomId the room id
+     * @return the room events, null if the room has no events.
+     */
+    protected LinkedHashMap<String, Event> getLoadedRoomEvents(String roomId) {
+        LinkedHashMap<String, Event> events = mRoomEvents.get(roomId);
+
+        // the public methods reload the evicted events before locking them (see reloadEvictedRoomEvents)
+        // so they are only read here when the caller already held a lock.
+        if ((null == events) && mEvictedRoomIds.remove(roomId)) {
+            long t0 = System.currentTimeMillis();
+            events = loadEvictedRoomEvents(roomId);
+
+            if (null != events) {
+                onRoomEventsReloaded(roomId, events);
+                Log.d(LOG_TAG, "## getLoadedRoomEvents() : " + events.size() + " events of " + roomId + " reloaded in " + (System.currentTimeMillis() - t0) + " ms");
+            } else {
+                Log.e(LOG_TAG, "## getLoadedRoomEvents() : cannot reload the events of " + roomId);
+                mRoomEventIds.remove(roomId);
+                mRoomEventsOrdinals.remove(roomId);
+                mRoomUnreadCounters.remove(roomId);
+            }
+        }
+
+        if (null != events) {
+            onRoomEventsUsed(roomId, events.size());
+        }
+
+        return events;
+    }
+
+    /**
+     * Reload the evicted events of a room before locking them.
+     * The events are read by waitForEvictedRoomEvents while the room events lock is not held,
+     * so the stores which read them on a background thread never block it.
+     * Nothing is done when the caller already holds the room events lock or the receipts lock.
+     *
+     * @param roomId the room id
+     */
+    protected void reloadEvictedRoomEvents(String roomId) {
+        if ((null == roomId) || !mEvictedRoomIds.contains(roomId)) {
+            return;
+        }
+
+        Object lock = getRoomEventsLock(roomId);
+
+        if (Thread.holdsLock(lock) || Thread.holdsLock(mReceiptsByRoomIdLock)) {
+            return;
+        }
+
+        int evictionsCount = mEvictionsCount;
+        long t0 = System.currentTimeMillis();
+        LinkedHashMap<String, Event> events = waitForEvictedRoomEvents(roomId);
+
+        if (null != events) {
+            synchronized (lock) {
+                // the events might have been reloaded, updated and evicted again meanwhile
+                if ((evictionsCount == mEvictionsCount) && mEvictedRoomIds.remove(roomId)) {
+                    onRoomEventsReloaded(roomId, events);
+                    onRoomEventsUsed(roomId, events.size());
+                    Log.d(LOG_TAG, "## reloadEvictedRoomEvents() : " + events.size() + " events of " + roomId + " reloaded in " + (System.currentTimeMillis() - t0) + " ms");
+                }
+            }
+        }
+    }
+
+    /**
+     * The evicted events of a room have been reloaded.
+     * The event ids and the events ordinals are built again from the reloaded events.
+     * It must be called with the room events lock.
+     *
+     * @param roomId the room id
+     * @param events the reloaded events
+     */
+    private void onRoomEventsReloaded(String roomId, LinkedHashMap<String, Event> events) {
+        mRoomEvents.put(roomId, events);
+        mRoomEventIds.put(roomId, new LinkedHashSet<>(events.keySet()));
+
+        // the unread counters are computed again with the new ordinals revision
+        MXRoomEventsOrdinals ordinals = mRoomEventsOrdinals.get(roomId);
+
+        if (null == ordinals) {
+            mRoomEventsOrdinals.put(roomId, new MXRoomEventsOrdinals(events));
+        } else {
+            ordinals.rebuild(events);
+        }
+    }
+
+    /**
+     * Update the loaded events budget when the events of a room are used.
+     *
+     * @param roomId      the room id
+     * @param eventsCount the room events count
+     */
+    protected void onRoomEventsUsed(String roomId, int eventsCount) {
+        if (mMaxLoadedEventsCount > 0) {
+            synchronized (mLoadedRoomsLru) {
+                Integer previousCount = mLoadedRoomsLru.put(roomId, eventsCount);
+                mLoadedEventsCount += eventsCount - ((null != previousCount) ? previousCount : 0);
+            }
+        }
+    }
+
+    /**
+     * The events of a room are not loaded anymore.
+     *
+     * @param roomId the room id
+     */
+    private void onRoomEventsUnloaded(String roomId) {
+        synchronized (mLoadedRoomsLru) {
+            Integer previousCount = mLoadedRoomsLru.remove(roomId);
+
+            if (null != previousCount) {
+                mLoadedEventsCount -= previousCount;
+            }
+        }
+    }
+
+    /**
+     * Tells if the events of a room can be evicted from the memory i.e they can be reloaded.
+     * The events which would not be reloaded (e.g. not saved yet) must not be evicted.
+     * It is called with the room events lock.
+     *
+     * @param roomId the room id
+     * @return true if the events can be evicted
+     */
+    protected boolean canEvictRoomEvents(String roomId) {
+        return false;
+    }
+
+    /**
+     * Reload the evicted events of a room.
+     * It is called by the thread which uses the events, with the room events lock or by waitForEvictedRoomEvents.
+     *
+     * @param roomId the room id
+     * @return the room events, null if they cannot be loaded
+     */
+    protected LinkedHashMap<String, Event> loadEvictedRoomEvents(String roomId) {
+        return null;
+    }
+
+    /**
+     * Wait until the evicted events of a room are reloaded.
+     * It is called without the room events lock, the stores with a background thread read the events on it.
+     *
+     * @param roomId the room id
+     * @return the room events, null if they cannot be loaded
+     */
+    protected LinkedHashMap<String, Event> waitForEvictedRoomEvents(String roomId) {
+        return loadEvictedRoomEvents(roomId);
+    }
+
+    /**
+     * Evict the events of the least recently used rooms until the loaded events budget is respected.
+     * The most recently used room is never evicted.
+     * It must not be called with a room events lock.
+     */
+    protected void evictColdRooms() {
+        List<String> roomIds;
+
+        synchronized (mLoadedRoomsLru) {
+            if ((mMaxLoadedEventsCount <= 0) || (mLoadedEventsCount <= mMaxLoadedEventsCount) || (mLoadedRoomsLru.size() < 2)) {
+                return;
+            }
+
+            roomIds = new ArrayList<>(mLoadedRoomsLru.keySet());
+        }
+
+        long t0 = System.currentTimeMillis();
+        int evictedEventsCount = 0;
+
+        for (String roomId : roomIds.subList(0, roomIds.size() - 1)) {
+            synchronized (mLoadedRoomsLru) {
+                if (mLoadedEventsCount <= mMaxLoadedEventsCount) {
+                    break;
+                }
+            }
+
+            synchronized (getRoomEventsLock(roomId)) {
+                LinkedHashMap<String, Event> events = mRoomEvents.get(roomId);
+
+                // the rooms with some pending local echoes are kept
+                if ((null != events) && !mLocalEchoesByRoomId.containsKey(roomId) && canEvictRoomEvents(roomId)) {
+                    mRoomEvents.remove(roomId);
+
+                    MXRoomEventsOrdinals ordinals = mRoomEventsOrdinals.get(roomId);
+                    if ((null != ordinals) && ordinals.isValid(events)) {
+                        ordinals.evict();
+                    } else {
+                        mRoomEventsOrdinals.remove(roomId);
+                    }
+
+                    mEvictedRoomIds.add(roomId);
+                    mEvictionsCount++;
+                    onRoomEventsUnloaded(roomId);
+                    evictedEventsCount += events.size();
+                }
+            }
+        }
+
+        if (evictedEventsCount > 0) {
+            Log.d(LOG_TAG, "## evictColdRooms() : " + evictedEventsCount + " events evicted in " + (System.currentTimeMillis() - t0) + " ms");
+        }
+    }
+
+    /**
+     * Some events have been inserted before the known ones of a room.
+     * It must be called with the room events lock.
+     *
+     * @param roomId         the room id
+     * @param previousEvents the previous room events map
+     * @param events         the new room events map
+     * @param newestToOldest the inserted events, from the newest to the oldest one
+     */
+    protected void onRoomEventsPrepended(String roomId, LinkedHashMap<String, Event> previousEvents, LinkedHashMap<String, Event> events, List<Event> newestToOldest) {
+        MXRoomEventsOrdinals ordinals = mRoomEventsOrdinals.get(roomId);
+
+        // an inserted event was already known : it has been moved so the ordinals will be built again.
+        if ((null != ordinals) && ordinals.isValid(previousEvents) && (events.size() == (previousEvents.size() + newestToOldest.size()))) {
+            ordinals.setEvents(events);
+
+            for (Event event : newestToOldest) {
+                ordinals.prepend(event.eventId);
+            }
+        }
+
+        // the read event might have been inserted
+        MXRoomUnreadCounters counters = mRoomUnreadCounters.get(roomId);
+        if (null != counters) {
+            counters.invalidate();
+        }
+    }
+
     /**
      * Initialization method.
      */
@@ -104,11 +476,25 @@ public class MXMemoryStore implements IMXStore {
         mUsers = new ConcurrentHashMap<>();
         mRoomEvents = new ConcurrentHashMap<>();
         mRoomEventIds = new ConcurrentHashMap<>();
+        mRoomEventsOrdinals = new ConcurrentHashMap<>();
+        mRoomUnreadCounters = new ConcurrentHashMap<>();
+        mEvictedRoomIds = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+        mLocalEchoesByRoomId = new ConcurrentHashMap<>();
         mRoomTokens = new ConcurrentHashMap<>();
         mRoomSummaries = new ConcurrentHashMap<>();
         mReceiptsByRoomId = new ConcurrentHashMap<>();
         mRoomAccountData = new ConcurrentHashMap<>();
         mEventStreamToken = null;
+
+        synchronized (mSummariesIndex) {
+            mSummariesIndex.clear();
+            mIsSummariesIndexValid = true;
+        }
+
+        synchronized (mLoadedRoomsLru) {
+            mLoadedRoomsLru.clear();
+            mLoadedEventsCount = 0;
+        }
     }
 
     public MXMemoryStore() {
@@ -160,6 +546,22 @@ public class MXMemoryStore implements IMXStore {
     public void commit() {
     }
 
+    /**
+     * Write the committed changes as soon as possible.
+     * It is called when the application is going to background.
+     */
+    @Override
+    public void flushCommits() {
+    }
+
+    /**
+     * Write the committed changes and an image of the data required to open the store quickly.
+     * It is called when the application is going to background.
+     */
+    @Override
+    public void saveWarmStartImage() {
+    }
+
     /**
      * Open the store.
      */
@@ -379,6 +781,26 @@ public class MXMemoryStore implements IMXStore {
         }
     }
 
+    @Override
+    public void setSyncFilter(String filter, String filterId) {
+        if (null != mMetadata) {
+            mMetadata.mSyncFilter = filter;
+            mMetadata.mSyncFilterId = filterId;
+            Log.d(LOG_TAG, "setSyncFilter : commit");
+            commit();
+        }
+    }
+
+    @Override
+    public String getSyncFilter() {
+        return (null != mMetadata) ? mMetadata.mSyncFilter : null;
+    }
+
+    @Override
+    public String getSyncFilterId() {
+        return (null != mMetadata) ? mMetadata.mSyncFilterId : null;
+    }
+
     @Override
     public Map<String, List<String>> getDirectChatRoomsDict() {
         return mMetadata.mDirectChatRoomsMap;
@@ -508,8 +930,10 @@ public class MXMemoryStore implements IMXStore {
         Event event = null;
 
         if (null != roomId) {
-            synchronized (mRoomEventsLock) {
-                LinkedHashMap<String, Event> events = mRoomEvents.get(roomId);
+            reloadEvictedRoomEvents(roomId);
+
+            synchronized (getRoomEventsLock(roomId)) {
+                LinkedHashMap<String, Event> events = getLoadedRoomEvents(roomId);
 
                 if (events != null) {
                     Iterator<Event> it = events.values().iterator();
@@ -534,8 +958,10 @@ public class MXMemoryStore implements IMXStore {
         Event event = null;
 
         if (null != roomId) {
-            synchronized (mRoomEventsLock) {
-                LinkedHashMap<String, Event> events = mRoomEvents.get(roomId);
+            reloadEvictedRoomEvents(roomId);
+
+            synchronized (getRoomEventsLock(roomId)) {
+                LinkedHashMap<String, Event> events = getLoadedRoomEvents(roomId);
 
                 if (events != null) {
                     Iterator<Event> it = events.values().iterator();
@@ -570,30 +996,28 @@ public class MXMemoryStore implements IMXStore {
     public void storeLiveRoomEvent(Event event) {
         try {
             if ((null != event) && (null != event.roomId)) {
-                synchronized (mRoomEventsLock) {
+                reloadEvictedRoomEvents(event.roomId);
+
+                synchronized (getRoomEventsLock(event.roomId)) {
                     // check if the message is already defined
                     if (!doesEventExist(event.eventId, event.roomId)) {
-                        LinkedHashMap<String, Event> events = mRoomEvents.get(event.roomId);
+                        LinkedHashMap<String, Event> events = getLoadedRoomEvents(event.roomId);
 
                         // create the list it does not exist
                         if (null == events) {
                             events = new LinkedHashMap<>();
                             mRoomEvents.put(event.roomId, events);
-                        } else if (!event.isDummyEvent() && (mTemporaryEventsList.size() > 0)) {
-                            // remove any waiting echo event
-                            String dummyKey = null;
-
-                            for (String key : mTemporaryEventsList.keySet()) {
-                                Event eventToCheck = mTemporaryEventsList.get(key);
-                                if (TextUtils.equals(eventToCheck.eventId, event.eventId)) {
-                                    dummyKey = key;
-                                    break;
-                                }
-                            }
+                        } else if (!event.isDummyEvent()) {
+                            // replace the waiting echo event
+                            String echoEventId = removeLocalEcho(event.roomId, getTransactionId(event));
 
-                            if (null != dummyKey) {
-                                events.remove(dummyKey);
-                                mTemporaryEventsList.remove(dummyKey);
+                            Event echo = (null != echoEventId) ? events.remove(echoEventId) : null;
+
+                            if (null != echo) {
+                                mRoomEventIds.get(event.roomId).remove(echoEventId);
+                                onRoomEventRemoved(echo);
+
+                                onLocalEchoReplaced(event.roomId, echoEventId);
                             }
                         }
 
@@ -601,12 +1025,31 @@ public class MXMemoryStore implements IMXStore {
                         // wait for the first pagination request to set things right
                         events.put(event.eventId, event);
 
+                        MXRoomEventsOrdinals ordinals = mRoomEventsOrdinals.get(event.roomId);
+                        if (null != ordinals) {
+                            ordinals.append(event.eventId);
+                        }
+
+                        MXRoomUnreadCounters counters = mRoomUnreadCounters.get(event.roomId);
+                        if (null != counters) {
+                            counters.onEventAppended(event);
+                        }
+
+                        onRoomEventsUsed(event.roomId, events.size());
+
                         // add to the list of known events
-                        ArrayList<String> eventIds = mRoomEventIds.get(event.roomId);
+                        LinkedHashSet<String> eventIds = mRoomEventIds.get(event.roomId);
                         eventIds.add(event.eventId);
 
                         if (event.isDummyEvent()) {
-                            mTemporaryEventsList.put(event.eventId, event);
+                            Map<String, String> localEchoes = mLocalEchoesByRoomId.get(event.roomId);
+
+                            if (null == localEchoes) {
+                                localEchoes = new HashMap<>();
+                                mLocalEchoesByRoomId.put(event.roomId, localEchoes);
+                            }
+
+                            localEchoes.put(getLocalEchoTransactionId(event), event.eventId);
                         }
                     }
                 }
@@ -621,14 +1064,16 @@ public class MXMemoryStore implements IMXStore {
         boolean res = false;
 
         if (!TextUtils.isEmpty(eventId) && !TextUtils.isEmpty(roomId)) {
-            ArrayList<String> eventIds = mRoomEventIds.get(roomId);
+            synchronized (getRoomEventsLock(roomId)) {
+                LinkedHashSet<String> eventIds = mRoomEventIds.get(roomId);
 
-            if (null == eventIds) {
-                eventIds = new ArrayList<>();
-                mRoomEventIds.put(roomId, eventIds);
-            }
+                if (null == eventIds) {
+                    eventIds = new LinkedHashSet<>();
+                    mRoomEventIds.put(roomId, eventIds);
+                }
 
-            res = eventIds.indexOf(eventId) >= 0;
+                res = eventIds.contains(eventId);
+            }
         }
 
         return res;
@@ -639,8 +1084,10 @@ public class MXMemoryStore implements IMXStore {
         Event event = null;
 
         if (doesEventExist(eventId, roomId)) {
-            synchronized (mRoomEventsLock) {
-                LinkedHashMap<String, Event> events = mRoomEvents.get(roomId);
+            reloadEvictedRoomEvents(roomId);
+
+            synchronized (getRoomEventsLock(roomId)) {
+                LinkedHashMap<String, Event> events = getLoadedRoomEvents(roomId);
 
                 if (events != null) {
                     event = events.get(eventId);
@@ -654,27 +1101,142 @@ public class MXMemoryStore implements IMXStore {
     @Override
     public void deleteEvent(Event event) {
         if ((null != event) && (null != event.roomId) && (event.eventId != null)) {
-            synchronized (mRoomEventsLock) {
+            reloadEvictedRoomEvents(event.roomId);
+
+            synchronized (getRoomEventsLock(event.roomId)) {
+
+                LinkedHashMap<String, Event> events = getLoadedRoomEvents(event.roomId);
+                Event storedEvent = null;
 
-                LinkedHashMap<String, Event> events = mRoomEvents.get(event.roomId);
                 if (events != null) {
-                    events.remove(event.eventId);
+                    storedEvent = events.remove(event.eventId);
                 }
 
-                ArrayList<String> ids = mRoomEventIds.get(event.roomId);
+                LinkedHashSet<String> ids = mRoomEventIds.get(event.roomId);
                 if (null != ids) {
                     ids.remove(event.eventId);
                 }
+
+                onRoomEventRemoved((null != storedEvent) ? storedEvent : event);
+
+                String transactionId = getLocalEchoTransactionId(event);
+
+                if ((null != transactionId) && TextUtils.equals(getLocalEchoEventId(event.roomId, transactionId), event.eventId)) {
+                    removeLocalEcho(event.roomId, transactionId);
+                }
             }
         }
     }
 
+    /**
+     * Update the ordinals and the unread counters of a removed room event.
+     * It must be called with the room events lock.
+     *
+     * @param event the removed event
+     */
+    private void onRoomEventRemoved(Event event) {
+        MXRoomEventsOrdinals ordinals = mRoomEventsOrdinals.get(event.roomId);
+        MXRoomUnreadCounters counters = mRoomUnreadCounters.get(event.roomId);
+
+        if (null != counters) {
+            counters.onEventRemoved(event, (null != ordinals) ? ordinals.get(event.eventId) : null);
+        }
+
+        if (null != ordinals) {
+            ordinals.remove(event.eventId);
+        }
+    }
+
+    /**
+     * Provides the transaction id of a local echo, i.e. the origin server ts used to build its dummy event id
+     * (see Event.createDummyEventId and Room.sendEvent).
+     * It is extracted from the event id because the echo origin server ts might be updated after it is stored.
+     *
+     * @param echo the local echo
+     * @return the transaction id, null if the event id is not a dummy one
+     */
+    private static String getLocalEchoTransactionId(Event echo) {
+        String prefix = echo.roomId + "-";
+
+        if ((null != echo.eventId) && echo.eventId.startsWith(prefix)) {
+            return echo.eventId.substring(prefix.length());
+        }
+
+        return null;
+    }
+
+    /**
+     * Provides the transaction id of an event sent by this device.
+     *
+     * @param event the event
+     * @return the transaction id, null if the event has not been sent by this device
+     */
+    protected static String getTransactionId(Event event) {
+        return ((null != event) && (null != event.unsigned)) ? event.unsigned.transaction_id : null;
+    }
+
+    /**
+     * Provides the local echo event id of a transaction.
+     * It must be called with the room events lock.
+     *
+     * @param roomId        the room id
+     * @param transactionId the transaction id
+     * @return the echo event id, null if there is no pending echo for this transaction
+     */
+    protected String getLocalEchoEventId(String roomId, String transactionId) {
+        if ((null != roomId) && (null != transactionId)) {
+            Map<String, String> localEchoes = mLocalEchoesByRoomId.get(roomId);
+
+            if (null != localEchoes) {
+                return localEchoes.get(transactionId);
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Remove the local echo of a transaction from the index.
+     * It must be called with the room events lock.
+     *
+     * @param roomId        the room id
+     * @param transactionId the transaction id
+     * @return the echo event id, null if there was no pending echo for this transaction
+     */
+    private String removeLocalEcho(String roomId, String transactionId) {
+        if ((null != roomId) && (null != transactionId)) {
+            Map<String, String> localEchoes = mLocalEchoesByRoomId.get(roomId);
+
+            if (null != localEchoes) {
+                String echoEventId = localEchoes.remove(transactionId);
+
+                if (localEchoes.isEmpty()) {
+                    mLocalEchoesByRoomId.remove(roomId);
+                }
+
+                return echoEventId;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * A local echo has been replaced by the event received from the server.
+     * It is called with the room events lock.
+     *
+     * @param roomId      the room id
+     * @param echoEventId the removed echo event id
+     */
+    protected void onLocalEchoReplaced(String roomId, String echoEventId) {
+    }
+
     @Override
     public void deleteRoom(String roomId) {
         // sanity check
         if (null != roomId) {
             deleteRoomData(roomId);
-            synchronized (mRoomEventsLock) {
+            synchronized (getRoomEventsLock(roomId)) {
                 mRooms.remove(roomId);
             }
         }
@@ -684,13 +1246,19 @@ public class MXMemoryStore implements IMXStore {
     public void deleteRoomData(String roomId) {
         // sanity check
         if (null != roomId) {
-            synchronized (mRoomEventsLock) {
+            synchronized (getRoomEventsLock(roomId)) {
                 mRoomEvents.remove(roomId);
                 mRoomEventIds.remove(roomId);
+                mRoomEventsOrdinals.remove(roomId);
+                mRoomUnreadCounters.remove(roomId);
+                mLocalEchoesByRoomId.remove(roomId);
+                mEvictedRoomIds.remove(roomId);
+                onRoomEventsUnloaded(roomId);
                 mRoomTokens.remove(roomId);
                 mRoomSummaries.remove(roomId);
                 mRoomAccountData.remove(roomId);
                 mReceiptsByRoomId.remove(roomId);
+                mSummariesIndex.remove(roomId);
             }
         }
     }
@@ -705,13 +1273,15 @@ public class MXMemoryStore implements IMXStore {
     public void deleteAllRoomMessages(String roomId, boolean keepUnsent) {
         // sanity check
         if (null != roomId) {
-            synchronized (mRoomEventsLock) {
+            reloadEvictedRoomEvents(roomId);
+
+            synchronized (getRoomEventsLock(roomId)) {
 
                 if (keepUnsent) {
-                    LinkedHashMap<String, Event> eventMap = mRoomEvents.get(roomId);
+                    LinkedHashMap<String, Event> eventMap = getLoadedRoomEvents(roomId);
 
                     if (null != eventMap) {
-                        ArrayList<String> eventIds = mRoomEventIds.get(roomId);
+                        LinkedHashSet<String> eventIds = mRoomEventIds.get(roomId);
                         ArrayList<Event> events = new ArrayList<>(eventMap.values());
 
                         for (Event event : events) {
@@ -723,6 +1293,8 @@ public class MXMemoryStore implements IMXStore {
                                     if (null != eventIds) {
                                         eventIds.remove(event.eventId);
                                     }
+
+                                    onRoomEventRemoved(event);
                                 }
                             }
                         }
@@ -732,9 +1304,15 @@ public class MXMemoryStore implements IMXStore {
                 } else {
                     mRoomEventIds.remove(roomId);
                     mRoomEvents.remove(roomId);
+                    mRoomEventsOrdinals.remove(roomId);
+                    mRoomUnreadCounters.remove(roomId);
+                    mLocalEchoesByRoomId.remove(roomId);
+                    mEvictedRoomIds.remove(roomId);
+                    onRoomEventsUnloaded(roomId);
                 }
 
                 mRoomSummaries.remove(roomId);
+                mSummariesIndex.setLatestTs(roomId, null);
             }
         }
     }
@@ -748,8 +1326,10 @@ public class MXMemoryStore implements IMXStore {
     public void storeRoomEvents(String roomId, TokensChunkResponse<Event> eventsResponse, EventTimeline.Direction direction) {
         try {
             if (null != roomId) {
-                synchronized (mRoomEventsLock) {
-                    LinkedHashMap<String, Event> events = mRoomEvents.get(roomId);
+                reloadEvictedRoomEvents(roomId);
+
+                synchronized (getRoomEventsLock(roomId)) {
+                    LinkedHashMap<String, Event> events = getLoadedRoomEvents(roomId);
                     if (events == null) {
                         events = new LinkedHashMap<>();
                         mRoomEvents.put(roomId, events);
@@ -758,8 +1338,19 @@ public class MXMemoryStore implements IMXStore {
                     if (direction == EventTimeline.Direction.FORWARDS) {
                         mRoomTokens.put(roomId, eventsResponse.start);
 
+                        MXRoomEventsOrdinals ordinals = mRoomEventsOrdinals.get(roomId);
+
                         for (Event event : eventsResponse.chunk) {
                             events.put(event.eventId, event);
+
+                            if (null != ordinals) {
+                                ordinals.append(event.eventId);
+                            }
+                        }
+
+                        MXRoomUnreadCounters counters = mRoomUnreadCounters.get(roomId);
+                        if (null != counters) {
+                            counters.invalidate();
                         }
                     } else { // BACKWARD
                         Collection<Event> eventsList = events.values();
@@ -790,8 +1381,11 @@ public class MXMemoryStore implements IMXStore {
 
                             // store the new list
                             mRoomEvents.put(roomId, events2);
+                            onRoomEventsPrepended(roomId, events, events2, eventsResponse.chunk);
                         }
                     }
+
+                    onRoomEventsUsed(roomId, mRoomEvents.get(roomId).size());
                 }
             }
         } catch (OutOfMemoryError e) {
@@ -812,12 +1406,64 @@ public class MXMemoryStore implements IMXStore {
         }
     }
 
+    /**
+     * The room summaries or the room account data have been loaded without being stored.
+     * The sorted rooms index will be built again at first use.
+     */
+    protected void invalidateSummariesIndex() {
+        mIsSummariesIndexValid = false;
+    }
+
+    /**
+     * Provides the sorted rooms index, it is built again if it has been invalidated.
+     *
+     * @return the sorted rooms index
+     */
+    private MXRoomSummariesIndex getSummariesIndex() {
+        if (!mIsSummariesIndexValid) {
+            synchronized (mSummariesIndex) {
+                if (!mIsSummariesIndexValid) {
+                    long t0 = System.currentTimeMillis();
+
+                    // set it before reading the values : an update during the build is applied again
+                    mIsSummariesIndexValid = true;
+                    mSummariesIndex.clear();
+
+                    for (RoomSummary summary : mRoomSummaries.values()) {
+                        mSummariesIndex.setLatestTs(summary.getRoomId(), MXRoomSummariesIndex.getLatestTs(summary));
+                    }
+
+                    for (Room room : mRooms.values()) {
+                        mSummariesIndex.setTags(room.getRoomId(), MXRoomSummariesIndex.getTags(room.getAccountData()));
+                    }
+
+                    Log.d(LOG_TAG, "## getSummariesIndex() : " + mSummariesIndex.size() + " summaries indexed in " + (System.currentTimeMillis() - t0) + " ms");
+                }
+            }
+        }
+
+        return mSummariesIndex;
+    }
+
+    /**
+     * Update the sorted rooms index with a summary.
+     *
+     * @param summary the summary
+     */
+    private void indexSummary(RoomSummary summary) {
+        if ((null != summary) && (null != summary.getRoomId()) && mRoomSummaries.containsKey(summary.getRoomId())) {
+            mSummariesIndex.setLatestTs(summary.getRoomId(), MXRoomSummariesIndex.getLatestTs(summary));
+        }
+    }
+
     @Override
     public void flushSummary(RoomSummary summary) {
+        indexSummary(summary);
     }
 
     @Override
     public void flushSummaries() {
+        invalidateSummariesIndex();
     }
 
     @Override
@@ -825,6 +1471,7 @@ public class MXMemoryStore implements IMXStore {
         try {
             if ((null != summary) && (null != summary.getRoomId())) {
                 mRoomSummaries.put(summary.getRoomId(), summary);
+                indexSummary(summary);
             }
         } catch (OutOfMemoryError e) {
             dispatchOOM(e);
@@ -840,6 +1487,7 @@ public class MXMemoryStore implements IMXStore {
                 // sanity checks
                 if ((room != null) && (null != accountData)) {
                     mRoomAccountData.put(roomId, accountData);
+                    mSummariesIndex.setTags(roomId, MXRoomSummariesIndex.getTags(accountData));
                 }
             }
         } catch (OutOfMemoryError e) {
@@ -851,6 +1499,11 @@ public class MXMemoryStore implements IMXStore {
     public void storeLiveStateForRoom(String roomId) {
     }
 
+    @Override
+    public void storeLiveStateEvent(String roomId, Event event) {
+        storeLiveStateForRoom(roomId);
+    }
+
     @Override
     public void storeRoomStateEvent(String roomId, Event event) {
         synchronized (mRoomStateEventsByRoomId) {
@@ -898,8 +1551,10 @@ public class MXMemoryStore implements IMXStore {
 
         Collection<Event> collection = null;
 
-        synchronized (mRoomEventsLock) {
-            LinkedHashMap<String, Event> events = mRoomEvents.get(roomId);
+        reloadEvictedRoomEvents(roomId);
+
+        synchronized (getRoomEventsLock(roomId)) {
+            LinkedHashMap<String, Event> events = getLoadedRoomEvents(roomId);
 
             if (null != events) {
                 collection = new ArrayList<>(events.values());
@@ -914,10 +1569,13 @@ public class MXMemoryStore implements IMXStore {
         // For now, we return everything we have for the original null token request
         // For older requests (providing a token), returning null for now
         if (null != roomId) {
-            ArrayList<Event> eventsList;
+            ArrayList<Event> subEventsList = new ArrayList<>();
+            TokensChunkResponse<Event> response = new TokensChunkResponse<>();
 
-            synchronized (mRoomEventsLock) {
-                LinkedHashMap<String, Event> events = mRoomEvents.get(roomId);
+            reloadEvictedRoomEvents(roomId);
+
+            synchronized (getRoomEventsLock(roomId)) {
+                LinkedHashMap<String, Event> events = getLoadedRoomEvents(roomId);
                 if ((events == null) || (events.size() == 0)) {
                     return null;
                 }
@@ -927,64 +1585,57 @@ public class MXMemoryStore implements IMXStore {
                     return null;
                 }
 
-                // check if the token is known in the sublist
-                eventsList = new ArrayList<>(events.values());
-            }
-
+                MXRoomEventsOrdinals ordinals = getRoomEventsOrdinals(roomId);
+                Iterator<String> eventIds;
 
-            ArrayList<Event> subEventsList = new ArrayList<>();
-
-            // search from the latest to the oldest events
-            Collections.reverse(eventsList);
-
-            TokensChunkResponse<Event> response = new TokensChunkResponse<>();
-
-            // start the latest event and there is enough events to provide to the caller ?
-            if ((null == fromToken) && (eventsList.size() <= limit)) {
-                subEventsList = eventsList;
-            } else {
-                int index = 0;
-
-                if (null != fromToken) {
+                // start the latest event
+                if (null == fromToken) {
+                    eventIds = ordinals.descendingEventIds(null);
+                } else {
                     // search if token is one of the stored events
-                    for (; (index < eventsList.size()) && (!TextUtils.equals(fromToken, eventsList.get(index).mToken)); index++)
-                        ;
+                    Event tokenEvent = ordinals.getEventByToken(fromToken);
 
-                    index++;
+                    // unknown token
+                    if (null == tokenEvent) {
+                        return null;
+                    }
+
+                    eventIds = ordinals.descendingEventIds(tokenEvent.eventId);
                 }
 
-                // found it ?
-                if (index < eventsList.size()) {
-                    for (; index < eventsList.size(); index++) {
-                        Event event = eventsList.get(index);
-                        subEventsList.add(event);
+                // from the latest to the oldest events
+                while (eventIds.hasNext()) {
+                    Event event = events.get(eventIds.next());
+                    subEventsList.add(event);
 
-                        // loop until to find an event with a token
-                        if ((subEventsList.size() >= limit) && (event.mToken != null)) {
-                            break;
-                        }
+                    // loop until to find an event with a token
+                    if ((subEventsList.size() >= limit) && (event.mToken != null)) {
+                        break;
                     }
                 }
-            }
 
-            // unknown token
-            if (subEventsList.size() == 0) {
-                return null;
-            }
+                // no more events
+                if (subEventsList.size() == 0) {
+                    return null;
+                }
 
-            response.chunk = subEventsList;
+                response.chunk = subEventsList;
 
-            Event firstEvent = subEventsList.get(0);
-            Event lastEvent = subEventsList.get(subEventsList.size() - 1);
+                Event firstEvent = subEventsList.get(0);
+                Event lastEvent = subEventsList.get(subEventsList.size() - 1);
 
-            response.start = firstEvent.mToken;
+                response.start = firstEvent.mToken;
 
-            // unknown last event token, use the latest known one
-            if ((null == lastEvent.mToken) && !TextUtils.isEmpty(mRoomTokens.get(roomId))) {
-                lastEvent.mToken = mRoomTokens.get(roomId);
-            }
+                // unknown last event token, use the latest known one
+                if ((null == lastEvent.mToken) && !TextUtils.isEmpty(mRoomTokens.get(roomId))) {
+                    lastEvent.mToken = mRoomTokens.get(roomId);
+                }
 
-            response.end = lastEvent.mToken;
+                response.end = lastEvent.mToken;
+
+                // the next page will start from this token
+                ordinals.putToken(lastEvent.mToken, lastEvent.eventId);
+            }
 
             return response;
         }
@@ -1011,6 +1662,43 @@ public class MXMemoryStore implements IMXStore {
         return summaries;
     }
 
+    @Override
+    public List<RoomSummary> getLatestSummaries(int count) {
+        List<RoomSummary> summaries = new ArrayList<>();
+
+        for (String roomId : getSummariesIndex().getLatestRoomIds(count, new MXRoomSummariesIndex.RoomIdFilter() {
+            @Override
+            public boolean accept(String roomId) {
+                Room room = mRooms.get(roomId);
+                return (null != room) && mRoomSummaries.containsKey(roomId) && (null != room.getMember(mCredentials.userId));
+            }
+        })) {
+            RoomSummary summary = mRoomSummaries.get(roomId);
+
+            if (null != summary) {
+                summaries.add(summary);
+            }
+        }
+
+        return summaries;
+    }
+
+    @Override
+    public List<String> getRoomIdsWithTag(String tag) {
+        List<String> roomIds = getSummariesIndex().getRoomIdsWithTag(tag);
+
+        // the deleted rooms are ignored
+        Iterator<String> it = roomIds.iterator();
+
+        while (it.hasNext()) {
+            if (!mRooms.containsKey(it.next())) {
+                it.remove();
+            }
+        }
+
+        return roomIds;
+    }
+
     @Override
     public RoomSummary getSummary(String roomId) {
         // sanity check
@@ -1036,8 +1724,10 @@ public class MXMemoryStore implements IMXStore {
 
         List<Event> unsentRoomEvents = new ArrayList<>();
 
-        synchronized (mRoomEventsLock) {
-            LinkedHashMap<String, Event> events = mRoomEvents.get(roomId);
+        reloadEvictedRoomEvents(roomId);
+
+        synchronized (getRoomEventsLock(roomId)) {
+            LinkedHashMap<String, Event> events = getLoadedRoomEvents(roomId);
 
             // contain some events
             if ((null != events) && (events.size() > 0)) {
@@ -1068,8 +1758,10 @@ public class MXMemoryStore implements IMXStore {
 
         List<Event> undeliverableRoomEvents = new ArrayList<>();
 
-        synchronized (mRoomEventsLock) {
-            LinkedHashMap<String, Event> events = mRoomEvents.get(roomId);
+        reloadEvictedRoomEvents(roomId);
+
+        synchronized (getRoomEventsLock(roomId)) {
+            LinkedHashMap<String, Event> events = getLoadedRoomEvents(roomId);
 
             // contain some events
             if ((null != events) && (events.size() > 0)) {
@@ -1098,8 +1790,10 @@ public class MXMemoryStore implements IMXStore {
 
         List<Event> unknownDeviceEvents = new ArrayList<>();
 
-        synchronized (mRoomEventsLock) {
-            LinkedHashMap<String, Event> events = mRoomEvents.get(roomId);
+        reloadEvictedRoomEvents(roomId);
+
+        synchronized (getRoomEventsLock(roomId)) {
+            LinkedHashMap<String, Event> events = getLoadedRoomEvents(roomId);
 
             // contain some events
             if ((null != events) && (events.size() > 0)) {
@@ -1218,18 +1912,16 @@ public class MXMemoryStore implements IMXStore {
 
             // check if the read receipt is not for an already read message
             if (TextUtils.equals(receipt.userId, mCredentials.userId)) {
-                synchronized (mReceiptsByRoomIdLock) {
-                    LinkedHashMap<String, Event> eventsMap = mRoomEvents.get(roomId);
+                synchronized (getRoomEventsLock(roomId)) {
+                    MXRoomEventsOrdinals ordinals = getRoomEventsOrdinals(roomId);
+                    Long newEventOrdinal = (null != ordinals) ? ordinals.get(receipt.eventId) : null;
 
                     // test if the event is know
-                    if ((null != eventsMap) && eventsMap.containsKey(receipt.eventId)) {
-                        ArrayList<String> eventIds = new ArrayList<>(eventsMap.keySet());
+                    if (null != newEventOrdinal) {
+                        Long curEventOrdinal = ordinals.get(curReceipt.eventId);
 
-                        int curEventPos = eventIds.indexOf(curReceipt.eventId);
-                        int newEventPos = eventIds.indexOf(receipt.eventId);
-
-                        if (curEventPos >= newEventPos) {
-                            Log.d(LOG_TAG, "## storeReceipt() : the read message is already read (cur pos " + curEventPos + " receipt event pos " + newEventPos + ")");
+                        if ((null != curEventOrdinal) && (curEventOrdinal >= newEventOrdinal)) {
+                            Log.d(LOG_TAG, "## storeReceipt() : the read message is already read (cur ordinal " + curEventOrdinal + " receipt event ordinal " + newEventOrdinal + ")");
                             return false;
                         }
                     }
@@ -1286,15 +1978,17 @@ public class MXMemoryStore implements IMXStore {
 
         // sanity check
         if (null != roomId) {
-            synchronized (mRoomEventsLock) {
-                LinkedHashMap<String, Event> roomEvents = mRoomEvents.get(roomId);
+            reloadEvictedRoomEvents(roomId);
+
+            synchronized (getRoomEventsLock(roomId)) {
+                LinkedHashMap<String, Event> roomEvents = getLoadedRoomEvents(roomId);
 
                 if (roomEvents != null) {
-                    List<Event> linkedEvents = new ArrayList<>(roomEvents.values());
+                    Iterator<String> eventIds = getRoomEventsOrdinals(roomId).descendingEventIds(null);
 
                     // Check messages from the most recent
-                    for (int i = linkedEvents.size() - 1; i >= 0; i--) {
-                        Event event = linkedEvents.get(i);
+                    while (eventIds.hasNext()) {
+                        Event event = roomEvents.get(eventIds.next());
 
                         if ((null == eventId) || !TextUtils.equals(event.eventId, eventId)) {
                             // Keep events matching filters
@@ -1341,18 +2035,19 @@ public class MXMemoryStore implements IMXStore {
         // sanity check
         if ((null != roomId) && (null != userId)) {
             synchronized (mReceiptsByRoomIdLock) {
-                synchronized (mRoomEventsLock) {
-                    if (mReceiptsByRoomId.containsKey(roomId) && mRoomEvents.containsKey(roomId)) {
+                synchronized (getRoomEventsLock(roomId)) {
+                    if (mReceiptsByRoomId.containsKey(roomId) && hasRoomEvents(roomId)) {
                         Map<String, ReceiptData> receiptsByUserId = mReceiptsByRoomId.get(roomId);
-                        LinkedHashMap<String, Event> eventsMap = mRoomEvents.get(roomId);
+                        MXRoomEventsOrdinals ordinals = getRoomEventsOrdinals(roomId);
+                        Long eventOrdinal = (null != ordinals) ? ordinals.get(eventIdTotest) : null;
 
                         // check if the event is known
-                        if (eventsMap.containsKey(eventIdTotest) && receiptsByUserId.containsKey(userId)) {
+                        if ((null != eventOrdinal) && receiptsByUserId.containsKey(userId)) {
                             ReceiptData data = receiptsByUserId.get(userId);
-                            ArrayList<String> eventIds = new ArrayList<>(eventsMap.keySet());
+                            Long readOrdinal = ordinals.get(data.eventId);
 
                             // the message has been read if it was sent before the latest read one
-                            res = eventIds.indexOf(eventIdTotest) <= eventIds.indexOf(data.eventId);
+                            res = (null != readOrdinal) && (eventOrdinal <= readOrdinal);
                         } else if (receiptsByUserId.containsKey(userId)) {
                             // the event is not known so assume it is has been flushed
                             res = true;
@@ -1395,6 +2090,166 @@ public class MXMemoryStore implements IMXStore {
         return res;
     }
 
+    /**
+     * Provides the read receipt event id of the user in a room.
+     * The room summary read receipt is used when there is a summary because it is the one
+     * displayed and moved when the read event is deleted, the stored receipt is used otherwise.
+     * It must be called with the receipts lock.
+     *
+     * @param roomId the room id
+     * @return the read event id, null if there is no read receipt
+     */
+    private String getReadEventId(String roomId) {
+        RoomSummary summary = mRoomSummaries.get(roomId);
+
+        if (null != summary) {
+            return summary.getReadReceiptEventId();
+        }
+
+        Map<String, ReceiptData> receiptsByUserId = mReceiptsByRoomId.get(roomId);
+
+        if (null != receiptsByUserId) {
+            ReceiptData receipt = receiptsByUserId.get(mCredentials.userId);
+
+            if (null != receipt) {
+                return receipt.eventId;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Provides the unread counters of a room.
+     * It must be called with the room events lock.
+     *
+     * @param roomId the room id
+     * @return the unread counters, null if the room has no events
+     */
+    private MXRoomUnreadCounters getRoomUnreadCounters(String roomId) {
+        if (!hasRoomEvents(roomId)) {
+            mRoomUnreadCounters.remove(roomId);
+            return null;
+        }
+
+        MXRoomUnreadCounters counters = mRoomUnreadCounters.get(roomId);
+
+        if (null == counters) {
+            counters = new MXRoomUnreadCounters(mCredentials.userId);
+            mRoomUnreadCounters.put(roomId, counters);
+        }
+
+        return counters;
+    }
+
+    /**
+     * Provides the unread counters of a room, they are computed again if they are not up to date.
+     * The evicted room events are only reloaded when the counters must be computed again.
+     * It must be called with the receipts lock and the room events lock.
+     *
+     * @param roomId the room id
+     * @return the unread counters, null if the room has no events
+     */
+    private MXRoomUnreadCounters getUpToDateRoomUnreadCounters(String roomId) {
+        MXRoomUnreadCounters counters = getRoomUnreadCounters(roomId);
+
+        if (null != counters) {
+            String readEventId = getReadEventId(roomId);
+
+            if (!counters.isUpToDate(readEventId, getRoomEventsOrdinals(roomId))) {
+                LinkedHashMap<String, Event> events = getLoadedRoomEvents(roomId);
+
+                if (null != events) {
+                    counters.refresh(readEventId, getRoomEventsOrdinals(roomId), events);
+                } else {
+                    counters = null;
+                }
+            }
+        }
+
+        return counters;
+    }
+
+    /**
+     * Reload the evicted events of a room before locking them when its unread counters must be computed again.
+     *
+     * @param roomId the room id
+     */
+    private void reloadEvictedRoomEventsForCounters(String roomId) {
+        if (isRoomEventsEvicted(roomId)) {
+            boolean isUpToDate;
+
+            synchronized (mReceiptsByRoomIdLock) {
+                synchronized (getRoomEventsLock(roomId)) {
+                    MXRoomUnreadCounters counters = mRoomUnreadCounters.get(roomId);
+                    isUpToDate = (null != counters) && counters.isUpToDate(getReadEventId(roomId), mRoomEventsOrdinals.get(roomId));
+                }
+            }
+
+            if (!isUpToDate) {
+                reloadEvictedRoomEvents(roomId);
+            }
+        }
+    }
+
+    @Override
+    public int getUnreadEventsCount(String roomId) {
+        int count = 0;
+
+        if (null != roomId) {
+            reloadEvictedRoomEventsForCounters(roomId);
+
+            synchronized (mReceiptsByRoomIdLock) {
+                synchronized (getRoomEventsLock(roomId)) {
+                    MXRoomUnreadCounters counters = getUpToDateRoomUnreadCounters(roomId);
+
+                    if (null != counters) {
+                        count = counters.getUnreadEventsCount();
+                    }
+                }
+            }
+        }
+
+        return count;
+    }
+
+    @Override
+    public int getHighlightedEventsCount(String roomId) {
+        int count = 0;
+
+        if (null != roomId) {
+            reloadEvictedRoomEventsForCounters(roomId);
+
+            synchronized (mReceiptsByRoomIdLock) {
+                synchronized (getRoomEventsLock(roomId)) {
+                    MXRoomUnreadCounters counters = getUpToDateRoomUnreadCounters(roomId);
+
+                    if (null != counters) {
+                        count = counters.getHighlightedEventsCount();
+                    }
+                }
+            }
+        }
+
+        return count;
+    }
+
+    @Override
+    public void setEventHighlighted(String roomId, String eventId) {
+        if ((null != roomId) && (null != eventId)) {
+            reloadEvictedRoomEvents(roomId);
+
+            synchronized (getRoomEventsLock(roomId)) {
+                LinkedHashMap<String, Event> events = getLoadedRoomEvents(roomId);
+                Event event = (null != events) ? events.get(eventId) : null;
+
+                if (null != event) {
+                    getRoomUnreadCounters(roomId).setHighlighted(event, getRoomEventsOrdinals(roomId).get(eventId));
+                }
+            }
+        }
+    }
+
     /**
      * @return the current listeners
      */
@@ -1447,6 +2302,20 @@ public class MXMemoryStore implements IMXStore {
         }
     }
 
+    /**
+     * Dispatch that some damaged rooms have been removed from the store.
+     *
+     * @param accountId the account id
+     * @param roomIds   the removed room ids
+     */
+    protected void dispatchOnStoreRoomsQuarantined(String accountId, List<String> roomIds) {
+        List<IMXStoreListener> listeners = getListeners();
+
+        for (IMXStoreListener listener : listeners) {
+            listener.onStoreRoomsQuarantined(accountId, roomIds);
+        }
+    }
+
     /**
      * Called when the store fails to save some data
      */
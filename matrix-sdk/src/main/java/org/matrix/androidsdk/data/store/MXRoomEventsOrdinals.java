@@ -0,0 +1,243 @@
+/*
+ * Copyright 2017 Vector Creations Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.matrix.androidsdk.data.store;
+
+import android.text.TextUtils;
+
+import org.matrix.androidsdk.rest.model.Event;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+/**
+ * Ordinals of the events of a room.
+ * The ordinals increase with the events order so two events positions are compared in constant time.
+ * An appended event gets an ordinal after the highest one, a back paginated event gets an ordinal before the lowest one,
+ * the deletions do not update the other ordinals.
+ * The events are also indexed by ordinal and by pagination token, so the history is read backward
+ * from a pagination token without scanning the whole room.
+ * The methods must be called with the room events lock.
+ */
+class MXRoomEventsOrdinals {
+    // the indexed events map
+    private LinkedHashMap<String, Event> mEvents;
+
+    // the ordinal by event id
+    private final Map<String, Long> mOrdinals = new HashMap<>();
+
+    // the event id by ordinal
+    private final NavigableMap<Long, String> mEventIds = new TreeMap<>();
+
+    // the event id by pagination token
+    // the events tokens can be updated after being stored so the entries are checked when they are used.
+    private final Map<String, String> mEventIdsByToken = new HashMap<>();
+
+    // the lowest and the highest ordinals
+    private long mFirst = 0;
+    private long mLast = -1;
+
+    // incremented each time the ordinals are computed again
+    private int mRevision = 0;
+
+    /**
+     * Constructor
+     *
+     * @param events the room events
+     */
+    MXRoomEventsOrdinals(LinkedHashMap<String, Event> events) {
+        rebuild(events);
+    }
+
+    /**
+     * Tells if the ordinals match the room events.
+     *
+     * @param events the room events
+     * @return true if the ordinals can be used
+     */
+    boolean isValid(LinkedHashMap<String, Event> events) {
+        return (mEvents == events) && (mOrdinals.size() == events.size());
+    }
+
+    /**
+     * Index again the room events.
+     *
+     * @param events the room events
+     */
+    void rebuild(LinkedHashMap<String, Event> events) {
+        mRevision++;
+        mEvents = events;
+        mOrdinals.clear();
+        mEventIds.clear();
+        mEventIdsByToken.clear();
+        mFirst = 0;
+        mLast = -1;
+
+        for (String eventId : events.keySet()) {
+            append(eventId);
+        }
+    }
+
+    /**
+     * Provides the ordinals revision.
+     * The ordinals computed with another revision cannot be compared with the current ones.
+     *
+     * @return the revision
+     */
+    int getRevision() {
+        return mRevision;
+    }
+
+    /**
+     * The room events map has been replaced by a new one which contains the same events at the same positions.
+     *
+     * @param events the new room events map
+     */
+    void setEvents(LinkedHashMap<String, Event> events) {
+        mEvents = events;
+    }
+
+    /**
+     * The room events have been evicted from the memory.
+     * The ordinals are kept to compare the events positions but the events cannot be read anymore.
+     */
+    void evict() {
+        mEvents = null;
+        mEventIdsByToken.clear();
+    }
+
+    /**
+     * An event has been added after the other ones.
+     *
+     * @param eventId the event id
+     */
+    void append(String eventId) {
+        if (!mOrdinals.containsKey(eventId)) {
+            mOrdinals.put(eventId, ++mLast);
+            mEventIds.put(mLast, eventId);
+        }
+    }
+
+    /**
+     * An event has been added before the other ones.
+     *
+     * @param eventId the event id
+     */
+    void prepend(String eventId) {
+        if (!mOrdinals.containsKey(eventId)) {
+            mOrdinals.put(eventId, --mFirst);
+            mEventIds.put(mFirst, eventId);
+        }
+    }
+
+    /**
+     * An event has been removed.
+     *
+     * @param eventId the event id
+     */
+    void remove(String eventId) {
+        Long ordinal = mOrdinals.remove(eventId);
+
+        if (null != ordinal) {
+            mEventIds.remove(ordinal);
+        }
+    }
+
+    /**
+     * Provides the ordinal of an event.
+     *
+     * @param eventId the event id
+     * @return the ordinal, null if the event is unknown
+     */
+    Long get(String eventId) {
+        return (null != eventId) ? mOrdinals.get(eventId) : null;
+    }
+
+    /**
+     * Provides the event ids from the newest to the oldest one.
+     *
+     * @param eventId the iteration starts before this event, null to start with the newest event.
+     * @return the event ids iterator
+     */
+    Iterator<String> descendingEventIds(String eventId) {
+        if (null == eventId) {
+            return mEventIds.descendingMap().values().iterator();
+        }
+
+        Long ordinal = mOrdinals.get(eventId);
+
+        if (null == ordinal) {
+            return Collections.<String>emptyList().iterator();
+        }
+
+        return mEventIds.headMap(ordinal, false).descendingMap().values().iterator();
+    }
+
+    /**
+     * Index the pagination token of an event.
+     *
+     * @param token   the token
+     * @param eventId the event id
+     */
+    void putToken(String token, String eventId) {
+        if ((null != token) && (null != eventId) && !mEventIdsByToken.containsKey(token)) {
+            mEventIdsByToken.put(token, eventId);
+        }
+    }
+
+    /**
+     * Provides the newest event which has a pagination token.
+     * The index is used first, the events are scanned from the newest one when the token is not indexed.
+     *
+     * @param token the token
+     * @return the event, null if there is no event with this token.
+     */
+    Event getEventByToken(String token) {
+        String eventId = mEventIdsByToken.get(token);
+
+        if (null != eventId) {
+            Event event = mEvents.get(eventId);
+
+            if ((null != event) && TextUtils.equals(event.mToken, token)) {
+                return event;
+            }
+
+            mEventIdsByToken.remove(token);
+        }
+
+        // the tokens of the scanned events are indexed
+        Iterator<String> it = descendingEventIds(null);
+
+        while (it.hasNext()) {
+            Event event = mEvents.get(it.next());
+
+            if ((null != event) && (null != event.mToken)) {
+                putToken(event.mToken, event.eventId);
+
+                if (TextUtils.equals(event.mToken, token)) {
+                    return event;
+                }
+            }
+        }
+
+        return null;
+    }
+}
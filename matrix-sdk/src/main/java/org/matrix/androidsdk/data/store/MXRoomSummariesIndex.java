@@ -0,0 +1,309 @@
+/*
+ * Copyright 2017 Vector Creations Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.matrix.androidsdk.data.store;
+
+import org.matrix.androidsdk.data.RoomAccountData;
+import org.matrix.androidsdk.data.RoomSummary;
+import org.matrix.androidsdk.data.RoomTag;
+import org.matrix.androidsdk.rest.model.Event;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * Sorted index of the rooms.
+ * The rooms with a summary are sorted by latest event timestamp (the most recent first),
+ * the tagged rooms are sorted by tag order then by latest event timestamp.
+ * The index is updated when the summaries or the room tags are stored, so the sorted rooms are read without sorting.
+ * The sorted sets compare the rooms with the indexed values so a room is removed from them before its values are updated.
+ */
+class MXRoomSummariesIndex {
+    // the latest event timestamp by room id (only the rooms with a summary)
+    private final Map<String, Long> mLatestTsByRoomId = new HashMap<>();
+
+    // the tags orders by room id (null when the tag has no order)
+    private final Map<String, Map<String, Double>> mTagsByRoomId = new HashMap<>();
+
+    // the rooms sorted by latest event timestamp
+    private final TreeSet<String> mRoomIdsByLatestTs = new TreeSet<>(new Comparator<String>() {
+        @Override
+        public int compare(String roomId1, String roomId2) {
+            int res = compareLatestTs(roomId1, roomId2);
+            return (0 != res) ? res : roomId1.compareTo(roomId2);
+        }
+    });
+
+    // the sorted rooms by tag
+    private final Map<String, TreeSet<String>> mRoomIdsByTag = new HashMap<>();
+
+    /**
+     * Provides the timestamp used to sort a room summary.
+     *
+     * @param summary the summary
+     * @return the latest event timestamp, 0 if there is no latest event.
+     */
+    static long getLatestTs(RoomSummary summary) {
+        Event latestEvent = summary.getLatestReceivedEvent();
+        return (null != latestEvent) ? latestEvent.getOriginServerTs() : 0;
+    }
+
+    /**
+     * Extract the tags orders from the room account data.
+     *
+     * @param accountData the account data
+     * @return the tags orders by tag name
+     */
+    static Map<String, Double> getTags(RoomAccountData accountData) {
+        Map<String, Double> tags = new HashMap<>();
+
+        if ((null != accountData) && accountData.hasTags()) {
+            for (String tag : accountData.getKeys()) {
+                RoomTag roomTag = accountData.roomTag(tag);
+                tags.put(tag, (null != roomTag) ? roomTag.mOrder : null);
+            }
+        }
+
+        return tags;
+    }
+
+    /**
+     * Compare the latest events timestamps of two rooms, the most recent first.
+     *
+     * @param roomId1 the first room id
+     * @param roomId2 the second room id
+     * @return the comparison result
+     */
+    private int compareLatestTs(String roomId1, String roomId2) {
+        Long ts1 = mLatestTsByRoomId.get(roomId1);
+        Long ts2 = mLatestTsByRoomId.get(roomId2);
+
+        long diff = ((null != ts2) ? ts2 : 0) - ((null != ts1) ? ts1 : 0);
+        return (diff == 0) ? 0 : (diff > 0) ? +1 : -1;
+    }
+
+    /**
+     * Provides the sorted rooms set of a tag.
+     *
+     * @param tag the tag
+     * @return the sorted set
+     */
+    private TreeSet<String> getTagSet(final String tag) {
+        TreeSet<String> roomIds = mRoomIdsByTag.get(tag);
+
+        if (null == roomIds) {
+            roomIds = new TreeSet<>(new Comparator<String>() {
+                @Override
+                public int compare(String roomId1, String roomId2) {
+                    Double order1 = mTagsByRoomId.get(roomId1).get(tag);
+                    Double order2 = mTagsByRoomId.get(roomId2).get(tag);
+                    int res = 0;
+
+                    if ((null != order1) && (null != order2)) {
+                        res = Double.compare(order1, order2);
+                    } else if (null != order1) {
+                        res = -1;
+                    } else if (null != order2) {
+                        res = +1;
+                    }
+
+                    // in case of same order, the rooms are sorted by their latest event
+                    if (0 == res) {
+                        res = compareLatestTs(roomId1, roomId2);
+                    }
+
+                    return (0 != res) ? res : roomId1.compareTo(roomId2);
+                }
+            });
+
+            mRoomIdsByTag.put(tag, roomIds);
+        }
+
+        return roomIds;
+    }
+
+    /**
+     * Remove a room from the sorted sets.
+     *
+     * @param roomId the room id
+     */
+    private void removeFromSortedSets(String roomId) {
+        if (mLatestTsByRoomId.containsKey(roomId)) {
+            mRoomIdsByLatestTs.remove(roomId);
+        }
+
+        Map<String, Double> tags = mTagsByRoomId.get(roomId);
+
+        if (null != tags) {
+            for (String tag : tags.keySet()) {
+                TreeSet<String> roomIds = mRoomIdsByTag.get(tag);
+
+                if (null != roomIds) {
+                    roomIds.remove(roomId);
+
+                    if (roomIds.isEmpty()) {
+                        mRoomIdsByTag.remove(tag);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Add a room to the sorted sets.
+     *
+     * @param roomId the room id
+     */
+    private void addToSortedSets(String roomId) {
+        if (mLatestTsByRoomId.containsKey(roomId)) {
+            mRoomIdsByLatestTs.add(roomId);
+        }
+
+        Map<String, Double> tags = mTagsByRoomId.get(roomId);
+
+        if (null != tags) {
+            for (String tag : tags.keySet()) {
+                getTagSet(tag).add(roomId);
+            }
+        }
+    }
+
+    /**
+     * Update the latest event timestamp of a room.
+     *
+     * @param roomId   the room id
+     * @param latestTs the latest event timestamp, null if the room has no summary.
+     */
+    synchronized void setLatestTs(String roomId, Long latestTs) {
+        Long currentTs = mLatestTsByRoomId.get(roomId);
+
+        if ((null == currentTs) ? (null == latestTs) : currentTs.equals(latestTs)) {
+            return;
+        }
+
+        removeFromSortedSets(roomId);
+
+        if (null != latestTs) {
+            mLatestTsByRoomId.put(roomId, latestTs);
+        } else {
+            mLatestTsByRoomId.remove(roomId);
+        }
+
+        addToSortedSets(roomId);
+    }
+
+    /**
+     * Update the tags of a room.
+     *
+     * @param roomId the room id
+     * @param tags   the tags orders by tag name
+     */
+    synchronized void setTags(String roomId, Map<String, Double> tags) {
+        Map<String, Double> currentTags = mTagsByRoomId.get(roomId);
+
+        if ((null == currentTags) ? tags.isEmpty() : currentTags.equals(tags)) {
+            return;
+        }
+
+        removeFromSortedSets(roomId);
+
+        if (!tags.isEmpty()) {
+            mTagsByRoomId.put(roomId, tags);
+        } else {
+            mTagsByRoomId.remove(roomId);
+        }
+
+        addToSortedSets(roomId);
+    }
+
+    /**
+     * Remove a room from the index.
+     *
+     * @param roomId the room id
+     */
+    synchronized void remove(String roomId) {
+        removeFromSortedSets(roomId);
+        mLatestTsByRoomId.remove(roomId);
+        mTagsByRoomId.remove(roomId);
+    }
+
+    /**
+     * Remove all the rooms.
+     */
+    synchronized void clear() {
+        mLatestTsByRoomId.clear();
+        mTagsByRoomId.clear();
+        mRoomIdsByLatestTs.clear();
+        mRoomIdsByTag.clear();
+    }
+
+    /**
+     * @return the number of indexed rooms with a summary
+     */
+    synchronized int size() {
+        return mLatestTsByRoomId.size();
+    }
+
+    /**
+     * Provides the room ids from the most recent latest event.
+     * The iteration stops when the filter has accepted count rooms.
+     *
+     * @param count  the max number of rooms
+     * @param filter the rooms filter
+     * @return the room ids
+     */
+    synchronized List<String> getLatestRoomIds(int count, RoomIdFilter filter) {
+        List<String> roomIds = new ArrayList<>(Math.min(count, mRoomIdsByLatestTs.size()));
+
+        for (String roomId : mRoomIdsByLatestTs) {
+            if (roomIds.size() >= count) {
+                break;
+            }
+
+            if (filter.accept(roomId)) {
+                roomIds.add(roomId);
+            }
+        }
+
+        return roomIds;
+    }
+
+    /**
+     * Provides the room ids with a tag, sorted by tag order then by latest event.
+     *
+     * @param tag the tag
+     * @return the room ids
+     */
+    synchronized List<String> getRoomIdsWithTag(String tag) {
+        TreeSet<String> roomIds = mRoomIdsByTag.get(tag);
+        return (null != roomIds) ? new ArrayList<>(roomIds) : new ArrayList<String>();
+    }
+
+    /**
+     * Room ids filter.
+     */
+    interface RoomIdFilter {
+        /**
+         * @param roomId the room id
+         * @return true if the room is accepted
+         */
+        boolean accept(String roomId);
+    }
+}
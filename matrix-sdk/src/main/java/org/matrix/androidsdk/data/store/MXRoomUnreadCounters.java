@@ -0,0 +1,213 @@
+/*
+ * Copyright 2017 Vector Creations Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.matrix.androidsdk.data.store;
+
+import android.text.TextUtils;
+
+import org.matrix.androidsdk.rest.model.Event;
+
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Unread events counters of a room.
+ * The unread events are the ones after the user read receipt which have not been sent by the user,
+ * the room member events are ignored. All the events are unread when the read receipt is unknown.
+ * The counters are updated while the live events are stored and deleted, they are computed again
+ * from the newest event to the read one when the read receipt or the events ordinals change.
+ * They do not reference the events so they are kept when the room events are evicted from the memory.
+ * The methods must be called with the room events lock.
+ */
+class MXRoomUnreadCounters {
+    // the user id
+    private final String mUserId;
+
+    // the read receipt event id used to compute the counters
+    private String mReadEventId;
+
+    // the read receipt event ordinal, null when the read event is not stored
+    private Long mReadOrdinal;
+
+    // the ordinals used to compute the counters
+    private MXRoomEventsOrdinals mOrdinals;
+    private int mOrdinalsRevision;
+
+    // true when the counters match the stored events
+    private boolean mIsValid = false;
+
+    // the unread events count
+    private int mUnreadEventsCount = 0;
+
+    // the highlighted unread event ids
+    private final Set<String> mHighlightedEventIds = new HashSet<>();
+
+    /**
+     * Constructor
+     *
+     * @param userId the user id
+     */
+    MXRoomUnreadCounters(String userId) {
+        mUserId = userId;
+    }
+
+    /**
+     * Tells if an event is counted when it is unread.
+     *
+     * @param event the event
+     * @return true if the event is counted
+     */
+    private boolean isCounted(Event event) {
+        return !TextUtils.equals(event.getSender(), mUserId) && !TextUtils.equals(event.getType(), Event.EVENT_TYPE_STATE_ROOM_MEMBER);
+    }
+
+    /**
+     * Tells if an event ordinal is after the read receipt.
+     *
+     * @param ordinal the event ordinal
+     * @return true if the event is unread
+     */
+    private boolean isUnread(Long ordinal) {
+        return (null != ordinal) && ((null == mReadOrdinal) || (ordinal > mReadOrdinal));
+    }
+
+    /**
+     * The counters will be computed again at the next read.
+     */
+    void invalidate() {
+        mIsValid = false;
+    }
+
+    /**
+     * An event has been stored after the other ones.
+     *
+     * @param event the event
+     */
+    void onEventAppended(Event event) {
+        if (mIsValid) {
+            if ((null == mReadOrdinal) && TextUtils.equals(event.eventId, mReadEventId)) {
+                // the read event is now known
+                mIsValid = false;
+            } else if (isCounted(event)) {
+                mUnreadEventsCount++;
+            }
+        }
+    }
+
+    /**
+     * An event is going to be removed.
+     *
+     * @param event   the event
+     * @param ordinal the event ordinal before its removal
+     */
+    void onEventRemoved(Event event, Long ordinal) {
+        mHighlightedEventIds.remove(event.eventId);
+
+        if (mIsValid) {
+            if (TextUtils.equals(event.eventId, mReadEventId)) {
+                mIsValid = false;
+            } else if (isCounted(event) && isUnread(ordinal)) {
+                mUnreadEventsCount--;
+            }
+        }
+    }
+
+    /**
+     * Flag an event as highlighted.
+     *
+     * @param event   the event
+     * @param ordinal the event ordinal
+     */
+    void setHighlighted(Event event, Long ordinal) {
+        if (isCounted(event) && (!mIsValid || isUnread(ordinal))) {
+            mHighlightedEventIds.add(event.eventId);
+        }
+    }
+
+    /**
+     * Tells if the counters match the read receipt and the room events.
+     *
+     * @param readEventId the current read receipt event id
+     * @param ordinals    the current room events ordinals
+     * @return true if the counters can be used
+     */
+    boolean isUpToDate(String readEventId, MXRoomEventsOrdinals ordinals) {
+        return mIsValid && TextUtils.equals(readEventId, mReadEventId) && (null != ordinals) && (ordinals == mOrdinals) && (ordinals.getRevision() == mOrdinalsRevision);
+    }
+
+    /**
+     * Compute the counters again.
+     *
+     * @param readEventId the current read receipt event id
+     * @param ordinals    the current room events ordinals
+     * @param events      the room events
+     */
+    void refresh(String readEventId, MXRoomEventsOrdinals ordinals, Map<String, Event> events) {
+        mReadEventId = readEventId;
+        mReadOrdinal = ordinals.get(readEventId);
+        mOrdinals = ordinals;
+        mOrdinalsRevision = ordinals.getRevision();
+        mUnreadEventsCount = 0;
+
+        // scan from the newest event to the read one
+        Iterator<String> it = ordinals.descendingEventIds(null);
+
+        while (it.hasNext()) {
+            String eventId = it.next();
+
+            if ((null != mReadOrdinal) && TextUtils.equals(eventId, readEventId)) {
+                break;
+            }
+
+            Event event = events.get(eventId);
+
+            if ((null != event) && isCounted(event)) {
+                mUnreadEventsCount++;
+            }
+        }
+
+        // remove the read highlighted events
+        Iterator<String> highlightedIt = mHighlightedEventIds.iterator();
+
+        while (highlightedIt.hasNext()) {
+            if (!isUnread(ordinals.get(highlightedIt.next()))) {
+                highlightedIt.remove();
+            }
+        }
+
+        mIsValid = true;
+    }
+
+    /**
+     * Provides the unread events count.
+     *
+     * @return the unread events count
+     */
+    int getUnreadEventsCount() {
+        return mUnreadEventsCount;
+    }
+
+    /**
+     * Provides the highlighted unread events count.
+     *
+     * @return the highlighted events count
+     */
+    int getHighlightedEventsCount() {
+        return mHighlightedEventIds.size();
+    }
+}
@@ -0,0 +1,1112 @@
+/*
+ * Copyright 2017 Vector Creations Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.matrix.androidsdk.data.store;
+
+import android.content.Context;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.text.TextUtils;
+
+import org.matrix.androidsdk.HomeserverConnectionConfig;
+import org.matrix.androidsdk.data.EventTimeline;
+import org.matrix.androidsdk.data.Room;
+import org.matrix.androidsdk.data.RoomAccountData;
+import org.matrix.androidsdk.data.RoomSummary;
+import org.matrix.androidsdk.rest.callback.SimpleApiCallback;
+import org.matrix.androidsdk.rest.model.Event;
+import org.matrix.androidsdk.rest.model.ReceiptData;
+import org.matrix.androidsdk.rest.model.ThirdPartyIdentifier;
+import org.matrix.androidsdk.rest.model.TokensChunkResponse;
+import org.matrix.androidsdk.rest.model.User;
+import org.matrix.androidsdk.util.Log;
+import org.matrix.androidsdk.util.MXOsHandler;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * An IMXStore which persists its content in a SQLite database.
+ * The rooms, their states, the summaries, the receipts and the users are loaded when the store is opened,
+ * whereas only the latest events of each room are loaded : the earlier ones are read by pages from the database.
+ * The updates are written in a single transaction at each commit.
+ */
+public class MXSQLiteStore extends MXMemoryStore {
+    private static final String LOG_TAG = "MXSQLiteStore";
+
+    // the store version
+    private static final int MXSQLITE_STORE_VERSION = 1;
+
+    // the number of events loaded by room when the store is opened
+    private static final int MIN_LOADED_EVENTS_COUNT = 50;
+
+    private static final String MXSQLITE_STORE_DATABASE_PREFIX = "MXSQLiteStore_";
+
+    // the database
+    private final MXSQLiteStoreDatabase mDatabase;
+    private final String mDatabaseName;
+
+    // the data is read from the database
+    private boolean mIsReady = false;
+
+    // the store is currently opening
+    private boolean mIsOpening = false;
+
+    // tell if the post processing has been done
+    private boolean mIsPostProcessingDone = false;
+
+    private boolean mIsKilled = false;
+
+    // Flag to indicate metaData needs to be store
+    private boolean mMetaDataHasChanged = false;
+
+    // the pending updates (written at the next commit)
+    private final Object mPendingUpdatesLock = new Object();
+    private final Set<String> mRoomsToDelete = new HashSet<>();
+    private Map<String, List<MXSQLiteStoreDatabase.EventOperation>> mRoomsToCommitForEvents = new HashMap<>();
+    private Set<String> mRoomsToCommitForTokens = new HashSet<>();
+    private Set<String> mRoomsToCommitForStates = new HashSet<>();
+    private Set<String> mRoomsToCommitForAccountData = new HashSet<>();
+    private Set<String> mRoomsToCommitForSummaries = new HashSet<>();
+    private Map<String, Set<String>> mRoomsToCommitForReceipts = new HashMap<>();
+    private Set<String> mRoomsToClearForReceipts = new HashSet<>();
+    private Set<String> mUserIdsToCommit = new HashSet<>();
+
+    // the lowest and the highest event positions by room id
+    private final Map<String, long[]> mEventsSeqBounds = new HashMap<>();
+
+    // the rooms which have some events in the database which are not loaded
+    private final Set<String> mRoomsWithEarlierEvents = Collections.synchronizedSet(new HashSet<String>());
+
+    // the background thread
+    private HandlerThread mHandlerThread = null;
+    private MXOsHandler mStoreHandler = null;
+
+    private long mPreloadTime = 0;
+
+    // store some stats
+    private final Map<String, Long> mStoreStats = new HashMap<>();
+
+    /**
+     * Default constructor
+     *
+     * @param hsConfig the expected credentials
+     * @param context  the context.
+     */
+    public MXSQLiteStore(HomeserverConnectionConfig hsConfig, Context context) {
+        initCommon();
+        setContext(context);
+
+        mCredentials = hsConfig.getCredentials();
+        mDatabaseName = MXSQLITE_STORE_DATABASE_PREFIX + mCredentials.userId.hashCode();
+        mDatabase = new MXSQLiteStoreDatabase(mContext, mDatabaseName);
+
+        mHandlerThread = new HandlerThread("MXSQLiteStoreBackgroundThread_" + mCredentials.userId, Thread.MIN_PRIORITY);
+
+        // check if the metadata is valid
+        mMetadata = mDatabase.loadMetaData();
+
+        if ((null != mMetadata) && ((mMetadata.mVersion != MXSQLITE_STORE_VERSION) ||
+                !TextUtils.equals(mMetadata.mUserId, mCredentials.userId) ||
+                !TextUtils.equals(mMetadata.mAccessToken, mCredentials.accessToken))) {
+            Log.e(LOG_TAG, "Invalid store content : reset it");
+            mDatabase.deleteAll();
+            mMetadata = null;
+        }
+
+        // there is no store or the store was not properly initialised (the application crashed during the initial sync)
+        if ((null == mMetadata) || (null == mMetadata.mAccessToken)) {
+            mHandlerThread.start();
+            mStoreHandler = new MXOsHandler(mHandlerThread.getLooper());
+
+            mMetadata = new MXFileStoreMetaData();
+            mMetadata.mUserId = mCredentials.userId;
+            mMetadata.mAccessToken = mCredentials.accessToken;
+            mMetadata.mVersion = MXSQLITE_STORE_VERSION;
+            mMetaDataHasChanged = true;
+
+            // nothing to load so ready to work
+            mIsReady = true;
+        } else {
+            mEventStreamToken = mMetadata.mEventStreamToken;
+        }
+    }
+
+    /**
+     * @return true if the background thread is killed.
+     */
+    private boolean isKilled() {
+        synchronized (this) {
+            return mIsKilled;
+        }
+    }
+
+    //================================================================================
+    // IMXStore life cycle
+    //================================================================================
+
+    /**
+     * Open the store.
+     */
+    @Override
+    public void open() {
+        super.open();
+        final long fLoadTimeT0 = System.currentTimeMillis();
+
+        synchronized (this) {
+            if (!mIsReady && !mIsOpening && (null != mHandlerThread)) {
+                mIsOpening = true;
+
+                Log.d(LOG_TAG, "Open the store.");
+
+                mHandlerThread.start();
+                mStoreHandler = new MXOsHandler(mHandlerThread.getLooper());
+
+                mStoreHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        boolean succeed = true;
+
+                        try {
+                            loadDatabase();
+                        } catch (Exception e) {
+                            succeed = false;
+                            Log.e(LOG_TAG, "## open() : failed " + e.getMessage());
+                        } catch (OutOfMemoryError oom) {
+                            succeed = false;
+                            dispatchOOM(oom);
+                        }
+
+                        if (!succeed) {
+                            // the behaviour should be the same as first login
+                            mDatabase.deleteAll();
+                            initCommon();
+
+                            mMetadata.mEventStreamToken = null;
+                            mEventStreamToken = null;
+                            mMetaDataHasChanged = true;
+                        }
+
+                        mPreloadTime = System.currentTimeMillis() - fLoadTimeT0;
+                        mStoreStats.put("open", mPreloadTime);
+
+                        synchronized (MXSQLiteStore.this) {
+                            mIsReady = true;
+                            mIsOpening = false;
+                        }
+
+                        dispatchPostProcess(mCredentials.userId);
+                        mIsPostProcessingDone = true;
+
+                        if (!succeed) {
+                            dispatchOnStoreCorrupted(mCredentials.userId, "open fails");
+                        } else {
+                            Log.d(LOG_TAG, "The store is opened in " + mPreloadTime + " ms.");
+                            dispatchOnStoreReady(mCredentials.userId);
+                        }
+                    }
+                });
+            } else if (mIsReady) {
+                Runnable r = new Runnable() {
+                    @Override
+                    public void run() {
+                        if (!mIsPostProcessingDone) {
+                            dispatchPostProcess(mCredentials.userId);
+                            mIsPostProcessingDone = true;
+                        }
+
+                        Log.d(LOG_TAG, "The store is opened.");
+                        dispatchOnStoreReady(mCredentials.userId);
+                        mPreloadTime = System.currentTimeMillis() - fLoadTimeT0;
+                    }
+                };
+
+                Thread t = new Thread(r);
+                t.start();
+            }
+        }
+    }
+
+    /**
+     * Load the database content.
+     */
+    private void loadDatabase() {
+        long start = System.currentTimeMillis();
+
+        // rooms
+        List<MXSQLiteStoreDatabase.RoomRecord> roomRecords = mDatabase.loadRooms();
+
+        for (MXSQLiteStoreDatabase.RoomRecord record : roomRecords) {
+            Room room = new Room();
+            room.init(this, record.mRoomId, null);
+            // do not wait that the live state update
+            room.setReadyState(true);
+
+            if (null != record.mState) {
+                room.getLiveTimeLine().setState(record.mState);
+            }
+
+            if (null != record.mAccountData) {
+                room.setAccountData(record.mAccountData);
+                mRoomAccountData.put(record.mRoomId, record.mAccountData);
+            }
+
+            mRooms.put(record.mRoomId, room);
+            mRoomTokens.put(record.mRoomId, (null != record.mToken) ? record.mToken : "");
+        }
+
+        mStoreStats.put("loadRooms", System.currentTimeMillis() - start);
+
+        // the latest events
+        long t0 = System.currentTimeMillis();
+        int eventsCount = 0;
+
+        synchronized (mPendingUpdatesLock) {
+            mEventsSeqBounds.putAll(mDatabase.loadEventsSeqBounds());
+        }
+
+        for (String roomId : mRooms.keySet()) {
+            MXSQLiteStoreDatabase.EventsPage page = mDatabase.loadLatestEvents(roomId, MIN_LOADED_EVENTS_COUNT);
+
+            LinkedHashMap<String, Event> events = new LinkedHashMap<>();
+            LinkedHashSet<String> eventIds = new LinkedHashSet<>();
+            long undeliverableTs = 1L << 50;
+
+            for (int index = page.mEvents.size() - 1; index >= 0; index--) {
+                Event event = page.mEvents.get(index);
+
+                // if a message was not sent, mark at as UNDELIVERABLE
+                if ((event.mSentState == Event.SentState.UNSENT) ||
+                        (event.mSentState == Event.SentState.SENDING) ||
+                        (event.mSentState == Event.SentState.WAITING_RETRY) ||
+                        (event.mSentState == Event.SentState.ENCRYPTING)) {
+                    event.mSentState = Event.SentState.UNDELIVERABLE;
+                    event.originServerTs = undeliverableTs++;
+                    addEventOperation(roomId, new MXSQLiteStoreDatabase.EventOperation(MXSQLiteStoreDatabase.EventOperation.PUT, event.eventId, event, 0));
+                }
+
+                events.put(event.eventId, event);
+                eventIds.add(event.eventId);
+            }
+
+            mRoomEvents.put(roomId, events);
+            mRoomEventIds.put(roomId, eventIds);
+
+            if (page.mHasEarlierEvents) {
+                mRoomsWithEarlierEvents.add(roomId);
+            }
+
+            eventsCount += events.size();
+        }
+
+        Log.d(LOG_TAG, "## loadDatabase() : " + eventsCount + " events loaded in " + (System.currentTimeMillis() - t0) + " ms");
+        mStoreStats.put("loadEvents", System.currentTimeMillis() - t0);
+
+        // summaries
+        t0 = System.currentTimeMillis();
+
+        for (RoomSummary summary : mDatabase.loadSummaries()) {
+            Room room = mRooms.get(summary.getRoomId());
+
+            // the room state is not saved in the summary.
+            // it is restored from the room
+            if (null != room) {
+                summary.setLatestRoomState(room.getState());
+            }
+
+            mRoomSummaries.put(summary.getRoomId(), summary);
+        }
+
+        invalidateSummariesIndex();
+        mStoreStats.put("loadSummaries", System.currentTimeMillis() - t0);
+
+        // receipts
+        t0 = System.currentTimeMillis();
+
+        Map<String, Map<String, ReceiptData>> receiptsByRoomId = mDatabase.loadReceipts();
+
+        synchronized (mReceiptsByRoomIdLock) {
+            mReceiptsByRoomId.putAll(receiptsByRoomId);
+        }
+
+        mStoreStats.put("loadReceipts", System.currentTimeMillis() - t0);
+
+        // users
+        t0 = System.currentTimeMillis();
+
+        for (User user : mDatabase.loadUsers()) {
+            synchronized (mUsers) {
+                mUsers.put(user.user_id, user);
+            }
+        }
+
+        mStoreStats.put("loadUsers", System.currentTimeMillis() - t0);
+
+        Log.d(LOG_TAG, "## loadDatabase() : " + mRooms.size() + " rooms loaded in " + (System.currentTimeMillis() - start) + " ms");
+    }
+
+    /**
+     * Save changes in the store.
+     * The pending updates are written in a single transaction.
+     */
+    @Override
+    public void commit() {
+        if ((null == mMetadata) || isKilled() || (null == mStoreHandler)) {
+            return;
+        }
+
+        final MXSQLiteStoreDatabase.Batch batch = buildBatch();
+
+        if (batch.isEmpty()) {
+            return;
+        }
+
+        mStoreHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (!isKilled()) {
+                    long start = System.currentTimeMillis();
+                    boolean succeed = mDatabase.write(batch);
+                    long delta = System.currentTimeMillis() - start;
+
+                    mStoreStats.put("commit", delta);
+                    Log.d(LOG_TAG, "## commit() : " + (succeed ? "succeeds" : "fails") + " in " + delta + " ms");
+
+                    if (!succeed) {
+                        dispatchOnStoreCorrupted(mCredentials.userId, "commit fails");
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Build the batch of the pending updates.
+     *
+     * @return the batch
+     */
+    private MXSQLiteStoreDatabase.Batch buildBatch() {
+        MXSQLiteStoreDatabase.Batch batch = new MXSQLiteStoreDatabase.Batch();
+
+        Set<String> roomsToCommitForTokens;
+        Set<String> roomsToCommitForStates;
+        Set<String> roomsToCommitForAccountData;
+        Set<String> roomsToCommitForSummaries;
+        Map<String, Set<String>> roomsToCommitForReceipts;
+        Set<String> userIdsToCommit;
+
+        synchronized (mPendingUpdatesLock) {
+            batch.mDeletedRoomIds.addAll(mRoomsToDelete);
+            mRoomsToDelete.clear();
+
+            batch.mEventOperations.putAll(mRoomsToCommitForEvents);
+            mRoomsToCommitForEvents = new HashMap<>();
+
+            batch.mClearedReceiptsRoomIds.addAll(mRoomsToClearForReceipts);
+            mRoomsToClearForReceipts = new HashSet<>();
+
+            roomsToCommitForTokens = mRoomsToCommitForTokens;
+            mRoomsToCommitForTokens = new HashSet<>();
+
+            roomsToCommitForStates = mRoomsToCommitForStates;
+            mRoomsToCommitForStates = new HashSet<>();
+
+            roomsToCommitForAccountData = mRoomsToCommitForAccountData;
+            mRoomsToCommitForAccountData = new HashSet<>();
+
+            roomsToCommitForSummaries = mRoomsToCommitForSummaries;
+            mRoomsToCommitForSummaries = new HashSet<>();
+
+            roomsToCommitForReceipts = mRoomsToCommitForReceipts;
+            mRoomsToCommitForReceipts = new HashMap<>();
+
+            userIdsToCommit = mUserIdsToCommit;
+            mUserIdsToCommit = new HashSet<>();
+        }
+
+        for (String roomId : roomsToCommitForTokens) {
+            if (mRooms.containsKey(roomId)) {
+                batch.mRoomTokens.put(roomId, mRoomTokens.get(roomId));
+            }
+        }
+
+        for (String roomId : roomsToCommitForStates) {
+            Room room = mRooms.get(roomId);
+
+            if (null != room) {
+                batch.mRoomStates.put(roomId, room.getState());
+            }
+
+            List<Event> stateEvents;
+
+            synchronized (mRoomStateEventsByRoomId) {
+                stateEvents = mRoomStateEventsByRoomId.remove(roomId);
+            }
+
+            if ((null != room) && (null != stateEvents)) {
+                batch.mStateEvents.put(roomId, stateEvents);
+            }
+        }
+
+        for (String roomId : roomsToCommitForAccountData) {
+            RoomAccountData accountData = mRoomAccountData.get(roomId);
+
+            if (mRooms.containsKey(roomId) && (null != accountData)) {
+                batch.mRoomsAccountData.put(roomId, accountData);
+            }
+        }
+
+        for (String roomId : roomsToCommitForSummaries) {
+            // the summary is deleted when it does not exist anymore
+            batch.mSummaries.put(roomId, mRoomSummaries.get(roomId));
+        }
+
+        for (String roomId : roomsToCommitForReceipts.keySet()) {
+            List<ReceiptData> receipts = new ArrayList<>();
+
+            for (String userId : roomsToCommitForReceipts.get(roomId)) {
+                ReceiptData receipt = getReceipt(roomId, userId);
+
+                if (null != receipt) {
+                    receipts.add(receipt);
+                }
+            }
+
+            batch.mReceipts.put(roomId, receipts);
+        }
+
+        for (String userId : userIdsToCommit) {
+            User user = getUser(userId);
+
+            if (null != user) {
+                batch.mUsers.add(user);
+            }
+        }
+
+        if (mMetaDataHasChanged) {
+            mMetaDataHasChanged = false;
+            batch.mMetadata = mMetadata.deepCopy();
+        }
+
+        return batch;
+    }
+
+    /**
+     * Close the store.
+     * The pending updates are written before closing the database.
+     */
+    @Override
+    public void close() {
+        Log.d(LOG_TAG, "Close the store");
+
+        commit();
+        super.close();
+
+        if (null != mStoreHandler) {
+            mStoreHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    synchronized (MXSQLiteStore.this) {
+                        mIsKilled = true;
+                    }
+
+                    mDatabase.close();
+
+                    Looper looper = Looper.myLooper();
+
+                    if (null != looper) {
+                        looper.quit();
+                    }
+                }
+            });
+        } else {
+            synchronized (this) {
+                mIsKilled = true;
+            }
+            mDatabase.close();
+        }
+
+        mHandlerThread = null;
+    }
+
+    /**
+     * Clear the store.
+     */
+    @Override
+    public void clear() {
+        Log.d(LOG_TAG, "Clear the store");
+        super.clear();
+
+        synchronized (mPendingUpdatesLock) {
+            mRoomsToDelete.clear();
+            mRoomsToCommitForEvents.clear();
+            mRoomsToCommitForTokens.clear();
+            mRoomsToCommitForStates.clear();
+            mRoomsToCommitForAccountData.clear();
+            mRoomsToCommitForSummaries.clear();
+            mRoomsToCommitForReceipts.clear();
+            mRoomsToClearForReceipts.clear();
+            mUserIdsToCommit.clear();
+            mEventsSeqBounds.clear();
+        }
+
+        mRoomsWithEarlierEvents.clear();
+        mDatabase.deleteAll();
+        mMetadata = null;
+        mEventStreamToken = null;
+    }
+
+    @Override
+    public boolean isPermanent() {
+        return true;
+    }
+
+    @Override
+    public boolean isReady() {
+        synchronized (this) {
+            return mIsReady;
+        }
+    }
+
+    @Override
+    public boolean areReceiptsReady() {
+        return isReady();
+    }
+
+    @Override
+    public long diskUsage() {
+        File databaseFile = mContext.getDatabasePath(mDatabaseName);
+        File journalFile = new File(databaseFile.getPath() + "-journal");
+
+        return (databaseFile.exists() ? databaseFile.length() : 0) + (journalFile.exists() ? journalFile.length() : 0);
+    }
+
+    @Override
+    public long getPreloadTime() {
+        return mPreloadTime;
+    }
+
+    @Override
+    public Map<String, Long> getStats() {
+        return mStoreStats;
+    }
+
+    //================================================================================
+    // Metadata
+    //================================================================================
+
+    @Override
+    public void setEventStreamToken(String token) {
+        super.setEventStreamToken(token);
+        mMetaDataHasChanged = true;
+    }
+
+    @Override
+    public void setDisplayName(String displayName) {
+        mMetaDataHasChanged = true;
+        super.setDisplayName(displayName);
+    }
+
+    @Override
+    public void setAvatarURL(String avatarURL) {
+        mMetaDataHasChanged = true;
+        super.setAvatarURL(avatarURL);
+    }
+
+    @Override
+    public void setThirdPartyIdentifiers(List<ThirdPartyIdentifier> identifiers) {
+        mMetaDataHasChanged = true;
+        super.setThirdPartyIdentifiers(identifiers);
+    }
+
+    @Override
+    public void setIgnoredUserIdsList(List<String> users) {
+        mMetaDataHasChanged = true;
+        super.setIgnoredUserIdsList(users);
+    }
+
+    @Override
+    public void setSyncFilter(String filter, String filterId) {
+        mMetaDataHasChanged = true;
+        super.setSyncFilter(filter, filterId);
+    }
+
+    @Override
+    public void setDirectChatRoomsDict(Map<String, List<String>> directChatRoomsDict) {
+        mMetaDataHasChanged = true;
+        super.setDirectChatRoomsDict(directChatRoomsDict);
+    }
+
+    //================================================================================
+    // Events
+    //================================================================================
+
+    /**
+     * Add an events update to the pending ones.
+     *
+     * @param roomId    the room id
+     * @param operation the update
+     */
+    private void addEventOperation(String roomId, MXSQLiteStoreDatabase.EventOperation operation) {
+        synchronized (mPendingUpdatesLock) {
+            List<MXSQLiteStoreDatabase.EventOperation> operations = mRoomsToCommitForEvents.get(roomId);
+
+            if (null == operations) {
+                operations = new ArrayList<>();
+                mRoomsToCommitForEvents.put(roomId, operations);
+            }
+
+            if (MXSQLiteStoreDatabase.EventOperation.CLEAR == operation.mType) {
+                // the previous updates are useless
+                operations.clear();
+                mEventsSeqBounds.remove(roomId);
+            }
+
+            operations.add(operation);
+        }
+    }
+
+    /**
+     * Provides the position of a new event in the room history.
+     *
+     * @param roomId     the room id
+     * @param isEarliest true if the event is inserted before the known ones
+     * @return the event position
+     */
+    private long nextEventSeq(String roomId, boolean isEarliest) {
+        synchronized (mPendingUpdatesLock) {
+            long[] bounds = mEventsSeqBounds.get(roomId);
+
+            if (null == bounds) {
+                bounds = new long[]{0, -1};
+                mEventsSeqBounds.put(roomId, bounds);
+            }
+
+            if (isEarliest) {
+                return --bounds[0];
+            } else {
+                return ++bounds[1];
+            }
+        }
+    }
+
+    /**
+     * Add the insertion of an event at the end of the room history.
+     *
+     * @param event the event
+     */
+    private void addPutEventOperation(Event event) {
+        addEventOperation(event.roomId, new MXSQLiteStoreDatabase.EventOperation(MXSQLiteStoreDatabase.EventOperation.PUT, event.eventId, event, nextEventSeq(event.roomId, false)));
+    }
+
+    @Override
+    public void storeLiveRoomEvent(Event event) {
+        // the replaced local echo is deleted by onLocalEchoReplaced
+        super.storeLiveRoomEvent(event);
+
+        if ((null != event) && (null != event.roomId) && (null != event.eventId)) {
+            addPutEventOperation(event);
+        }
+    }
+
+    @Override
+    protected void onLocalEchoReplaced(String roomId, String echoEventId) {
+        addEventOperation(roomId, new MXSQLiteStoreDatabase.EventOperation(MXSQLiteStoreDatabase.EventOperation.DELETE, echoEventId, null, 0));
+    }
+
+    @Override
+    public void storeRoomEvents(String roomId, TokensChunkResponse<Event> eventsResponse, EventTimeline.Direction direction) {
+        super.storeRoomEvents(roomId, eventsResponse, direction);
+
+        if ((null == roomId) || (null == eventsResponse) || (null == eventsResponse.chunk)) {
+            return;
+        }
+
+        boolean isEarliest = (direction == EventTimeline.Direction.BACKWARDS);
+
+        // the backward chunks are sorted from the latest event to the oldest one
+        for (Event event : eventsResponse.chunk) {
+            if (null != event.eventId) {
+                addEventOperation(roomId, new MXSQLiteStoreDatabase.EventOperation(MXSQLiteStoreDatabase.EventOperation.PUT, event.eventId, event, nextEventSeq(roomId, isEarliest)));
+            }
+        }
+
+        synchronized (mPendingUpdatesLock) {
+            mRoomsToCommitForTokens.add(roomId);
+        }
+    }
+
+    @Override
+    public void storeBackToken(String roomId, String backToken) {
+        super.storeBackToken(roomId, backToken);
+
+        if ((null != roomId) && (null != backToken)) {
+            synchronized (mPendingUpdatesLock) {
+                mRoomsToCommitForTokens.add(roomId);
+            }
+        }
+    }
+
+    @Override
+    public void storeRoom(Room room) {
+        super.storeRoom(room);
+
+        if ((null != room) && (null != room.getRoomId())) {
+            synchronized (mPendingUpdatesLock) {
+                // the room row is created with the token
+                mRoomsToCommitForTokens.add(room.getRoomId());
+            }
+        }
+    }
+
+    @Override
+    public void deleteEvent(Event event) {
+        super.deleteEvent(event);
+
+        if ((null != event) && (null != event.roomId) && (null != event.eventId)) {
+            addEventOperation(event.roomId, new MXSQLiteStoreDatabase.EventOperation(MXSQLiteStoreDatabase.EventOperation.DELETE, event.eventId, null, 0));
+        }
+    }
+
+    @Override
+    public void flushRoomEvents(String roomId) {
+        super.flushRoomEvents(roomId);
+        commit();
+    }
+
+    /**
+     * Replace the stored events of a room by the in-memory ones.
+     *
+     * @param roomId the room id
+     */
+    private void rewriteRoomEvents(String roomId) {
+        mRoomsWithEarlierEvents.remove(roomId);
+        addEventOperation(roomId, new MXSQLiteStoreDatabase.EventOperation(MXSQLiteStoreDatabase.EventOperation.CLEAR, null, null, 0));
+
+        Collection<Event> events = getRoomMessages(roomId);
+
+        if (null != events) {
+            for (Event event : events) {
+                if (null != event.eventId) {
+                    addPutEventOperation(event);
+                }
+            }
+        }
+    }
+
+    @Override
+    public void deleteAllRoomMessages(String roomId, boolean keepUnsent) {
+        super.deleteAllRoomMessages(roomId, keepUnsent);
+
+        if (null != roomId) {
+            rewriteRoomEvents(roomId);
+
+            synchronized (mPendingUpdatesLock) {
+                mRoomsToCommitForSummaries.add(roomId);
+            }
+        }
+    }
+
+    @Override
+    public void deleteRoomData(String roomId) {
+        super.deleteRoomData(roomId);
+
+        if (null != roomId) {
+            rewriteRoomEvents(roomId);
+
+            synchronized (mPendingUpdatesLock) {
+                mRoomsToCommitForTokens.add(roomId);
+                mRoomsToCommitForSummaries.add(roomId);
+                mRoomsToClearForReceipts.add(roomId);
+                mRoomsToCommitForReceipts.remove(roomId);
+            }
+        }
+    }
+
+    @Override
+    public void deleteRoom(String roomId) {
+        super.deleteRoom(roomId);
+
+        if (null != roomId) {
+            mRoomsWithEarlierEvents.remove(roomId);
+
+            synchronized (mPendingUpdatesLock) {
+                mRoomsToDelete.add(roomId);
+                mRoomsToCommitForEvents.remove(roomId);
+                mRoomsToCommitForTokens.remove(roomId);
+                mRoomsToCommitForStates.remove(roomId);
+                mRoomsToCommitForAccountData.remove(roomId);
+                mRoomsToCommitForSummaries.remove(roomId);
+                mRoomsToCommitForReceipts.remove(roomId);
+                mRoomsToClearForReceipts.remove(roomId);
+                mEventsSeqBounds.remove(roomId);
+            }
+        }
+    }
+
+    @Override
+    public boolean doesEventExist(String eventId, String roomId) {
+        boolean res = super.doesEventExist(eventId, roomId);
+
+        // the earlier events are only in the database
+        if (!res && !TextUtils.isEmpty(eventId) && (null != roomId) && mRoomsWithEarlierEvents.contains(roomId)) {
+            res = (null != mDatabase.loadEvent(roomId, eventId));
+        }
+
+        return res;
+    }
+
+    @Override
+    public Event getEvent(String eventId, String roomId) {
+        Event event = null;
+
+        if (super.doesEventExist(eventId, roomId)) {
+            event = super.getEvent(eventId, roomId);
+        } else if (!TextUtils.isEmpty(eventId) && (null != roomId) && mRoomsWithEarlierEvents.contains(roomId)) {
+            // indexed search in the earlier events
+            event = mDatabase.loadEvent(roomId, eventId);
+        }
+
+        return event;
+    }
+
+    @Override
+    public TokensChunkResponse<Event> getEarlierMessages(final String roomId, final String fromToken, final int limit) {
+        TokensChunkResponse<Event> response = super.getEarlierMessages(roomId, fromToken, limit);
+
+        // the loaded events have been provided : read the next page in the database
+        if ((null == response) && (null != roomId) && (null != fromToken) && mRoomsWithEarlierEvents.contains(roomId)) {
+            response = getEarlierMessagesFromDatabase(roomId, fromToken, limit);
+        }
+
+        return response;
+    }
+
+    /**
+     * Read the events which are older than the loaded ones.
+     * The read events are inserted before the loaded ones.
+     *
+     * @param roomId    the room id
+     * @param fromToken the pagination token of the oldest loaded event
+     * @param limit     the minimum number of events to read
+     * @return the events chunk, null if there is none.
+     */
+    private TokensChunkResponse<Event> getEarlierMessagesFromDatabase(String roomId, String fromToken, int limit) {
+        String oldestEventId;
+
+        synchronized (getRoomEventsLock(roomId)) {
+            Event oldestEvent = getOldestEvent(roomId);
+
+            if ((null == oldestEvent) || !TextUtils.equals(oldestEvent.mToken, fromToken)) {
+                return null;
+            }
+
+            oldestEventId = oldestEvent.eventId;
+        }
+
+        long start = System.currentTimeMillis();
+        MXSQLiteStoreDatabase.EventsPage page = mDatabase.loadEarlierEvents(roomId, oldestEventId, limit);
+
+        if ((null == page) || page.mEvents.isEmpty()) {
+            mRoomsWithEarlierEvents.remove(roomId);
+            return null;
+        }
+
+        if (!page.mHasEarlierEvents) {
+            mRoomsWithEarlierEvents.remove(roomId);
+        }
+
+        synchronized (getRoomEventsLock(roomId)) {
+            LinkedHashMap<String, Event> events = mRoomEvents.get(roomId);
+
+            // insert the read events before the loaded ones
+            if ((null != events) && (events.size() > 0) && TextUtils.equals(events.keySet().iterator().next(), oldestEventId)) {
+                LinkedHashMap<String, Event> updatedEvents = new LinkedHashMap<>();
+                LinkedHashSet<String> eventIds = new LinkedHashSet<>();
+
+                for (int index = page.mEvents.size() - 1; index >= 0; index--) {
+                    Event event = page.mEvents.get(index);
+                    updatedEvents.put(event.eventId, event);
+                    eventIds.add(event.eventId);
+                }
+
+                updatedEvents.putAll(events);
+                mRoomEvents.put(roomId, updatedEvents);
+                onRoomEventsPrepended(roomId, events, updatedEvents, page.mEvents);
+
+                // the read events are inserted before the known ones
+                LinkedHashSet<String> knownEventIds = mRoomEventIds.get(roomId);
+
+                if (null != knownEventIds) {
+                    eventIds.addAll(knownEventIds);
+                    mRoomEventIds.put(roomId, eventIds);
+                } else {
+                    mRoomEventIds.put(roomId, new LinkedHashSet<>(updatedEvents.keySet()));
+                }
+            }
+        }
+
+        TokensChunkResponse<Event> response = new TokensChunkResponse<>();
+        response.chunk = page.mEvents;
+
+        Event firstEvent = page.mEvents.get(0);
+        Event lastEvent = page.mEvents.get(page.mEvents.size() - 1);
+
+        response.start = firstEvent.mToken;
+
+        // unknown last event token, use the latest known one
+        if ((null == lastEvent.mToken) && !TextUtils.isEmpty(mRoomTokens.get(roomId))) {
+            lastEvent.mToken = mRoomTokens.get(roomId);
+        }
+
+        response.end = lastEvent.mToken;
+
+        Log.d(LOG_TAG, "## getEarlierMessagesFromDatabase() : " + page.mEvents.size() + " events read in " + (System.currentTimeMillis() - start) + " ms");
+
+        return response;
+    }
+
+    //================================================================================
+    // Room states, summaries and account data
+    //================================================================================
+
+    @Override
+    public void storeLiveStateForRoom(String roomId) {
+        super.storeLiveStateForRoom(roomId);
+
+        if (null != roomId) {
+            synchronized (mPendingUpdatesLock) {
+                mRoomsToCommitForStates.add(roomId);
+            }
+        }
+    }
+
+    @Override
+    public void getRoomStateEvents(final String roomId, final SimpleApiCallback<List<Event>> callback) {
+        if (null == mStoreHandler) {
+            super.getRoomStateEvents(roomId, callback);
+            return;
+        }
+
+        mStoreHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                List<Event> events = new ArrayList<>();
+
+                if (!isKilled()) {
+                    events.addAll(mDatabase.loadStateEvents(roomId));
+                }
+
+                // the not yet committed ones
+                synchronized (mRoomStateEventsByRoomId) {
+                    if (mRoomStateEventsByRoomId.containsKey(roomId)) {
+                        events.addAll(mRoomStateEventsByRoomId.get(roomId));
+                    }
+                }
+
+                callback.onSuccess(events);
+            }
+        });
+    }
+
+    @Override
+    public void storeSummary(RoomSummary summary) {
+        super.storeSummary(summary);
+
+        if ((null != summary) && (null != summary.getRoomId())) {
+            synchronized (mPendingUpdatesLock) {
+                mRoomsToCommitForSummaries.add(summary.getRoomId());
+            }
+        }
+    }
+
+    @Override
+    public void flushSummary(RoomSummary summary) {
+        super.flushSummary(summary);
+
+        if ((null != summary) && (null != summary.getRoomId())) {
+            synchronized (mPendingUpdatesLock) {
+                mRoomsToCommitForSummaries.add(summary.getRoomId());
+            }
+            commit();
+        }
+    }
+
+    @Override
+    public void flushSummaries() {
+        super.flushSummaries();
+
+        synchronized (mPendingUpdatesLock) {
+            mRoomsToCommitForSummaries.addAll(mRoomSummaries.keySet());
+        }
+        commit();
+    }
+
+    @Override
+    public void storeAccountData(String roomId, RoomAccountData accountData) {
+        super.storeAccountData(roomId, accountData);
+
+        if ((null != roomId) && (null != accountData) && mRooms.containsKey(roomId)) {
+            synchronized (mPendingUpdatesLock) {
+                mRoomsToCommitForAccountData.add(roomId);
+            }
+        }
+    }
+
+    //================================================================================
+    // Receipts and users
+    //================================================================================
+
+    @Override
+    public boolean storeReceipt(ReceiptData receipt, String roomId) {
+        boolean res = super.storeReceipt(receipt, roomId);
+
+        if (res) {
+            synchronized (mPendingUpdatesLock) {
+                Set<String> userIds = mRoomsToCommitForReceipts.get(roomId);
+
+                if (null == userIds) {
+                    userIds = new HashSet<>();
+                    mRoomsToCommitForReceipts.put(roomId, userIds);
+                }
+
+                userIds.add(receipt.userId);
+            }
+        }
+
+        return res;
+    }
+
+    @Override
+    public void storeUser(User user) {
+        super.storeUser(user);
+
+        if ((null != user) && (null != user.user_id) && !TextUtils.equals(mCredentials.userId, user.user_id)) {
+            synchronized (mPendingUpdatesLock) {
+                mUserIdsToCommit.add(user.user_id);
+            }
+        }
+    }
+}
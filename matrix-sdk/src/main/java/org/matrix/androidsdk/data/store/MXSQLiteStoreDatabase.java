@@ -0,0 +1,850 @@
+/*
+ * Copyright 2017 Vector Creations Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.matrix.androidsdk.data.store;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
+
+import org.matrix.androidsdk.data.RoomAccountData;
+import org.matrix.androidsdk.data.RoomState;
+import org.matrix.androidsdk.data.RoomSummary;
+import org.matrix.androidsdk.rest.model.Event;
+import org.matrix.androidsdk.rest.model.ReceiptData;
+import org.matrix.androidsdk.rest.model.User;
+import org.matrix.androidsdk.util.Log;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The SQLite database used by MXSQLiteStore.
+ * The objects are stored as MXFileStoreCodec blobs in indexed tables.
+ */
+public class MXSQLiteStoreDatabase extends SQLiteOpenHelper {
+    private static final String LOG_TAG = "MXSQLiteStoreDatabase";
+
+    private static final int DATABASE_VERSION = 1;
+
+    // the number of events read at once when an events page is loaded
+    private static final int EVENTS_CHUNK_SIZE = 20;
+
+    // tables
+    private static final String TABLE_METADATA = "metadata";
+    private static final String TABLE_ROOMS = "rooms";
+    private static final String TABLE_EVENTS = "events";
+    private static final String TABLE_STATE_EVENTS = "state_events";
+    private static final String TABLE_SUMMARIES = "summaries";
+    private static final String TABLE_RECEIPTS = "receipts";
+    private static final String TABLE_USERS = "users";
+
+    private static final String[] TABLES = {TABLE_METADATA, TABLE_ROOMS, TABLE_EVENTS, TABLE_STATE_EVENTS, TABLE_SUMMARIES, TABLE_RECEIPTS, TABLE_USERS};
+
+    /**
+     * An events update.
+     */
+    public static class EventOperation {
+        // insert or update an event
+        public static final int PUT = 1;
+        // delete an event
+        public static final int DELETE = 2;
+        // delete all the room events
+        public static final int CLEAR = 3;
+
+        // the operation type
+        public final int mType;
+
+        // the event id
+        public final String mEventId;
+
+        // the event to insert or to update
+        public final Event mEvent;
+
+        // the event position in the room history (used when the event is inserted)
+        public final long mSeq;
+
+        /**
+         * Constructor
+         *
+         * @param type    the operation type
+         * @param eventId the event id
+         * @param event   the event
+         * @param seq     the event position
+         */
+        public EventOperation(int type, String eventId, Event event, long seq) {
+            mType = type;
+            mEventId = eventId;
+            mEvent = event;
+            mSeq = seq;
+        }
+    }
+
+    /**
+     * The updates to write in a single transaction.
+     */
+    public static class Batch {
+        // the deleted rooms (they are deleted before applying the other updates)
+        public final Set<String> mDeletedRoomIds = new HashSet<>();
+
+        // the events updates by room id
+        public final Map<String, List<EventOperation>> mEventOperations = new HashMap<>();
+
+        // the new back tokens by room id
+        public final Map<String, String> mRoomTokens = new HashMap<>();
+
+        // the room states by room id
+        public final Map<String, RoomState> mRoomStates = new HashMap<>();
+
+        // the rooms account data by room id
+        public final Map<String, RoomAccountData> mRoomsAccountData = new HashMap<>();
+
+        // the state events to add by room id
+        public final Map<String, List<Event>> mStateEvents = new HashMap<>();
+
+        // the summaries by room id (null to delete it)
+        public final Map<String, RoomSummary> mSummaries = new HashMap<>();
+
+        // the updated receipts by room id
+        public final Map<String, List<ReceiptData>> mReceipts = new HashMap<>();
+
+        // the rooms whose receipts must be deleted before adding the updated ones
+        public final Set<String> mClearedReceiptsRoomIds = new HashSet<>();
+
+        // the updated users
+        public final List<User> mUsers = new ArrayList<>();
+
+        // the metadata (null if it has not been updated)
+        public MXFileStoreMetaData mMetadata = null;
+
+        /**
+         * @return true if there is nothing to write.
+         */
+        public boolean isEmpty() {
+            return mDeletedRoomIds.isEmpty() && mEventOperations.isEmpty() && mRoomTokens.isEmpty() && mRoomStates.isEmpty() &&
+                    mRoomsAccountData.isEmpty() && mStateEvents.isEmpty() && mSummaries.isEmpty() && mReceipts.isEmpty() &&
+                    mClearedReceiptsRoomIds.isEmpty() && mUsers.isEmpty() && (null == mMetadata);
+        }
+    }
+
+    /**
+     * A room record.
+     */
+    public static class RoomRecord {
+        public String mRoomId;
+        public String mToken;
+        public RoomState mState;
+        public RoomAccountData mAccountData;
+    }
+
+    /**
+     * A page of room events.
+     */
+    public static class EventsPage {
+        // the events from the latest to the oldest one
+        public final List<Event> mEvents = new ArrayList<>();
+
+        // true if there are some earlier events in the database
+        public boolean mHasEarlierEvents = false;
+    }
+
+    /**
+     * Constructor
+     *
+     * @param context the context
+     * @param name    the database name
+     */
+    public MXSQLiteStoreDatabase(Context context, String name) {
+        super(context, name, null, DATABASE_VERSION);
+    }
+
+    @Override
+    public void onCreate(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + TABLE_METADATA + " (id INTEGER PRIMARY KEY, data BLOB NOT NULL)");
+        db.execSQL("CREATE TABLE " + TABLE_ROOMS + " (room_id TEXT PRIMARY KEY, token TEXT, state BLOB, account_data BLOB)");
+        db.execSQL("CREATE TABLE " + TABLE_EVENTS + " (room_id TEXT NOT NULL, event_id TEXT NOT NULL, seq INTEGER NOT NULL, token TEXT, data BLOB NOT NULL, PRIMARY KEY (room_id, event_id))");
+        db.execSQL("CREATE INDEX events_room_seq ON " + TABLE_EVENTS + " (room_id, seq)");
+        db.execSQL("CREATE TABLE " + TABLE_STATE_EVENTS + " (room_id TEXT NOT NULL, event_id TEXT NOT NULL, data BLOB NOT NULL, PRIMARY KEY (room_id, event_id))");
+        db.execSQL("CREATE TABLE " + TABLE_SUMMARIES + " (room_id TEXT PRIMARY KEY, data BLOB NOT NULL)");
+        db.execSQL("CREATE TABLE " + TABLE_RECEIPTS + " (room_id TEXT NOT NULL, user_id TEXT NOT NULL, event_id TEXT, ts INTEGER, PRIMARY KEY (room_id, user_id))");
+        db.execSQL("CREATE TABLE " + TABLE_USERS + " (user_id TEXT PRIMARY KEY, data BLOB NOT NULL)");
+    }
+
+    @Override
+    public void onOpen(SQLiteDatabase db) {
+        super.onOpen(db);
+
+        // a commit appends its pages to the log instead of writing a rollback journal then the database pages
+        db.enableWriteAheadLogging();
+
+        // with the log, the database is not corrupted if a commit is interrupted so the commits do not wait for the disk sync :
+        // only the latest commits could be lost on a power failure, they are retrieved again from the server
+        db.execSQL("PRAGMA synchronous = NORMAL");
+    }
+
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        // the content is retrieved again from the server
+        Log.e(LOG_TAG, "## onUpgrade() : " + oldVersion + " -> " + newVersion + " : reset the database");
+
+        for (String table : TABLES) {
+            db.execSQL("DROP TABLE IF EXISTS " + table);
+        }
+
+        onCreate(db);
+    }
+
+    //================================================================================
+    // Encoding
+    //================================================================================
+
+    /**
+     * Encode an object.
+     *
+     * @param object the object
+     * @return the encoded object, null if it fails.
+     */
+    private static byte[] encode(Object object) {
+        try {
+            return MXFileStoreCodec.encode(object);
+        } catch (Exception e) {
+            Log.e(LOG_TAG, "## encode() failed " + e.getMessage());
+        }
+        return null;
+    }
+
+    /**
+     * Decode an object.
+     *
+     * @param data the encoded object
+     * @return the object, null if it fails.
+     */
+    private static Object decode(byte[] data) {
+        if (null != data) {
+            try {
+                return MXFileStoreCodec.decode(data);
+            } catch (Exception e) {
+                Log.e(LOG_TAG, "## decode() failed " + e.getMessage());
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Bind a blob or a null value.
+     *
+     * @param statement the statement
+     * @param index     the parameter index
+     * @param data      the blob
+     */
+    private static void bindBlob(SQLiteStatement statement, int index, byte[] data) {
+        if (null != data) {
+            statement.bindBlob(index, data);
+        } else {
+            statement.bindNull(index);
+        }
+    }
+
+    /**
+     * Bind a string or a null value.
+     *
+     * @param statement the statement
+     * @param index     the parameter index
+     * @param value     the string
+     */
+    private static void bindString(SQLiteStatement statement, int index, String value) {
+        if (null != value) {
+            statement.bindString(index, value);
+        } else {
+            statement.bindNull(index);
+        }
+    }
+
+    //================================================================================
+    // Write
+    //================================================================================
+
+    /**
+     * Write a batch of updates in a single transaction.
+     *
+     * @param batch the updates
+     * @return true if the transaction succeeds.
+     */
+    public boolean write(Batch batch) {
+        SQLiteDatabase db = getWritableDatabase();
+        boolean succeed = false;
+
+        db.beginTransaction();
+
+        try {
+            for (String roomId : batch.mDeletedRoomIds) {
+                String[] args = new String[]{roomId};
+
+                db.delete(TABLE_ROOMS, "room_id = ?", args);
+                db.delete(TABLE_EVENTS, "room_id = ?", args);
+                db.delete(TABLE_STATE_EVENTS, "room_id = ?", args);
+                db.delete(TABLE_SUMMARIES, "room_id = ?", args);
+                db.delete(TABLE_RECEIPTS, "room_id = ?", args);
+            }
+
+            writeEvents(db, batch.mEventOperations);
+            writeRooms(db, batch);
+            writeStateEvents(db, batch.mStateEvents);
+            writeSummaries(db, batch.mSummaries);
+            writeReceipts(db, batch.mClearedReceiptsRoomIds, batch.mReceipts);
+            writeUsers(db, batch.mUsers);
+
+            if (null != batch.mMetadata) {
+                SQLiteStatement statement = db.compileStatement("INSERT OR REPLACE INTO " + TABLE_METADATA + " (id, data) VALUES (1, ?)");
+                bindBlob(statement, 1, encode(batch.mMetadata));
+                statement.executeInsert();
+                statement.close();
+            }
+
+            db.setTransactionSuccessful();
+            succeed = true;
+        } catch (Exception e) {
+            Log.e(LOG_TAG, "## write() failed " + e.getMessage());
+        } finally {
+            db.endTransaction();
+        }
+
+        return succeed;
+    }
+
+    /**
+     * Apply the events updates.
+     *
+     * @param db         the database
+     * @param operations the events updates by room id
+     */
+    private static void writeEvents(SQLiteDatabase db, Map<String, List<EventOperation>> operations) {
+        if (operations.isEmpty()) {
+            return;
+        }
+
+        SQLiteStatement update = db.compileStatement("UPDATE " + TABLE_EVENTS + " SET token = ?, data = ? WHERE room_id = ? AND event_id = ?");
+        SQLiteStatement insert = db.compileStatement("INSERT OR REPLACE INTO " + TABLE_EVENTS + " (room_id, event_id, seq, token, data) VALUES (?, ?, ?, ?, ?)");
+        SQLiteStatement delete = db.compileStatement("DELETE FROM " + TABLE_EVENTS + " WHERE room_id = ? AND event_id = ?");
+
+        for (String roomId : operations.keySet()) {
+            for (EventOperation operation : operations.get(roomId)) {
+                if (EventOperation.CLEAR == operation.mType) {
+                    db.delete(TABLE_EVENTS, "room_id = ?", new String[]{roomId});
+                } else if (EventOperation.DELETE == operation.mType) {
+                    delete.bindString(1, roomId);
+                    delete.bindString(2, operation.mEventId);
+                    delete.executeUpdateDelete();
+                } else {
+                    byte[] data = encode(operation.mEvent);
+
+                    if (null == data) {
+                        continue;
+                    }
+
+                    // keep the position of the known events
+                    bindString(update, 1, operation.mEvent.mToken);
+                    update.bindBlob(2, data);
+                    update.bindString(3, roomId);
+                    update.bindString(4, operation.mEventId);
+
+                    if (0 == update.executeUpdateDelete()) {
+                        insert.bindString(1, roomId);
+                        insert.bindString(2, operation.mEventId);
+                        insert.bindLong(3, operation.mSeq);
+                        bindString(insert, 4, operation.mEvent.mToken);
+                        insert.bindBlob(5, data);
+                        insert.executeInsert();
+                    }
+                }
+            }
+        }
+
+        update.close();
+        insert.close();
+        delete.close();
+    }
+
+    /**
+     * Update the rooms table.
+     *
+     * @param db    the database
+     * @param batch the batch
+     */
+    private static void writeRooms(SQLiteDatabase db, Batch batch) {
+        Set<String> roomIds = new HashSet<>(batch.mRoomTokens.keySet());
+        roomIds.addAll(batch.mRoomStates.keySet());
+        roomIds.addAll(batch.mRoomsAccountData.keySet());
+
+        if (roomIds.isEmpty()) {
+            return;
+        }
+
+        SQLiteStatement insert = db.compileStatement("INSERT OR IGNORE INTO " + TABLE_ROOMS + " (room_id) VALUES (?)");
+        SQLiteStatement updateToken = db.compileStatement("UPDATE " + TABLE_ROOMS + " SET token = ? WHERE room_id = ?");
+        SQLiteStatement updateState = db.compileStatement("UPDATE " + TABLE_ROOMS + " SET state = ? WHERE room_id = ?");
+        SQLiteStatement updateAccountData = db.compileStatement("UPDATE " + TABLE_ROOMS + " SET account_data = ? WHERE room_id = ?");
+
+        for (String roomId : roomIds) {
+            insert.bindString(1, roomId);
+            insert.executeInsert();
+
+            if (batch.mRoomTokens.containsKey(roomId)) {
+                bindString(updateToken, 1, batch.mRoomTokens.get(roomId));
+                updateToken.bindString(2, roomId);
+                updateToken.executeUpdateDelete();
+            }
+
+            if (batch.mRoomStates.containsKey(roomId)) {
+                bindBlob(updateState, 1, encode(batch.mRoomStates.get(roomId)));
+                updateState.bindString(2, roomId);
+                updateState.executeUpdateDelete();
+            }
+
+            if (batch.mRoomsAccountData.containsKey(roomId)) {
+                bindBlob(updateAccountData, 1, encode(batch.mRoomsAccountData.get(roomId)));
+                updateAccountData.bindString(2, roomId);
+                updateAccountData.executeUpdateDelete();
+            }
+        }
+
+        insert.close();
+        updateToken.close();
+        updateState.close();
+        updateAccountData.close();
+    }
+
+    /**
+     * Add some state events.
+     *
+     * @param db          the database
+     * @param stateEvents the state events by room id
+     */
+    private static void writeStateEvents(SQLiteDatabase db, Map<String, List<Event>> stateEvents) {
+        if (stateEvents.isEmpty()) {
+            return;
+        }
+
+        SQLiteStatement insert = db.compileStatement("INSERT OR REPLACE INTO " + TABLE_STATE_EVENTS + " (room_id, event_id, data) VALUES (?, ?, ?)");
+
+        for (String roomId : stateEvents.keySet()) {
+            for (Event event : stateEvents.get(roomId)) {
+                byte[] data = encode(event);
+
+                if ((null != data) && (null != event.eventId)) {
+                    insert.bindString(1, roomId);
+                    insert.bindString(2, event.eventId);
+                    insert.bindBlob(3, data);
+                    insert.executeInsert();
+                }
+            }
+        }
+
+        insert.close();
+    }
+
+    /**
+     * Update the summaries.
+     *
+     * @param db        the database
+     * @param summaries the summaries by room id (null to delete it)
+     */
+    private static void writeSummaries(SQLiteDatabase db, Map<String, RoomSummary> summaries) {
+        if (summaries.isEmpty()) {
+            return;
+        }
+
+        SQLiteStatement insert = db.compileStatement("INSERT OR REPLACE INTO " + TABLE_SUMMARIES + " (room_id, data) VALUES (?, ?)");
+
+        for (String roomId : summaries.keySet()) {
+            RoomSummary summary = summaries.get(roomId);
+            byte[] data = (null != summary) ? encode(summary) : null;
+
+            if (null != data) {
+                insert.bindString(1, roomId);
+                insert.bindBlob(2, data);
+                insert.executeInsert();
+            } else {
+                db.delete(TABLE_SUMMARIES, "room_id = ?", new String[]{roomId});
+            }
+        }
+
+        insert.close();
+    }
+
+    /**
+     * Update the receipts.
+     *
+     * @param db              the database
+     * @param clearedRoomIds the rooms whose receipts are deleted first
+     * @param receiptsByRoom the updated receipts by room id
+     */
+    private static void writeReceipts(SQLiteDatabase db, Set<String> clearedRoomIds, Map<String, List<ReceiptData>> receiptsByRoom) {
+        for (String roomId : clearedRoomIds) {
+            db.delete(TABLE_RECEIPTS, "room_id = ?", new String[]{roomId});
+        }
+
+        if (receiptsByRoom.isEmpty()) {
+            return;
+        }
+
+        SQLiteStatement insert = db.compileStatement("INSERT OR REPLACE INTO " + TABLE_RECEIPTS + " (room_id, user_id, event_id, ts) VALUES (?, ?, ?, ?)");
+
+        for (String roomId : receiptsByRoom.keySet()) {
+            for (ReceiptData receipt : receiptsByRoom.get(roomId)) {
+                if (null != receipt.userId) {
+                    insert.bindString(1, roomId);
+                    insert.bindString(2, receipt.userId);
+                    bindString(insert, 3, receipt.eventId);
+                    insert.bindLong(4, receipt.originServerTs);
+                    insert.executeInsert();
+                }
+            }
+        }
+
+        insert.close();
+    }
+
+    /**
+     * Update the users.
+     *
+     * @param db    the database
+     * @param users the users
+     */
+    private static void writeUsers(SQLiteDatabase db, List<User> users) {
+        if (users.isEmpty()) {
+            return;
+        }
+
+        SQLiteStatement insert = db.compileStatement("INSERT OR REPLACE INTO " + TABLE_USERS + " (user_id, data) VALUES (?, ?)");
+
+        for (User user : users) {
+            byte[] data = encode(user);
+
+            if ((null != data) && (null != user.user_id)) {
+                insert.bindString(1, user.user_id);
+                insert.bindBlob(2, data);
+                insert.executeInsert();
+            }
+        }
+
+        insert.close();
+    }
+
+    /**
+     * Delete the database content.
+     */
+    public void deleteAll() {
+        SQLiteDatabase db = getWritableDatabase();
+
+        db.beginTransaction();
+
+        try {
+            for (String table : TABLES) {
+                db.delete(table, null, null);
+            }
+            db.setTransactionSuccessful();
+        } catch (Exception e) {
+            Log.e(LOG_TAG, "## deleteAll() failed " + e.getMessage());
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    //================================================================================
+    // Read
+    //================================================================================
+
+    /**
+     * @return the stored metadata, null if there is none.
+     */
+    public MXFileStoreMetaData loadMetaData() {
+        MXFileStoreMetaData metadata = null;
+        Cursor cursor = null;
+
+        try {
+            cursor = getReadableDatabase().rawQuery("SELECT data FROM " + TABLE_METADATA + " WHERE id = 1", null);
+
+            if (cursor.moveToFirst()) {
+                metadata = (MXFileStoreMetaData) decode(cursor.getBlob(0));
+            }
+        } catch (Exception e) {
+            Log.e(LOG_TAG, "## loadMetaData() failed " + e.getMessage());
+        } finally {
+            if (null != cursor) {
+                cursor.close();
+            }
+        }
+
+        return metadata;
+    }
+
+    /**
+     * @return the stored rooms.
+     */
+    public List<RoomRecord> loadRooms() {
+        List<RoomRecord> rooms = new ArrayList<>();
+        Cursor cursor = getReadableDatabase().rawQuery("SELECT room_id, token, state, account_data FROM " + TABLE_ROOMS, null);
+
+        try {
+            while (cursor.moveToNext()) {
+                RoomRecord record = new RoomRecord();
+                record.mRoomId = cursor.getString(0);
+                record.mToken = cursor.getString(1);
+                record.mState = (RoomState) decode(cursor.getBlob(2));
+                record.mAccountData = (RoomAccountData) decode(cursor.getBlob(3));
+                rooms.add(record);
+            }
+        } finally {
+            cursor.close();
+        }
+
+        return rooms;
+    }
+
+    /**
+     * Provides the lowest and the highest event positions of each room.
+     *
+     * @return the positions by room id
+     */
+    public Map<String, long[]> loadEventsSeqBounds() {
+        Map<String, long[]> bounds = new HashMap<>();
+        Cursor cursor = getReadableDatabase().rawQuery("SELECT room_id, MIN(seq), MAX(seq) FROM " + TABLE_EVENTS + " GROUP BY room_id", null);
+
+        try {
+            while (cursor.moveToNext()) {
+                bounds.put(cursor.getString(0), new long[]{cursor.getLong(1), cursor.getLong(2)});
+            }
+        } finally {
+            cursor.close();
+        }
+
+        return bounds;
+    }
+
+    /**
+     * Load the latest events of a room.
+     * The loading continues after minCount events until an event with a pagination token is found.
+     *
+     * @param roomId   the room id
+     * @param minCount the minimum number of events to load
+     * @return the events page
+     */
+    public EventsPage loadLatestEvents(String roomId, int minCount) {
+        return loadEventsPage(getReadableDatabase(), roomId, Long.MAX_VALUE, minCount);
+    }
+
+    /**
+     * Load the events which are older than a dedicated one.
+     *
+     * @param roomId   the room id
+     * @param eventId  the event id
+     * @param minCount the minimum number of events to load
+     * @return the events page, null if the event is unknown.
+     */
+    public EventsPage loadEarlierEvents(String roomId, String eventId, int minCount) {
+        SQLiteDatabase db = getReadableDatabase();
+        Cursor cursor = db.rawQuery("SELECT seq FROM " + TABLE_EVENTS + " WHERE room_id = ? AND event_id = ?", new String[]{roomId, eventId});
+        long seq;
+
+        try {
+            if (!cursor.moveToFirst()) {
+                return null;
+            }
+            seq = cursor.getLong(0);
+        } finally {
+            cursor.close();
+        }
+
+        return loadEventsPage(db, roomId, seq, minCount);
+    }
+
+    /**
+     * Load the events of a room which are older than a position.
+     * The events are read by chunks so the earlier events of the room are not read from the database.
+     * The loading continues after minCount events until an event with a pagination token is found.
+     *
+     * @param db        the database
+     * @param roomId    the room id
+     * @param beforeSeq the position, the events before it are loaded
+     * @param minCount  the minimum number of events to load
+     * @return the events page
+     */
+    private static EventsPage loadEventsPage(SQLiteDatabase db, String roomId, long beforeSeq, int minCount) {
+        EventsPage page = new EventsPage();
+        long seq = beforeSeq;
+
+        while (true) {
+            int chunkSize = Math.max(minCount - page.mEvents.size(), EVENTS_CHUNK_SIZE);
+
+            // one more row is read to know if there are earlier events
+            Cursor cursor = db.rawQuery("SELECT seq, token, data FROM " + TABLE_EVENTS + " WHERE room_id = ? AND seq < ? ORDER BY seq DESC LIMIT " + (chunkSize + 1),
+                    new String[]{roomId, String.valueOf(seq)});
+
+            try {
+                int rowsCount = 0;
+
+                while ((rowsCount < chunkSize) && cursor.moveToNext()) {
+                    rowsCount++;
+                    seq = cursor.getLong(0);
+
+                    Event event = (Event) decode(cursor.getBlob(2));
+
+                    if (null != event) {
+                        page.mEvents.add(event);
+                    }
+
+                    // stop on an event with a pagination token
+                    if ((page.mEvents.size() >= minCount) && !cursor.isNull(1)) {
+                        page.mHasEarlierEvents = !cursor.isLast();
+                        return page;
+                    }
+                }
+
+                // no more events
+                if (rowsCount < chunkSize || !cursor.moveToNext()) {
+                    return page;
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+    }
+
+    /**
+     * Load an event.
+     *
+     * @param roomId  the room id
+     * @param eventId the event id
+     * @return the event, null if it does not exist.
+     */
+    public Event loadEvent(String roomId, String eventId) {
+        Event event = null;
+        Cursor cursor = getReadableDatabase().rawQuery("SELECT data FROM " + TABLE_EVENTS + " WHERE room_id = ? AND event_id = ?", new String[]{roomId, eventId});
+
+        try {
+            if (cursor.moveToFirst()) {
+                event = (Event) decode(cursor.getBlob(0));
+            }
+        } finally {
+            cursor.close();
+        }
+
+        return event;
+    }
+
+    /**
+     * Load the state events of a room.
+     *
+     * @param roomId the room id
+     * @return the state events
+     */
+    public List<Event> loadStateEvents(String roomId) {
+        List<Event> events = new ArrayList<>();
+        Cursor cursor = getReadableDatabase().rawQuery("SELECT data FROM " + TABLE_STATE_EVENTS + " WHERE room_id = ?", new String[]{roomId});
+
+        try {
+            while (cursor.moveToNext()) {
+                Event event = (Event) decode(cursor.getBlob(0));
+
+                if (null != event) {
+                    events.add(event);
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+
+        return events;
+    }
+
+    /**
+     * @return the stored summaries.
+     */
+    public List<RoomSummary> loadSummaries() {
+        List<RoomSummary> summaries = new ArrayList<>();
+        Cursor cursor = getReadableDatabase().rawQuery("SELECT data FROM " + TABLE_SUMMARIES, null);
+
+        try {
+            while (cursor.moveToNext()) {
+                RoomSummary summary = (RoomSummary) decode(cursor.getBlob(0));
+
+                if (null != summary) {
+                    summaries.add(summary);
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+
+        return summaries;
+    }
+
+    /**
+     * @return the stored receipts by room id and by user id.
+     */
+    public Map<String, Map<String, ReceiptData>> loadReceipts() {
+        Map<String, Map<String, ReceiptData>> receiptsByRoomId = new HashMap<>();
+        Cursor cursor = getReadableDatabase().rawQuery("SELECT room_id, user_id, event_id, ts FROM " + TABLE_RECEIPTS, null);
+
+        try {
+            while (cursor.moveToNext()) {
+                String roomId = cursor.getString(0);
+                Map<String, ReceiptData> receipts = receiptsByRoomId.get(roomId);
+
+                if (null == receipts) {
+                    receipts = new HashMap<>();
+                    receiptsByRoomId.put(roomId, receipts);
+                }
+
+                ReceiptData receipt = new ReceiptData(cursor.getString(1), cursor.getString(2), cursor.getLong(3));
+                receipts.put(receipt.userId, receipt);
+            }
+        } finally {
+            cursor.close();
+        }
+
+        return receiptsByRoomId;
+    }
+
+    /**
+     * @return the stored users.
+     */
+    public List<User> loadUsers() {
+        List<User> users = new ArrayList<>();
+        Cursor cursor = getReadableDatabase().rawQuery("SELECT data FROM " + TABLE_USERS, null);
+
+        try {
+            while (cursor.moveToNext()) {
+                User user = (User) decode(cursor.getBlob(0));
+
+                if (null != user) {
+                    users.add(user);
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+
+        return users;
+    }
+}
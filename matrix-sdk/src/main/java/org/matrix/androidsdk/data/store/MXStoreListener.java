@@ -16,6 +16,8 @@
 
 package org.matrix.androidsdk.data.store;
 
+import java.util.List;
+
 /**
  * An default implementation of IMXStoreListener
  */
@@ -32,6 +34,10 @@ public class MXStoreListener implements IMXStoreListener {
     public void onStoreCorrupted(String accountId, String description) {
     }
 
+    @Override
+    public void onStoreRoomsQuarantined(String accountId, List<String> roomIds) {
+    }
+
     @Override
     public void onStoreOOM(String accountId, String description) {
     }
@@ -23,15 +23,20 @@ import org.matrix.androidsdk.rest.model.Search.SearchParams;
 import org.matrix.androidsdk.rest.model.Search.SearchResponse;
 import org.matrix.androidsdk.rest.model.Sync.SyncResponse;
 import org.matrix.androidsdk.rest.model.ThirdPartyProtocol;
+import org.matrix.androidsdk.rest.model.filter.FilterBody;
+import org.matrix.androidsdk.rest.model.filter.FilterResponse;
 
 import java.util.Map;
 
 import retrofit.Callback;
+import retrofit.client.Response;
 import retrofit.http.Body;
 import retrofit.http.GET;
 import retrofit.http.POST;
+import retrofit.http.Path;
 import retrofit.http.Query;
 import retrofit.http.QueryMap;
+import retrofit.http.Streaming;
 
 /**
  * The events API.
@@ -47,6 +52,27 @@ public interface EventsApi {
     @GET(RestClient.URI_API_PREFIX_PATH_R0 + "/sync")
     void sync(@QueryMap Map<String, Object> params, Callback<SyncResponse> callback);
 
+    /**
+     * Perform a sync request without reading the response body.
+     * The body is read as a stream by the caller.
+     *
+     * @param params   the GET params.
+     * @param callback The asynchronous callback to call when the response headers are received
+     */
+    @Streaming
+    @GET(RestClient.URI_API_PREFIX_PATH_R0 + "/sync")
+    void syncStream(@QueryMap Map<String, Object> params, Callback<Response> callback);
+
+    /**
+     * Upload a filter which can be used in the sync requests.
+     *
+     * @param userId   the user id
+     * @param filter   the filter
+     * @param callback The asynchronous callback to call when finished
+     */
+    @POST(RestClient.URI_API_PREFIX_PATH_R0 + "/user/{userId}/filter")
+    void uploadFilter(@Path("userId") String userId, @Body FilterBody filter, Callback<FilterResponse> callback);
+
 
     /**
      * Get the third party server protocols.
@@ -33,6 +33,8 @@ import org.matrix.androidsdk.rest.model.Search.SearchResponse;
 import org.matrix.androidsdk.rest.model.Search.SearchRoomEventCategoryParams;
 import org.matrix.androidsdk.rest.model.Sync.SyncResponse;
 import org.matrix.androidsdk.rest.model.ThirdPartyProtocol;
+import org.matrix.androidsdk.rest.model.filter.FilterBody;
+import org.matrix.androidsdk.rest.model.filter.FilterResponse;
 
 import java.util.ArrayList;
 import java.util.HashMap;
@@ -184,6 +186,53 @@ public class EventsRestClient extends RestClient<EventsApi> {
      * @param callback      The request callback
      */
     public void syncFromToken(final String token, final int serverTimeout, final int clientTimeout, final String setPresence, final String filterId, final ApiCallback<SyncResponse> callback) {
+        final String description = "syncFromToken";
+
+        // Disable retry because it interferes with clientTimeout
+        // Let the client manage retries on events streams
+        mApi.sync(getSyncParams(token, serverTimeout, setPresence, filterId), new RestAdapterCallback<SyncResponse>(description, null, false, callback, new RestAdapterCallback.RequestRetryCallBack() {
+            @Override
+            public void onRetry() {
+                syncFromToken(token, serverTimeout, clientTimeout, setPresence, filterId, callback);
+            }
+        }));
+    }
+
+    /**
+     * Same as {@link #syncFromToken(String, int, int, String, String, ApiCallback)} but the response body is not read.
+     * The callback receives the response as soon as its headers are received,
+     * the caller must read the body stream (outside the UI thread) and close it.
+     *
+     * @param token         the token to stream from (nil in case of initial sync).
+     * @param serverTimeout the maximum time in ms to wait for an event.
+     * @param clientTimeout the maximum time in ms the SDK must wait for the server response.
+     * @param setPresence   the optional set_presence parameter.
+     * @param filterId      the ID of a filter created using the filter API (optional).
+     * @param callback      The request callback
+     */
+    public void syncStreamFromToken(final String token, final int serverTimeout, final int clientTimeout, final String setPresence, final String filterId, final ApiCallback<Response> callback) {
+        final String description = "syncStreamFromToken";
+
+        // Disable retry because it interferes with clientTimeout
+        // Let the client manage retries on events streams
+        mApi.syncStream(getSyncParams(token, serverTimeout, setPresence, filterId), new RestAdapterCallback<Response>(description, null, false, callback, new RestAdapterCallback.RequestRetryCallBack() {
+            @Override
+            public void onRetry() {
+                syncStreamFromToken(token, serverTimeout, clientTimeout, setPresence, filterId, callback);
+            }
+        }));
+    }
+
+    /**
+     * Build the sync request parameters.
+     *
+     * @param token         the token to stream from (nil in case of initial sync).
+     * @param serverTimeout the maximum time in ms to wait for an event.
+     * @param setPresence   the optional set_presence parameter.
+     * @param filterId      the ID of a filter created using the filter API (optional).
+     * @return the parameters
+     */
+    private static Map<String, Object> getSyncParams(String token, int serverTimeout, String setPresence, String filterId) {
         HashMap<String, Object> params = new HashMap<>();
         int timeout = (EVENT_STREAM_TIMEOUT_MS / 1000);
 
@@ -205,15 +254,23 @@ public class EventsRestClient extends RestClient<EventsApi> {
 
         params.put("timeout", timeout);
 
+        return params;
+    }
 
-        final String description = "syncFromToken";
+    /**
+     * Upload a sync filter.
+     * The returned filter id can be given to {@link #syncFromToken(String, int, int, String, String, ApiCallback)}.
+     *
+     * @param filter   the filter
+     * @param callback the request callback
+     */
+    public void uploadFilter(final FilterBody filter, final ApiCallback<FilterResponse> callback) {
+        final String description = "uploadFilter";
 
-        // Disable retry because it interferes with clientTimeout
-        // Let the client manage retries on events streams
-        mApi.sync(params, new RestAdapterCallback<SyncResponse>(description, null, false, callback, new RestAdapterCallback.RequestRetryCallBack() {
+        mApi.uploadFilter(mCredentials.userId, filter, new RestAdapterCallback<FilterResponse>(description, mUnsentEventsManager, callback, new RestAdapterCallback.RequestRetryCallBack() {
             @Override
             public void onRetry() {
-                syncFromToken(token, serverTimeout, clientTimeout, setPresence, filterId, callback);
+                uploadFilter(filter, callback);
             }
         }));
     }
@@ -0,0 +1,313 @@
+/*
+ * Copyright 2017 Vector Creations Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.matrix.androidsdk.rest.json;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import org.matrix.androidsdk.rest.model.DeviceListResponse;
+import org.matrix.androidsdk.rest.model.Event;
+import org.matrix.androidsdk.rest.model.Sync.InvitedRoomSync;
+import org.matrix.androidsdk.rest.model.Sync.PresenceSyncResponse;
+import org.matrix.androidsdk.rest.model.Sync.RoomSync;
+import org.matrix.androidsdk.rest.model.Sync.RoomsSyncResponse;
+import org.matrix.androidsdk.rest.model.Sync.SyncResponse;
+import org.matrix.androidsdk.rest.model.Sync.ToDeviceSyncResponse;
+import org.matrix.androidsdk.util.JsonUtils;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.lang.reflect.Type;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Streaming parser of the sync responses.
+ * The to-device events, the rooms, the presence events and the account data are given to the listener
+ * as soon as they are parsed, so the whole response object graph is never kept in memory.
+ * <p>
+ * The listener receives the sections in the order used to manage a sync response
+ * (to-device events, joined rooms, invited rooms, left rooms, presence, account data).
+ * A section is only streamed when all the previous ones have been streamed,
+ * else it is kept in the returned response to be managed after the streamed ones.
+ * </p>
+ * The returned response keeps the streamed rooms ids with null values, the streamed to-device events,
+ * presence events and account data are not kept.
+ */
+public class SyncResponseParser {
+
+    /**
+     * Listener of the streamed sync response sections.
+     */
+    public interface Listener {
+        /**
+         * The to-device events have been parsed.
+         *
+         * @param events the to-device events
+         */
+        void onToDeviceEvents(List<Event> events);
+
+        /**
+         * A joined room has been parsed.
+         *
+         * @param roomId   the room id
+         * @param roomSync the room sync
+         */
+        void onJoinedRoom(String roomId, RoomSync roomSync);
+
+        /**
+         * An invited room has been parsed.
+         *
+         * @param roomId          the room id
+         * @param invitedRoomSync the invited room sync
+         */
+        void onInvitedRoom(String roomId, InvitedRoomSync invitedRoomSync);
+
+        /**
+         * A left room has been parsed.
+         *
+         * @param roomId   the room id
+         * @param roomSync the room sync
+         */
+        void onLeftRoom(String roomId, RoomSync roomSync);
+
+        /**
+         * The presence events have been parsed.
+         *
+         * @param events the presence events
+         */
+        void onPresenceEvents(List<Event> events);
+
+        /**
+         * The account data has been parsed.
+         *
+         * @param accountData the account data
+         */
+        void onAccountData(Map<String, Object> accountData);
+    }
+
+    // the sections, in the sync response management order
+    private static final int SECTION_TO_DEVICE = 0;
+    private static final int SECTION_JOIN = 1;
+    private static final int SECTION_INVITE = 2;
+    private static final int SECTION_LEAVE = 3;
+    private static final int SECTION_PRESENCE = 4;
+    private static final int SECTION_ACCOUNT_DATA = 5;
+
+    private static final Type ACCOUNT_DATA_TYPE = new TypeToken<Map<String, Object>>() {
+    }.getType();
+
+    private final Gson mGson = JsonUtils.getGson(false);
+
+    private final Listener mListener;
+
+    // the sync response without the streamed sections
+    private final SyncResponse mSyncResponse = new SyncResponse();
+
+    // the number of leading sections which have been streamed
+    private int mStreamedSectionsCount = 0;
+
+    /**
+     * Constructor
+     *
+     * @param listener the listener, null to keep the whole response
+     */
+    private SyncResponseParser(Listener listener) {
+        mListener = listener;
+    }
+
+    /**
+     * Parse a sync response.
+     *
+     * @param reader   the JSON reader
+     * @param listener the listener of the streamed sections, null to keep the whole response
+     * @return the sync response without the streamed sections
+     * @throws IOException if the response cannot be read or is malformed
+     */
+    public static SyncResponse parse(Reader reader, Listener listener) throws IOException {
+        SyncResponseParser parser = new SyncResponseParser(listener);
+
+        try {
+            parser.parseSyncResponse(new JsonReader(reader));
+        } catch (IllegalStateException e) {
+            // unexpected JSON token
+            throw new IOException(e.getMessage());
+        } catch (JsonParseException e) {
+            throw new IOException(e.getMessage());
+        }
+
+        return parser.mSyncResponse;
+    }
+
+    /**
+     * Tells if a section can be given to the listener.
+     *
+     * @param section the section
+     * @return true if the previous sections have been streamed
+     */
+    private boolean canStream(int section) {
+        return (null != mListener) && (mStreamedSectionsCount == section);
+    }
+
+    /**
+     * Parse the sync response root object.
+     *
+     * @param reader the JSON reader
+     * @throws IOException if the response cannot be read or is malformed
+     */
+    private void parseSyncResponse(JsonReader reader) throws IOException {
+        reader.beginObject();
+
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+
+            if ("next_batch".equals(name)) {
+                mSyncResponse.nextBatch = mGson.fromJson(reader, String.class);
+            } else if ("to_device".equals(name)) {
+                ToDeviceSyncResponse toDevice = mGson.fromJson(reader, ToDeviceSyncResponse.class);
+
+                if (canStream(SECTION_TO_DEVICE)) {
+                    if ((null != toDevice) && (null != toDevice.events) && (toDevice.events.size() > 0)) {
+                        mListener.onToDeviceEvents(toDevice.events);
+                    }
+                    mStreamedSectionsCount++;
+                } else {
+                    mSyncResponse.toDevice = toDevice;
+                }
+            } else if ("rooms".equals(name)) {
+                parseRooms(reader);
+            } else if ("presence".equals(name)) {
+                PresenceSyncResponse presence = mGson.fromJson(reader, PresenceSyncResponse.class);
+
+                if (canStream(SECTION_PRESENCE)) {
+                    if ((null != presence) && (null != presence.events) && (presence.events.size() > 0)) {
+                        mListener.onPresenceEvents(presence.events);
+                    }
+                    mStreamedSectionsCount++;
+                } else {
+                    mSyncResponse.presence = presence;
+                }
+            } else if ("account_data".equals(name)) {
+                Map<String, Object> accountData = mGson.fromJson(reader, ACCOUNT_DATA_TYPE);
+
+                if (canStream(SECTION_ACCOUNT_DATA)) {
+                    if (null != accountData) {
+                        mListener.onAccountData(accountData);
+                    }
+                    mStreamedSectionsCount++;
+                } else {
+                    mSyncResponse.accountData = accountData;
+                }
+            } else if ("device_lists".equals(name)) {
+                mSyncResponse.deviceLists = mGson.fromJson(reader, DeviceListResponse.class);
+            } else {
+                reader.skipValue();
+            }
+        }
+
+        reader.endObject();
+    }
+
+    /**
+     * Parse the rooms object.
+     *
+     * @param reader the JSON reader
+     * @throws IOException if the response cannot be read or is malformed
+     */
+    private void parseRooms(JsonReader reader) throws IOException {
+        if (reader.peek() == JsonToken.NULL) {
+            reader.nextNull();
+            return;
+        }
+
+        if (null == mSyncResponse.rooms) {
+            mSyncResponse.rooms = new RoomsSyncResponse();
+        }
+
+        reader.beginObject();
+
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+
+            if ("join".equals(name)) {
+                mSyncResponse.rooms.join = parseRoomsMap(reader, SECTION_JOIN, RoomSync.class);
+            } else if ("invite".equals(name)) {
+                mSyncResponse.rooms.invite = parseRoomsMap(reader, SECTION_INVITE, InvitedRoomSync.class);
+            } else if ("leave".equals(name)) {
+                mSyncResponse.rooms.leave = parseRoomsMap(reader, SECTION_LEAVE, RoomSync.class);
+            } else {
+                reader.skipValue();
+            }
+        }
+
+        reader.endObject();
+    }
+
+    /**
+     * Parse a rooms map i.e. the joined, the invited or the left rooms.
+     * Each room is given to the listener when it is parsed if the section can be streamed.
+     *
+     * @param reader  the JSON reader
+     * @param section the rooms section
+     * @param type    the rooms class
+     * @return the rooms by room id, with null values for the streamed rooms
+     * @throws IOException if the response cannot be read or is malformed
+     */
+    private <T> Map<String, T> parseRoomsMap(JsonReader reader, int section, Class<T> type) throws IOException {
+        if (reader.peek() == JsonToken.NULL) {
+            reader.nextNull();
+            return null;
+        }
+
+        boolean canStream = canStream(section);
+        Map<String, T> rooms = new HashMap<>();
+
+        reader.beginObject();
+
+        while (reader.hasNext()) {
+            String roomId = reader.nextName();
+            T room = mGson.fromJson(reader, type);
+
+            if (canStream && (null != room)) {
+                if (SECTION_JOIN == section) {
+                    mListener.onJoinedRoom(roomId, (RoomSync) room);
+                } else if (SECTION_INVITE == section) {
+                    mListener.onInvitedRoom(roomId, (InvitedRoomSync) room);
+                } else {
+                    mListener.onLeftRoom(roomId, (RoomSync) room);
+                }
+
+                // keep the room id to let the caller know which rooms have been received
+                rooms.put(roomId, null);
+            } else {
+                rooms.put(roomId, room);
+            }
+        }
+
+        reader.endObject();
+
+        if (canStream) {
+            mStreamedSectionsCount++;
+        }
+
+        return rooms;
+    }
+}
@@ -27,6 +27,7 @@ import com.google.gson.JsonParser;
 import org.matrix.androidsdk.crypto.MXCryptoError;
 import org.matrix.androidsdk.db.MXMediasCache;
 import org.matrix.androidsdk.util.JsonUtils;
+import org.matrix.androidsdk.util.MXStringPool;
 
 import java.io.Externalizable;
 import java.io.IOException;
@@ -756,6 +757,19 @@ public class Event implements Externalizable {
         return text;
     }
 
+    /**
+     * Replace the low cardinality fields by their pooled instances.
+     * It is called when the event is deserialized.
+     */
+    public void internStrings() {
+        type = MXStringPool.intern(type);
+        roomId = MXStringPool.intern(roomId);
+        userId = MXStringPool.intern(userId);
+        sender = MXStringPool.intern(sender);
+        stateKey = MXStringPool.intern(stateKey);
+        mMatrixId = MXStringPool.intern(mMatrixId);
+    }
+
     @Override
     public void readExternal(ObjectInput input) throws IOException, ClassNotFoundException {
         if (input.readBoolean()) {
@@ -829,6 +843,7 @@ public class Event implements Externalizable {
         }
 
         mTimeZoneRawOffset = input.readLong();
+        internStrings();
     }
 
     @Override
@@ -20,6 +20,7 @@ import android.text.TextUtils;
 
 import org.matrix.androidsdk.util.ContentManager;
 import org.matrix.androidsdk.util.Log;
+import org.matrix.androidsdk.util.MXStringPool;
 
 import java.io.Externalizable;
 import java.io.IOException;
@@ -89,6 +90,20 @@ public class RoomMember implements Externalizable {
         if (input.readBoolean()) {
             mOriginalEventId = input.readUTF();
         }
+
+        internStrings();
+    }
+
+    /**
+     * Replace the low cardinality fields by their pooled instances.
+     * It is called when the member is deserialized.
+     */
+    public void internStrings() {
+        displayname = MXStringPool.intern(displayname);
+        avatarUrl = MXStringPool.intern(avatarUrl);
+        membership = MXStringPool.intern(membership);
+        userId = MXStringPool.intern(userId);
+        mInviter = MXStringPool.intern(mInviter);
     }
 
     @Override
@@ -23,6 +23,9 @@ import org.matrix.androidsdk.MXDataHandler;
 import org.matrix.androidsdk.listeners.IMXEventListener;
 import org.matrix.androidsdk.listeners.MXEventListener;
 
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Map;
@@ -167,6 +170,43 @@ public class User implements java.io.Serializable {
         }
     }
 
+    /**
+     * Write the user fields (file store codec).
+     *
+     * @param output the output
+     * @throws IOException if the write fails
+     */
+    public void writeFields(ObjectOutput output) throws IOException {
+        output.writeObject(user_id);
+        output.writeObject(displayname);
+        output.writeObject(avatar_url);
+        output.writeObject(presence);
+        output.writeObject(currently_active);
+        output.writeObject(lastActiveAgo);
+        output.writeObject(statusMsg);
+        output.writeLong(mLastPresenceTs);
+        output.writeBoolean(mIsRetrievedFromRoomMember);
+    }
+
+    /**
+     * Read the user fields (file store codec).
+     *
+     * @param input the input
+     * @throws IOException            if the read fails
+     * @throws ClassNotFoundException if a field class is unknown
+     */
+    public void readFields(ObjectInput input) throws IOException, ClassNotFoundException {
+        user_id = (String) input.readObject();
+        displayname = (String) input.readObject();
+        avatar_url = (String) input.readObject();
+        presence = (String) input.readObject();
+        currently_active = (Boolean) input.readObject();
+        lastActiveAgo = (Long) input.readObject();
+        statusMsg = (String) input.readObject();
+        mLastPresenceTs = input.readLong();
+        mIsRetrievedFromRoomMember = input.readBoolean();
+    }
+
     /**
      * Create a deep copy of the current user.
      *
@@ -0,0 +1,38 @@
+/*
+ * Copyright 2017 Vector Creations Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.matrix.androidsdk.rest.model.filter;
+
+import java.util.List;
+
+/**
+ * Class representing a filter on the events of a sync response (presence, account data, ephemeral, state or timeline events).
+ */
+public class EventFilter {
+    /** The maximum number of events to return **/
+    public Integer limit;
+
+    /** The event types to include, all the types are included if it is not set. '*' can be used as a wildcard. **/
+    public List<String> types;
+
+    /** The event types to exclude. **/
+    public List<String> not_types;
+
+    /** The senders to include, all the senders are included if it is not set. **/
+    public List<String> senders;
+
+    /** The senders to exclude. **/
+    public List<String> not_senders;
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright 2017 Vector Creations Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.matrix.androidsdk.rest.model.filter;
+
+import org.matrix.androidsdk.util.JsonUtils;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Class representing a sync filter.
+ * It is uploaded with the filter API then its id is given to the sync requests.
+ */
+public class FilterBody {
+    /** The presence events filter **/
+    public EventFilter presence;
+
+    /** The global account data filter **/
+    public EventFilter account_data;
+
+    /** The rooms filter **/
+    public RoomFilter room;
+
+    /**
+     * Build a sync filter.
+     *
+     * @param timelineLimit the max number of timeline events by room, null to use the server default value.
+     * @param types         the timeline event types to include, null to include all of them.
+     * @param notTypes      the timeline event types to exclude, null to exclude none of them.
+     * @param withPresence  false to exclude the presence events.
+     * @return the filter
+     */
+    public static FilterBody createSyncFilter(Integer timelineLimit, List<String> types, List<String> notTypes, boolean withPresence) {
+        FilterBody filterBody = new FilterBody();
+
+        filterBody.room = new RoomFilter();
+        filterBody.room.timeline = new EventFilter();
+        filterBody.room.timeline.limit = timelineLimit;
+        filterBody.room.timeline.types = types;
+        filterBody.room.timeline.not_types = notTypes;
+
+        if (!withPresence) {
+            filterBody.presence = new EventFilter();
+            filterBody.presence.not_types = Arrays.asList("*");
+        }
+
+        return filterBody;
+    }
+
+    /**
+     * The JSON string is used to send the filter inline and to detect the filter updates.
+     *
+     * @return the filter as a JSON string
+     */
+    public String toJSONString() {
+        return JsonUtils.getGson(false).toJson(this);
+    }
+}
@@ -0,0 +1,44 @@
+/*
+ * Copyright 2017 Vector Creations Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.matrix.androidsdk.rest.model.filter;
+
+import java.util.List;
+
+/**
+ * Class representing the rooms part of a sync filter.
+ */
+public class RoomFilter {
+    /** The room ids to include, all the rooms are included if it is not set. **/
+    public List<String> rooms;
+
+    /** The room ids to exclude. **/
+    public List<String> not_rooms;
+
+    /** Include the rooms that the user has left. **/
+    public Boolean include_leave;
+
+    /** The events that aren't recorded in the room history (typing notifications, receipts). **/
+    public EventFilter ephemeral;
+
+    /** The room state events. **/
+    public EventFilter state;
+
+    /** The room timeline events. **/
+    public EventFilter timeline;
+
+    /** The per user account data of the rooms. **/
+    public EventFilter account_data;
+}
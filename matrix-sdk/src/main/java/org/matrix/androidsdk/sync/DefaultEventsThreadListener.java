@@ -18,6 +18,7 @@
 package org.matrix.androidsdk.sync;
 
 import org.matrix.androidsdk.MXDataHandler;
+import org.matrix.androidsdk.rest.json.SyncResponseParser;
 import org.matrix.androidsdk.rest.model.Sync.SyncResponse;
 
 /**
@@ -36,6 +37,11 @@ public class DefaultEventsThreadListener implements EventsThreadListener {
         mData.onSyncResponse(syncResponse, fromToken, isCatchingUp);
     }
 
+    @Override
+    public SyncResponseParser.Listener getSyncResponseStreamListener(String fromToken) {
+        return mData.getSyncResponseStreamListener(fromToken);
+    }
+
     @Override
     public void onInvalidToken() {
         mData.onInvalidToken();
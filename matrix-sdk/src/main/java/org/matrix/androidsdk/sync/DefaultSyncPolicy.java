@@ -0,0 +1,236 @@
+/*
+ * Copyright 2017 Vector Creations Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.matrix.androidsdk.sync;
+
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.os.BatteryManager;
+
+import org.matrix.androidsdk.util.Log;
+
+import java.util.Random;
+
+/**
+ * Default sync policy.
+ * <ul>
+ * <li>The failed requests are retried with an exponential backoff and a random jitter.</li>
+ * <li>The long poll timeout is reduced when the long polls are dropped before the server answers
+ * (e.g. by a proxy which closes the idle connections), and restored when they succeed again.</li>
+ * <li>The delay between two syncs is increased when the device is not charging and its battery is low.</li>
+ * </ul>
+ * The sync requests latencies and payloads sizes are logged and aggregated.
+ */
+public class DefaultSyncPolicy implements SyncPolicy {
+    private static final String LOG_TAG = "DefaultSyncPolicy";
+
+    // the retry delays bounds
+    private static final long INITIAL_RETRY_DELAY_MS = 10000;
+    private static final long MAX_RETRY_DELAY_MS = 5 * 60 * 1000;
+
+    // the long poll timeout adaptation
+    private static final int MIN_SERVER_TIMEOUT_MS = 5000;
+    private static final int SERVER_TIMEOUT_STEP_MS = 5000;
+
+    // the battery level (percent) under which the sync delay is increased
+    private static final int LOW_BATTERY_LEVEL = 15;
+    private static final int LOW_BATTERY_SYNC_DELAY_FACTOR = 4;
+
+    // the battery state is refreshed at most once per minute
+    private static final long BATTERY_STATE_LIFETIME_MS = 60 * 1000;
+
+    // the application context, null to ignore the battery state
+    private final Context mContext;
+
+    private final Random mRandom = new Random();
+
+    // the current long poll timeout reduction
+    private int mServerTimeoutReductionMs = 0;
+
+    // the battery state
+    private boolean mIsLowBattery = false;
+    private long mBatteryStateTs = 0;
+
+    // stats
+    private long mSyncsCount = 0;
+    private long mFailuresCount = 0;
+    private long mLastLatencyMs = 0;
+    private long mTotalLatencyMs = 0;
+    private long mLastPayloadBytes = 0;
+    private long mTotalPayloadBytes = 0;
+    private long mMaxPayloadBytes = 0;
+
+    /**
+     * Constructor
+     *
+     * @param context the application context, null to ignore the battery state
+     */
+    public DefaultSyncPolicy(Context context) {
+        mContext = (null != context) ? context.getApplicationContext() : null;
+    }
+
+    @Override
+    public synchronized int getServerTimeoutMs(int defaultServerTimeoutMs) {
+        if (defaultServerTimeoutMs <= MIN_SERVER_TIMEOUT_MS) {
+            return defaultServerTimeoutMs;
+        }
+
+        return Math.max(MIN_SERVER_TIMEOUT_MS, defaultServerTimeoutMs - mServerTimeoutReductionMs);
+    }
+
+    @Override
+    public long getRetryDelayMs(int failuresCount) {
+        long delay = INITIAL_RETRY_DELAY_MS;
+
+        for (int i = 1; (i < failuresCount) && (delay < MAX_RETRY_DELAY_MS); i++) {
+            delay *= 2;
+        }
+
+        delay = Math.min(delay, MAX_RETRY_DELAY_MS);
+
+        // wait between the half delay and the delay
+        // to avoid the clients retrying at the same time
+        synchronized (mRandom) {
+            return (delay / 2) + (long) (mRandom.nextDouble() * (delay / 2));
+        }
+    }
+
+    @Override
+    public long getSyncDelayMs(int requestDelayMs) {
+        if ((requestDelayMs > 0) && isLowBattery()) {
+            return (long) requestDelayMs * LOW_BATTERY_SYNC_DELAY_FACTOR;
+        }
+
+        return requestDelayMs;
+    }
+
+    @Override
+    public synchronized void onSyncSucceeded(int serverTimeoutMs, long latencyMs, long payloadBytes) {
+        mSyncsCount++;
+        mLastLatencyMs = latencyMs;
+        mTotalLatencyMs += latencyMs;
+        mLastPayloadBytes = payloadBytes;
+        mTotalPayloadBytes += payloadBytes;
+        mMaxPayloadBytes = Math.max(mMaxPayloadBytes, payloadBytes);
+
+        // the long poll has been kept until the server timeout : restore the timeout step by step
+        if ((serverTimeoutMs > 0) && (latencyMs >= serverTimeoutMs) && (mServerTimeoutReductionMs > 0)) {
+            mServerTimeoutReductionMs = Math.max(0, mServerTimeoutReductionMs - SERVER_TIMEOUT_STEP_MS);
+            Log.d(LOG_TAG, "## onSyncSucceeded() : the long poll timeout reduction is now " + mServerTimeoutReductionMs + " ms");
+        }
+
+        Log.d(LOG_TAG, "## onSyncSucceeded() : " + latencyMs + " ms - " + payloadBytes + " bytes");
+    }
+
+    @Override
+    public synchronized void onSyncFailed(int serverTimeoutMs, long latencyMs) {
+        mFailuresCount++;
+
+        // the long poll has been dropped while waiting for the server : reduce the timeout
+        if ((serverTimeoutMs > MIN_SERVER_TIMEOUT_MS) && (latencyMs >= (serverTimeoutMs / 2))) {
+            mServerTimeoutReductionMs += SERVER_TIMEOUT_STEP_MS;
+            Log.d(LOG_TAG, "## onSyncFailed() : the long poll timeout reduction is now " + mServerTimeoutReductionMs + " ms");
+        }
+
+        Log.d(LOG_TAG, "## onSyncFailed() : after " + latencyMs + " ms");
+    }
+
+    /**
+     * Tells if the device is not charging and its battery is low.
+     *
+     * @return true if the battery is low
+     */
+    private synchronized boolean isLowBattery() {
+        if (null == mContext) {
+            return false;
+        }
+
+        long now = System.currentTimeMillis();
+
+        if ((now - mBatteryStateTs) > BATTERY_STATE_LIFETIME_MS) {
+            mBatteryStateTs = now;
+
+            try {
+                // sticky intent : no receiver is registered
+                Intent batteryStatus = mContext.registerReceiver(null, new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
+
+                if (null != batteryStatus) {
+                    int status = batteryStatus.getIntExtra(BatteryManager.EXTRA_STATUS, -1);
+                    boolean isCharging = (status == BatteryManager.BATTERY_STATUS_CHARGING) || (status == BatteryManager.BATTERY_STATUS_FULL);
+
+                    int level = batteryStatus.getIntExtra(BatteryManager.EXTRA_LEVEL, -1);
+                    int scale = batteryStatus.getIntExtra(BatteryManager.EXTRA_SCALE, -1);
+
+                    mIsLowBattery = !isCharging && (level >= 0) && (scale > 0) && ((level * 100 / scale) <= LOW_BATTERY_LEVEL);
+                }
+            } catch (Exception e) {
+                Log.e(LOG_TAG, "## isLowBattery() : failed " + e.getMessage());
+            }
+        }
+
+        return mIsLowBattery;
+    }
+
+    /**
+     * @return the number of succeeded sync requests
+     */
+    public synchronized long getSyncsCount() {
+        return mSyncsCount;
+    }
+
+    /**
+     * @return the number of failed sync requests
+     */
+    public synchronized long getFailuresCount() {
+        return mFailuresCount;
+    }
+
+    /**
+     * @return the latest sync request latency in ms
+     */
+    public synchronized long getLastSyncLatencyMs() {
+        return mLastLatencyMs;
+    }
+
+    /**
+     * @return the average sync request latency in ms
+     */
+    public synchronized long getAverageSyncLatencyMs() {
+        return (mSyncsCount > 0) ? (mTotalLatencyMs / mSyncsCount) : 0;
+    }
+
+    /**
+     * @return the latest sync response size in bytes
+     */
+    public synchronized long getLastSyncPayloadBytes() {
+        return mLastPayloadBytes;
+    }
+
+    /**
+     * @return the total size of the sync responses in bytes
+     */
+    public synchronized long getTotalSyncPayloadBytes() {
+        return mTotalPayloadBytes;
+    }
+
+    /**
+     * @return the largest sync response size in bytes
+     */
+    public synchronized long getMaxSyncPayloadBytes() {
+        return mMaxPayloadBytes;
+    }
+}
@@ -16,11 +16,12 @@
  */
 package org.matrix.androidsdk.sync;
 
-import android.os.Handler;
 import android.os.Looper;
 import android.text.TextUtils;
 
+import org.matrix.androidsdk.rest.json.SyncResponseParser;
 import org.matrix.androidsdk.rest.model.Sync.RoomsSyncResponse;
+import org.matrix.androidsdk.util.CountingInputStream;
 import org.matrix.androidsdk.util.Log;
 
 import org.matrix.androidsdk.listeners.IMXNetworkEventListener;
@@ -31,9 +32,17 @@ import org.matrix.androidsdk.rest.client.EventsRestClient;
 import org.matrix.androidsdk.rest.model.MatrixError;
 import org.matrix.androidsdk.rest.model.Sync.SyncResponse;
 
-import java.util.Timer;
-import java.util.TimerTask;
+import java.io.InputStreamReader;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import retrofit.client.Response;
+import retrofit.mime.MimeUtil;
+import retrofit.mime.TypedInput;
 
 /**
  * Thread that continually watches the event stream and sends events to its listener.
@@ -41,8 +50,6 @@ import java.util.concurrent.CountDownLatch;
 public class EventsThread extends Thread {
     private static final String LOG_TAG = "EventsThread";
 
-    private static final int RETRY_WAIT_TIME_MS = 10000;
-
     private static final int DEFAULT_SERVER_TIMEOUT_MS = 30000;
     private static final int DEFAULT_CLIENT_TIMEOUT_MS = 120000;
 
@@ -64,11 +71,38 @@ public class EventsThread extends Thread {
 
     // add a delay between two sync requests
     private int mRequestDelayMs = 0;
-    private Timer mSyncDelayTimer = null;
+
+    // the sync filter id or the inline JSON filter, null to sync without filter
+    private volatile String mFilterOrFilterId = null;
+
+    // the received sync response, its body is read in the events thread
+    private Response mPendingSyncResponse = null;
+
+    // the scheduler shared by the events threads to trigger the delayed syncs and the retries
+    private static ScheduledExecutorService mScheduler = null;
+
+    // the sync policy
+    private volatile SyncPolicy mSyncPolicy = new DefaultSyncPolicy(null);
+
+    // the number of consecutive failed sync requests
+    private int mFailuresCount = 0;
+
+    // the current sync request
+    private long mSyncRequestTs = 0;
+    private int mSyncRequestServerTimeoutMs = 0;
+
+    // the delayed sync
+    private ScheduledFuture<?> mSyncDelayFuture = null;
+    private boolean mIsSyncDelayElapsed = false;
 
     // avoid sync on "this" because it might differ if there is a timer.
     private final Object mSyncObject = new Object();
 
+    // the pending delay before retrying a failed request
+    // it is stopped when the network comes back, when the thread is unpaused or killed.
+    private CountDownLatch mRetryLatch = null;
+    private ScheduledFuture<?> mRetryDelayFuture = null;
+
     // Custom Retrofit error callback that will convert Retrofit errors into our own error callback
     private ApiFailureCallback mFailureCallback;
 
@@ -120,6 +154,34 @@ public class EventsThread extends Thread {
 
     }
 
+    /**
+     * Set the filter used by the next sync requests.
+     *
+     * @param filterOrFilterId the filter id returned by the server or the filter as an inline JSON string, null to sync without filter.
+     */
+    public void setFilterOrFilterId(String filterOrFilterId) {
+        mFilterOrFilterId = filterOrFilterId;
+        Log.d(LOG_TAG, "setFilterOrFilterId : " + filterOrFilterId);
+    }
+
+    /**
+     * Set the sync policy i.e. the long poll timeouts, the retry delays and the delay between two syncs.
+     *
+     * @param syncPolicy the sync policy
+     */
+    public void setSyncPolicy(SyncPolicy syncPolicy) {
+        if (null != syncPolicy) {
+            mSyncPolicy = syncPolicy;
+        }
+    }
+
+    /**
+     * @return the sync policy
+     */
+    public SyncPolicy getSyncPolicy() {
+        return mSyncPolicy;
+    }
+
     /**
      * @return the long poll timeout
      */
@@ -194,6 +256,10 @@ public class EventsThread extends Thread {
      */
     private void onNetworkAvailable() {
         Log.d(LOG_TAG, "onNetWorkAvailable()");
+
+        // retry the failed request now
+        cancelRetryDelay();
+
         if (mIsNetworkSuspended) {
             mIsNetworkSuspended = false;
 
@@ -219,6 +285,9 @@ public class EventsThread extends Thread {
     public void unpause() {
         Log.d(LOG_TAG, "## unpause() : thread state " + getState());
 
+        // retry the failed request now
+        cancelRetryDelay();
+
         if (State.WAITING == getState()) {
             Log.d(LOG_TAG, "## unpause() : the thread was paused so resume it.");
 
@@ -258,6 +327,9 @@ public class EventsThread extends Thread {
 
         mKilling = true;
 
+        // do not wait before retrying the failed request
+        cancelRetryDelay();
+
         if (mPaused) {
             Log.d(LOG_TAG, "killing : the thread was pause so wake it up");
 
@@ -302,6 +374,87 @@ public class EventsThread extends Thread {
         startSync();
     }
 
+    /**
+     * @return the scheduler shared by the events threads
+     */
+    private static synchronized ScheduledExecutorService getScheduler() {
+        if (null == mScheduler) {
+            mScheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "EventsThread scheduler");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+
+        return mScheduler;
+    }
+
+    /**
+     * A sync request is sent.
+     *
+     * @param serverTimeoutMs the request server timeout
+     */
+    private void onSyncRequest(int serverTimeoutMs) {
+        mSyncRequestTs = System.currentTimeMillis();
+        mSyncRequestServerTimeoutMs = serverTimeoutMs;
+    }
+
+    /**
+     * The current sync request has failed.
+     *
+     * @return the delay in ms before retrying it
+     */
+    private long onSyncFailed() {
+        mSyncPolicy.onSyncFailed(mSyncRequestServerTimeoutMs, System.currentTimeMillis() - mSyncRequestTs);
+        mFailuresCount++;
+        return mSyncPolicy.getRetryDelayMs(mFailuresCount);
+    }
+
+    /**
+     * Unblock the events thread after a retry delay.
+     * The events thread is unblocked earlier by {@link #cancelRetryDelay()}.
+     *
+     * @param latch   the latch blocking the events thread
+     * @param delayMs the delay in ms
+     */
+    private void countDownAfter(final CountDownLatch latch, long delayMs) {
+        synchronized (mSyncObject) {
+            if (mKilling) {
+                latch.countDown();
+                return;
+            }
+
+            mRetryLatch = latch;
+            mRetryDelayFuture = getScheduler().schedule(new Runnable() {
+                @Override
+                public void run() {
+                    latch.countDown();
+                }
+            }, delayMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Stop the pending retry delay, the events thread retries the failed request now.
+     */
+    private void cancelRetryDelay() {
+        synchronized (mSyncObject) {
+            if (null != mRetryDelayFuture) {
+                mRetryDelayFuture.cancel(false);
+                mRetryDelayFuture = null;
+            }
+
+            if (null != mRetryLatch) {
+                Log.d(LOG_TAG, "## cancelRetryDelay() : retry now");
+                mRetryLatch.countDown();
+                mRetryLatch = null;
+            }
+        }
+    }
+
     /**
      * Tells if a sync request contains some changed devices.
      *
@@ -314,6 +467,128 @@ public class EventsThread extends Thread {
                 (syncResponse.deviceLists.changed.size() > 0);
     }
 
+    /**
+     * Read a sync response body in the events thread.
+     * The parsed rooms are given to the listener while the body is read,
+     * so the whole response is never kept in memory.
+     *
+     * @param response  the sync response
+     * @param fromToken the sync request token
+     * @return the sync response without the parts given to the listener, null if the body cannot be read.
+     */
+    private SyncResponse readSyncResponse(Response response, String fromToken) {
+        TypedInput body = response.getBody();
+
+        if (null == body) {
+            Log.e(LOG_TAG, "## readSyncResponse() : no body");
+            return null;
+        }
+
+        CountingInputStream stream = null;
+
+        try {
+            String charset = (null != body.mimeType()) ? MimeUtil.parseCharset(body.mimeType()) : "UTF-8";
+            stream = new CountingInputStream(body.in());
+            SyncResponse syncResponse = SyncResponseParser.parse(new InputStreamReader(stream, charset), mListener.getSyncResponseStreamListener(fromToken));
+
+            mFailuresCount = 0;
+            mSyncPolicy.onSyncSucceeded(mSyncRequestServerTimeoutMs, System.currentTimeMillis() - mSyncRequestTs, stream.getCount());
+
+            return syncResponse;
+        } catch (Exception e) {
+            Log.e(LOG_TAG, "## readSyncResponse() : failed " + e.getMessage());
+        } finally {
+            if (null != stream) {
+                try {
+                    stream.close();
+                } catch (Exception e) {
+                    Log.e(LOG_TAG, "## readSyncResponse() : close failed " + e.getMessage());
+                }
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Wait before retrying a sync request which failed.
+     * The wait is stopped when the network comes back, when the thread is unpaused or killed.
+     * If there is no available network, the events stream is suspended until the network comes back.
+     */
+    private void waitBeforeRetry() {
+        boolean isConnected;
+
+        synchronized (mSyncObject) {
+            isConnected = mbIsConnected;
+        }
+
+        long delayMs = onSyncFailed();
+
+        if (isConnected) {
+            Log.i(LOG_TAG, "Waiting " + delayMs + " ms before retrying");
+
+            CountDownLatch latch = new CountDownLatch(1);
+            countDownAfter(latch, delayMs);
+
+            try {
+                latch.await();
+            } catch (InterruptedException e) {
+                Log.e(LOG_TAG, "## waitBeforeRetry() : interrupted " + e.getMessage());
+            }
+        } else {
+            mIsNetworkSuspended = true;
+        }
+    }
+
+    /**
+     * Manage a live sync response.
+     *
+     * @param syncResponse  the sync response
+     * @param serverTimeout the sync request server timeout
+     */
+    private void onSyncResponse(SyncResponse syncResponse, int serverTimeout) {
+        if (!mKilling) {
+            // poll /sync with timeout=0 until
+            // we get no to_device messages back.
+            if (0 == serverTimeout) {
+                if (hasDevicesChanged(syncResponse)) {
+                    mNextServerTimeoutms = 0;
+                }
+            }
+
+            // the catchup request is suspended when there is no need
+            // to loop again
+            if (mIsCatchingUp && (0 != mNextServerTimeoutms)) {
+                // the catchup triggers sync requests until there are some useful events
+                int eventCounts = 0;
+
+                if (null != syncResponse.rooms) {
+                    RoomsSyncResponse roomsSyncResponse = syncResponse.rooms;
+
+                    if (null != roomsSyncResponse.join) {
+                        eventCounts += roomsSyncResponse.join.size();
+                    }
+
+                    if (null != roomsSyncResponse.invite) {
+                        eventCounts += roomsSyncResponse.invite.size();
+                    }
+                }
+
+                // stop any catch up
+                mIsCatchingUp = false;
+                mPaused = (0 == mRequestDelayMs);
+                Log.d(LOG_TAG, "Got " + eventCounts + " useful events while catching up : mPaused is set to " + mPaused);
+            }
+
+            Log.d(LOG_TAG, "Got event response");
+            // the response is processed by the listener while the next request is sent
+            // the listener blocks this thread when there are too many pending responses.
+            mListener.onSyncResponse(syncResponse, mCurrentToken, (0 == mNextServerTimeoutms));
+            mCurrentToken = syncResponse.nextBatch;
+            Log.d(LOG_TAG, "mCurrentToken is now set to " + mCurrentToken);
+        }
+    }
+
     /**
      * Start the events sync
      */
@@ -342,27 +617,23 @@ public class EventsThread extends Thread {
         } else {
 
             // Start with initial sync
-            while (!mInitialSyncDone) {
+            while (!mInitialSyncDone && !mKilling) {
                 final CountDownLatch latch = new CountDownLatch(1);
-                mEventsRestClient.syncFromToken(null, 0, DEFAULT_CLIENT_TIMEOUT_MS, null, null, new SimpleApiCallback<SyncResponse>(mFailureCallback) {
+                onSyncRequest(0);
+                mEventsRestClient.syncStreamFromToken(null, 0, DEFAULT_CLIENT_TIMEOUT_MS, null, null, new SimpleApiCallback<Response>(mFailureCallback) {
                     @Override
-                    public void onSuccess(SyncResponse syncResponse) {
+                    public void onSuccess(Response response) {
                         Log.d(LOG_TAG, "Received initial sync response.");
-                        mNextServerTimeoutms = hasDevicesChanged(syncResponse) ? 0 : mDefaultServerTimeoutms;
-                        mListener.onSyncResponse(syncResponse, null, (0 == mNextServerTimeoutms));
-                        mCurrentToken = syncResponse.nextBatch;
-                        mInitialSyncDone = true;
+                        // the body is read in the events thread
+                        mPendingSyncResponse = response;
                         // unblock the events thread
                         latch.countDown();
                     }
 
                     private void sleepAndUnblock() {
-                        Log.i(LOG_TAG, "Waiting a bit before retrying");
-                        new Handler(Looper.getMainLooper()).postDelayed(new Runnable() {
-                            public void run() {
-                                latch.countDown();
-                            }
-                        }, RETRY_WAIT_TIME_MS);
+                        long delayMs = onSyncFailed();
+                        Log.i(LOG_TAG, "Waiting " + delayMs + " ms before retrying");
+                        countDownAfter(latch, delayMs);
                     }
 
                     @Override
@@ -401,6 +672,24 @@ public class EventsThread extends Thread {
                 } catch (InterruptedException e) {
                     Log.e(LOG_TAG, "Interrupted whilst performing initial sync.");
                 }
+
+                Response response = mPendingSyncResponse;
+                mPendingSyncResponse = null;
+
+                if (null != response) {
+                    SyncResponse syncResponse = readSyncResponse(response, null);
+
+                    if (null != syncResponse) {
+                        mNextServerTimeoutms = hasDevicesChanged(syncResponse) ? 0 : mSyncPolicy.getServerTimeoutMs(mDefaultServerTimeoutms);
+                        mListener.onSyncResponse(syncResponse, null, (0 == mNextServerTimeoutms));
+                        mCurrentToken = syncResponse.nextBatch;
+                        mInitialSyncDone = true;
+                    } else {
+                        // the connection has been lost while reading the response
+                        // the already managed rooms will be ignored when they are received again.
+                        waitBeforeRetry();
+                    }
+                }
             }
             serverTimeout = mNextServerTimeoutms;
         }
@@ -419,25 +708,27 @@ public class EventsThread extends Thread {
         while (!mKilling) {
 
             // test if a delay between two syncs
-            if ((!mPaused && !mIsNetworkSuspended) && (0 != mRequestDelayMs)) {
-                Log.d(LOG_TAG, "startSync : start a delay timer ");
+            final long syncDelayMs = (!mPaused && !mIsNetworkSuspended) ? mSyncPolicy.getSyncDelayMs(mRequestDelayMs) : 0;
 
-                mSyncDelayTimer = new Timer();
+            if (0 != syncDelayMs) {
+                Log.d(LOG_TAG, "startSync : start a delay timer ");
 
-                mSyncDelayTimer.schedule(new TimerTask() {
+                mIsSyncDelayElapsed = false;
+                mSyncDelayFuture = getScheduler().schedule(new Runnable() {
                     @Override
                     public void run() {
-                        Log.d(LOG_TAG, "start a sync after " + mRequestDelayMs + " ms");
+                        Log.d(LOG_TAG, "start a sync after " + syncDelayMs + " ms");
 
                         synchronized (mSyncObject) {
+                            mIsSyncDelayElapsed = true;
                             mSyncObject.notify();
                         }
                     }
-                }, mRequestDelayMs);
+                }, syncDelayMs, TimeUnit.MILLISECONDS);
             }
 
-            if (mPaused || mIsNetworkSuspended || (null != mSyncDelayTimer)) {
-                if (null != mSyncDelayTimer) {
+            if (mPaused || mIsNetworkSuspended || (null != mSyncDelayFuture)) {
+                if (null != mSyncDelayFuture) {
                     Log.d(LOG_TAG, "Event stream is paused because there is a timer delay.");
                 } else if (mIsNetworkSuspended) {
                     Log.d(LOG_TAG, "Event stream is paused because there is no available network.");
@@ -449,13 +740,16 @@ public class EventsThread extends Thread {
                     Log.d(LOG_TAG, "startSync : wait ...");
 
                     synchronized (mSyncObject) {
-                        mSyncObject.wait();
+                        // the delay might have elapsed before waiting
+                        if ((null == mSyncDelayFuture) || !mIsSyncDelayElapsed) {
+                            mSyncObject.wait();
+                        }
                     }
 
-                    if (null != mSyncDelayTimer) {
-                        Log.d(LOG_TAG, "startSync : cancel mSyncDelayTimer");
-                        mSyncDelayTimer.cancel();
-                        mSyncDelayTimer = null;
+                    if (null != mSyncDelayFuture) {
+                        Log.d(LOG_TAG, "startSync : cancel mSyncDelayFuture");
+                        mSyncDelayFuture.cancel(false);
+                        mSyncDelayFuture = null;
                     }
 
                     Log.d(LOG_TAG, "Event stream woken from pause.");
@@ -469,58 +763,18 @@ public class EventsThread extends Thread {
 
             // the service could have been killed while being paused.
             if (!mKilling) {
-                String inlineFilter = null; //"{\"room\":{\"timeline\":{\"limit\":250}}}";
-
                 final CountDownLatch latch = new CountDownLatch(1);
 
                 Log.d(LOG_TAG, "Get events from token " + mCurrentToken);
 
-                final int fServerTimeout = serverTimeout;
-                mNextServerTimeoutms = mDefaultServerTimeoutms;
+                mNextServerTimeoutms = mSyncPolicy.getServerTimeoutMs(mDefaultServerTimeoutms);
 
-                mEventsRestClient.syncFromToken(mCurrentToken, serverTimeout, DEFAULT_CLIENT_TIMEOUT_MS, (mIsCatchingUp && mIsOnline) ? "offline" : null, inlineFilter, new SimpleApiCallback<SyncResponse>(mFailureCallback) {
+                onSyncRequest(serverTimeout);
+                mEventsRestClient.syncStreamFromToken(mCurrentToken, serverTimeout, DEFAULT_CLIENT_TIMEOUT_MS, (mIsCatchingUp && mIsOnline) ? "offline" : null, mFilterOrFilterId, new SimpleApiCallback<Response>(mFailureCallback) {
                     @Override
-                    public void onSuccess(SyncResponse syncResponse) {
-                        if (!mKilling) {
-                            // poll /sync with timeout=0 until
-                            // we get no to_device messages back.
-                            if (0 == fServerTimeout) {
-                                if (hasDevicesChanged(syncResponse)) {
-                                    mNextServerTimeoutms = 0;
-                                }
-                            }
-
-                            // the catchup request is suspended when there is no need
-                            // to loop again
-                            if (mIsCatchingUp && (0 != mNextServerTimeoutms)) {
-                                // the catchup triggers sync requests until there are some useful events
-                                int eventCounts = 0;
-
-                                if (null != syncResponse.rooms) {
-                                    RoomsSyncResponse roomsSyncResponse = syncResponse.rooms;
-
-                                    if (null != roomsSyncResponse.join) {
-                                        eventCounts += roomsSyncResponse.join.size();
-                                    }
-
-                                    if (null != roomsSyncResponse.invite) {
-                                        eventCounts += roomsSyncResponse.invite.size();
-                                    }
-                                }
-
-                                // stop any catch up
-                                mIsCatchingUp = false;
-                                mPaused = (0 == mRequestDelayMs);
-                                Log.d(LOG_TAG, "Got " + eventCounts + " useful events while catching up : mPaused is set to " + mPaused);
-                            }
-
-                            Log.d(LOG_TAG, "Got event response");
-                            mListener.onSyncResponse(syncResponse, mCurrentToken, (0 == mNextServerTimeoutms));
-                            mCurrentToken = syncResponse.nextBatch;
-                            Log.d(LOG_TAG, "mCurrentToken is now set to " + mCurrentToken);
-
-                        }
-
+                    public void onSuccess(Response response) {
+                        // the body is read in the events thread
+                        mPendingSyncResponse = response;
                         // unblock the events thread
                         latch.countDown();
                     }
@@ -533,14 +787,11 @@ public class EventsThread extends Thread {
                             isConnected = mbIsConnected;
                         }
 
+                        long delayMs = onSyncFailed();
+
                         // detected if the device is connected before trying again
                         if (isConnected) {
-                            new Handler(Looper.getMainLooper()).postDelayed(new Runnable() {
-                                public void run() {
-                                    latch.countDown();
-                                }
-                            }, RETRY_WAIT_TIME_MS);
-
+                            countDownAfter(latch, delayMs);
                         } else {
                             // no network -> wait that a network connection comes back.
                             mIsNetworkSuspended = true;
@@ -578,6 +829,22 @@ public class EventsThread extends Thread {
                     // The thread might have been killed.
                     Log.e(LOG_TAG, "latch.await() failed " + e.getMessage());
                 }
+
+                Response response = mPendingSyncResponse;
+                mPendingSyncResponse = null;
+
+                if (null != response) {
+                    SyncResponse syncResponse = readSyncResponse(response, mCurrentToken);
+
+                    if (null != syncResponse) {
+                        onSyncResponse(syncResponse, serverTimeout);
+                    } else if (!mKilling) {
+                        // the connection has been lost while reading the response
+                        // the same token is used to retry, the already managed events will be ignored.
+                        Log.d(LOG_TAG, "Got an error while reading the events");
+                        waitBeforeRetry();
+                    }
+                }
             }
 
             serverTimeout = mNextServerTimeoutms;
@@ -16,6 +16,7 @@
  */
 package org.matrix.androidsdk.sync;
 
+import org.matrix.androidsdk.rest.json.SyncResponseParser;
 import org.matrix.androidsdk.rest.model.Sync.SyncResponse;
 
 /**
@@ -24,12 +25,21 @@ import org.matrix.androidsdk.rest.model.Sync.SyncResponse;
 public interface EventsThreadListener {
     /**
      * Call when a sync request has been performed with the API V2.
+     * It is called in the events thread, which might be blocked until some previous responses are processed.
      * @param response the response (can be null)
      * @param fromToken the start token
      * @param isCatchingUp true if a catchup is on progress
      */
     void onSyncResponse(SyncResponse response, String fromToken, boolean isCatchingUp);
 
+    /**
+     * Provides the listener of the sync response parts parsed while the response is received.
+     * The parts which have not been given to this listener are then given to {@link #onSyncResponse(SyncResponse, String, boolean)}.
+     * @param fromToken the start token
+     * @return the listener, null to receive the whole response in {@link #onSyncResponse(SyncResponse, String, boolean)}
+     */
+    SyncResponseParser.Listener getSyncResponseStreamListener(String fromToken);
+
     /**
      * the server returns an invalid token error
      */
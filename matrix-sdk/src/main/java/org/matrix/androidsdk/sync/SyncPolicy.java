@@ -0,0 +1,67 @@
+/*
+ * Copyright 2017 Vector Creations Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.matrix.androidsdk.sync;
+
+/**
+ * Scheduling policy of the events thread sync requests.
+ * It defines the long poll timeouts, the retry delays after the failures and the delay between two sync requests.
+ * It is informed of each sync request result, with its latency and its payload size.
+ * The methods are called in the events thread.
+ */
+public interface SyncPolicy {
+
+    /**
+     * Provides the server timeout of the next long poll request.
+     *
+     * @param defaultServerTimeoutMs the server timeout set to the events thread
+     * @return the server timeout in ms, it must be greater than 0 when defaultServerTimeoutMs is.
+     */
+    int getServerTimeoutMs(int defaultServerTimeoutMs);
+
+    /**
+     * Provides the delay before retrying a failed sync request.
+     *
+     * @param failuresCount the number of consecutive failures
+     * @return the delay in ms
+     */
+    long getRetryDelayMs(int failuresCount);
+
+    /**
+     * Provides the delay between two sync requests.
+     *
+     * @param requestDelayMs the sync delay set to the events thread
+     * @return the delay in ms, 0 to send the next request asap.
+     */
+    long getSyncDelayMs(int requestDelayMs);
+
+    /**
+     * A sync request has succeeded.
+     *
+     * @param serverTimeoutMs the request server timeout
+     * @param latencyMs       the time between the request and the end of the response parsing
+     * @param payloadBytes    the response body size
+     */
+    void onSyncSucceeded(int serverTimeoutMs, long latencyMs, long payloadBytes);
+
+    /**
+     * A sync request has failed.
+     *
+     * @param serverTimeoutMs the request server timeout
+     * @param latencyMs       the time between the request and the failure
+     */
+    void onSyncFailed(int serverTimeoutMs, long latencyMs);
+}
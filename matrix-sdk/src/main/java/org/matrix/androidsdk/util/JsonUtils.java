@@ -22,6 +22,11 @@ import com.google.gson.GsonBuilder;
 import com.google.gson.JsonArray;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
+import com.google.gson.TypeAdapter;
+import com.google.gson.TypeAdapterFactory;
+import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
 
 import org.matrix.androidsdk.data.RoomState;
 import org.matrix.androidsdk.rest.json.ConditionDeserializer;
@@ -46,6 +51,7 @@ import org.matrix.androidsdk.rest.model.VideoMessage;
 import org.matrix.androidsdk.rest.model.bingrules.Condition;
 import org.matrix.androidsdk.rest.model.login.RegistrationFlowResponse;
 
+import java.io.IOException;
 import java.lang.reflect.Field;
 import java.lang.reflect.Modifier;
 import java.util.Locale;
@@ -95,10 +101,48 @@ public class JsonUtils {
         }
     }
 
+    /**
+     * Type adapter factory which replaces the low cardinality strings of the deserialized events and room members
+     * by their pooled instances.
+     */
+    private static class StringPoolTypeAdapterFactory implements TypeAdapterFactory {
+        @Override
+        public <T> TypeAdapter<T> create(Gson gson, TypeToken<T> type) {
+            final Class<? super T> rawType = type.getRawType();
+
+            if ((rawType != Event.class) && (rawType != RoomMember.class)) {
+                return null;
+            }
+
+            final TypeAdapter<T> delegate = gson.getDelegateAdapter(this, type);
+
+            return new TypeAdapter<T>() {
+                @Override
+                public void write(JsonWriter out, T value) throws IOException {
+                    delegate.write(out, value);
+                }
+
+                @Override
+                public T read(JsonReader in) throws IOException {
+                    T value = delegate.read(in);
+
+                    if (value instanceof Event) {
+                        ((Event) value).internStrings();
+                    } else if (value instanceof RoomMember) {
+                        ((RoomMember) value).internStrings();
+                    }
+
+                    return value;
+                }
+            };
+        }
+    }
+
     private static Gson gson = new GsonBuilder()
             .setFieldNamingStrategy(new MatrixFieldNamingStrategy())
             .excludeFieldsWithModifiers(Modifier.PRIVATE, Modifier.STATIC)
             .registerTypeAdapter(Condition.class, new ConditionDeserializer())
+            .registerTypeAdapterFactory(new StringPoolTypeAdapterFactory())
             .create();
 
     // add a call to serializeNulls().
@@ -109,6 +153,7 @@ public class JsonUtils {
             .excludeFieldsWithModifiers(Modifier.PRIVATE, Modifier.STATIC)
             .serializeNulls()
             .registerTypeAdapter(Condition.class, new ConditionDeserializer())
+            .registerTypeAdapterFactory(new StringPoolTypeAdapterFactory())
             .create();
 
     // for crypto (canonicalize)
@@ -118,6 +163,7 @@ public class JsonUtils {
             .disableHtmlEscaping()
             .excludeFieldsWithModifiers(Modifier.PRIVATE, Modifier.STATIC)
             .registerTypeAdapter(Condition.class, new ConditionDeserializer())
+            .registerTypeAdapterFactory(new StringPoolTypeAdapterFactory())
             .create();
 
     public static Gson getGson(boolean withNullSerialization) {
@@ -0,0 +1,66 @@
+/*
+ * Copyright 2017 Vector Creations Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.matrix.androidsdk.util;
+
+import java.lang.ref.WeakReference;
+import java.util.WeakHashMap;
+
+/**
+ * Weak intern pool for the low cardinality strings (room ids, user ids, event types, memberships...).
+ * The deserialized events and room members share the same string instances instead of holding their own copies.
+ * The pool does not retain the strings : an entry is released when no object uses it anymore.
+ */
+public class MXStringPool {
+    // the longer strings are not pooled
+    private static final int MAX_POOLED_STRING_LENGTH = 256;
+
+    // the pooled strings
+    private static final WeakHashMap<String, WeakReference<String>> mStrings = new WeakHashMap<>();
+
+    /**
+     * Provides the pooled instance of a string.
+     *
+     * @param value the string
+     * @return the pooled instance, the string itself if it is not pooled yet or if it cannot be pooled.
+     */
+    public static String intern(String value) {
+        if ((null == value) || (value.length() > MAX_POOLED_STRING_LENGTH)) {
+            return value;
+        }
+
+        synchronized (mStrings) {
+            WeakReference<String> ref = mStrings.get(value);
+            String pooledValue = (null != ref) ? ref.get() : null;
+
+            if (null == pooledValue) {
+                mStrings.put(value, new WeakReference<>(value));
+                pooledValue = value;
+            }
+
+            return pooledValue;
+        }
+    }
+
+    /**
+     * @return the number of pooled strings.
+     */
+    public static int size() {
+        synchronized (mStrings) {
+            return mStrings.size();
+        }
+    }
+}
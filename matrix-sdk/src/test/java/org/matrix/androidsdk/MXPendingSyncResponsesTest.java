@@ -0,0 +1,126 @@
+/*
+ * Copyright 2017 Vector Creations Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.matrix.androidsdk;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+@RunWith(RobolectricTestRunner.class)
+public class MXPendingSyncResponsesTest {
+
+    private static final long TIMEOUT_MS = 5000;
+
+    // the time given to a waiting thread to be blocked
+    private static final long BLOCKED_CHECK_MS = 100;
+
+    /**
+     * Start a thread which waits while there are too many pending responses, as the events thread does.
+     *
+     * @param pendingResponses the pending responses
+     * @param released         counted down when the thread is not blocked anymore
+     * @return the waiting thread
+     */
+    private static Thread startWaitingThread(final MXPendingSyncResponses pendingResponses, final CountDownLatch released) {
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                pendingResponses.waitWhileFull();
+                released.countDown();
+            }
+        });
+        thread.start();
+        return thread;
+    }
+
+    @Test
+    public void testNoWaitUnderTheLimit() throws Exception {
+        MXPendingSyncResponses pendingResponses = new MXPendingSyncResponses(1);
+        pendingResponses.onResponsePosted();
+
+        CountDownLatch released = new CountDownLatch(1);
+        startWaitingThread(pendingResponses, released);
+        assertTrue(released.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void testWaitUntilAResponseIsProcessed() throws Exception {
+        MXPendingSyncResponses pendingResponses = new MXPendingSyncResponses(1);
+        pendingResponses.onResponsePosted();
+        pendingResponses.onResponsePosted();
+
+        CountDownLatch released = new CountDownLatch(1);
+        startWaitingThread(pendingResponses, released);
+
+        // the limit is reached
+        assertFalse(released.await(BLOCKED_CHECK_MS, TimeUnit.MILLISECONDS));
+
+        pendingResponses.onResponseProcessed();
+        assertTrue(released.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+        assertEquals(1, pendingResponses.getCount());
+    }
+
+    @Test
+    public void testWaitUntilTheLimitIsIncreased() throws Exception {
+        MXPendingSyncResponses pendingResponses = new MXPendingSyncResponses(0);
+        pendingResponses.onResponsePosted();
+
+        CountDownLatch released = new CountDownLatch(1);
+        startWaitingThread(pendingResponses, released);
+        assertFalse(released.await(BLOCKED_CHECK_MS, TimeUnit.MILLISECONDS));
+
+        pendingResponses.setMaxCount(1);
+        assertTrue(released.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void testReleaseUnblocksTheWaitingThreads() throws Exception {
+        MXPendingSyncResponses pendingResponses = new MXPendingSyncResponses(0);
+        pendingResponses.onResponsePosted();
+
+        // the sync thread has been stopped so the response will never be processed
+        CountDownLatch released = new CountDownLatch(2);
+        startWaitingThread(pendingResponses, released);
+        startWaitingThread(pendingResponses, released);
+        assertFalse(released.await(BLOCKED_CHECK_MS, TimeUnit.MILLISECONDS));
+
+        pendingResponses.release();
+        assertTrue(released.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+
+        // the next calls do not block anymore
+        CountDownLatch releasedAfterClear = new CountDownLatch(1);
+        startWaitingThread(pendingResponses, releasedAfterClear);
+        assertTrue(releasedAfterClear.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void testInterruptionUnblocksTheWaitingThread() throws Exception {
+        MXPendingSyncResponses pendingResponses = new MXPendingSyncResponses(0);
+        pendingResponses.onResponsePosted();
+
+        CountDownLatch released = new CountDownLatch(1);
+        Thread thread = startWaitingThread(pendingResponses, released);
+        assertFalse(released.await(BLOCKED_CHECK_MS, TimeUnit.MILLISECONDS));
+
+        thread.interrupt();
+        assertTrue(released.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+    }
+}
@@ -0,0 +1,225 @@
+/*
+ * Copyright 2017 Vector Creations Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.matrix.androidsdk;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.*;
+
+@RunWith(RobolectricTestRunner.class)
+public class MXRoomSyncWorkersTest {
+
+    private MXRoomSyncWorkers mWorkers;
+
+    // the posted UI notifications
+    private final List<String> mNotifications = Collections.synchronizedList(new ArrayList<String>());
+
+    private final Executor mUiExecutor = new Executor() {
+        @Override
+        public void execute(Runnable runnable) {
+            runnable.run();
+        }
+    };
+
+    @Before
+    public void setUp() {
+        mWorkers = new MXRoomSyncWorkers("test", 4);
+    }
+
+    @After
+    public void tearDown() {
+        mWorkers.shutdownNow();
+    }
+
+    /**
+     * Post a UI notification as MXDataHandler.postToUiThread does.
+     *
+     * @param notification the notification
+     */
+    private void postToUiThread(final String notification) {
+        Runnable runnable = new Runnable() {
+            @Override
+            public void run() {
+                mNotifications.add(notification);
+            }
+        };
+
+        if (!MXRoomSyncWorkers.deferUiNotification(runnable)) {
+            mUiExecutor.execute(runnable);
+        }
+    }
+
+    /**
+     * Provides a room processing which notifies the UI twice.
+     *
+     * @param roomId the room id
+     * @return the room processing
+     */
+    private Runnable createRoomSync(final String roomId) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                postToUiThread(roomId + " events");
+
+                // the rooms processings complete out of order
+                try {
+                    Thread.sleep((20 - Integer.parseInt(roomId)) % 5);
+                } catch (InterruptedException e) {
+                    // ignore
+                }
+
+                postToUiThread(roomId + " summary");
+            }
+        };
+    }
+
+    @Test
+    public void testNotificationsArePostedInRoomsOrder() {
+        final Set<String> threadNames = Collections.synchronizedSet(new HashSet<String>());
+        List<String> expectedNotifications = new ArrayList<>();
+
+        for (int i = 0; i < 20; i++) {
+            final Runnable roomSync = createRoomSync(String.valueOf(i));
+
+            assertTrue(mWorkers.submit(String.valueOf(i), new Runnable() {
+                @Override
+                public void run() {
+                    threadNames.add(Thread.currentThread().getName());
+                    roomSync.run();
+                }
+            }));
+
+            expectedNotifications.add(i + " events");
+            expectedNotifications.add(i + " summary");
+        }
+
+        mWorkers.waitForRoomSyncs(mUiExecutor);
+        assertEquals(expectedNotifications, mNotifications);
+
+        // the rooms have been processed by the workers
+        assertFalse(threadNames.contains(Thread.currentThread().getName()));
+        for (String threadName : threadNames) {
+            assertTrue(threadName.startsWith("test-worker"));
+        }
+
+        // the notifications are posted once
+        mWorkers.waitForRoomSyncs(mUiExecutor);
+        assertEquals(expectedNotifications, mNotifications);
+    }
+
+    @Test
+    public void testFailedRoomIsProcessedAgainSerially() {
+        final List<String> failingThreads = new ArrayList<>();
+
+        mWorkers.submit("0", createRoomSync("0"));
+        mWorkers.submit("1", new Runnable() {
+            @Override
+            public void run() {
+                synchronized (failingThreads) {
+                    failingThreads.add(Thread.currentThread().getName());
+
+                    if (1 == failingThreads.size()) {
+                        postToUiThread("1 partial");
+                        throw new IllegalStateException("failed in the worker");
+                    }
+                }
+
+                postToUiThread("1 events");
+            }
+        });
+        mWorkers.submit("2", createRoomSync("2"));
+
+        mWorkers.waitForRoomSyncs(mUiExecutor);
+
+        // the failed room has been processed again in the waiting thread, after the notifications of the failed processing
+        assertEquals(2, failingThreads.size());
+        assertEquals(Thread.currentThread().getName(), failingThreads.get(1));
+        assertEquals(Arrays.asList("0 events", "0 summary", "1 partial", "1 events", "2 events", "2 summary"), mNotifications);
+    }
+
+    @Test
+    public void testEventsStoredByAFailedProcessingAreNotifiedOnce() {
+        // the events stored in the room, the processed events which already exist are skipped as EventTimeline does
+        final Set<String> storedEvents = Collections.synchronizedSet(new HashSet<String>());
+        final List<String> processingThreads = new ArrayList<>();
+
+        mWorkers.submit("0", new Runnable() {
+            @Override
+            public void run() {
+                processingThreads.add(Thread.currentThread().getName());
+
+                for (String eventId : Arrays.asList("event1", "event2")) {
+                    if (storedEvents.add(eventId)) {
+                        postToUiThread(eventId);
+                    }
+
+                    // the first processing fails after storing the first event
+                    if (1 == processingThreads.size()) {
+                        throw new IllegalStateException("failed after storing " + eventId);
+                    }
+                }
+            }
+        });
+
+        mWorkers.waitForRoomSyncs(mUiExecutor);
+
+        assertEquals(2, processingThreads.size());
+        assertEquals(Arrays.asList("event1", "event2"), mNotifications);
+    }
+
+    @Test
+    public void testFailureIsPropagated() {
+        mWorkers.submit("0", createRoomSync("0"));
+        mWorkers.submit("1", new Runnable() {
+            @Override
+            public void run() {
+                throw new IllegalStateException("always fails");
+            }
+        });
+        mWorkers.submit("2", createRoomSync("2"));
+
+        try {
+            mWorkers.waitForRoomSyncs(mUiExecutor);
+            fail("the failure must be propagated");
+        } catch (IllegalStateException e) {
+            assertEquals("always fails", e.getMessage());
+        }
+
+        // the other rooms are processed and notified
+        assertEquals(Arrays.asList("0 events", "0 summary", "2 events", "2 summary"), mNotifications);
+    }
+
+    @Test
+    public void testNoSubmissionAfterShutdown() {
+        mWorkers.shutdownNow();
+        assertFalse(mWorkers.submit("0", createRoomSync("0")));
+
+        mWorkers.waitForRoomSyncs(mUiExecutor);
+        assertTrue(mNotifications.isEmpty());
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright 2017 Vector Creations Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.matrix.androidsdk.data.store;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+@RunWith(RobolectricTestRunner.class)
+public class MXByteBudgetRetentionPolicyTest {
+
+    private static final long BUDGET = 1024 * 1024;
+
+    @Test
+    public void testAccessedRoomsKeepDeeperHistory() {
+        MXByteBudgetRetentionPolicy policy = new MXByteBudgetRetentionPolicy(BUDGET);
+
+        for (int i = 0; i < 10; i++) {
+            policy.onRoomStored("!room" + i, 100, 100 * 500);
+        }
+
+        policy.onRoomAccessed("!room0");
+
+        assertTrue(policy.getMaxStoredEventsCount("!room0") > 5 * policy.getMaxStoredEventsCount("!room1"));
+        assertTrue(policy.getMaxStoredEventsCount("!room1") >= MXByteBudgetRetentionPolicy.MIN_STORED_EVENTS_COUNT);
+        assertTrue(policy.getMaxStoredEventsCount("!room0") <= MXByteBudgetRetentionPolicy.MAX_STORED_EVENTS_COUNT);
+    }
+
+    @Test
+    public void testLeastRecentlyAccessedRoomsAreTrimmedFirst() throws Exception {
+        MXByteBudgetRetentionPolicy policy = new MXByteBudgetRetentionPolicy(BUDGET);
+
+        policy.onRoomStored("!old", 1000, BUDGET / 2);
+        policy.onRoomStored("!recent", 1000, BUDGET / 2);
+        assertTrue(policy.getRoomsToTrim().isEmpty());
+
+        policy.onRoomAccessed("!old");
+        Thread.sleep(5);
+        policy.onRoomAccessed("!recent");
+
+        // the budget is exceeded
+        policy.onRoomStored("!new", 1000, BUDGET / 2);
+
+        List<String> roomIds = policy.getRoomsToTrim();
+        assertFalse(roomIds.isEmpty());
+        assertFalse(roomIds.contains("!recent"));
+        assertEquals("!new", roomIds.get(0));
+
+        policy.onRoomDeleted("!new");
+        assertTrue(policy.getRoomsToTrim().isEmpty());
+    }
+
+    @Test
+    public void testRoomsAccessTsAreRestored() {
+        MXByteBudgetRetentionPolicy policy = new MXByteBudgetRetentionPolicy(BUDGET);
+        policy.onRoomAccessed("!room0");
+
+        Map<String, Long> accessTs = new HashMap<>(policy.getRoomsAccessTs());
+
+        MXByteBudgetRetentionPolicy restoredPolicy = new MXByteBudgetRetentionPolicy(BUDGET);
+        restoredPolicy.setRoomsAccessTs(accessTs);
+
+        for (int i = 1; i < 10; i++) {
+            restoredPolicy.onRoomStored("!room" + i, 100, 100 * 500);
+        }
+
+        assertEquals(accessTs, restoredPolicy.getRoomsAccessTs());
+        assertTrue(restoredPolicy.getMaxStoredEventsCount("!room0") > restoredPolicy.getMaxStoredEventsCount("!room1"));
+    }
+
+    @Test
+    public void testComputeBudget() {
+        assertEquals(MXByteBudgetRetentionPolicy.MIN_BUDGET_BYTES, MXByteBudgetRetentionPolicy.computeBudget(0));
+        assertEquals(MXByteBudgetRetentionPolicy.MAX_BUDGET_BYTES, MXByteBudgetRetentionPolicy.computeBudget(Long.MAX_VALUE / 2));
+    }
+}
@@ -0,0 +1,250 @@
+/*
+ * Copyright 2017 Vector Creations Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.matrix.androidsdk.data.store;
+
+import com.google.gson.JsonParser;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.matrix.androidsdk.data.RoomState;
+import org.matrix.androidsdk.data.RoomSummary;
+import org.matrix.androidsdk.rest.model.Event;
+import org.matrix.androidsdk.rest.model.ReceiptData;
+import org.matrix.androidsdk.rest.model.UnsignedData;
+import org.matrix.androidsdk.rest.model.User;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.*;
+
+@RunWith(RobolectricTestRunner.class)
+public class MXFileStoreCodecTest {
+
+    private static final String TEST_ROOM_ID = "!testroomid:matrix.org";
+    private static final String TEST_USER_ID = "@testuserid:matrix.org";
+
+    private static Event createEvent(int index) {
+        Event event = new Event();
+        event.type = Event.EVENT_TYPE_MESSAGE;
+        event.eventId = "$" + index + "abcdef:matrix.org";
+        event.roomId = TEST_ROOM_ID;
+        event.sender = "@user" + (index % 20) + ":matrix.org";
+        event.originServerTs = 1500000000000L + index;
+        event.content = new JsonParser().parse("{'msgtype': 'm.text', 'body': 'Message " + index + " with some text', 'formatted': {'n': " + index + ", 'f': 1.5, 'b': true, 'a': [1, 'x', null]}}");
+        event.unsigned = new UnsignedData();
+        event.unsigned.age = 1000L + index;
+        event.unsigned.transaction_id = "txn" + index;
+
+        if (0 == (index % 10)) {
+            event.mToken = "t" + index + "-token";
+        }
+
+        return event;
+    }
+
+    @Test
+    public void testEventRoundTrip() throws Exception {
+        Event event = createEvent(1);
+        event.stateKey = TEST_USER_ID;
+        event.prev_content = new JsonParser().parse("{'membership': 'invite'}");
+        event.mSentState = Event.SentState.UNDELIVERABLE;
+
+        Event decoded = (Event) MXFileStoreCodec.decode(MXFileStoreCodec.encode(event));
+
+        assertEquals(event.type, decoded.type);
+        assertEquals(event.eventId, decoded.eventId);
+        assertEquals(event.roomId, decoded.roomId);
+        assertEquals(event.sender, decoded.sender);
+        assertEquals(event.stateKey, decoded.stateKey);
+        assertEquals(event.originServerTs, decoded.originServerTs);
+        assertEquals(event.mToken, decoded.mToken);
+        assertEquals(event.mSentState, decoded.mSentState);
+        assertEquals(event.unsigned.age, decoded.unsigned.age);
+        assertEquals(event.unsigned.transaction_id, decoded.unsigned.transaction_id);
+        assertEquals(event.getContent(), decoded.getContent());
+        assertEquals(event.getPrevContentAsJsonObject(), decoded.getPrevContentAsJsonObject());
+        assertEquals(1, decoded.getContentAsJsonObject().getAsJsonObject("formatted").get("n").getAsInt());
+    }
+
+    @Test
+    public void testLegacyFormatIsRead() throws Exception {
+        Event event = createEvent(2);
+
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        ObjectOutputStream oos = new ObjectOutputStream(bos);
+        oos.writeObject(event);
+        oos.close();
+
+        Event decoded = (Event) MXFileStoreCodec.decode(bos.toByteArray());
+
+        assertEquals(event.eventId, decoded.eventId);
+        assertEquals(event.getContent(), decoded.getContent());
+    }
+
+    @Test
+    public void testStoreObjectsRoundTrip() throws Exception {
+        RoomSummary summary = new RoomSummary(null, createEvent(3), null, TEST_USER_ID);
+        summary.setName("room name");
+        summary.setUnreadEventsCount(3);
+
+        User user = new User();
+        user.user_id = TEST_USER_ID;
+        user.displayname = "test";
+        user.currently_active = true;
+        user.setLatestPresenceTs(12345);
+
+        List<ReceiptData> receipts = new ArrayList<>();
+        receipts.add(new ReceiptData(TEST_USER_ID, "$event:matrix.org", 42));
+
+        RoomState state = new RoomState();
+        state.roomId = TEST_ROOM_ID;
+        state.name = "room name";
+        state.topic = null;
+
+        RoomSummary decodedSummary = (RoomSummary) MXFileStoreCodec.decode(MXFileStoreCodec.encode(summary));
+        assertEquals(summary.getRoomId(), decodedSummary.getRoomId());
+        assertEquals(summary.getRoomName(), decodedSummary.getRoomName());
+        assertEquals(summary.getReadReceiptEventId(), decodedSummary.getReadReceiptEventId());
+        assertEquals(3, decodedSummary.getUnreadEventsCount());
+        assertEquals(summary.getLatestReceivedEvent().getContent(), decodedSummary.getLatestReceivedEvent().getContent());
+
+        User decodedUser = (User) MXFileStoreCodec.decode(MXFileStoreCodec.encode(user));
+        assertEquals(user.user_id, decodedUser.user_id);
+        assertEquals(user.displayname, decodedUser.displayname);
+        assertEquals(user.currently_active, decodedUser.currently_active);
+        assertEquals(12345, decodedUser.getLatestPresenceTs());
+
+        List<ReceiptData> decodedReceipts = (List<ReceiptData>) MXFileStoreCodec.decode(MXFileStoreCodec.encode(receipts));
+        assertEquals(1, decodedReceipts.size());
+        assertEquals(42, decodedReceipts.get(0).originServerTs);
+
+        RoomState decodedState = (RoomState) MXFileStoreCodec.decode(MXFileStoreCodec.encode(state));
+        assertEquals(TEST_ROOM_ID, decodedState.roomId);
+        assertEquals("room name", decodedState.name);
+        assertNull(decodedState.topic);
+    }
+
+    /**
+     * Provides the content of a room messages file.
+     *
+     * @param eventsCount the events count
+     * @return the events by event id
+     */
+    private static LinkedHashMap<String, Event> createRoomMessages(int eventsCount) {
+        LinkedHashMap<String, Event> events = new LinkedHashMap<>();
+
+        for (int i = 0; i < eventsCount; i++) {
+            Event event = createEvent(i);
+            events.put(event.eventId, event);
+        }
+
+        return events;
+    }
+
+    /**
+     * Write a room messages file with the java serialization (previous format).
+     *
+     * @param events the events
+     * @return the gzipped file content
+     */
+    private static byte[] writeWithJavaSerialization(LinkedHashMap<String, Event> events) throws Exception {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        ObjectOutputStream oos = new ObjectOutputStream(new GZIPOutputStream(bos));
+        oos.writeObject(events);
+        oos.close();
+        return bos.toByteArray();
+    }
+
+    /**
+     * Write a room messages file with the codec.
+     *
+     * @param events the events
+     * @return the gzipped file content
+     */
+    private static byte[] writeWithCodec(LinkedHashMap<String, Event> events) throws Exception {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        GZIPOutputStream gz = new GZIPOutputStream(bos);
+        MXFileStoreCodec.write(gz, events);
+        gz.close();
+        return bos.toByteArray();
+    }
+
+    /**
+     * Check that the room messages file is smaller than with the java serialization and keeps the events order.
+     */
+    @Test
+    public void testRoomMessagesFileIsSmallerThanJavaSerialization() throws Exception {
+        final int eventsCount = 2000;
+        LinkedHashMap<String, Event> events = createRoomMessages(eventsCount);
+
+        byte[] legacyBytes = writeWithJavaSerialization(events);
+        byte[] codecBytes = writeWithCodec(events);
+
+        LinkedHashMap<?, ?> codecEvents = (LinkedHashMap<?, ?>) MXFileStoreCodec.read(new GZIPInputStream(new ByteArrayInputStream(codecBytes)));
+
+        assertEquals(eventsCount, codecEvents.size());
+        assertEquals(new ArrayList<>(events.keySet()), new ArrayList<>(codecEvents.keySet()));
+        assertTrue(codecBytes.length < legacyBytes.length);
+    }
+
+    /**
+     * Compare the cold reading time of the room messages file with the java serialization one.
+     * The contents are parsed to be in the same state after both readings.
+     * The best time of a few runs is kept for both so that the JIT warm up and the GC pauses do not count.
+     */
+    @Test
+    public void benchmarkRoomMessagesFileRead() throws Exception {
+        final int eventsCount = 2000;
+        final int runsCount = 3;
+        LinkedHashMap<String, Event> events = createRoomMessages(eventsCount);
+
+        byte[] legacyBytes = writeWithJavaSerialization(events);
+        byte[] codecBytes = writeWithCodec(events);
+
+        long legacyReadTime = Long.MAX_VALUE;
+        long codecReadTime = Long.MAX_VALUE;
+
+        for (int run = 0; run < runsCount; run++) {
+            long t0 = System.nanoTime();
+            Map<?, ?> legacyEvents = (Map<?, ?>) new ObjectInputStream(new GZIPInputStream(new ByteArrayInputStream(legacyBytes))).readObject();
+            for (Object event : legacyEvents.values()) {
+                ((Event) event).getContent();
+            }
+            legacyReadTime = Math.min(legacyReadTime, System.nanoTime() - t0);
+
+            t0 = System.nanoTime();
+            Map<?, ?> codecEvents = (Map<?, ?>) MXFileStoreCodec.read(new GZIPInputStream(new ByteArrayInputStream(codecBytes)));
+            for (Object event : codecEvents.values()) {
+                ((Event) event).getContent();
+            }
+            codecReadTime = Math.min(codecReadTime, System.nanoTime() - t0);
+
+            assertEquals(legacyEvents.size(), codecEvents.size());
+        }
+
+        assertTrue("java serialization " + (legacyReadTime / 1000000) + " ms - codec " + (codecReadTime / 1000000) + " ms", codecReadTime < legacyReadTime);
+    }
+}
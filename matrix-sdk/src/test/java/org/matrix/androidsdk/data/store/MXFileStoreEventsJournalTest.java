@@ -0,0 +1,235 @@
+/*
+ * Copyright 2017 Vector Creations Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.matrix.androidsdk.data.store;
+
+import com.google.gson.JsonParser;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.matrix.androidsdk.rest.model.Event;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+@RunWith(RobolectricTestRunner.class)
+public class MXFileStoreEventsJournalTest {
+
+    private static final String TEST_ROOM_ID = "!testroomid:matrix.org";
+
+    private File mFolder;
+    private MXFileStoreEventsJournal mJournal;
+
+    @Before
+    public void setUp() throws Exception {
+        mFolder = File.createTempFile("events_journal", "");
+        mFolder.delete();
+        mJournal = new MXFileStoreEventsJournal(mFolder);
+    }
+
+    @After
+    public void tearDown() {
+        mJournal.delete(TEST_ROOM_ID);
+        mFolder.delete();
+    }
+
+    private static Event createEvent(int index) {
+        Event event = new Event();
+        event.type = Event.EVENT_TYPE_MESSAGE;
+        event.eventId = "$" + index + ":matrix.org";
+        event.roomId = TEST_ROOM_ID;
+        event.sender = "@user:matrix.org";
+        event.originServerTs = 1500000000000L + index;
+        event.content = new JsonParser().parse("{'msgtype': 'm.text', 'body': 'Message " + index + "'}");
+        return event;
+    }
+
+    private static List<MXFileStoreEventsJournal.Record> createPutRecords(int from, int to) {
+        List<MXFileStoreEventsJournal.Record> records = new ArrayList<>();
+
+        for (int i = from; i < to; i++) {
+            records.add(new MXFileStoreEventsJournal.Record(createEvent(i)));
+        }
+
+        return records;
+    }
+
+    @Test
+    public void testAppendAndReplay() throws Exception {
+        assertTrue(mJournal.append(TEST_ROOM_ID, createPutRecords(0, 5)) > 0);
+        assertTrue(mJournal.getRoomIds().contains(TEST_ROOM_ID));
+
+        LinkedHashMap<String, Event> events = mJournal.replay(TEST_ROOM_ID, null);
+
+        assertEquals(Arrays.asList("$0:matrix.org", "$1:matrix.org", "$2:matrix.org", "$3:matrix.org", "$4:matrix.org"), new ArrayList<>(events.keySet()));
+        assertEquals(TEST_ROOM_ID, events.get("$3:matrix.org").roomId);
+        assertEquals(1500000000003L, events.get("$3:matrix.org").originServerTs);
+        assertEquals("Message 3", events.get("$3:matrix.org").getContentAsJsonObject().get("body").getAsString());
+    }
+
+    @Test
+    public void testReplayOverSnapshot() throws Exception {
+        LinkedHashMap<String, Event> snapshot = new LinkedHashMap<>();
+        snapshot.put("$0:matrix.org", createEvent(0));
+        snapshot.put("$1:matrix.org", createEvent(1));
+
+        mJournal.append(TEST_ROOM_ID, createPutRecords(2, 4));
+
+        List<MXFileStoreEventsJournal.Record> records = new ArrayList<>();
+        records.add(new MXFileStoreEventsJournal.Record("$1:matrix.org"));
+        records.add(new MXFileStoreEventsJournal.Record("$3:matrix.org"));
+        mJournal.append(TEST_ROOM_ID, records);
+
+        LinkedHashMap<String, Event> events = mJournal.replay(TEST_ROOM_ID, snapshot);
+
+        assertEquals(Arrays.asList("$0:matrix.org", "$2:matrix.org"), new ArrayList<>(events.keySet()));
+    }
+
+    @Test
+    public void testTornTailIsTruncated() throws Exception {
+        long size = mJournal.append(TEST_ROOM_ID, createPutRecords(0, 2));
+        mJournal.append(TEST_ROOM_ID, createPutRecords(2, 3));
+
+        // the application was killed while writing the third event
+        RandomAccessFile file = new RandomAccessFile(new File(mFolder, TEST_ROOM_ID), "rw");
+        file.setLength(size + 10);
+        file.close();
+
+        LinkedHashMap<String, Event> events = mJournal.replay(TEST_ROOM_ID, null);
+        assertEquals(Arrays.asList("$0:matrix.org", "$1:matrix.org"), new ArrayList<>(events.keySet()));
+
+        // the torn record has been removed
+        assertEquals(size, mJournal.size(TEST_ROOM_ID));
+
+        // the next records are appended after the latest complete one
+        mJournal.append(TEST_ROOM_ID, createPutRecords(3, 4));
+
+        events = mJournal.replay(TEST_ROOM_ID, null);
+        assertEquals(Arrays.asList("$0:matrix.org", "$1:matrix.org", "$3:matrix.org"), new ArrayList<>(events.keySet()));
+    }
+
+    /**
+     * Overwrite the body length of the record written at a dedicated offset.
+     *
+     * @param offset the record offset
+     * @param length the new body length
+     */
+    private void writeRecordLength(long offset, int length) throws Exception {
+        RandomAccessFile file = new RandomAccessFile(new File(mFolder, TEST_ROOM_ID), "rw");
+        // skip the record type
+        file.seek(offset + 1);
+        file.writeInt(length);
+        file.close();
+    }
+
+    @Test
+    public void testTooLongRecordIsTruncated() throws Exception {
+        long size = mJournal.append(TEST_ROOM_ID, createPutRecords(0, 2));
+        mJournal.append(TEST_ROOM_ID, createPutRecords(2, 3));
+
+        // the length of the latest record exceeds the file size : it is not allocated
+        writeRecordLength(size, Integer.MAX_VALUE);
+
+        LinkedHashMap<String, Event> events = mJournal.replay(TEST_ROOM_ID, null);
+        assertEquals(Arrays.asList("$0:matrix.org", "$1:matrix.org"), new ArrayList<>(events.keySet()));
+        assertEquals(size, mJournal.size(TEST_ROOM_ID));
+    }
+
+    @Test
+    public void testNegativeRecordLengthIsDetected() throws Exception {
+        long size = mJournal.append(TEST_ROOM_ID, createPutRecords(0, 2));
+        mJournal.append(TEST_ROOM_ID, createPutRecords(2, 3));
+
+        writeRecordLength(size, -1);
+
+        try {
+            mJournal.replay(TEST_ROOM_ID, null);
+            fail("the negative length must be detected");
+        } catch (MXFileStoreEventsJournal.CorruptedRecordException e) {
+            // the room will be quarantined
+        }
+    }
+
+    @Test(expected = MXFileStoreEventsJournal.CorruptedRecordException.class)
+    public void testChecksumMismatchIsDetected() throws Exception {
+        long size = mJournal.append(TEST_ROOM_ID, createPutRecords(0, 1));
+
+        // flip a byte inside the record body
+        RandomAccessFile file = new RandomAccessFile(new File(mFolder, TEST_ROOM_ID), "rw");
+        file.seek(size / 2);
+        int value = file.read();
+        file.seek(size / 2);
+        file.write(value ^ 0xFF);
+        file.close();
+
+        mJournal.replay(TEST_ROOM_ID, null);
+    }
+
+    @Test
+    public void testUndecodableRecordIsDetected() throws Exception {
+        mJournal.append(TEST_ROOM_ID, createPutRecords(0, 1));
+
+        // a record with a valid checksum but an undecodable event
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        DataOutputStream body = new DataOutputStream(bos);
+        body.writeUTF("$1:matrix.org");
+        body.writeInt(3);
+        body.write(new byte[]{1, 2, 3});
+        body.flush();
+
+        DataOutputStream out = new DataOutputStream(new FileOutputStream(new File(mFolder, TEST_ROOM_ID), true));
+        MXFileStoreEventsJournal.writeCheckedRecord(out, (byte) 1, bos.toByteArray());
+        out.close();
+
+        mJournal.append(TEST_ROOM_ID, createPutRecords(2, 3));
+
+        try {
+            mJournal.replay(TEST_ROOM_ID, null);
+            fail("the undecodable record must not be skipped");
+        } catch (MXFileStoreEventsJournal.CorruptedRecordException e) {
+            // the room will be quarantined
+        }
+    }
+
+    @Test
+    public void testCompactionRemovesTheJournal() throws Exception {
+        mJournal.append(TEST_ROOM_ID, createPutRecords(0, 3));
+
+        // the compaction rewrites the room snapshot with the replayed events then deletes the journal
+        LinkedHashMap<String, Event> snapshot = mJournal.replay(TEST_ROOM_ID, null);
+        mJournal.delete(TEST_ROOM_ID);
+
+        assertEquals(0, mJournal.size(TEST_ROOM_ID));
+        assertFalse(mJournal.getRoomIds().contains(TEST_ROOM_ID));
+        assertSame(snapshot, mJournal.replay(TEST_ROOM_ID, snapshot));
+        assertEquals(3, snapshot.size());
+
+        // a new journal is started after the compaction
+        mJournal.append(TEST_ROOM_ID, createPutRecords(3, 4));
+        assertEquals(4, mJournal.replay(TEST_ROOM_ID, snapshot).size());
+    }
+}
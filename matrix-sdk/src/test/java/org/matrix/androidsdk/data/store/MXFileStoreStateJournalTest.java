@@ -0,0 +1,169 @@
+/*
+ * Copyright 2017 Vector Creations Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.matrix.androidsdk.data.store;
+
+import com.google.gson.JsonParser;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.matrix.androidsdk.data.EventTimeline;
+import org.matrix.androidsdk.data.RoomState;
+import org.matrix.androidsdk.rest.model.Event;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+@RunWith(RobolectricTestRunner.class)
+public class MXFileStoreStateJournalTest {
+
+    private static final String TEST_ROOM_ID = "!testroomid:matrix.org";
+
+    private File mFolder;
+    private MXFileStoreStateJournal mJournal;
+
+    @Before
+    public void setUp() throws Exception {
+        mFolder = File.createTempFile("state_journal", "");
+        mFolder.delete();
+        mJournal = new MXFileStoreStateJournal(mFolder);
+    }
+
+    @After
+    public void tearDown() {
+        mJournal.delete(TEST_ROOM_ID);
+        mFolder.delete();
+    }
+
+    private static Event createMemberEvent(int index, String membership) {
+        Event event = new Event();
+        event.type = Event.EVENT_TYPE_STATE_ROOM_MEMBER;
+        event.eventId = "$" + index + membership + ":matrix.org";
+        event.roomId = TEST_ROOM_ID;
+        event.sender = "@user" + index + ":matrix.org";
+        event.stateKey = event.sender;
+        event.originServerTs = 1500000000000L + index;
+        event.content = new JsonParser().parse("{'membership': '" + membership + "', 'displayname': 'user " + index + "'}");
+        return event;
+    }
+
+    private static RoomState createState(int membersCount) {
+        RoomState state = new RoomState();
+        state.roomId = TEST_ROOM_ID;
+
+        for (int i = 0; i < membersCount; i++) {
+            state.applyState(null, createMemberEvent(i, "join"), EventTimeline.Direction.FORWARDS);
+        }
+
+        return state;
+    }
+
+    @Test
+    public void testReplay() throws Exception {
+        RoomState liveState = createState(10);
+        byte[] snapshot = MXFileStoreCodec.encode(liveState);
+
+        List<Event> events = new ArrayList<>();
+        events.add(createMemberEvent(10, "join"));
+        events.add(createMemberEvent(3, "leave"));
+
+        for (Event event : events) {
+            liveState.applyState(null, event, EventTimeline.Direction.FORWARDS);
+        }
+
+        liveState.setNotificationCount(4);
+        liveState.setHighlightCount(1);
+
+        assertTrue(mJournal.append(TEST_ROOM_ID, events, liveState) > 0);
+
+        RoomState loadedState = (RoomState) MXFileStoreCodec.decode(snapshot);
+        assertEquals(3, mJournal.replay(TEST_ROOM_ID, loadedState));
+
+        assertEquals(11, loadedState.getMembers().size());
+        assertNotNull(loadedState.getMember("@user10:matrix.org"));
+        assertEquals("leave", loadedState.getMember("@user3:matrix.org").membership);
+        assertEquals(4, loadedState.getNotificationCount());
+        assertEquals(1, loadedState.getHighlightCount());
+    }
+
+    @Test
+    public void testTruncatedRecordIsIgnored() throws Exception {
+        RoomState liveState = createState(2);
+
+        List<Event> events = new ArrayList<>();
+        events.add(createMemberEvent(2, "join"));
+        long size = mJournal.append(TEST_ROOM_ID, events, liveState);
+
+        events.clear();
+        events.add(createMemberEvent(3, "join"));
+        mJournal.append(TEST_ROOM_ID, events, liveState);
+
+        // the application was killed while writing the second state event
+        RandomAccessFile file = new RandomAccessFile(new File(mFolder, TEST_ROOM_ID), "rw");
+        file.setLength(size + 10);
+        file.close();
+
+        RoomState loadedState = createState(2);
+        mJournal.replay(TEST_ROOM_ID, loadedState);
+
+        assertNotNull(loadedState.getMember("@user2:matrix.org"));
+        assertEquals(3, loadedState.getMembers().size());
+    }
+
+    @Test(expected = MXFileStoreEventsJournal.CorruptedRecordException.class)
+    public void testCorruptedRecordIsDetected() throws Exception {
+        RoomState liveState = createState(2);
+
+        List<Event> events = new ArrayList<>();
+        events.add(createMemberEvent(2, "join"));
+        long size = mJournal.append(TEST_ROOM_ID, events, liveState);
+
+        // flip a byte inside the first record body
+        RandomAccessFile file = new RandomAccessFile(new File(mFolder, TEST_ROOM_ID), "rw");
+        file.seek(size / 2);
+        int value = file.read();
+        file.seek(size / 2);
+        file.write(value ^ 0xFF);
+        file.close();
+
+        mJournal.replay(TEST_ROOM_ID, createState(2));
+    }
+
+    /**
+     * Check that the bytes written when a member joins a large room are negligible compared with the room state snapshot.
+     */
+    @Test
+    public void testMemberJoinRecordIsSmall() throws Exception {
+        final int membersCount = 10000;
+        RoomState liveState = createState(membersCount);
+
+        int snapshotSize = MXFileStoreCodec.encode(liveState).length;
+
+        List<Event> events = new ArrayList<>();
+        events.add(createMemberEvent(membersCount, "join"));
+
+        long journalSize = mJournal.append(TEST_ROOM_ID, events, liveState);
+
+        assertTrue(journalSize > 0);
+        assertTrue(journalSize * 100 < snapshotSize);
+    }
+}
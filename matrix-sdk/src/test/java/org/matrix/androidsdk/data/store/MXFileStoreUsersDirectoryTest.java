@@ -0,0 +1,165 @@
+/*
+ * Copyright 2017 Vector Creations Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.matrix.androidsdk.data.store;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.matrix.androidsdk.rest.model.User;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+@RunWith(RobolectricTestRunner.class)
+public class MXFileStoreUsersDirectoryTest {
+
+    private File mFile;
+    private MXFileStoreUsersDirectory mDirectory;
+
+    @Before
+    public void setUp() throws Exception {
+        mFile = File.createTempFile("users_directory", "");
+        mFile.delete();
+        mDirectory = new MXFileStoreUsersDirectory(mFile);
+        mDirectory.open();
+    }
+
+    @After
+    public void tearDown() {
+        mDirectory.delete();
+    }
+
+    private static User createUser(int index, String presence) {
+        User user = new User();
+        user.user_id = "@user" + index + ":matrix.org";
+        user.displayname = "user " + index;
+        user.presence = presence;
+        user.setLatestPresenceTs(1500000000000L + index);
+        return user;
+    }
+
+    private static List<User> createUsers(int count) {
+        List<User> users = new ArrayList<>();
+
+        for (int i = 0; i < count; i++) {
+            users.add(createUser(i, User.PRESENCE_OFFLINE));
+        }
+
+        return users;
+    }
+
+    @Test
+    public void testUsersAreReadAfterReopening() {
+        assertTrue(mDirectory.append(createUsers(10)));
+        assertTrue(mDirectory.append(Collections.singletonList(createUser(3, User.PRESENCE_ONLINE))));
+
+        MXFileStoreUsersDirectory directory = new MXFileStoreUsersDirectory(mFile);
+        directory.open();
+
+        assertEquals(10, directory.size());
+        assertEquals("user 7", directory.get("@user7:matrix.org").displayname);
+        assertEquals(User.PRESENCE_ONLINE, directory.get("@user3:matrix.org").presence);
+        assertNull(directory.get("@unknown:matrix.org"));
+
+        HashSet<String> excludedUserIds = new HashSet<>();
+        excludedUserIds.add("@user0:matrix.org");
+        assertEquals(9, directory.getAll(excludedUserIds).size());
+    }
+
+    @Test
+    public void testTruncatedRecordIsIgnored() throws Exception {
+        assertTrue(mDirectory.append(createUsers(2)));
+        long size = mDirectory.length();
+        assertTrue(mDirectory.append(Collections.singletonList(createUser(0, User.PRESENCE_ONLINE))));
+
+        // the application was killed while writing the update
+        RandomAccessFile file = new RandomAccessFile(mFile, "rw");
+        file.setLength(size + 10);
+        file.close();
+
+        MXFileStoreUsersDirectory directory = new MXFileStoreUsersDirectory(mFile);
+        directory.open();
+
+        assertEquals(size, directory.length());
+        assertEquals(User.PRESENCE_OFFLINE, directory.get("@user0:matrix.org").presence);
+
+        // the next records are appended after the valid ones
+        assertTrue(directory.append(Collections.singletonList(createUser(2, User.PRESENCE_ONLINE))));
+        directory.open();
+        assertEquals(3, directory.size());
+    }
+
+    @Test
+    public void testCompaction() {
+        User user = createUser(0, User.PRESENCE_OFFLINE);
+
+        for (int i = 0; i < 10000; i++) {
+            user.presence = ((i % 2) == 0) ? User.PRESENCE_ONLINE : User.PRESENCE_OFFLINE;
+            assertTrue(mDirectory.append(Collections.singletonList(user)));
+        }
+
+        // the obsolete records are removed
+        assertTrue(mDirectory.length() <= MXFileStoreUsersDirectory.MIN_COMPACTION_SIZE);
+        assertEquals(User.PRESENCE_OFFLINE, mDirectory.get(user.user_id).presence);
+
+        mDirectory.open();
+        assertEquals(1, mDirectory.size());
+        assertEquals(User.PRESENCE_OFFLINE, mDirectory.get(user.user_id).presence);
+    }
+
+    /**
+     * Check that a presence update appends fewer bytes than the rewrite of its hash key group (previous format).
+     */
+    @Test
+    public void testPresenceUpdateIsAppended() throws Exception {
+        final int usersCount = 10000;
+
+        List<User> users = createUsers(usersCount);
+        assertTrue(mDirectory.append(users));
+
+        User user = users.get(usersCount / 2);
+        user.presence = User.PRESENCE_ONLINE;
+
+        // previous format : the whole group of the user is rewritten
+        List<User> group = new ArrayList<>();
+
+        for (User anotherUser : users) {
+            if (anotherUser.getStorageHashKey() == user.getStorageHashKey()) {
+                group.add(anotherUser);
+            }
+        }
+
+        int groupSize = MXFileStoreCodec.encode(group).length;
+
+        long size = mDirectory.length();
+        assertTrue(mDirectory.append(Collections.singletonList(user)));
+        assertTrue((mDirectory.length() - size) < groupSize);
+
+        MXFileStoreUsersDirectory directory = new MXFileStoreUsersDirectory(mFile);
+        directory.open();
+
+        assertEquals(usersCount, directory.size());
+        assertEquals(User.PRESENCE_ONLINE, directory.get(user.user_id).presence);
+    }
+}
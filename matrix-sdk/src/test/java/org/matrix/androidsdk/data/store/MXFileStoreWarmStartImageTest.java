@@ -0,0 +1,123 @@
+/*
+ * Copyright 2017 Vector Creations Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.matrix.androidsdk.data.store;
+
+import com.google.gson.JsonParser;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.matrix.androidsdk.rest.model.Event;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+@RunWith(RobolectricTestRunner.class)
+public class MXFileStoreWarmStartImageTest {
+
+    private static final int STORE_VERSION = 13;
+
+    private File mFile;
+
+    @Before
+    public void setUp() throws Exception {
+        mFile = File.createTempFile("warm_start", "");
+    }
+
+    @After
+    public void tearDown() {
+        mFile.delete();
+    }
+
+    private static Map<String, Object> createContent(int roomsCount, int eventsCount) {
+        List<Object> rooms = new ArrayList<>();
+
+        for (int i = 0; i < roomsCount; i++) {
+            LinkedHashMap<String, Event> events = new LinkedHashMap<>();
+
+            for (int j = 0; j < eventsCount; j++) {
+                Event event = new Event();
+                event.type = Event.EVENT_TYPE_MESSAGE;
+                event.eventId = "$" + i + "_" + j + ":matrix.org";
+                event.roomId = "!room" + i + ":matrix.org";
+                event.sender = "@user" + j + ":matrix.org";
+                event.originServerTs = 1500000000000L + j;
+                event.content = new JsonParser().parse("{'msgtype': 'm.text', 'body': 'Message " + j + "'}");
+                events.put(event.eventId, event);
+            }
+
+            Map<String, Object> room = new HashMap<>();
+            room.put("roomId", "!room" + i + ":matrix.org");
+            room.put("events", events);
+            rooms.add(room);
+        }
+
+        Map<String, Object> content = new HashMap<>();
+        content.put("streamToken", "s1234");
+        content.put("rooms", rooms);
+        return content;
+    }
+
+    @Test
+    public void testRoundTrip() {
+        MXFileStoreWarmStartImage image = new MXFileStoreWarmStartImage(mFile, STORE_VERSION);
+        assertTrue(image.write(createContent(3, 10)));
+
+        Map<String, Object> content = image.read();
+        assertNotNull(content);
+        assertEquals("s1234", content.get("streamToken"));
+
+        List<Object> rooms = (List<Object>) content.get("rooms");
+        assertEquals(3, rooms.size());
+
+        LinkedHashMap<String, Event> events = (LinkedHashMap<String, Event>) ((Map<String, Object>) rooms.get(0)).get("events");
+        assertEquals(10, events.size());
+
+        // the events order is kept
+        assertEquals("$0_0:matrix.org", events.values().iterator().next().eventId);
+    }
+
+    @Test
+    public void testCorruptedImageIsDeleted() throws Exception {
+        MXFileStoreWarmStartImage image = new MXFileStoreWarmStartImage(mFile, STORE_VERSION);
+        assertTrue(image.write(createContent(3, 10)));
+
+        RandomAccessFile file = new RandomAccessFile(mFile, "rw");
+        file.seek(file.length() / 2);
+        int value = file.read();
+        file.seek(file.length() / 2);
+        file.write(value ^ 0xFF);
+        file.close();
+
+        assertNull(image.read());
+        assertFalse(image.exists());
+    }
+
+    @Test
+    public void testOtherVersionIsIgnored() {
+        assertTrue(new MXFileStoreWarmStartImage(mFile, STORE_VERSION - 1).write(createContent(1, 1)));
+        assertNull(new MXFileStoreWarmStartImage(mFile, STORE_VERSION).read());
+    }
+}
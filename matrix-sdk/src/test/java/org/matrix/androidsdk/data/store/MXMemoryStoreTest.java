@@ -0,0 +1,836 @@
+/*
+ * Copyright 2017 Vector Creations Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.matrix.androidsdk.data.store;
+
+import com.google.gson.JsonParser;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.matrix.androidsdk.data.EventTimeline;
+import org.matrix.androidsdk.data.Room;
+import org.matrix.androidsdk.data.RoomAccountData;
+import org.matrix.androidsdk.data.RoomSummary;
+import org.matrix.androidsdk.rest.model.Event;
+import org.matrix.androidsdk.rest.model.ReceiptData;
+import org.matrix.androidsdk.rest.model.RoomMember;
+import org.matrix.androidsdk.rest.model.TokensChunkResponse;
+import org.matrix.androidsdk.rest.model.UnsignedData;
+import org.matrix.androidsdk.rest.model.login.Credentials;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+@RunWith(RobolectricTestRunner.class)
+public class MXMemoryStoreTest {
+
+    private static final String TEST_ROOM_ID = "!testroomid:matrix.org";
+    private static final String TEST_USER_ID = "@user:matrix.org";
+    private static final String OTHER_USER_ID = "@other:matrix.org";
+
+    private static Event createEvent(int index) {
+        Event event = new Event();
+        event.type = Event.EVENT_TYPE_MESSAGE;
+        event.eventId = "$" + index + ":matrix.org";
+        event.roomId = TEST_ROOM_ID;
+        event.sender = OTHER_USER_ID;
+        event.originServerTs = 1500000000000L + index;
+        event.content = new JsonParser().parse("{'msgtype': 'm.text', 'body': 'Message " + index + "'}");
+        event.mSentState = Event.SentState.SENT;
+        return event;
+    }
+
+    @Test
+    public void testEventExistence() {
+        MXMemoryStore store = new MXMemoryStore();
+
+        for (int i = 0; i < 10; i++) {
+            store.storeLiveRoomEvent(createEvent(i));
+        }
+
+        // an event is stored only once
+        store.storeLiveRoomEvent(createEvent(3));
+        assertEquals("$0:matrix.org", store.getOldestEvent(TEST_ROOM_ID).eventId);
+        assertEquals("$9:matrix.org", store.getLatestEvent(TEST_ROOM_ID).eventId);
+
+        assertTrue(store.doesEventExist("$3:matrix.org", TEST_ROOM_ID));
+        assertFalse(store.doesEventExist("$3:matrix.org", "!anotherroom:matrix.org"));
+        assertFalse(store.doesEventExist("$10:matrix.org", TEST_ROOM_ID));
+
+        store.deleteEvent(createEvent(3));
+        assertFalse(store.doesEventExist("$3:matrix.org", TEST_ROOM_ID));
+        assertNull(store.getEvent("$3:matrix.org", TEST_ROOM_ID));
+
+        store.deleteAllRoomMessages(TEST_ROOM_ID, true);
+        assertFalse(store.doesEventExist("$5:matrix.org", TEST_ROOM_ID));
+    }
+
+    private static MXMemoryStore createStore() {
+        MXMemoryStore store = new MXMemoryStore();
+        store.mCredentials = new Credentials();
+        store.mCredentials.userId = TEST_USER_ID;
+        return store;
+    }
+
+    @Test
+    public void testReadReceiptsOrder() {
+        MXMemoryStore store = createStore();
+
+        for (int i = 10; i < 20; i++) {
+            store.storeLiveRoomEvent(createEvent(i));
+        }
+
+        assertTrue(store.storeReceipt(new ReceiptData(OTHER_USER_ID, "$15:matrix.org", 1), TEST_ROOM_ID));
+        assertTrue(store.isEventRead(TEST_ROOM_ID, OTHER_USER_ID, "$12:matrix.org"));
+        assertTrue(store.isEventRead(TEST_ROOM_ID, OTHER_USER_ID, "$15:matrix.org"));
+        assertFalse(store.isEventRead(TEST_ROOM_ID, OTHER_USER_ID, "$17:matrix.org"));
+
+        // the deletions do not change the order
+        store.deleteEvent(createEvent(13));
+        store.deleteEvent(createEvent(16));
+        assertTrue(store.isEventRead(TEST_ROOM_ID, OTHER_USER_ID, "$14:matrix.org"));
+        assertFalse(store.isEventRead(TEST_ROOM_ID, OTHER_USER_ID, "$17:matrix.org"));
+
+        // the back paginated events are before the known ones
+        TokensChunkResponse<Event> response = new TokensChunkResponse<>();
+        response.chunk = new ArrayList<>();
+
+        for (int i = 9; i >= 0; i--) {
+            response.chunk.add(createEvent(i));
+        }
+
+        store.storeRoomEvents(TEST_ROOM_ID, response, EventTimeline.Direction.BACKWARDS);
+        assertEquals("$0:matrix.org", store.getOldestEvent(TEST_ROOM_ID).eventId);
+        assertTrue(store.isEventRead(TEST_ROOM_ID, OTHER_USER_ID, "$5:matrix.org"));
+
+        // the new live events are after the known ones
+        store.storeLiveRoomEvent(createEvent(20));
+        assertFalse(store.isEventRead(TEST_ROOM_ID, OTHER_USER_ID, "$20:matrix.org"));
+
+        // the own receipts are not moved backward
+        assertTrue(store.storeReceipt(new ReceiptData(TEST_USER_ID, "$18:matrix.org", 1), TEST_ROOM_ID));
+        assertFalse(store.storeReceipt(new ReceiptData(TEST_USER_ID, "$5:matrix.org", 2), TEST_ROOM_ID));
+        assertTrue(store.storeReceipt(new ReceiptData(TEST_USER_ID, "$20:matrix.org", 3), TEST_ROOM_ID));
+    }
+
+    /**
+     * Check the read state of every event of a room, as the messages adapter does,
+     * against the events order.
+     */
+    @Test
+    public void testIsEventReadMatchesEventsOrder() {
+        final int eventsCount = 1000;
+
+        MXMemoryStore store = createStore();
+
+        for (int i = 0; i < eventsCount; i++) {
+            store.storeLiveRoomEvent(createEvent(i));
+        }
+
+        String readEventId = "$" + (eventsCount / 2) + ":matrix.org";
+        store.storeReceipt(new ReceiptData(OTHER_USER_ID, readEventId, 1), TEST_ROOM_ID);
+
+        List<String> eventIds = new ArrayList<>(store.mRoomEvents.get(TEST_ROOM_ID).keySet());
+        int readIndex = eventIds.indexOf(readEventId);
+        int readCount = 0;
+
+        for (int i = 0; i < eventsCount; i++) {
+            String eventId = "$" + i + ":matrix.org";
+            boolean isRead = store.isEventRead(TEST_ROOM_ID, OTHER_USER_ID, eventId);
+
+            assertEquals(eventIds.indexOf(eventId) <= readIndex, isRead);
+
+            if (isRead) {
+                readCount++;
+            }
+        }
+
+        assertEquals(eventsCount / 2 + 1, readCount);
+    }
+
+    /**
+     * Create a room history, one event on 10 has a pagination token.
+     *
+     * @param store       the store
+     * @param eventsCount the number of events
+     */
+    private static void createHistory(MXMemoryStore store, int eventsCount) {
+        for (int i = 0; i < eventsCount; i++) {
+            Event event = createEvent(i);
+
+            if ((i % 10) == 0) {
+                event.mToken = "t" + i;
+            }
+
+            store.storeLiveRoomEvent(event);
+        }
+
+        store.storeBackToken(TEST_ROOM_ID, "t0");
+    }
+
+    @Test
+    public void testGetEarlierMessages() {
+        MXMemoryStore store = createStore();
+        createHistory(store, 100);
+
+        // the first page starts with the latest event and ends with an event with a token
+        TokensChunkResponse<Event> response = store.getEarlierMessages(TEST_ROOM_ID, null, 15);
+        assertEquals(20, response.chunk.size());
+        assertEquals("$99:matrix.org", response.chunk.get(0).eventId);
+        assertEquals("t80", response.end);
+
+        response = store.getEarlierMessages(TEST_ROOM_ID, response.end, 15);
+        assertEquals("$79:matrix.org", response.chunk.get(0).eventId);
+        assertEquals("t60", response.end);
+
+        // the deleted events are skipped
+        store.deleteEvent(createEvent(59));
+        response = store.getEarlierMessages(TEST_ROOM_ID, response.end, 5);
+        assertEquals("$58:matrix.org", response.chunk.get(0).eventId);
+        assertEquals("t50", response.end);
+
+        // a token set after storing the event
+        store.getEvent("$25:matrix.org", TEST_ROOM_ID).mToken = "t25";
+        response = store.getEarlierMessages(TEST_ROOM_ID, "t25", 100);
+        assertEquals("$24:matrix.org", response.chunk.get(0).eventId);
+        assertEquals("$0:matrix.org", response.chunk.get(response.chunk.size() - 1).eventId);
+
+        // the end of the stored history
+        assertNull(store.getEarlierMessages(TEST_ROOM_ID, "t0", 10));
+        assertNull(store.getEarlierMessages(TEST_ROOM_ID, "unknown", 10));
+    }
+
+    /**
+     * Back paginate a room by 20 events pages, and compare the pages count with a scan of the reversed history.
+     */
+    @Test
+    public void testGetEarlierMessagesPagesMatchHistoryScan() {
+        final int eventsCount = 2000;
+        final int limit = 20;
+
+        MXMemoryStore store = createStore();
+        createHistory(store, eventsCount);
+
+        int pagesCount = 0;
+        String token = null;
+
+        TokensChunkResponse<Event> response;
+        while (null != (response = store.getEarlierMessages(TEST_ROOM_ID, token, limit))) {
+            token = response.end;
+            pagesCount++;
+        }
+
+        // the reversed history scan
+        int listPagesCount = 0;
+        token = null;
+
+        while (true) {
+            ArrayList<Event> eventsList = new ArrayList<>(store.mRoomEvents.get(TEST_ROOM_ID).values());
+            java.util.Collections.reverse(eventsList);
+
+            int index = 0;
+
+            if (null != token) {
+                for (; (index < eventsList.size()) && !token.equals(eventsList.get(index).mToken); index++)
+                    ;
+                index++;
+            }
+
+            int count = 0;
+            for (; index < eventsList.size(); index++) {
+                count++;
+
+                if ((count >= limit) && (null != eventsList.get(index).mToken)) {
+                    break;
+                }
+            }
+
+            if ((0 == count) || (index >= eventsList.size()) || "t0".equals(eventsList.get(index).mToken)) {
+                listPagesCount++;
+                break;
+            }
+
+            token = eventsList.get(index).mToken;
+            listPagesCount++;
+        }
+
+        assertEquals(pagesCount, listPagesCount);
+    }
+
+    @Test
+    public void testRoomReadsAreNotBlockedByOtherRooms() throws Exception {
+        final MXMemoryStore store = new MXMemoryStore();
+        final MXMemoryStore otherStore = new MXMemoryStore();
+        store.storeLiveRoomEvent(createEvent(0));
+
+        // find a room protected by another lock
+        String otherRoomId = null;
+
+        for (int i = 0; (null == otherRoomId) || (store.getRoomEventsLock(otherRoomId) == store.getRoomEventsLock(TEST_ROOM_ID)); i++) {
+            otherRoomId = "!room" + i + ":matrix.org";
+        }
+
+        assertNotSame(store.getRoomEventsLock(TEST_ROOM_ID), otherStore.getRoomEventsLock(TEST_ROOM_ID));
+
+        final Event[] latestEvent = new Event[1];
+        Thread reader = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                latestEvent[0] = store.getLatestEvent(TEST_ROOM_ID);
+            }
+        });
+
+        // simulate long writings in another room and in another store
+        synchronized (store.getRoomEventsLock(otherRoomId)) {
+            synchronized (otherStore.getRoomEventsLock(TEST_ROOM_ID)) {
+                reader.start();
+                reader.join(5000);
+            }
+        }
+
+        assertFalse(reader.isAlive());
+        assertEquals("$0:matrix.org", latestEvent[0].eventId);
+    }
+
+    /**
+     * Store 10k live events into one room, compared with the events ids list which was used before.
+     * The best time of a few runs is kept for both so that the JIT warm up and the GC pauses do not count.
+     */
+    @Test
+    public void benchmarkStoreLiveRoomEvents() {
+        final int eventsCount = 10000;
+        final int runsCount = 3;
+
+        List<Event> events = new ArrayList<>();
+
+        for (int i = 0; i < eventsCount; i++) {
+            events.add(createEvent(i));
+        }
+
+        long storeTime = Long.MAX_VALUE;
+        long listTime = Long.MAX_VALUE;
+
+        for (int run = 0; run < runsCount; run++) {
+            MXMemoryStore store = new MXMemoryStore();
+
+            long t0 = System.nanoTime();
+            for (Event event : events) {
+                store.storeLiveRoomEvent(event);
+            }
+            storeTime = Math.min(storeTime, System.nanoTime() - t0);
+
+            assertEquals(eventsCount, store.getRoomMessages(TEST_ROOM_ID).size());
+
+            // previous implementation : an indexOf by stored event
+            ArrayList<String> eventIds = new ArrayList<>();
+
+            t0 = System.nanoTime();
+            for (Event event : events) {
+                if (eventIds.indexOf(event.eventId) < 0) {
+                    eventIds.add(event.eventId);
+                }
+            }
+            listTime = Math.min(listTime, System.nanoTime() - t0);
+
+            assertEquals(eventsCount, eventIds.size());
+        }
+
+        // the whole storage must cost less than the ids list lookups alone
+        assertTrue("store " + (storeTime / 1000000) + " ms - ids list lookups only " + (listTime / 1000000) + " ms", storeTime < listTime);
+    }
+
+    private static Event createLocalEcho(String roomId, long ts) {
+        Event echo = new Event();
+        echo.type = Event.EVENT_TYPE_MESSAGE;
+        echo.roomId = roomId;
+        echo.sender = TEST_USER_ID;
+        echo.originServerTs = ts;
+        echo.content = new JsonParser().parse("{'msgtype': 'm.text', 'body': 'Echo " + ts + "'}");
+        echo.createDummyEventId();
+        echo.mSentState = Event.SentState.SENDING;
+        return echo;
+    }
+
+    private static Event createRemoteEcho(String roomId, String eventId, long ts) {
+        Event event = new Event();
+        event.type = Event.EVENT_TYPE_MESSAGE;
+        event.eventId = eventId;
+        event.roomId = roomId;
+        event.sender = TEST_USER_ID;
+        event.originServerTs = ts + 100;
+        event.unsigned = new UnsignedData();
+        event.unsigned.transaction_id = ts + "";
+        event.mSentState = Event.SentState.SENT;
+        return event;
+    }
+
+    @Test
+    public void testLocalEchoReconciliation() {
+        final String otherRoomId = "!otherroomid:matrix.org";
+        MXMemoryStore store = createStore();
+
+        store.storeLiveRoomEvent(createEvent(0));
+
+        Event echo1 = createLocalEcho(TEST_ROOM_ID, 1600000000001L);
+        Event echo2 = createLocalEcho(TEST_ROOM_ID, 1600000000002L);
+        Event otherRoomEcho = createLocalEcho(otherRoomId, 1600000000001L);
+        store.storeLiveRoomEvent(echo1);
+        store.storeLiveRoomEvent(echo2);
+        store.storeLiveRoomEvent(otherRoomEcho);
+
+        // the synced event replaces the echo with the same transaction id in the same room
+        store.storeLiveRoomEvent(createRemoteEcho(TEST_ROOM_ID, "$remote1:matrix.org", 1600000000001L));
+        assertFalse(store.doesEventExist(echo1.eventId, TEST_ROOM_ID));
+        assertTrue(store.doesEventExist(echo2.eventId, TEST_ROOM_ID));
+        assertTrue(store.doesEventExist(otherRoomEcho.eventId, otherRoomId));
+        assertEquals(3, store.getRoomMessages(TEST_ROOM_ID).size());
+        assertEquals("$remote1:matrix.org", store.getLatestEvent(TEST_ROOM_ID).eventId);
+
+        // the echo deleted by the send callback is no more indexed
+        store.deleteEvent(echo2);
+        store.storeLiveRoomEvent(createRemoteEcho(TEST_ROOM_ID, "$remote2:matrix.org", 1600000000002L));
+        assertEquals(3, store.getRoomMessages(TEST_ROOM_ID).size());
+
+        // an event without transaction id does not remove any echo
+        store.storeLiveRoomEvent(createEvent(1));
+        assertTrue(store.doesEventExist(otherRoomEcho.eventId, otherRoomId));
+    }
+
+    @Test
+    public void testLocalEchoIndexFollowsItsEventId() {
+        MXMemoryStore store = createStore();
+
+        Event echo = createLocalEcho(TEST_ROOM_ID, 1600000000001L);
+        store.storeLiveRoomEvent(echo);
+        assertEquals(echo.eventId, store.getLocalEchoEventId(TEST_ROOM_ID, "1600000000001"));
+
+        // the echo origin server ts is updated before it is deleted
+        echo.originServerTs = 1600000000005L;
+        store.deleteEvent(echo);
+
+        assertNull(store.getLocalEchoEventId(TEST_ROOM_ID, "1600000000001"));
+        assertNull(store.getLocalEchoEventId(TEST_ROOM_ID, "1600000000005"));
+    }
+
+    /**
+     * Check that many pending local echoes are all replaced by their remote echoes.
+     */
+    @Test
+    public void testManyLocalEchoesReconciliation() {
+        final int echoesCount = 2000;
+        MXMemoryStore store = createStore();
+        List<Event> echoes = new ArrayList<>();
+
+        for (int i = 0; i < echoesCount; i++) {
+            Event echo = createLocalEcho(TEST_ROOM_ID, 1600000000000L + i);
+            echoes.add(echo);
+            store.storeLiveRoomEvent(echo);
+        }
+
+        for (int i = 0; i < echoesCount; i++) {
+            store.storeLiveRoomEvent(createRemoteEcho(TEST_ROOM_ID, "$remote" + i + ":matrix.org", 1600000000000L + i));
+        }
+
+        // all the echoes have been replaced
+        assertEquals(echoesCount, store.getRoomMessages(TEST_ROOM_ID).size());
+        assertFalse(store.doesEventExist(echoes.get(0).eventId, TEST_ROOM_ID));
+        assertFalse(store.doesEventExist(echoes.get(echoesCount - 1).eventId, TEST_ROOM_ID));
+        assertTrue(store.doesEventExist("$remote" + (echoesCount - 1) + ":matrix.org", TEST_ROOM_ID));
+    }
+
+    @Test
+    public void testUnreadCounters() {
+        MXMemoryStore store = createStore();
+
+        for (int i = 0; i < 10; i++) {
+            store.storeLiveRoomEvent(createEvent(i));
+        }
+
+        // no read receipt : all the events are unread
+        assertEquals(10, store.getUnreadEventsCount(TEST_ROOM_ID));
+
+        store.storeReceipt(new ReceiptData(TEST_USER_ID, "$4:matrix.org", 1), TEST_ROOM_ID);
+        assertEquals(5, store.getUnreadEventsCount(TEST_ROOM_ID));
+        assertEquals(store.eventsCountAfter(TEST_ROOM_ID, "$4:matrix.org"), store.getUnreadEventsCount(TEST_ROOM_ID));
+
+        // the user events are not counted
+        Event myEvent = createEvent(10);
+        myEvent.sender = TEST_USER_ID;
+        store.storeLiveRoomEvent(myEvent);
+        store.storeLiveRoomEvent(createEvent(11));
+        assertEquals(6, store.getUnreadEventsCount(TEST_ROOM_ID));
+
+        // the highlighted events are counted until they are read
+        store.setEventHighlighted(TEST_ROOM_ID, "$2:matrix.org");
+        store.setEventHighlighted(TEST_ROOM_ID, "$8:matrix.org");
+        store.setEventHighlighted(TEST_ROOM_ID, "$11:matrix.org");
+        assertEquals(2, store.getHighlightedEventsCount(TEST_ROOM_ID));
+
+        store.deleteEvent(createEvent(6));
+        assertEquals(5, store.getUnreadEventsCount(TEST_ROOM_ID));
+
+        store.storeReceipt(new ReceiptData(TEST_USER_ID, "$9:matrix.org", 2), TEST_ROOM_ID);
+        assertEquals(1, store.getUnreadEventsCount(TEST_ROOM_ID));
+        assertEquals(1, store.getHighlightedEventsCount(TEST_ROOM_ID));
+
+        // the read event is deleted : all the events are unread again (as eventsCountAfter)
+        store.deleteEvent(createEvent(9));
+        assertEquals(store.eventsCountAfter(TEST_ROOM_ID, "$9:matrix.org"), store.getUnreadEventsCount(TEST_ROOM_ID));
+
+        store.deleteRoomData(TEST_ROOM_ID);
+        assertEquals(0, store.getUnreadEventsCount(TEST_ROOM_ID));
+    }
+
+    /**
+     * The read event is deleted as MXDataHandler.deleteRoomEvent does : the summary read receipt
+     * is moved to the latest event while the stored receipt still references the deleted event.
+     */
+    @Test
+    public void testUnreadCountersFollowTheSummaryReadReceipt() {
+        MXMemoryStore store = createStore();
+
+        for (int i = 0; i < 10; i++) {
+            store.storeLiveRoomEvent(createEvent(i));
+        }
+
+        RoomSummary summary = new RoomSummary();
+        summary.setRoomId(TEST_ROOM_ID);
+        summary.setReadReceiptEventId("$9:matrix.org");
+        store.storeSummary(summary);
+        store.storeReceipt(new ReceiptData(TEST_USER_ID, "$9:matrix.org", 1), TEST_ROOM_ID);
+        assertEquals(0, store.getUnreadEventsCount(TEST_ROOM_ID));
+
+        store.deleteEvent(createEvent(9));
+        summary.setReadReceiptEventId(store.getLatestEvent(TEST_ROOM_ID).eventId);
+        store.storeSummary(summary);
+
+        assertEquals("$9:matrix.org", store.getReceipt(TEST_ROOM_ID, TEST_USER_ID).eventId);
+        assertEquals(0, store.getUnreadEventsCount(TEST_ROOM_ID));
+
+        store.storeLiveRoomEvent(createEvent(10));
+        assertEquals(1, store.getUnreadEventsCount(TEST_ROOM_ID));
+
+        // a receipt from another client moves the summary one
+        summary.setReadReceiptEventId("$5:matrix.org");
+        assertEquals(4, store.getUnreadEventsCount(TEST_ROOM_ID));
+    }
+
+    /**
+     * Check the unread counter against a scan of the events to the read event.
+     */
+    @Test
+    public void testUnreadEventsCountMatchesEventsScan() {
+        final int eventsCount = 1000;
+        final int refreshesCount = 200;
+        MXMemoryStore store = createStore();
+
+        createHistory(store, eventsCount);
+        String readEventId = "$" + (eventsCount - 100) + ":matrix.org";
+        store.storeReceipt(new ReceiptData(TEST_USER_ID, readEventId, 1), TEST_ROOM_ID);
+
+        for (int i = 0; i < refreshesCount; i++) {
+            store.storeLiveRoomEvent(createEvent(eventsCount + i));
+            assertEquals(99 + i + 1, store.getUnreadEventsCount(TEST_ROOM_ID));
+        }
+
+        // the room events are scanned to the read event
+        List<Event> events = new ArrayList<>(store.getRoomMessages(TEST_ROOM_ID));
+        int count = 0;
+
+        for (int index = events.size() - 1; index >= 0; index--) {
+            if (readEventId.equals(events.get(index).eventId)) {
+                break;
+            }
+            count++;
+        }
+
+        assertEquals(count, store.getUnreadEventsCount(TEST_ROOM_ID));
+    }
+
+    /**
+     * Memory store which reloads the evicted events from a saved copy.
+     */
+    private static class EvictableMemoryStore extends MXMemoryStore {
+        final Map<String, LinkedHashMap<String, Event>> mSavedEvents = new HashMap<>();
+        int mReloadsCount = 0;
+
+        EvictableMemoryStore(int maxLoadedEventsCount) {
+            super();
+            mCredentials = new Credentials();
+            mCredentials.userId = TEST_USER_ID;
+            setMaxLoadedEventsCount(maxLoadedEventsCount);
+        }
+
+        @Override
+        protected boolean canEvictRoomEvents(String roomId) {
+            mSavedEvents.put(roomId, new LinkedHashMap<>(mRoomEvents.get(roomId)));
+            return true;
+        }
+
+        @Override
+        protected LinkedHashMap<String, Event> loadEvictedRoomEvents(String roomId) {
+            mReloadsCount++;
+            return mSavedEvents.remove(roomId);
+        }
+    }
+
+    private static Event createRoomEvent(String roomId, int index) {
+        Event event = createEvent(index);
+        event.roomId = roomId;
+        event.eventId = "$" + roomId.hashCode() + "_" + index + ":matrix.org";
+        return event;
+    }
+
+    @Test
+    public void testColdRoomsEviction() {
+        final String otherRoomId = "!otherroomid:matrix.org";
+        EvictableMemoryStore store = new EvictableMemoryStore(15);
+
+        for (int i = 0; i < 10; i++) {
+            store.storeLiveRoomEvent(createEvent(i));
+        }
+        store.storeReceipt(new ReceiptData(TEST_USER_ID, "$6:matrix.org", 1), TEST_ROOM_ID);
+        assertEquals(3, store.getUnreadEventsCount(TEST_ROOM_ID));
+
+        for (int i = 0; i < 10; i++) {
+            store.storeLiveRoomEvent(createRoomEvent(otherRoomId, i));
+        }
+        assertEquals(20, store.getLoadedEventsCount());
+
+        // the least recently used room is evicted
+        store.evictColdRooms();
+        assertTrue(store.isRoomEventsEvicted(TEST_ROOM_ID));
+        assertFalse(store.isRoomEventsEvicted(otherRoomId));
+        assertEquals(10, store.getLoadedEventsCount());
+
+        // the ids, the ordinals and the counters are kept
+        assertTrue(store.doesEventExist("$3:matrix.org", TEST_ROOM_ID));
+        assertTrue(store.isEventRead(TEST_ROOM_ID, TEST_USER_ID, "$5:matrix.org"));
+        assertFalse(store.isEventRead(TEST_ROOM_ID, TEST_USER_ID, "$8:matrix.org"));
+        assertEquals(3, store.getUnreadEventsCount(TEST_ROOM_ID));
+        assertEquals(0, store.mReloadsCount);
+
+        // the events are reloaded when they are read
+        assertEquals(10, store.getRoomMessages(TEST_ROOM_ID).size());
+        assertEquals(1, store.mReloadsCount);
+        assertFalse(store.isRoomEventsEvicted(TEST_ROOM_ID));
+        assertEquals(20, store.getLoadedEventsCount());
+
+        // now the other room is the least recently used one
+        store.evictColdRooms();
+        assertTrue(store.isRoomEventsEvicted(otherRoomId));
+        assertFalse(store.isRoomEventsEvicted(TEST_ROOM_ID));
+
+        // a live event reloads the room
+        store.storeLiveRoomEvent(createRoomEvent(otherRoomId, 10));
+        assertEquals(11, store.getRoomMessages(otherRoomId).size());
+        assertEquals(2, store.mReloadsCount);
+    }
+
+    /**
+     * The reloaded events differ from the evicted ones (e.g. the history has been reduced when it was saved) :
+     * the event ids and the ordinals must match the reloaded events.
+     */
+    @Test
+    public void testEvictedRoomReload() {
+        final String otherRoomId = "!otherroomid:matrix.org";
+        EvictableMemoryStore store = new EvictableMemoryStore(15);
+
+        createHistory(store, 100);
+
+        for (int i = 0; i < 10; i++) {
+            store.storeLiveRoomEvent(createRoomEvent(otherRoomId, i));
+        }
+
+        store.evictColdRooms();
+        assertTrue(store.isRoomEventsEvicted(TEST_ROOM_ID));
+
+        // only the latest 50 events have been saved
+        LinkedHashMap<String, Event> savedEvents = store.mSavedEvents.get(TEST_ROOM_ID);
+        for (int i = 0; i < 50; i++) {
+            savedEvents.remove("$" + i + ":matrix.org");
+        }
+
+        TokensChunkResponse<Event> response = store.getEarlierMessages(TEST_ROOM_ID, null, 15);
+        assertEquals(1, store.mReloadsCount);
+        assertFalse(store.isRoomEventsEvicted(TEST_ROOM_ID));
+        assertEquals("$99:matrix.org", response.chunk.get(0).eventId);
+        assertEquals("t80", response.end);
+
+        assertTrue(store.doesEventExist("$50:matrix.org", TEST_ROOM_ID));
+        assertFalse(store.doesEventExist("$49:matrix.org", TEST_ROOM_ID));
+        assertNull(store.getEvent("$49:matrix.org", TEST_ROOM_ID));
+
+        // the pages stop at the oldest reloaded event
+        int eventsCount = response.chunk.size();
+
+        while (null != (response = store.getEarlierMessages(TEST_ROOM_ID, response.end, 15))) {
+            for (Event event : response.chunk) {
+                assertTrue(store.doesEventExist(event.eventId, TEST_ROOM_ID));
+            }
+            eventsCount += response.chunk.size();
+        }
+
+        assertEquals(50, eventsCount);
+        assertEquals(1, store.mReloadsCount);
+    }
+
+    @Test
+    public void testNoEvictionWithoutBudget() {
+        EvictableMemoryStore store = new EvictableMemoryStore(0);
+
+        for (int i = 0; i < 10; i++) {
+            store.storeLiveRoomEvent(createEvent(i));
+            store.storeLiveRoomEvent(createRoomEvent("!otherroomid:matrix.org", i));
+        }
+
+        store.evictColdRooms();
+        assertFalse(store.isRoomEventsEvicted(TEST_ROOM_ID));
+        assertEquals(0, store.getLoadedEventsCount());
+    }
+
+    @Test
+    public void testRoomWithLocalEchoIsNotEvicted() {
+        EvictableMemoryStore store = new EvictableMemoryStore(5);
+
+        for (int i = 0; i < 10; i++) {
+            store.storeLiveRoomEvent(createEvent(i));
+        }
+        store.storeLiveRoomEvent(createLocalEcho(TEST_ROOM_ID, 1600000000000L));
+
+        for (int i = 0; i < 10; i++) {
+            store.storeLiveRoomEvent(createRoomEvent("!otherroomid:matrix.org", i));
+        }
+
+        store.evictColdRooms();
+        assertFalse(store.isRoomEventsEvicted(TEST_ROOM_ID));
+    }
+
+    private static String createJoinedRoom(MXMemoryStore store, int index, long latestTs) {
+        String roomId = "!room" + index + ":matrix.org";
+
+        Room room = new Room();
+        room.init(store, roomId, null);
+        RoomMember member = new RoomMember();
+        member.membership = RoomMember.MEMBERSHIP_JOIN;
+        room.getState().setMember(TEST_USER_ID, member);
+        store.storeRoom(room);
+
+        Event event = createRoomEvent(roomId, index);
+        event.originServerTs = latestTs;
+        RoomSummary summary = new RoomSummary();
+        summary.setRoomId(roomId);
+        summary.setLatestReceivedEvent(event);
+        store.storeSummary(summary);
+
+        return roomId;
+    }
+
+    private static void setRoomTag(MXMemoryStore store, String roomId, String tag, Double order) {
+        Event event = new Event();
+        event.type = Event.EVENT_TYPE_TAGS;
+        event.content = new JsonParser().parse("{'tags': {'" + tag + "': " + ((null != order) ? "{'order': " + order + "}" : "{}") + "}}");
+
+        RoomAccountData accountData = new RoomAccountData();
+        accountData.handleTagEvent(event);
+        store.getRoom(roomId).setAccountData(accountData);
+        store.storeAccountData(roomId, accountData);
+    }
+
+    @Test
+    public void testSortedSummaries() {
+        MXMemoryStore store = createStore();
+
+        String roomId1 = createJoinedRoom(store, 1, 1000);
+        String roomId2 = createJoinedRoom(store, 2, 3000);
+        String roomId3 = createJoinedRoom(store, 3, 2000);
+
+        List<RoomSummary> summaries = store.getLatestSummaries(2);
+        assertEquals(2, summaries.size());
+        assertEquals(roomId2, summaries.get(0).getRoomId());
+        assertEquals(roomId3, summaries.get(1).getRoomId());
+
+        // a flushed summary is sorted again
+        RoomSummary summary = store.getSummary(roomId1);
+        Event event = createRoomEvent(roomId1, 10);
+        event.originServerTs = 4000;
+        summary.setLatestReceivedEvent(event);
+        store.flushSummary(summary);
+        assertEquals(roomId1, store.getLatestSummaries(1).get(0).getRoomId());
+
+        // the tagged rooms are sorted by order then by latest event
+        setRoomTag(store, roomId1, "m.favourite", null);
+        setRoomTag(store, roomId2, "m.favourite", 0.5);
+        setRoomTag(store, roomId3, "m.favourite", 0.2);
+        assertEquals(Arrays.asList(roomId3, roomId2, roomId1), store.getRoomIdsWithTag("m.favourite"));
+
+        setRoomTag(store, roomId3, "m.lowpriority", null);
+        assertEquals(Arrays.asList(roomId2, roomId1), store.getRoomIdsWithTag("m.favourite"));
+        assertEquals(Collections.singletonList(roomId3), store.getRoomIdsWithTag("m.lowpriority"));
+
+        store.deleteRoom(roomId2);
+        assertEquals(Collections.singletonList(roomId1), store.getRoomIdsWithTag("m.favourite"));
+        assertEquals(2, store.getLatestSummaries(10).size());
+
+        // the index is built again from the loaded summaries
+        store.invalidateSummariesIndex();
+        assertEquals(roomId1, store.getLatestSummaries(1).get(0).getRoomId());
+        assertEquals(Collections.singletonList(roomId1), store.getRoomIdsWithTag("m.favourite"));
+    }
+
+    /**
+     * Check the top rooms read from the index against the summaries sort.
+     */
+    @Test
+    public void testLatestSummariesMatchSummariesSort() {
+        final int roomsCount = 500;
+        final int updatesCount = 200;
+        final int topCount = 20;
+        MXMemoryStore store = createStore();
+
+        for (int i = 0; i < roomsCount; i++) {
+            createJoinedRoom(store, i, 1000 + ((i * 7919) % roomsCount));
+        }
+
+        for (int i = 0; i < updatesCount; i++) {
+            RoomSummary summary = store.getSummary("!room" + ((i * 31) % roomsCount) + ":matrix.org");
+            summary.getLatestReceivedEvent().originServerTs = 10000 + i;
+            store.flushSummary(summary);
+
+            List<RoomSummary> summaries = new ArrayList<>(store.getSummaries());
+
+            Collections.sort(summaries, new Comparator<RoomSummary>() {
+                @Override
+                public int compare(RoomSummary lhs, RoomSummary rhs) {
+                    long diff = rhs.getLatestReceivedEvent().getOriginServerTs() - lhs.getLatestReceivedEvent().getOriginServerTs();
+                    return (diff == 0) ? 0 : (diff > 0) ? +1 : -1;
+                }
+            });
+
+            List<RoomSummary> latestSummaries = store.getLatestSummaries(topCount);
+            assertEquals(topCount, latestSummaries.size());
+            assertEquals(summaries.get(0).getRoomId(), latestSummaries.get(0).getRoomId());
+        }
+    }
+}
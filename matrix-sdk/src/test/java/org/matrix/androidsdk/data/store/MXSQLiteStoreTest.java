@@ -0,0 +1,401 @@
+/*
+ * Copyright 2017 Vector Creations Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.matrix.androidsdk.data.store;
+
+import android.content.Context;
+import android.net.Uri;
+
+import com.google.gson.JsonParser;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.matrix.androidsdk.HomeserverConnectionConfig;
+import org.matrix.androidsdk.data.Room;
+import org.matrix.androidsdk.data.RoomSummary;
+import org.matrix.androidsdk.rest.callback.SimpleApiCallback;
+import org.matrix.androidsdk.rest.model.Event;
+import org.matrix.androidsdk.rest.model.ReceiptData;
+import org.matrix.androidsdk.rest.model.TokensChunkResponse;
+import org.matrix.androidsdk.rest.model.login.Credentials;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+@RunWith(RobolectricTestRunner.class)
+public class MXSQLiteStoreTest {
+
+    private static final String TEST_ROOM_ID = "!testroomid:matrix.org";
+    private static final String TEST_USER_ID = "@testuserid:matrix.org";
+    private static final String TEST_ROOM_TOKEN = "initial-token";
+
+    // the number of events committed in each room by a benchmark commit
+    private static final int COMMITTED_EVENTS_COUNT = 10;
+
+    private Context mContext;
+    private HomeserverConnectionConfig mHsConfig;
+
+    @Before
+    public void setUp() {
+        mContext = RuntimeEnvironment.application;
+
+        Credentials credentials = new Credentials();
+        credentials.userId = TEST_USER_ID;
+        credentials.accessToken = "access-token";
+        credentials.homeServer = "matrix.org";
+
+        mHsConfig = new HomeserverConnectionConfig(Uri.parse("https://matrix.org"), credentials);
+    }
+
+    @After
+    public void tearDown() {
+        MXSQLiteStore store = new MXSQLiteStore(mHsConfig, mContext);
+        store.clear();
+        store.close();
+    }
+
+    private static Event createEvent(String roomId, int index) {
+        Event event = new Event();
+        event.type = Event.EVENT_TYPE_MESSAGE;
+        event.eventId = "$" + index + "abcdef:matrix.org";
+        event.roomId = roomId;
+        event.sender = "@user" + (index % 20) + ":matrix.org";
+        event.originServerTs = 1500000000000L + index;
+        event.content = new JsonParser().parse("{'msgtype': 'm.text', 'body': 'Message " + index + " with some text'}");
+
+        if (0 == (index % 10)) {
+            event.mToken = "t" + index;
+        }
+
+        return event;
+    }
+
+    /**
+     * Fill a store with a room, its events, its summary and a receipt.
+     */
+    private static void fillStore(IMXStore store, String roomId, int eventsCount) {
+        Room room = new Room();
+        room.init(store, roomId, null);
+        store.storeRoom(room);
+        store.storeBackToken(roomId, TEST_ROOM_TOKEN);
+
+        Event lastEvent = null;
+
+        for (int i = 0; i < eventsCount; i++) {
+            lastEvent = createEvent(roomId, i);
+            store.storeLiveRoomEvent(lastEvent);
+        }
+
+        store.storeSummary(new RoomSummary(null, lastEvent, null, TEST_USER_ID));
+        store.storeReceipt(new ReceiptData(TEST_USER_ID, lastEvent.eventId, lastEvent.originServerTs), roomId);
+        store.storeLiveStateForRoom(roomId);
+    }
+
+    /**
+     * Wait until the pending commits are written.
+     */
+    private static void waitForCommits(IMXStore store, String roomId) throws Exception {
+        final CountDownLatch lock = new CountDownLatch(1);
+
+        // the state events are read on the store thread after the pending writes
+        store.getRoomStateEvents(roomId, new SimpleApiCallback<List<Event>>() {
+            @Override
+            public void onSuccess(List<Event> info) {
+                lock.countDown();
+            }
+        });
+
+        assertTrue(lock.await(10, TimeUnit.SECONDS));
+    }
+
+    /**
+     * Open a store and wait until it is ready.
+     */
+    private static void openStore(IMXStore store) throws Exception {
+        final CountDownLatch lock = new CountDownLatch(1);
+
+        store.addMXStoreListener(new MXStoreListener() {
+            @Override
+            public void onStoreReady(String accountId) {
+                lock.countDown();
+            }
+
+            @Override
+            public void onStoreCorrupted(String accountId, String description) {
+                lock.countDown();
+            }
+        });
+
+        store.open();
+        assertTrue(lock.await(10, TimeUnit.SECONDS));
+    }
+
+    private MXSQLiteStore reopenStore() throws Exception {
+        MXSQLiteStore store = new MXSQLiteStore(mHsConfig, mContext);
+        openStore(store);
+        assertTrue(store.isReady());
+        return store;
+    }
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        MXSQLiteStore store = new MXSQLiteStore(mHsConfig, mContext);
+        openStore(store);
+        store.setEventStreamToken("stream-token");
+        fillStore(store, TEST_ROOM_ID, 20);
+        store.commit();
+        waitForCommits(store, TEST_ROOM_ID);
+        store.close();
+
+        store = reopenStore();
+
+        assertEquals("stream-token", store.getEventStreamToken());
+        assertNotNull(store.getRoom(TEST_ROOM_ID));
+        assertEquals(20, store.getRoomMessages(TEST_ROOM_ID).size());
+        assertEquals(createEvent(TEST_ROOM_ID, 19).eventId, store.getLatestEvent(TEST_ROOM_ID).eventId);
+        assertNotNull(store.getSummary(TEST_ROOM_ID));
+        assertNotNull(store.getReceipt(TEST_ROOM_ID, TEST_USER_ID));
+        store.close();
+    }
+
+    @Test
+    public void testPagedEarlierMessages() throws Exception {
+        final int eventsCount = 200;
+
+        MXSQLiteStore store = new MXSQLiteStore(mHsConfig, mContext);
+        openStore(store);
+        fillStore(store, TEST_ROOM_ID, eventsCount);
+        store.commit();
+        waitForCommits(store, TEST_ROOM_ID);
+        store.close();
+
+        store = reopenStore();
+
+        // only the latest events are loaded
+        assertTrue(store.getRoomMessages(TEST_ROOM_ID).size() < eventsCount);
+
+        Set<String> eventIds = new HashSet<>();
+        String token = null;
+        TokensChunkResponse<Event> response;
+
+        while (null != (response = store.getEarlierMessages(TEST_ROOM_ID, token, 20))) {
+            for (Event event : response.chunk) {
+                eventIds.add(event.eventId);
+            }
+            token = response.end;
+        }
+
+        assertEquals(eventsCount, eventIds.size());
+        assertEquals(eventsCount, store.getRoomMessages(TEST_ROOM_ID).size());
+        store.close();
+    }
+
+    @Test
+    public void testGetEventIsIndexed() throws Exception {
+        MXSQLiteStore store = new MXSQLiteStore(mHsConfig, mContext);
+        openStore(store);
+        fillStore(store, TEST_ROOM_ID, 200);
+        store.commit();
+        waitForCommits(store, TEST_ROOM_ID);
+        store.close();
+
+        store = reopenStore();
+
+        Event oldEvent = createEvent(TEST_ROOM_ID, 5);
+
+        // the event is not loaded but it is read from the database
+        assertFalse(store.getRoomMessages(TEST_ROOM_ID).contains(oldEvent));
+        assertNotNull(store.getEvent(oldEvent.eventId, TEST_ROOM_ID));
+        assertTrue(store.doesEventExist(oldEvent.eventId, TEST_ROOM_ID));
+        assertNull(store.getEvent("$unknown:matrix.org", TEST_ROOM_ID));
+        store.close();
+    }
+
+    @Test
+    public void testDeletedRoomIsCommitted() throws Exception {
+        MXSQLiteStore store = new MXSQLiteStore(mHsConfig, mContext);
+        openStore(store);
+        fillStore(store, TEST_ROOM_ID, 20);
+        store.commit();
+        waitForCommits(store, TEST_ROOM_ID);
+
+        store.deleteRoom(TEST_ROOM_ID);
+        store.commit();
+        waitForCommits(store, TEST_ROOM_ID);
+        store.close();
+
+        store = reopenStore();
+
+        assertNull(store.getRoom(TEST_ROOM_ID));
+        assertNull(store.getSummary(TEST_ROOM_ID));
+        assertNull(store.getEvent(createEvent(TEST_ROOM_ID, 1).eventId, TEST_ROOM_ID));
+        store.close();
+    }
+
+    /**
+     * Create a file store or a SQLite store.
+     */
+    private IMXStore createStore(boolean isSQLiteStore) {
+        return isSQLiteStore ? new MXSQLiteStore(mHsConfig, mContext) : new MXFileStore(mHsConfig, mContext);
+    }
+
+    /**
+     * Wait until the threads of the closed stores are stopped, so the closed stores can be garbage collected.
+     */
+    private static void waitForClosedStores() throws Exception {
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (thread.getName().startsWith("MXFileStoreBackgroundThread_") || thread.getName().startsWith("MXSQLiteStoreBackgroundThread_")) {
+                thread.join(10000);
+                assertFalse(thread.isAlive());
+            }
+        }
+    }
+
+    /**
+     * @return the used heap after a garbage collection
+     */
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    /**
+     * Fill a store with the benchmark rooms then measure the commit of some new events in each room.
+     *
+     * @return the best commit latency in nanoseconds
+     */
+    private long fillAndMeasureCommit(boolean isSQLiteStore, int roomsCount, int eventsCount, int runsCount) throws Exception {
+        IMXStore store = createStore(isSQLiteStore);
+        openStore(store);
+
+        // the file store does not save its metadata without a stream token
+        store.setEventStreamToken("stream-token");
+
+        for (int i = 0; i < roomsCount; i++) {
+            fillStore(store, TEST_ROOM_ID + i, eventsCount);
+        }
+
+        store.commit();
+        store.flushCommits();
+        waitForCommits(store, TEST_ROOM_ID + 0);
+
+        long commitTime = Long.MAX_VALUE;
+
+        for (int run = 0; run < runsCount; run++) {
+            long t0 = System.nanoTime();
+            for (int i = 0; i < roomsCount; i++) {
+                for (int j = 0; j < COMMITTED_EVENTS_COUNT; j++) {
+                    store.storeLiveRoomEvent(createEvent(TEST_ROOM_ID + i, eventsCount + run * COMMITTED_EVENTS_COUNT + j));
+                }
+            }
+            store.commit();
+            store.flushCommits();
+            waitForCommits(store, TEST_ROOM_ID + 0);
+            commitTime = Math.min(commitTime, System.nanoTime() - t0);
+        }
+
+        store.close();
+        return commitTime;
+    }
+
+    /**
+     * Open a filled store and measure it.
+     *
+     * @return the open time in nanoseconds, the heap used by the opened store and the loaded events count
+     */
+    private long[] measureOpen(boolean isSQLiteStore, int roomsCount, int latestEventIndex) throws Exception {
+        waitForClosedStores();
+        long heapBeforeOpen = usedHeap();
+
+        IMXStore store = createStore(isSQLiteStore);
+        long t0 = System.nanoTime();
+        openStore(store);
+        long openTime = System.nanoTime() - t0;
+        long heapSize = usedHeap() - heapBeforeOpen;
+
+        assertEquals(roomsCount, store.getRooms().size());
+        assertEquals(createEvent(TEST_ROOM_ID + 0, latestEventIndex).eventId, store.getLatestEvent(TEST_ROOM_ID + 0).eventId);
+
+        long loadedEventsCount = 0;
+        for (int i = 0; i < roomsCount; i++) {
+            loadedEventsCount += store.getRoomMessages(TEST_ROOM_ID + i).size();
+        }
+
+        store.close();
+        return new long[]{openTime, heapSize, loadedEventsCount};
+    }
+
+    /**
+     * Compare the open time, the used heap and the commit latency of the SQLite store and of the file store.
+     * Each measure is the best of several runs, they are reported in the assertions messages.
+     */
+    @Test
+    public void benchmarkStores() throws Exception {
+        final int roomsCount = 100;
+        final int eventsCount = 500;
+        final int runsCount = 5;
+
+        // the file store then the SQLite store
+        long[] commitTimes = new long[2];
+        long[] openTimes = new long[]{Long.MAX_VALUE, Long.MAX_VALUE};
+        long[] heapSizes = new long[]{Long.MAX_VALUE, Long.MAX_VALUE};
+        long[] loadedEventsCounts = new long[2];
+
+        for (int storeIndex = 0; storeIndex < 2; storeIndex++) {
+            boolean isSQLiteStore = (1 == storeIndex);
+            commitTimes[storeIndex] = fillAndMeasureCommit(isSQLiteStore, roomsCount, eventsCount, runsCount);
+
+            for (int run = 0; run < runsCount; run++) {
+                long[] measures = measureOpen(isSQLiteStore, roomsCount, eventsCount + runsCount * COMMITTED_EVENTS_COUNT - 1);
+                openTimes[storeIndex] = Math.min(openTimes[storeIndex], measures[0]);
+                heapSizes[storeIndex] = Math.min(heapSizes[storeIndex], measures[1]);
+                loadedEventsCounts[storeIndex] = measures[2];
+            }
+
+            IMXStore store = createStore(isSQLiteStore);
+            openStore(store);
+            store.clear();
+            store.close();
+        }
+
+        String report = "(" + roomsCount + " rooms x " + eventsCount + " events) file store vs SQLite store :"
+                + " open " + (openTimes[0] / 1000000) + " ms vs " + (openTimes[1] / 1000000) + " ms"
+                + " - heap " + (heapSizes[0] / 1024) + " KB vs " + (heapSizes[1] / 1024) + " KB"
+                + " - commit " + (commitTimes[0] / 1000000) + " ms vs " + (commitTimes[1] / 1000000) + " ms"
+                + " - loaded events " + loadedEventsCounts[0] + " vs " + loadedEventsCounts[1];
+
+        // the SQLite store only loads the latest events of each room
+        assertTrue(report, loadedEventsCounts[1] < loadedEventsCounts[0]);
+        assertTrue(report, openTimes[1] < openTimes[0]);
+        assertTrue(report, heapSizes[1] < heapSizes[0]);
+
+        // a SQLite transaction costs about the same as the file store journal appends
+        assertTrue(report, commitTimes[1] < 3 * commitTimes[0]);
+    }
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright 2017 Vector Creations Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.matrix.androidsdk.rest.json;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.matrix.androidsdk.rest.model.Event;
+import org.matrix.androidsdk.rest.model.Sync.InvitedRoomSync;
+import org.matrix.androidsdk.rest.model.Sync.RoomSync;
+import org.matrix.androidsdk.rest.model.Sync.SyncResponse;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Class for unit testing the SyncResponseParser.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class SyncResponseParserTest {
+
+    private static final String TO_DEVICE_JSON = "'to_device': {'events': [{'type': 'm.room_key', 'sender': '@alice:matrix.org', 'content': {}}]}";
+
+    private static final String ROOMS_JSON = "'rooms': {"
+            + "'join': {'!joined:matrix.org': {'timeline': {'events': [{'type': 'm.room.message', 'event_id': '$1', 'content': {'body': 'hello'}}], 'limited': false}}},"
+            + "'invite': {'!invited:matrix.org': {'invite_state': {'events': []}}},"
+            + "'leave': {'!left:matrix.org': {'timeline': {'events': []}}}}";
+
+    private static final String PRESENCE_JSON = "'presence': {'events': [{'type': 'm.presence', 'sender': '@bob:matrix.org', 'content': {}}]}";
+
+    private static final String ACCOUNT_DATA_JSON = "'account_data': {'events': [{'type': 'm.direct', 'content': {}}]}";
+
+    /**
+     * Listener which records the streamed sections.
+     */
+    private static class RecordingListener implements SyncResponseParser.Listener {
+        final List<String> mSections = new ArrayList<>();
+
+        @Override
+        public void onToDeviceEvents(List<Event> events) {
+            mSections.add("to_device:" + events.size());
+        }
+
+        @Override
+        public void onJoinedRoom(String roomId, RoomSync roomSync) {
+            mSections.add("join:" + roomId);
+        }
+
+        @Override
+        public void onInvitedRoom(String roomId, InvitedRoomSync invitedRoomSync) {
+            mSections.add("invite:" + roomId);
+        }
+
+        @Override
+        public void onLeftRoom(String roomId, RoomSync roomSync) {
+            mSections.add("leave:" + roomId);
+        }
+
+        @Override
+        public void onPresenceEvents(List<Event> events) {
+            mSections.add("presence:" + events.size());
+        }
+
+        @Override
+        public void onAccountData(Map<String, Object> accountData) {
+            mSections.add("account_data");
+        }
+    }
+
+    private static SyncResponse parse(String json, SyncResponseParser.Listener listener) throws IOException {
+        return SyncResponseParser.parse(new StringReader(json.replace('\'', '"')), listener);
+    }
+
+    @Test
+    public void testWholeResponseWithoutListener() throws Exception {
+        SyncResponse syncResponse = parse("{'next_batch': 's42', " + TO_DEVICE_JSON + ", " + ROOMS_JSON + ", " + PRESENCE_JSON + ", "
+                + ACCOUNT_DATA_JSON + ", 'device_lists': {'changed': ['@alice:matrix.org']}, 'groups': {}}", null);
+
+        assertEquals("s42", syncResponse.nextBatch);
+        assertEquals(1, syncResponse.toDevice.events.size());
+        assertEquals(1, syncResponse.rooms.join.get("!joined:matrix.org").timeline.events.size());
+        assertNotNull(syncResponse.rooms.invite.get("!invited:matrix.org"));
+        assertNotNull(syncResponse.rooms.leave.get("!left:matrix.org"));
+        assertEquals(1, syncResponse.presence.events.size());
+        assertNotNull(syncResponse.accountData.get("events"));
+        assertEquals(1, syncResponse.deviceLists.changed.size());
+    }
+
+    @Test
+    public void testSectionsAreStreamedInOrder() throws Exception {
+        RecordingListener listener = new RecordingListener();
+
+        SyncResponse syncResponse = parse("{" + TO_DEVICE_JSON + ", " + ROOMS_JSON + ", " + PRESENCE_JSON + ", " + ACCOUNT_DATA_JSON
+                + ", 'next_batch': 's42'}", listener);
+
+        assertEquals("[to_device:1, join:!joined:matrix.org, invite:!invited:matrix.org, leave:!left:matrix.org, presence:1, account_data]",
+                listener.mSections.toString());
+
+        // the streamed parts are not kept but the rooms ids are
+        assertEquals("s42", syncResponse.nextBatch);
+        assertNull(syncResponse.toDevice);
+        assertTrue(syncResponse.rooms.join.containsKey("!joined:matrix.org"));
+        assertNull(syncResponse.rooms.join.get("!joined:matrix.org"));
+        assertNull(syncResponse.rooms.invite.get("!invited:matrix.org"));
+        assertNull(syncResponse.rooms.leave.get("!left:matrix.org"));
+        assertNull(syncResponse.presence);
+        assertNull(syncResponse.accountData);
+    }
+
+    @Test
+    public void testSectionsAfterAMissingOneAreKept() throws Exception {
+        RecordingListener listener = new RecordingListener();
+
+        // the rooms are received before the to-device events : they must be managed after them
+        SyncResponse syncResponse = parse("{" + ACCOUNT_DATA_JSON + ", " + ROOMS_JSON + ", " + TO_DEVICE_JSON + ", " + PRESENCE_JSON
+                + ", 'next_batch': 's42'}", listener);
+
+        assertEquals("[to_device:1]", listener.mSections.toString());
+
+        assertNull(syncResponse.toDevice);
+        assertNotNull(syncResponse.rooms.join.get("!joined:matrix.org"));
+        assertNotNull(syncResponse.rooms.invite.get("!invited:matrix.org"));
+        assertNotNull(syncResponse.rooms.leave.get("!left:matrix.org"));
+        assertEquals(1, syncResponse.presence.events.size());
+        assertNotNull(syncResponse.accountData);
+    }
+
+    @Test(expected = IOException.class)
+    public void testTruncatedResponse() throws Exception {
+        parse("{" + TO_DEVICE_JSON + ", 'rooms': {'join': {'!joined:matrix.org': {'timeline': ", new RecordingListener());
+    }
+}
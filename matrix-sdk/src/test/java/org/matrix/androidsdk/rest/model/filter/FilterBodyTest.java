@@ -0,0 +1,40 @@
+/*
+ * Copyright 2017 Vector Creations Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.matrix.androidsdk.rest.model.filter;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+@RunWith(RobolectricTestRunner.class)
+public class FilterBodyTest {
+
+    @Test
+    public void testSyncFilterJson() {
+        FilterBody filter = FilterBody.createSyncFilter(10, null, Arrays.asList("m.call.candidates"), false);
+
+        assertEquals("{\"presence\":{\"not_types\":[\"*\"]},\"room\":{\"timeline\":{\"limit\":10,\"not_types\":[\"m.call.candidates\"]}}}", filter.toJSONString());
+
+        // the JSON string is used to detect the filter updates
+        assertEquals(filter.toJSONString(), FilterBody.createSyncFilter(10, null, Arrays.asList("m.call.candidates"), false).toJSONString());
+        assertNotEquals(filter.toJSONString(), FilterBody.createSyncFilter(20, null, Arrays.asList("m.call.candidates"), false).toJSONString());
+        assertEquals("{\"room\":{\"timeline\":{}}}", FilterBody.createSyncFilter(null, null, null, true).toJSONString());
+    }
+}
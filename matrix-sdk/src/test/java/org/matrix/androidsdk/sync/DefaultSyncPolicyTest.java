@@ -0,0 +1,96 @@
+/*
+ * Copyright 2017 Vector Creations Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.matrix.androidsdk.sync;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import static org.junit.Assert.*;
+
+/**
+ * Class for unit testing the DefaultSyncPolicy.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class DefaultSyncPolicyTest {
+
+    @Test
+    public void testRetryDelays() {
+        DefaultSyncPolicy syncPolicy = new DefaultSyncPolicy(null);
+
+        for (int i = 0; i < 10; i++) {
+            long firstDelay = syncPolicy.getRetryDelayMs(1);
+            assertTrue(firstDelay >= 5000 && firstDelay <= 10000);
+
+            long secondDelay = syncPolicy.getRetryDelayMs(2);
+            assertTrue(secondDelay >= 10000 && secondDelay <= 20000);
+
+            long maxDelay = syncPolicy.getRetryDelayMs(100);
+            assertTrue(maxDelay >= 150000 && maxDelay <= 300000);
+        }
+    }
+
+    @Test
+    public void testServerTimeoutAdaptation() {
+        DefaultSyncPolicy syncPolicy = new DefaultSyncPolicy(null);
+
+        assertEquals(30000, syncPolicy.getServerTimeoutMs(30000));
+
+        // an early failure does not change the timeout
+        syncPolicy.onSyncFailed(30000, 1000);
+        assertEquals(30000, syncPolicy.getServerTimeoutMs(30000));
+
+        // the long polls are dropped before the server answers
+        syncPolicy.onSyncFailed(30000, 25000);
+        assertEquals(25000, syncPolicy.getServerTimeoutMs(30000));
+        syncPolicy.onSyncFailed(25000, 25000);
+        assertEquals(20000, syncPolicy.getServerTimeoutMs(30000));
+
+        // a short timeout is never reduced
+        assertEquals(0, syncPolicy.getServerTimeoutMs(0));
+
+        // a long poll reaches the server timeout
+        syncPolicy.onSyncSucceeded(20000, 20100, 100);
+        assertEquals(25000, syncPolicy.getServerTimeoutMs(30000));
+        syncPolicy.onSyncSucceeded(25000, 25100, 100);
+        assertEquals(30000, syncPolicy.getServerTimeoutMs(30000));
+    }
+
+    @Test
+    public void testSyncDelay() {
+        DefaultSyncPolicy syncPolicy = new DefaultSyncPolicy(null);
+
+        assertEquals(0, syncPolicy.getSyncDelayMs(0));
+        assertEquals(10000, syncPolicy.getSyncDelayMs(10000));
+    }
+
+    @Test
+    public void testStats() {
+        DefaultSyncPolicy syncPolicy = new DefaultSyncPolicy(null);
+
+        syncPolicy.onSyncSucceeded(30000, 100, 1000);
+        syncPolicy.onSyncSucceeded(30000, 300, 3000);
+        syncPolicy.onSyncFailed(30000, 50);
+
+        assertEquals(2, syncPolicy.getSyncsCount());
+        assertEquals(1, syncPolicy.getFailuresCount());
+        assertEquals(300, syncPolicy.getLastSyncLatencyMs());
+        assertEquals(200, syncPolicy.getAverageSyncLatencyMs());
+        assertEquals(3000, syncPolicy.getLastSyncPayloadBytes());
+        assertEquals(4000, syncPolicy.getTotalSyncPayloadBytes());
+        assertEquals(3000, syncPolicy.getMaxSyncPayloadBytes());
+    }
+}
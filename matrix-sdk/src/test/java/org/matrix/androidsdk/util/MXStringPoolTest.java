@@ -0,0 +1,175 @@
+/*
+ * Copyright 2017 Vector Creations Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.matrix.androidsdk.util;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.matrix.androidsdk.data.store.MXFileStoreCodec;
+import org.matrix.androidsdk.rest.model.Event;
+import org.matrix.androidsdk.rest.model.RoomMember;
+import org.robolectric.RobolectricTestRunner;
+
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+@RunWith(RobolectricTestRunner.class)
+public class MXStringPoolTest {
+
+    private static final String EVENT_JSON = "{'type': 'm.room.member', 'event_id': '$%d:matrix.org', 'room_id': '!room%d:matrix.org', "
+            + "'sender': '@user%d:matrix.org', 'state_key': '@user%d:matrix.org', 'origin_server_ts': %d, "
+            + "'content': {'membership': 'join', 'displayname': 'User %d', 'avatar_url': 'mxc://matrix.org/user%d'}}";
+
+    private static final String MESSAGE_JSON = "{'type': 'm.room.message', 'event_id': '$%d:matrix.org', 'room_id': '!room%d:matrix.org', "
+            + "'sender': '@user%d:matrix.org', 'origin_server_ts': %d, 'content': {'msgtype': 'm.text', 'body': 'Message %d'}}";
+
+    @Test
+    public void testIntern() {
+        String value = new String("!room:matrix.org");
+        String copy = new String("!room:matrix.org");
+
+        assertNotSame(value, copy);
+        assertSame(MXStringPool.intern(value), MXStringPool.intern(copy));
+        assertNull(MXStringPool.intern(null));
+    }
+
+    @Test
+    public void testDeserializedEventsShareStrings() throws Exception {
+        Gson gson = JsonUtils.getGson(false);
+
+        Event event1 = gson.fromJson(String.format(EVENT_JSON, 1, 1, 1, 1, 1, 1, 1), Event.class);
+        Event event2 = gson.fromJson(String.format(EVENT_JSON, 2, 1, 1, 1, 2, 1, 1), Event.class);
+
+        assertSame(event1.roomId, event2.roomId);
+        assertSame(event1.sender, event2.sender);
+        assertSame(event1.type, event2.type);
+
+        RoomMember member1 = JsonUtils.toRoomMember(event1.getContent());
+        RoomMember member2 = JsonUtils.toRoomMember(event2.getContent());
+        assertSame(member1.membership, member2.membership);
+        assertSame(member1.displayname, member2.displayname);
+
+        // the events read from the store files share the same strings
+        Event decodedEvent = (Event) MXFileStoreCodec.decode(MXFileStoreCodec.encode(event1));
+        assertSame(event1.roomId, decodedEvent.roomId);
+        assertSame(event1.sender, decodedEvent.sender);
+    }
+
+    /**
+     * Estimate the heap used by the low cardinality strings of a synthetic account, with and without the pool.
+     * The estimation does not depend on the JVM so the saved heap is asserted.
+     */
+    @Test
+    public void benchmarkAccountStringsHeap() {
+        final int roomsCount = 2000;
+        final int membersCount = 10;
+        final int messagesCount = 20;
+        final int usersCount = 500;
+
+        // the previous gson instance i.e. without the strings pool
+        Gson plainGson = new GsonBuilder()
+                .setFieldNamingStrategy(new JsonUtils.MatrixFieldNamingStrategy())
+                .excludeFieldsWithModifiers(Modifier.PRIVATE, Modifier.STATIC)
+                .create();
+
+        long plainBytes = 0;
+        long pooledBytes = 0;
+
+        // the rooms are processed by batches to limit the test memory
+        for (int batch = 0; batch < roomsCount; batch += 100) {
+            List<Object> plainObjects = new ArrayList<>();
+            List<Object> pooledObjects = new ArrayList<>();
+            int index = batch * (membersCount + messagesCount);
+
+            for (int room = batch; room < batch + 100; room++) {
+                for (int i = 0; i < membersCount; i++) {
+                    int user = (room + i * 37) % usersCount;
+                    String json = String.format(EVENT_JSON, index, room, user, user, index, user, user);
+                    index++;
+
+                    Event plainEvent = plainGson.fromJson(json, Event.class);
+                    plainObjects.add(plainEvent);
+                    plainObjects.add(plainGson.fromJson(plainEvent.getContent(), RoomMember.class));
+
+                    Event pooledEvent = JsonUtils.getGson(false).fromJson(json, Event.class);
+                    pooledObjects.add(pooledEvent);
+                    pooledObjects.add(JsonUtils.toRoomMember(pooledEvent.getContent()));
+                }
+
+                for (int i = 0; i < messagesCount; i++) {
+                    int user = (room + (i % membersCount) * 37) % usersCount;
+                    String json = String.format(MESSAGE_JSON, index, room, user, index, index);
+                    index++;
+
+                    plainObjects.add(plainGson.fromJson(json, Event.class));
+                    pooledObjects.add(JsonUtils.getGson(false).fromJson(json, Event.class));
+                }
+            }
+
+            plainBytes += stringsHeapSize(plainObjects);
+            pooledBytes += stringsHeapSize(pooledObjects);
+        }
+
+        // the pool saves more than 3/4 of the heap used by these strings
+        assertTrue("low cardinality strings " + (plainBytes / 1024) + " KB without pool - " + (pooledBytes / 1024) + " KB with pool",
+                pooledBytes * 4 < plainBytes);
+    }
+
+    /**
+     * Estimate the heap size of the distinct low cardinality strings instances used by some events and members.
+     * The strings instances already counted in the previous batches are not known so the pooled size is over estimated.
+     *
+     * @param objects the events and the members
+     * @return the estimated size in bytes
+     */
+    private static long stringsHeapSize(List<Object> objects) {
+        Map<String, Boolean> instances = new IdentityHashMap<>();
+
+        for (Object object : objects) {
+            if (object instanceof Event) {
+                Event event = (Event) object;
+                addInstances(instances, event.type, event.roomId, event.userId, event.sender, event.stateKey);
+            } else {
+                RoomMember member = (RoomMember) object;
+                addInstances(instances, member.membership, member.displayname, member.avatarUrl);
+            }
+        }
+
+        long size = 0;
+
+        for (String value : instances.keySet()) {
+            // String object (24 bytes) + char array (16 bytes header + 2 bytes per char)
+            size += 24 + 16 + 2 * value.length();
+        }
+
+        return size;
+    }
+
+    private static void addInstances(Map<String, Boolean> instances, String... values) {
+        for (String value : values) {
+            if (null != value) {
+                instances.put(value, true);
+            }
+        }
+    }
+}